@@ -0,0 +1,54 @@
+from org.gluu.oxtrust.service.external.type import BatchCacheRefreshType
+from org.gluu.util import StringHelper
+from java.util import ArrayList
+from java.lang import Boolean
+from org.gluu.oxtrust.model import GluuCustomAttribute
+
+import java
+
+class CacheRefresh(BatchCacheRefreshType):
+    def __init__(self, currentTimeMillis):
+        self.currentTimeMillis = currentTimeMillis
+
+    def init(self, configurationAttributes):
+        print "Cache refresh initialization"
+        print "Cache refresh initialized successfully"
+
+        return True   
+
+    def destroy(self, configurationAttributes):
+        print "Cache refresh destroy"
+        print "Cache refresh destroyed successfully"
+        return True   
+
+    # Update user entry before persist it. It's used if entry wasn't updated by updateUsers
+    #   user is org.gluu.oxtrust.model.GluuCustomPerson
+    #   configurationAttributes is java.util.Map<String, SimpleCustomProperty>
+    def updateUser(self, user, configurationAttributes):
+        attributes = user.getCustomAttributes()
+
+        # Add new attribute preferredLanguage
+        attrPrefferedLanguage = GluuCustomAttribute("preferredLanguage", "en-us")
+        attributes.add(attrPrefferedLanguage)
+
+        # Update givenName attribute
+        for attribute in attributes:
+            attrName = attribute.getName()
+            if (("givenname" == StringHelper.toLowerCase(attrName)) and StringHelper.isNotEmpty(attribute.getValue())):
+                attribute.setValue(StringHelper.removeMultipleSpaces(attribute.getValue()) + " (updated)")
+
+        return True
+
+    # Update chunk of user entries before persist them
+    #   users is java.util.List<org.gluu.oxtrust.model.GluuCustomPerson>
+    #   configurationAttributes is java.util.Map<String, SimpleCustomProperty>
+    # Returns java.util.List<Boolean> with result for each user
+    def updateUsers(self, users, configurationAttributes):
+        result = ArrayList(users.size())
+        for user in users:
+            result.add(Boolean(self.updateUser(user, configurationAttributes)))
+
+        return result
+
+    def getApiVersion(self):
+        return 1
@@ -0,0 +1,53 @@
+/*
+ * oxTrust is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2014, Gluu
+ */
+
+package org.gluu.oxtrust.model;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Positions of custom attributes in list by lower case name. It's owned by
+ * CustomAttributesList which drops it on list modification
+ */
+final class CustomAttributesIndex {
+
+	private final Map<String, Integer> positions;
+
+	CustomAttributesIndex(List<GluuCustomAttribute> customAttributes) {
+		int size = customAttributes.size();
+		this.positions = new HashMap<String, Integer>(size * 2);
+
+		for (int i = 0; i < size; i++) {
+			String name = customAttributes.get(i).getName();
+			if (name == null) {
+				continue;
+			}
+
+			// Linear search returned first attribute with this name
+			String key = toKey(name);
+			if (!positions.containsKey(key)) {
+				positions.put(key, i);
+			}
+		}
+	}
+
+	/**
+	 * Returns position of attribute or -1 if there is no such attribute
+	 */
+	int indexOf(String attributeName) {
+		Integer position = positions.get(toKey(attributeName));
+
+		return position == null ? -1 : position;
+	}
+
+	private static String toKey(String attributeName) {
+		return attributeName.toLowerCase(Locale.ROOT);
+	}
+
+}
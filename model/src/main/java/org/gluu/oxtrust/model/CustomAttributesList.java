@@ -0,0 +1,145 @@
+/*
+ * oxTrust is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2014, Gluu
+ */
+
+package org.gluu.oxtrust.model;
+
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.RandomAccess;
+
+import org.gluu.util.StringHelper;
+
+/**
+ * List of custom attributes with lazily built index of attribute positions by
+ * name. It's a view of wrapped list. Index is dropped on each modification
+ * made via this list, its iterators or sub lists. Wrapped list can be changed
+ * via other references and attributes can be renamed in place, so each index
+ * result is verified against list. Index is not persisted
+ */
+public class CustomAttributesList extends AbstractList<GluuCustomAttribute> implements RandomAccess, Serializable {
+
+	private static final long serialVersionUID = -4426893524716152811L;
+
+	private final List<GluuCustomAttribute> customAttributes;
+
+	private transient CustomAttributesIndex index;
+
+	public CustomAttributesList() {
+		this.customAttributes = new ArrayList<GluuCustomAttribute>();
+	}
+
+	private CustomAttributesList(List<GluuCustomAttribute> customAttributes) {
+		this.customAttributes = customAttributes;
+	}
+
+	/**
+	 * Wraps list without copying it. Returns list itself if it's already
+	 * indexed list
+	 */
+	public static List<GluuCustomAttribute> wrap(List<GluuCustomAttribute> customAttributes) {
+		if ((customAttributes == null) || (customAttributes instanceof CustomAttributesList)) {
+			return customAttributes;
+		}
+
+		return new CustomAttributesList(customAttributes);
+	}
+
+	/**
+	 * Returns position of first attribute with specified name ignoring case or
+	 * -1 if there is no such attribute. Index hit is checked by name, miss is
+	 * confirmed by scan. Index is rebuilt on next call if it was stale
+	 */
+	public int indexOfName(String attributeName) {
+		CustomAttributesIndex currentIndex = this.index;
+		if (currentIndex == null) {
+			currentIndex = new CustomAttributesIndex(customAttributes);
+			this.index = currentIndex;
+		}
+
+		int idx = currentIndex.indexOf(attributeName);
+		if ((idx >= 0) && (idx < customAttributes.size()) && isNameAt(idx, attributeName)) {
+			return idx;
+		}
+
+		for (int i = 0; i < customAttributes.size(); i++) {
+			if (isNameAt(i, attributeName)) {
+				invalidateIndex();
+				return i;
+			}
+		}
+
+		if (idx >= 0) {
+			invalidateIndex();
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Drops index. Next lookup rebuilds it
+	 */
+	public void invalidateIndex() {
+		this.index = null;
+	}
+
+	private boolean isNameAt(int idx, String attributeName) {
+		return StringHelper.equalsIgnoreCase(customAttributes.get(idx).getName(), attributeName);
+	}
+
+	@Override
+	public GluuCustomAttribute get(int index) {
+		return customAttributes.get(index);
+	}
+
+	@Override
+	public int size() {
+		return customAttributes.size();
+	}
+
+	@Override
+	public GluuCustomAttribute set(int index, GluuCustomAttribute element) {
+		GluuCustomAttribute result = customAttributes.set(index, element);
+		invalidateIndex();
+
+		return result;
+	}
+
+	@Override
+	public void add(int index, GluuCustomAttribute element) {
+		customAttributes.add(index, element);
+		invalidateIndex();
+		modCount++;
+	}
+
+	@Override
+	public GluuCustomAttribute remove(int index) {
+		GluuCustomAttribute result = customAttributes.remove(index);
+		invalidateIndex();
+		modCount++;
+
+		return result;
+	}
+
+	@Override
+	public boolean addAll(Collection<? extends GluuCustomAttribute> c) {
+		boolean result = customAttributes.addAll(c);
+		invalidateIndex();
+		modCount++;
+
+		return result;
+	}
+
+	@Override
+	public void clear() {
+		customAttributes.clear();
+		invalidateIndex();
+		modCount++;
+	}
+
+}
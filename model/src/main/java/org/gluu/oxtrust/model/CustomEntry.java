@@ -39,33 +39,15 @@ public abstract class CustomEntry extends Entry implements Serializable, Cloneab
 	}
 
 	public String[] getAttributes(String attributeName) {
-		if (StringHelper.isEmpty(attributeName)) {
-			return null;
-		}
+		GluuCustomAttribute attribute = findCustomAttribute(attributeName);
 
-		String[] values = null;
-		for (GluuCustomAttribute attribute : getCustomAttributes()) {
-			if (StringHelper.equalsIgnoreCase(attribute.getName(), attributeName)) {
-				values = attribute.getValues();
-				break;
-			}
-		}
-		return values;
+		return attribute == null ? null : attribute.getValues();
 	}
 
 	public String getAttribute(String attributeName) {
-		if (StringHelper.isEmpty(attributeName)) {
-			return null;
-		}
+		GluuCustomAttribute attribute = findCustomAttribute(attributeName);
 
-		String value = null;
-		for (GluuCustomAttribute attribute : getCustomAttributes()) {
-			if (StringHelper.equalsIgnoreCase(attribute.getName(), attributeName)) {
-				value = attribute.getValue();
-				break;
-			}
-		}
-		return value;
+		return attribute == null ? null : attribute.getValue();
 	}
 
 	public String getAttribute(String attributeName, String defaultValue) {
@@ -91,6 +73,39 @@ public abstract class CustomEntry extends Entry implements Serializable, Cloneab
 		customAttributes.add(attribute);
 	}
 
+	/**
+	 * Returns first custom attribute with specified name ignoring case
+	 */
+	protected GluuCustomAttribute findCustomAttribute(String attributeName) {
+		int idx = indexOfCustomAttribute(attributeName);
+
+		return idx < 0 ? null : getCustomAttributes().get(idx);
+	}
+
+	/**
+	 * Returns position of first custom attribute with specified name ignoring
+	 * case or -1 if there is no such attribute. Indexed lists find existing
+	 * attributes in O(1), other lists are scanned
+	 */
+	protected int indexOfCustomAttribute(String attributeName) {
+		List<GluuCustomAttribute> customAttributes = getCustomAttributes();
+		if (StringHelper.isEmpty(attributeName) || (customAttributes == null)) {
+			return -1;
+		}
+
+		if (!(customAttributes instanceof CustomAttributesList)) {
+			for (int i = 0; i < customAttributes.size(); i++) {
+				if (StringHelper.equalsIgnoreCase(customAttributes.get(i).getName(), attributeName)) {
+					return i;
+				}
+			}
+
+			return -1;
+		}
+
+		return ((CustomAttributesList) customAttributes).indexOfName(attributeName);
+	}
+
 	@Override
 	public String toString() {
 		return String.format("CustomEntry [customAttributes=%s, customObjectClasses=%s, toString()=%s]", getCustomAttributes(),
@@ -153,14 +153,12 @@ public class GluuCustomPerson extends User
     }
 
     public List<String> getMemberOf() {
-        String[] value = {};
-        for (GluuCustomAttribute attribute : customAttributes) {
-            if (attribute.getName().equalsIgnoreCase("memberOf")) {
-                value = attribute.getValues();
-                break;
-            }
+        GluuCustomAttribute attribute = findCustomAttribute("memberOf");
+        if (attribute == null) {
+            return Arrays.asList(new String[0]);
         }
-        return Arrays.asList(value);
+
+        return Arrays.asList(attribute.getValues());
     }
 
     public void setMemberOf(List<String> value) {
@@ -192,37 +190,21 @@ public class GluuCustomPerson extends User
     }
 
     public int getAttributeIndex(String attributeName) {
-        int idx = 0;
-        for (GluuCustomAttribute attribute : customAttributes) {
-            if (attribute.getName().equalsIgnoreCase(attributeName)) {
-                return idx;
-            }
-            idx++;
-        }
+        int idx = indexOfCustomAttribute(attributeName);
 
-        return idx;
+        return idx < 0 ? customAttributes.size() : idx;
     }
 
     public String getAttribute(String attributeName) {
-        String value = null;
-        for (GluuCustomAttribute attribute : customAttributes) {
-            if (attribute.getName().equalsIgnoreCase(attributeName)) {
-                value = attribute.getValue();
-                break;
-            }
-        }
-        return value;
+        GluuCustomAttribute attribute = findCustomAttribute(attributeName);
+
+        return attribute == null ? null : attribute.getValue();
     }
     
     public String[] getAttributeValues(String attributeName) {
-        String[] value = null;
-        for (GluuCustomAttribute attribute : customAttributes) {
-            if (attribute.getName().equalsIgnoreCase(attributeName)) {
-                value = attribute.getValues();
-                break;
-            }
-        }
-        return value;
+        GluuCustomAttribute attribute = findCustomAttribute(attributeName);
+
+        return attribute == null ? null : attribute.getValues();
     }
 
     public String[] getAttributeArray(String attributeName) {
@@ -236,27 +218,15 @@ public class GluuCustomPerson extends User
     }
 
     public GluuCustomAttribute getGluuCustomAttribute(String attributeName) {
-        for (GluuCustomAttribute gluuCustomAttribute : customAttributes) {
-            if (gluuCustomAttribute.getName().equalsIgnoreCase(attributeName)) {
-                return gluuCustomAttribute;
-            }
-        }
-
-        return null;
+        return findCustomAttribute(attributeName);
     }
 
     public void setAttribute(String attributeName, String attributeValue) {
-        GluuCustomAttribute attribute = new GluuCustomAttribute(attributeName, 
-                                                                attributeValue);
-        customAttributes.remove(attribute);
-        customAttributes.add(attribute);
+        setAttribute(new GluuCustomAttribute(attributeName, attributeValue));
     }
 
     public void setAttribute(String attributeName, String[] attributeValue) {
-        GluuCustomAttribute attribute = new GluuCustomAttribute(attributeName, 
-                                                                attributeValue);
-        customAttributes.remove(attribute);
-        customAttributes.add(attribute);
+        setAttribute(new GluuCustomAttribute(attributeName, attributeValue));
     }
 
     public void removeAttribute(String attributeName) {
@@ -7,7 +7,6 @@
 package org.gluu.oxtrust.model;
 
 import java.io.Serializable;
-import java.util.ArrayList;
 import java.util.List;
 
 import org.gluu.persist.annotation.AttributeName;
@@ -31,14 +30,14 @@ public class OxAuthCustomClient extends CustomEntry implements Serializable {
 	@AttributesList(name = "name", value = "values", sortByName = true, attributesConfiguration = {
 			@AttributeName(name = "inum", ignoreDuringUpdate = true),
 			@AttributeName(name = "userPassword", ignoreDuringRead = true) })
-	private List<GluuCustomAttribute> customAttributes = new ArrayList<GluuCustomAttribute>();
+	private List<GluuCustomAttribute> customAttributes = new CustomAttributesList();
 
 	public List<GluuCustomAttribute> getCustomAttributes() {
 		return customAttributes;
 	}
 
 	public void setCustomAttributes(List<GluuCustomAttribute> customAttributes) {
-		this.customAttributes = customAttributes;
+		this.customAttributes = CustomAttributesList.wrap(customAttributes);
 	}
 
 	public String getInum() {
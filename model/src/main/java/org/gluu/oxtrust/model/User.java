@@ -7,7 +7,6 @@
 package org.gluu.oxtrust.model;
 
 import java.io.Serializable;
-import java.util.ArrayList;
 import java.util.List;
 
 import org.gluu.persist.annotation.AttributeName;
@@ -29,14 +28,14 @@ public class User extends CustomEntry implements Serializable, Cloneable {
 	@AttributesList(name = "name", value = "values", sortByName = true, attributesConfiguration = {
 			 @AttributeName(name = "inum", ignoreDuringUpdate = true),
 			@AttributeName(name = "uid", ignoreDuringUpdate = false), @AttributeName(name = "userPassword", ignoreDuringRead = true) })
-	protected List<GluuCustomAttribute> customAttributes = new ArrayList<GluuCustomAttribute>();
+	protected List<GluuCustomAttribute> customAttributes = new CustomAttributesList();
 
 	public List<GluuCustomAttribute> getCustomAttributes() {
 		return customAttributes;
 	}
 
 	public void setCustomAttributes(List<GluuCustomAttribute> customAttributes) {
-		this.customAttributes = customAttributes;
+		this.customAttributes = CustomAttributesList.wrap(customAttributes);
 	}
 
 	public String getInum() {
@@ -7,50 +7,75 @@
 package org.gluu.oxtrust.model.table;
 
 import java.io.Serializable;
-import java.util.HashMap;
+import java.util.Arrays;
 
 /**
- * Table
+ * Table. Values are stored by columns without boxing cell coordinates
  * 
  * @author Yuriy Movchan Date: 02.15.2010
  */
 public class Table implements Serializable {
 
-	private static final long serialVersionUID = 2766629412918360302L;
+	private static final long serialVersionUID = -3021483207541964093L;
 
-	private HashMap<Integer, HashMap<Integer, Cell>> cells = new HashMap<Integer, HashMap<Integer, Cell>>();
+	private static final int INITIAL_ROWS = 16;
+
+	private String[][] columns = new String[0][];
 	private int countCols = -1, countRows = -1;
 
 	public String getCellValue(int col, int row) {
-		HashMap<Integer, Cell> rows = cells.get(col);
-		if (rows == null) {
+		if ((col < 0) || (col >= columns.length)) {
 			return "";
 		}
 
-		Cell cell = rows.get(row);
-		if (cell == null) {
+		String[] values = columns[col];
+		if ((values == null) || (row < 0) || (row >= values.length) || (values[row] == null)) {
 			return "";
 		}
 
-		return cell.getValue();
+		return values[row];
 	}
 
 	public void addCell(Cell cell) {
-		int col = cell.getCol();
-		int row = cell.getRow();
+		setCellValue(cell.getCol(), cell.getRow(), cell.getValue());
+	}
 
-		HashMap<Integer, Cell> rows = this.cells.get(col);
-		if (rows == null) {
-			rows = new HashMap<Integer, Cell>();
-			cells.put(col, rows);
+	public void setCellValue(int col, int row, String value) {
+		if (col >= columns.length) {
+			columns = Arrays.copyOf(columns, Math.max(col + 1, columns.length * 2));
 		}
 
-		rows.put(row, cell);
+		String[] values = columns[col];
+		if (values == null) {
+			values = new String[Math.max(row + 1, INITIAL_ROWS)];
+			columns[col] = values;
+		} else if (row >= values.length) {
+			values = Arrays.copyOf(values, Math.max(row + 1, values.length + (values.length >> 1)));
+			columns[col] = values;
+		}
+
+		values[row] = value;
 
 		this.countCols = Math.max(this.countCols, col);
 		this.countRows = Math.max(this.countRows, row);
 	}
 
+	/**
+	 * Releases space reserved for rows which weren't added
+	 */
+	public void trimToSize() {
+		if (columns.length > countCols + 1) {
+			columns = Arrays.copyOf(columns, countCols + 1);
+		}
+
+		for (int col = 0; col < columns.length; col++) {
+			String[] values = columns[col];
+			if ((values != null) && (values.length > countRows + 1)) {
+				columns[col] = Arrays.copyOf(values, countRows + 1);
+			}
+		}
+	}
+
 	public int getCountCols() {
 		return countCols;
 	}
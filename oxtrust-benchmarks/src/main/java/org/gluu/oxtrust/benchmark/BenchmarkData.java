@@ -0,0 +1,91 @@
+/*
+ * oxTrust is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2014, Gluu
+ */
+
+package org.gluu.oxtrust.benchmark;
+
+import java.lang.reflect.Field;
+import java.util.Random;
+
+import org.gluu.oxtrust.ldap.cache.service.InumHashCodeMap;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Synthetic data generators for benchmarks. Generators use fixed seed, so all
+ * runs work with the same data
+ */
+public final class BenchmarkData {
+
+	private static final long SEED = 0x5EEDL;
+
+	private BenchmarkData() {
+	}
+
+	public static Random random() {
+		return new Random(SEED);
+	}
+
+	public static String inum(Random random) {
+		return String.format("%08x-%04x-%04x-%04x-%012x", random.nextInt(), random.nextInt(0x10000),
+				random.nextInt(0x10000), random.nextInt(0x10000), random.nextLong() & 0xFFFFFFFFFFFFL);
+	}
+
+	public static String[] inums(Random random, int count) {
+		String[] result = new String[count];
+		for (int i = 0; i < count; i++) {
+			result[i] = inum(random);
+		}
+
+		return result;
+	}
+
+	/**
+	 * Multi-valued attribute values, e.g. mail aliases of user
+	 */
+	public static String[] values(Random random, String prefix, int count) {
+		String[] result = new String[count];
+		for (int i = 0; i < count; i++) {
+			result[i] = prefix + random.nextInt(1000000) + "@example.com";
+		}
+
+		return result;
+	}
+
+	public static InumHashCodeMap inumHashCodeMap(String[] inums, Random random) {
+		InumHashCodeMap result = new InumHashCodeMap(inums.length);
+		for (String inum : inums) {
+			result.put(inum, random.nextLong());
+		}
+
+		return result;
+	}
+
+	/**
+	 * Sets logger and other dependencies of CDI beans created without container
+	 */
+	public static <T> T inject(T bean, String fieldName, Object value) {
+		Class<?> clazz = bean.getClass();
+		while (clazz != null) {
+			try {
+				Field field = clazz.getDeclaredField(fieldName);
+				field.setAccessible(true);
+				field.set(bean, value);
+
+				return bean;
+			} catch (NoSuchFieldException ex) {
+				clazz = clazz.getSuperclass();
+			} catch (IllegalAccessException ex) {
+				throw new IllegalStateException(String.format("Failed to set field '%s'", fieldName), ex);
+			}
+		}
+
+		throw new IllegalArgumentException(String.format("There is no field '%s' in '%s'", fieldName, bean.getClass()));
+	}
+
+	public static <T> T injectLogger(T bean) {
+		return inject(bean, "log", LoggerFactory.getLogger(bean.getClass()));
+	}
+
+}
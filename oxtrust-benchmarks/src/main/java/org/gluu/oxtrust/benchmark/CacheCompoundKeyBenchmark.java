@@ -0,0 +1,101 @@
+/*
+ * oxTrust is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2014, Gluu
+ */
+
+package org.gluu.oxtrust.benchmark;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.gluu.oxtrust.ldap.cache.model.CacheCompoundKey;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Compound key index build and lookup as Cache Refresh does with source entries
+ * and inum entries
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CacheCompoundKeyBenchmark {
+
+	@Param({ "10000", "100000" })
+	private int count;
+
+	@Param({ "1", "3" })
+	private int valuesCount;
+
+	private List<CacheCompoundKey> keys;
+	private List<CacheCompoundKey> shuffledKeys;
+	private Map<CacheCompoundKey, Integer> index;
+
+	@Setup
+	public void setup() {
+		Random random = BenchmarkData.random();
+
+		this.keys = new ArrayList<CacheCompoundKey>(count);
+		this.shuffledKeys = new ArrayList<CacheCompoundKey>(count);
+		for (int i = 0; i < count; i++) {
+			String[] primaryKeyValues = BenchmarkData.values(random, "uid", valuesCount);
+			String[] secondaryKeyValues = BenchmarkData.values(random, "mail", valuesCount);
+			keys.add(new CacheCompoundKey(primaryKeyValues, secondaryKeyValues, null));
+
+			// Same values in other order, as they might come from other server
+			String[] reversedPrimaryKeyValues = primaryKeyValues.clone();
+			Collections.reverse(Arrays.asList(reversedPrimaryKeyValues));
+			shuffledKeys.add(new CacheCompoundKey(reversedPrimaryKeyValues, secondaryKeyValues.clone(), null));
+		}
+		Collections.shuffle(shuffledKeys, random);
+
+		this.index = buildIndex();
+	}
+
+	@Benchmark
+	public Map<CacheCompoundKey, Integer> buildIndex() {
+		Map<CacheCompoundKey, Integer> result = new HashMap<CacheCompoundKey, Integer>(count * 2);
+		for (int i = 0; i < keys.size(); i++) {
+			result.put(keys.get(i), i);
+		}
+
+		return result;
+	}
+
+	@Benchmark
+	public void lookup(Blackhole blackhole) {
+		for (CacheCompoundKey key : shuffledKeys) {
+			blackhole.consume(index.get(key));
+		}
+	}
+
+	@Benchmark
+	public void equalsAndHashCode(Blackhole blackhole) {
+		for (int i = 0; i < keys.size(); i++) {
+			CacheCompoundKey key = keys.get(i);
+			blackhole.consume(key.hashCode());
+			blackhole.consume(key.equals(shuffledKeys.get(i)));
+		}
+	}
+
+}
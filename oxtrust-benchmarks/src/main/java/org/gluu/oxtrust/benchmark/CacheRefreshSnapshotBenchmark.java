@@ -0,0 +1,122 @@
+/*
+ * oxTrust is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2014, Gluu
+ */
+
+package org.gluu.oxtrust.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.gluu.config.oxtrust.CacheRefreshConfiguration;
+import org.gluu.oxtrust.ldap.cache.service.CacheRefreshFingerprintAlgorithm;
+import org.gluu.oxtrust.ldap.cache.service.CacheRefreshSnapshot;
+import org.gluu.oxtrust.ldap.cache.service.CacheRefreshSnapshotDiff;
+import org.gluu.oxtrust.ldap.cache.service.CacheRefreshSnapshotFileService;
+import org.gluu.oxtrust.ldap.cache.service.InumHashCodeMap;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Snapshot write, read and comparison of two snapshots with small part of
+ * changed entries
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CacheRefreshSnapshotBenchmark {
+
+	@Param({ "100000", "1000000" })
+	private int count;
+
+	@Param({ "1" })
+	private int changedPercent;
+
+	private File snapshotFolder;
+	private CacheRefreshConfiguration cacheRefreshConfiguration;
+	private CacheRefreshSnapshotFileService cacheRefreshSnapshotFileService;
+
+	private CacheRefreshSnapshot prevSnapshot;
+	private CacheRefreshSnapshot currSnapshot;
+
+	@Setup
+	public void setup() throws IOException {
+		this.snapshotFolder = Files.createTempDirectory("oxtrust-snapshots").toFile();
+		this.cacheRefreshConfiguration = new CacheRefreshConfiguration();
+		cacheRefreshConfiguration.setSnapshotFolder(snapshotFolder.getAbsolutePath());
+
+		this.cacheRefreshSnapshotFileService = BenchmarkData.injectLogger(new CacheRefreshSnapshotFileService());
+		cacheRefreshSnapshotFileService.prepareSnapshotsFolder(cacheRefreshConfiguration);
+
+		Random random = BenchmarkData.random();
+		String[] inums = BenchmarkData.inums(random, count);
+		InumHashCodeMap prevMap = BenchmarkData.inumHashCodeMap(inums, random);
+
+		// Change fingerprints of some entries and replace some inums with new ones
+		InumHashCodeMap currMap = new InumHashCodeMap(count);
+		currMap.putAll(prevMap);
+		int changedCount = count * changedPercent / 100;
+		for (int i = 0; i < changedCount; i++) {
+			currMap.put(inums[random.nextInt(count)], random.nextLong());
+			currMap.put(BenchmarkData.inum(random), random.nextLong());
+		}
+
+		this.prevSnapshot = CacheRefreshSnapshot.create(prevMap, CacheRefreshFingerprintAlgorithm.FNV1A_64);
+		this.currSnapshot = CacheRefreshSnapshot.create(currMap, CacheRefreshFingerprintAlgorithm.FNV1A_64);
+
+		cacheRefreshSnapshotFileService.createSnapshot(cacheRefreshConfiguration, prevSnapshot);
+	}
+
+	@TearDown
+	public void tearDown() {
+		FileUtils.deleteQuietly(snapshotFolder);
+	}
+
+	@Benchmark
+	public boolean writeSnapshot() {
+		return cacheRefreshSnapshotFileService.createSnapshot(cacheRefreshConfiguration, currSnapshot);
+	}
+
+	@Benchmark
+	public long readLastSnapshot() {
+		CacheRefreshSnapshot snapshot = cacheRefreshSnapshotFileService.readLastSnapshot(cacheRefreshConfiguration);
+
+		// Touch last record to make sure that mapped data is available
+		return snapshot.getHashCode(snapshot.size() - 1);
+	}
+
+	/**
+	 * Same work as Cache Refresh does to build list of changed inums
+	 */
+	@Benchmark
+	public Set<String> changedInums() {
+		CacheRefreshSnapshotDiff snapshotDiff = currSnapshot.diff(prevSnapshot);
+
+		Set<String> changedInums = new HashSet<String>(snapshotDiff.getAddedInums());
+		changedInums.addAll(snapshotDiff.getChangedInums());
+		changedInums.addAll(snapshotDiff.getRemovedInums());
+
+		return changedInums;
+	}
+
+}
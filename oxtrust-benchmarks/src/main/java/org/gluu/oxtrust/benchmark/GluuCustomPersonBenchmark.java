@@ -0,0 +1,74 @@
+/*
+ * oxTrust is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2014, Gluu
+ */
+
+package org.gluu.oxtrust.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.gluu.oxtrust.model.GluuCustomPerson;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Attribute lookups by name in person with many custom attributes
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class GluuCustomPersonBenchmark {
+
+	@Param({ "10", "50" })
+	private int attributesCount;
+
+	private GluuCustomPerson person;
+	private String[] lookupNames;
+
+	@Setup
+	public void setup() {
+		Random random = BenchmarkData.random();
+
+		this.person = new GluuCustomPerson();
+		for (int i = 0; i < attributesCount; i++) {
+			person.setAttribute("attribute" + i, BenchmarkData.values(random, "value", 1 + random.nextInt(3)));
+		}
+
+		// Mix of existing attributes in other case and missing ones
+		this.lookupNames = new String[16];
+		for (int i = 0; i < lookupNames.length; i++) {
+			int index = random.nextInt(attributesCount * 2);
+			lookupNames[i] = (i % 2 == 0) ? "ATTRIBUTE" + index : "attribute" + index;
+		}
+	}
+
+	@Benchmark
+	public void getAttribute(Blackhole blackhole) {
+		for (String lookupName : lookupNames) {
+			blackhole.consume(person.getAttribute(lookupName));
+		}
+	}
+
+	@Benchmark
+	public void getAttributeValues(Blackhole blackhole) {
+		for (String lookupName : lookupNames) {
+			blackhole.consume(person.getAttributeValues(lookupName));
+		}
+	}
+
+}
@@ -0,0 +1,86 @@
+/*
+ * oxTrust is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2014, Gluu
+ */
+
+package org.gluu.oxtrust.benchmark;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.gluu.model.metric.counter.CounterMetricData;
+import org.gluu.model.metric.counter.CounterMetricEntry;
+import org.gluu.oxtrust.service.MetricService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Authentication chart statistics calculation from counter metric entries
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class MetricServiceBenchmark {
+
+	@Param({ "30", "365" })
+	private int countDays;
+
+	// Metric reporter interval is 1 minute by default
+	@Param({ "60" })
+	private int entriesPerDay;
+
+	private MetricService metricService;
+	private Method calculateCounterStatistics;
+	private List<CounterMetricEntry> metrics;
+
+	@Setup
+	public void setup() throws ReflectiveOperationException {
+		this.metricService = BenchmarkData.injectLogger(new MetricService());
+		this.calculateCounterStatistics = MetricService.class.getDeclaredMethod("calculateCounterStatistics", int.class,
+				List.class);
+		calculateCounterStatistics.setAccessible(true);
+
+		// Counter grows without server restarts, so calculation doesn't change entries
+		Random random = BenchmarkData.random();
+		Calendar calendar = Calendar.getInstance();
+		calendar.add(Calendar.DATE, -countDays);
+
+		this.metrics = new ArrayList<CounterMetricEntry>(countDays * entriesPerDay);
+		long count = 0;
+		for (int i = 0; i < countDays * entriesPerDay; i++) {
+			calendar.add(Calendar.MINUTE, 24 * 60 / entriesPerDay);
+			count += random.nextInt(100);
+
+			CounterMetricData metricData = new CounterMetricData();
+			metricData.setCount(count);
+
+			CounterMetricEntry metric = new CounterMetricEntry();
+			metric.setCreationDate(calendar.getTime());
+			metric.setMetricData(metricData);
+			metrics.add(metric);
+		}
+	}
+
+	@Benchmark
+	public Object calculateCounterStatistics() throws ReflectiveOperationException {
+		return calculateCounterStatistics.invoke(metricService, countDays, metrics);
+	}
+
+}
@@ -0,0 +1,82 @@
+/*
+ * oxTrust is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2014, Gluu
+ */
+
+package org.gluu.oxtrust.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.gluu.oxtrust.model.table.Cell;
+import org.gluu.oxtrust.model.table.Table;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Table fill and row by row read as person import does
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class TableBenchmark {
+
+	@Param({ "10000", "100000" })
+	private int rows;
+
+	@Param({ "10" })
+	private int cols;
+
+	private String[][] values;
+	private Table table;
+
+	@Setup
+	public void setup() {
+		Random random = BenchmarkData.random();
+
+		this.values = new String[rows][cols];
+		for (int row = 0; row < rows; row++) {
+			for (int col = 0; col < cols; col++) {
+				values[row][col] = Integer.toString(random.nextInt());
+			}
+		}
+
+		this.table = fillTable();
+	}
+
+	@Benchmark
+	public Table fillTable() {
+		Table result = new Table();
+		for (int row = 0; row < rows; row++) {
+			for (int col = 0; col < cols; col++) {
+				result.addCell(new Cell(col, row, values[row][col]));
+			}
+		}
+
+		return result;
+	}
+
+	@Benchmark
+	public void readRows(Blackhole blackhole) {
+		for (int row = 0; row <= table.getCountRows(); row++) {
+			for (int col = 0; col <= table.getCountCols(); col++) {
+				blackhole.consume(table.getCellValue(col, row));
+			}
+		}
+	}
+
+}
@@ -0,0 +1,106 @@
+/*
+ * oxTrust is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2014, Gluu
+ */
+
+package org.gluu.oxtrust.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.velocity.VelocityContext;
+import org.apache.velocity.app.Velocity;
+import org.gluu.oxtrust.service.TemplateService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Velocity rendering of configuration file similar to Shibboleth metadata
+ * providers and relying party templates
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class TemplateServiceBenchmark {
+
+	private static final String TEMPLATE_NAME = "benchmark.xml";
+
+	private static final String TEMPLATE = "<MetadataProviders>\n"
+			+ "#foreach( $trustRelationship in $trustRelationships )\n"
+			+ "    <MetadataProvider id=\"$trustRelationship.id\" entityId=\"$trustRelationship.entityId\">\n"
+			+ "#foreach( $attribute in $trustRelationship.attributes )\n"
+			+ "        <Attribute name=\"$attribute\" />\n"
+			+ "#end\n"
+			+ "    </MetadataProvider>\n"
+			+ "#end\n"
+			+ "</MetadataProviders>\n";
+
+	@Param({ "10", "500" })
+	private int trustRelationshipsCount;
+
+	private File templatesFolder;
+	private TemplateService templateService;
+	private List<Map<String, Object>> trustRelationships;
+
+	@Setup
+	public void setup() throws IOException {
+		this.templatesFolder = Files.createTempDirectory("oxtrust-templates").toFile();
+		FileUtils.writeStringToFile(new File(templatesFolder, TEMPLATE_NAME + ".vm"), TEMPLATE, StandardCharsets.UTF_8);
+
+		Properties properties = new Properties();
+		properties.setProperty("resource.loader", "file");
+		properties.setProperty("file.resource.loader.path", templatesFolder.getAbsolutePath());
+		properties.setProperty("file.resource.loader.cache", "true");
+		Velocity.init(properties);
+
+		this.templateService = BenchmarkData.injectLogger(new TemplateService());
+
+		Random random = BenchmarkData.random();
+		this.trustRelationships = new ArrayList<Map<String, Object>>(trustRelationshipsCount);
+		for (int i = 0; i < trustRelationshipsCount; i++) {
+			Map<String, Object> trustRelationship = new LinkedHashMap<String, Object>();
+			trustRelationship.put("id", BenchmarkData.inum(random));
+			trustRelationship.put("entityId", "https://sp" + i + ".example.com/shibboleth");
+			trustRelationship.put("attributes", BenchmarkData.values(random, "attribute", 10));
+			trustRelationships.add(trustRelationship);
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		FileUtils.deleteQuietly(templatesFolder);
+	}
+
+	@Benchmark
+	public String generateConfFile() {
+		VelocityContext context = new VelocityContext();
+		context.put("trustRelationships", trustRelationships);
+
+		return templateService.generateConfFile(TEMPLATE_NAME, context);
+	}
+
+}
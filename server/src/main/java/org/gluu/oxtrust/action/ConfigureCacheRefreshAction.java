@@ -33,7 +33,9 @@ import org.gluu.jsf2.service.ConversationService;
 import org.gluu.model.SimpleCustomProperty;
 import org.gluu.model.SimpleProperty;
 import org.gluu.model.ldap.GluuLdapConfiguration;
+import org.gluu.oxtrust.ldap.cache.model.CacheRefreshRunMetrics;
 import org.gluu.oxtrust.ldap.cache.model.GluuSimplePerson;
+import org.gluu.oxtrust.ldap.cache.service.CacheRefreshMetricsService;
 import org.gluu.oxtrust.ldap.cache.service.CacheRefreshService;
 import org.gluu.oxtrust.ldap.cache.service.CacheRefreshUpdateMethod;
 import org.gluu.oxtrust.model.GluuConfiguration;
@@ -97,6 +99,9 @@ public class ConfigureCacheRefreshAction
 	@Inject
 	private CacheRefreshService cacheRefreshService;
 
+	@Inject
+	private CacheRefreshMetricsService cacheRefreshMetricsService;
+
 	@Inject
 	private OxTrustAuditService oxTrustAuditService;
 
@@ -407,6 +412,14 @@ public class ConfigureCacheRefreshAction
 		return CacheRefreshUpdateMethod.values();
 	}
 
+	public List<CacheRefreshRunMetrics> getRunMetricsHistory() {
+		return cacheRefreshMetricsService.getHistory();
+	}
+
+	public CacheRefreshRunMetrics getLastRunMetrics() {
+		return cacheRefreshMetricsService.getLastRun();
+	}
+
 	public void validateInterceptorScript() {
 		String result = update();
 		if (!OxTrustConstants.RESULT_SUCCESS.equals(result)) {
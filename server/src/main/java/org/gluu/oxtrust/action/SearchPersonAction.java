@@ -6,17 +6,28 @@
 
 package org.gluu.oxtrust.action;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.Serializable;
-import java.util.List;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 
 import javax.enterprise.context.ConversationScoped;
 import javax.faces.application.FacesMessage;
+import javax.faces.context.FacesContext;
 import javax.inject.Inject;
 import javax.inject.Named;
+import javax.servlet.http.HttpServletResponse;
 
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
 import org.gluu.jsf2.message.FacesMessages;
 import org.gluu.jsf2.service.ConversationService;
 import org.gluu.oxtrust.model.GluuCustomPerson;
+import org.gluu.oxtrust.model.PersonLazyDataModel;
+import org.gluu.oxtrust.model.PersonLazyDataModel.PersonHandler;
 import org.gluu.oxtrust.service.PersonService;
 import org.gluu.oxtrust.util.OxTrustConstants;
 import org.gluu.service.security.Secure;
@@ -35,6 +46,11 @@ public class SearchPersonAction implements Serializable {
 
 	private static final long serialVersionUID = -4672682869487324438L;
 
+	private static final String[] EXPORT_HEADERS = new String[] { "Username", "Display Name", "First Name",
+			"Group Count", "Email", "Status" };
+
+	private static final int EXPORT_ROWS_IN_MEMORY = 100;
+
 	@Inject
 	private Logger log;
 
@@ -44,17 +60,25 @@ public class SearchPersonAction implements Serializable {
 	@Inject
 	private ConversationService conversationService;
 
+	@Inject
+	private FacesContext facesContext;
+
 	private String searchPattern;
 
 	private String oldSearchPattern;
 
 	private boolean firstLaunch = false;
 
-	private List<GluuCustomPerson> personList;
+	private PersonLazyDataModel personList;
 
 	@Inject
 	private PersonService personService;
 
+	/**
+	 * Called on page open. Nothing is searched if there is no pattern view
+	 * parameter. Empty pattern lists all persons, it's intended. Only rendered
+	 * page of them is loaded
+	 */
 	public String start() {
 		firstLaunch = true;
 		return search();
@@ -70,11 +94,12 @@ public class SearchPersonAction implements Serializable {
 			firstLaunch = false;
 			return OxTrustConstants.RESULT_SUCCESS;
 		}
+
+		// Persons are loaded by pages when table is rendered. First page is
+		// loaded here to report failed search
+		PersonLazyDataModel foundPersons = new PersonLazyDataModel(personService, facesMessages, this.searchPattern);
 		try {
-			this.personList = personService.searchPersons(this.searchPattern);
-			this.oldSearchPattern = this.searchPattern;
-			this.searchPattern = "";
-			firstLaunch = false;
+			foundPersons.preload();
 		} catch (Exception ex) {
 			log.error("Failed to find persons", ex);
 			facesMessages.add(FacesMessage.SEVERITY_ERROR, "Failed to find persons");
@@ -82,6 +107,12 @@ public class SearchPersonAction implements Serializable {
 			firstLaunch = false;
 			return OxTrustConstants.RESULT_FAILURE;
 		}
+
+		this.personList = foundPersons;
+		this.oldSearchPattern = this.searchPattern;
+		this.searchPattern = "";
+		firstLaunch = false;
+
 		return OxTrustConstants.RESULT_SUCCESS;
 	}
 
@@ -93,8 +124,105 @@ public class SearchPersonAction implements Serializable {
 		this.searchPattern = searchPattern;
 	}
 
-	public List<GluuCustomPerson> getPersonList() {
+	public PersonLazyDataModel getPersonList() {
 		return personList;
 	}
 
+	/**
+	 * Exports all persons found by current pattern
+	 */
+	public String exportCsv() {
+		if (this.personList == null) {
+			return OxTrustConstants.RESULT_FAILURE;
+		}
+
+		HttpServletResponse response = (HttpServletResponse) facesContext.getExternalContext().getResponse();
+		response.setContentType("text/csv; charset=UTF-8");
+		response.addHeader("Content-disposition", "attachment; filename=\"persons.csv\"");
+		try (Writer writer = new OutputStreamWriter(response.getOutputStream(), StandardCharsets.UTF_8)) {
+			writeCsvRow(writer, EXPORT_HEADERS);
+			this.personList.export(new PersonHandler() {
+				@Override
+				public void handle(GluuCustomPerson person) throws IOException {
+					writeCsvRow(writer, getExportValues(person));
+				}
+			});
+			writer.flush();
+			facesContext.responseComplete();
+		} catch (Exception ex) {
+			log.error("Failed to export persons", ex);
+			facesMessages.add(FacesMessage.SEVERITY_ERROR, "Failed to export persons");
+			return OxTrustConstants.RESULT_FAILURE;
+		}
+
+		return OxTrustConstants.RESULT_SUCCESS;
+	}
+
+	/**
+	 * Exports all persons found by current pattern. Workbook keeps only few
+	 * rows in memory
+	 */
+	public String exportExcel() {
+		if (this.personList == null) {
+			return OxTrustConstants.RESULT_FAILURE;
+		}
+
+		HttpServletResponse response = (HttpServletResponse) facesContext.getExternalContext().getResponse();
+		response.setContentType("application/vnd.openxmlformats-officedocument.spreadsheetml.sheet");
+		response.addHeader("Content-disposition", "attachment; filename=\"persons.xlsx\"");
+		SXSSFWorkbook workbook = new SXSSFWorkbook(EXPORT_ROWS_IN_MEMORY);
+		try (OutputStream os = response.getOutputStream()) {
+			final Sheet sheet = workbook.createSheet("Persons");
+			writeExcelRow(sheet, 0, EXPORT_HEADERS);
+			this.personList.export(new PersonHandler() {
+				private int rowNum = 1;
+
+				@Override
+				public void handle(GluuCustomPerson person) {
+					writeExcelRow(sheet, rowNum++, getExportValues(person));
+				}
+			});
+			workbook.write(os);
+			os.flush();
+			facesContext.responseComplete();
+		} catch (Exception ex) {
+			log.error("Failed to export persons", ex);
+			facesMessages.add(FacesMessage.SEVERITY_ERROR, "Failed to export persons");
+			return OxTrustConstants.RESULT_FAILURE;
+		} finally {
+			// Remove temporary files
+			workbook.dispose();
+		}
+
+		return OxTrustConstants.RESULT_SUCCESS;
+	}
+
+	private String[] getExportValues(GluuCustomPerson person) {
+		return new String[] { person.getUid(), person.getDisplayName(), person.getGivenName(),
+				String.valueOf(person.getMemberOf().size()), person.getMail(), person.getStatus() };
+	}
+
+	private void writeCsvRow(Writer writer, String[] values) throws IOException {
+		for (int i = 0; i < values.length; i++) {
+			if (i > 0) {
+				writer.write(',');
+			}
+
+			String value = values[i] == null ? "" : values[i];
+			if ((value.indexOf(',') >= 0) || (value.indexOf('"') >= 0) || (value.indexOf('\n') >= 0)
+					|| (value.indexOf('\r') >= 0)) {
+				value = '"' + value.replace("\"", "\"\"") + '"';
+			}
+			writer.write(value);
+		}
+		writer.write("\r\n");
+	}
+
+	private void writeExcelRow(Sheet sheet, int rowNum, String[] values) {
+		Row row = sheet.createRow(rowNum);
+		for (int i = 0; i < values.length; i++) {
+			row.createCell(i).setCellValue(values[i]);
+		}
+	}
+
 }
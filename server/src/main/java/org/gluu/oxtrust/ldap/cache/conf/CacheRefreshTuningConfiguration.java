@@ -0,0 +1,337 @@
+/*
+ * oxTrust is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2014, Gluu
+ */
+
+package org.gluu.oxtrust.ldap.cache.conf;
+
+import java.io.File;
+
+import javax.annotation.PostConstruct;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.inject.Named;
+
+import org.gluu.oxtrust.ldap.cache.service.CacheRefreshFingerprintAlgorithm;
+import org.gluu.oxtrust.service.config.ConfigurationFactory;
+import org.gluu.util.StringHelper;
+import org.gluu.util.properties.FileConfiguration;
+import org.slf4j.Logger;
+
+/**
+ * Optional Cache Refresh performance settings. All of them have defaults, the
+ * properties file is re-read at the beginning of each Cache Refresh run
+ */
+@ApplicationScoped
+@Named
+public class CacheRefreshTuningConfiguration {
+
+	private static final String GLUU_CACHE_REFRESH_TUNING_PROPERTIES_FILE = "gluuCacheRefreshTuning.properties";
+
+	private static final String SOURCE_LOAD_THREADS = "sourceLoad.threads";
+	private static final String SOURCE_LOAD_STREAMING = "sourceLoad.streaming";
+	private static final String FINGERPRINT_ALGORITHM = "fingerprint.algorithm";
+	private static final String INUM_ALLOCATION_BLOCK_SIZE = "inumAllocation.blockSize";
+	private static final String INUM_ALLOCATION_CHECK_BATCH_SIZE = "inumAllocation.checkBatchSize";
+	private static final String INUM_ALLOCATION_THREADS = "inumAllocation.threads";
+	private static final String TARGET_WRITE_THREADS = "targetWrite.threads";
+	private static final String TARGET_WRITE_RETRIES = "targetWrite.retries";
+	private static final String TARGET_WRITE_RETRY_DELAY = "targetWrite.retryDelayMillis";
+	private static final String TARGET_WRITE_LATENCY_THRESHOLD = "targetWrite.latencyThresholdPercent";
+	private static final String TARGET_WRITE_PREFETCH_BATCH_SIZE = "targetWrite.prefetchBatchSize";
+	private static final String DELTA_SYNC_TIMESTAMP_ATTRIBUTES = "deltaSync.timestampAttributes";
+	private static final String DELTA_SYNC_OVERLAP = "deltaSync.overlapSeconds";
+	private static final String DELTA_SYNC_FULL_SYNC_INTERVAL = "deltaSync.fullSyncIntervalMinutes";
+	private static final String REMOVAL_RECONCILIATION_INTERVAL = "removal.reconciliationIntervalMinutes";
+	private static final String SCRIPT_BATCH_SIZE = "script.batchSize";
+	private static final String CHECKPOINT_BATCH_SIZE = "checkpoint.batchSize";
+	private static final String SHARDING_ENABLED = "sharding.enabled";
+	private static final String SHARDING_NODE_ID = "sharding.nodeId";
+	private static final String SHARDING_LEASE = "sharding.leaseSeconds";
+	private static final String CONNECTIONS_KEEP_ALIVE = "connections.keepAlive";
+	private static final String RETRY_INITIAL_DELAY = "retry.initialDelayMinutes";
+	private static final String RETRY_MAX_DELAY = "retry.maxDelayMinutes";
+	private static final String RETRY_QUARANTINE_ATTEMPTS = "retry.quarantineAttempts";
+
+	private static final int DEFAULT_SOURCE_LOAD_THREADS = 4;
+	private static final int MAX_THREADS = 32;
+
+	private static final int DEFAULT_INUM_ALLOCATION_BLOCK_SIZE = 1000;
+	private static final int DEFAULT_INUM_ALLOCATION_CHECK_BATCH_SIZE = 100;
+	private static final int DEFAULT_INUM_ALLOCATION_THREADS = 4;
+
+	private static final int DEFAULT_TARGET_WRITE_THREADS = 4;
+	private static final int DEFAULT_TARGET_WRITE_RETRIES = 2;
+	private static final int DEFAULT_TARGET_WRITE_RETRY_DELAY = 200;
+	private static final int DEFAULT_TARGET_WRITE_LATENCY_THRESHOLD = 200;
+	private static final int DEFAULT_TARGET_WRITE_PREFETCH_BATCH_SIZE = 500;
+
+	private static final String DEFAULT_DELTA_SYNC_TIMESTAMP_ATTRIBUTES = "modifyTimestamp,whenChanged";
+	private static final int DEFAULT_DELTA_SYNC_OVERLAP = 300;
+	private static final int DEFAULT_DELTA_SYNC_FULL_SYNC_INTERVAL = 24 * 60;
+
+	private static final int DEFAULT_REMOVAL_RECONCILIATION_INTERVAL = 24 * 60;
+
+	private static final int DEFAULT_SCRIPT_BATCH_SIZE = 100;
+
+	private static final int DEFAULT_CHECKPOINT_BATCH_SIZE = 1000;
+
+	private static final int DEFAULT_SHARDING_LEASE = 300;
+	private static final int MIN_SHARDING_LEASE = 120;
+
+	private static final int DEFAULT_RETRY_INITIAL_DELAY = 5;
+	private static final int DEFAULT_RETRY_MAX_DELAY = 24 * 60;
+	private static final int DEFAULT_RETRY_QUARANTINE_ATTEMPTS = 10;
+
+	@Inject
+	private Logger log;
+
+	@Inject
+	private ConfigurationFactory configurationFactory;
+
+	// Reloaded by timer thread while workers read settings. Readers take one reference to see consistent state
+	private volatile FileConfiguration tuningConfiguration;
+
+	@PostConstruct
+	public void create() {
+		reload();
+	}
+
+	public void reload() {
+		String tuningFilePath = configurationFactory.confDir() + File.separator + GLUU_CACHE_REFRESH_TUNING_PROPERTIES_FILE;
+		if (!new File(tuningFilePath).exists()) {
+			log.trace("There is no '{}' file. Using default Cache Refresh settings", tuningFilePath);
+			this.tuningConfiguration = null;
+			return;
+		}
+
+		this.tuningConfiguration = new FileConfiguration(tuningFilePath);
+	}
+
+	/**
+	 * Count of concurrent searches against source servers. Value 1 means serial load
+	 */
+	public int getSourceLoadThreads() {
+		return getThreadsCount(SOURCE_LOAD_THREADS, DEFAULT_SOURCE_LOAD_THREADS);
+	}
+
+	/**
+	 * Fold source entries into index page by page instead of loading all of them into memory
+	 */
+	public boolean isStreamingSourceLoad() {
+		return getBoolean(SOURCE_LOAD_STREAMING, false);
+	}
+
+	/**
+	 * Algorithm of entry fingerprints. Changing it causes full update on next run
+	 */
+	public CacheRefreshFingerprintAlgorithm getFingerprintAlgorithm() {
+		String value = getString(FINGERPRINT_ALGORITHM, CacheRefreshFingerprintAlgorithm.FNV1A_64.getValue());
+
+		CacheRefreshFingerprintAlgorithm algorithm = CacheRefreshFingerprintAlgorithm.getByValue(value);
+		if (algorithm == null) {
+			log.error("Unknown fingerprint algorithm '{}'. Using '{}'", value, CacheRefreshFingerprintAlgorithm.FNV1A_64);
+			return CacheRefreshFingerprintAlgorithm.FNV1A_64;
+		}
+
+		return algorithm;
+	}
+
+	/**
+	 * Count of inums reserved at once. Progress is reported after each block
+	 */
+	public int getInumAllocationBlockSize() {
+		return Math.max(1, getInt(INUM_ALLOCATION_BLOCK_SIZE, DEFAULT_INUM_ALLOCATION_BLOCK_SIZE));
+	}
+
+	/**
+	 * Count of inums checked for collisions by one search request
+	 */
+	public int getInumAllocationCheckBatchSize() {
+		return Math.max(1, getInt(INUM_ALLOCATION_CHECK_BATCH_SIZE, DEFAULT_INUM_ALLOCATION_CHECK_BATCH_SIZE));
+	}
+
+	/**
+	 * Count of concurrent inum entries writers. Value 1 means serial write
+	 */
+	public int getInumAllocationThreads() {
+		return getThreadsCount(INUM_ALLOCATION_THREADS, DEFAULT_INUM_ALLOCATION_THREADS);
+	}
+
+	/**
+	 * Maximum count of concurrent writes to target server in copy mode. Value 1
+	 * means serial write
+	 */
+	public int getTargetWriteThreads() {
+		return getThreadsCount(TARGET_WRITE_THREADS, DEFAULT_TARGET_WRITE_THREADS);
+	}
+
+	/**
+	 * Count of additional attempts to write entry before it goes to problem list
+	 */
+	public int getTargetWriteRetries() {
+		return Math.max(0, getInt(TARGET_WRITE_RETRIES, DEFAULT_TARGET_WRITE_RETRIES));
+	}
+
+	/**
+	 * Delay before first retry. It doubles with each next attempt
+	 */
+	public long getTargetWriteRetryDelayMillis() {
+		return Math.max(0, getInt(TARGET_WRITE_RETRY_DELAY, DEFAULT_TARGET_WRITE_RETRY_DELAY));
+	}
+
+	/**
+	 * Write latency relative to observed baseline which causes decrease of
+	 * concurrent writes count
+	 */
+	public int getTargetWriteLatencyThresholdPercent() {
+		return Math.max(101, getInt(TARGET_WRITE_LATENCY_THRESHOLD, DEFAULT_TARGET_WRITE_LATENCY_THRESHOLD));
+	}
+
+	/**
+	 * Count of existing target persons loaded by one search before write
+	 */
+	public int getTargetWritePrefetchBatchSize() {
+		return Math.max(1, getInt(TARGET_WRITE_PREFETCH_BATCH_SIZE, DEFAULT_TARGET_WRITE_PREFETCH_BATCH_SIZE));
+	}
+
+	/**
+	 * Source attributes which contain entry modification time. Delta run loads
+	 * entries where any of them is newer than last run
+	 */
+	public String[] getDeltaSyncTimestampAttributes() {
+		String value = getString(DELTA_SYNC_TIMESTAMP_ATTRIBUTES, DEFAULT_DELTA_SYNC_TIMESTAMP_ATTRIBUTES);
+
+		return StringHelper.split(value, ",", true, false);
+	}
+
+	/**
+	 * Delta run requests entries modified a bit earlier than last run start
+	 * time to cover clock skew between servers
+	 */
+	public int getDeltaSyncOverlapSeconds() {
+		return Math.max(0, getInt(DELTA_SYNC_OVERLAP, DEFAULT_DELTA_SYNC_OVERLAP));
+	}
+
+	/**
+	 * Interval between full reconciliations in delta mode. Only full
+	 * reconciliation detects removed entries
+	 */
+	public int getDeltaSyncFullSyncIntervalMinutes() {
+		return Math.max(0, getInt(DELTA_SYNC_FULL_SYNC_INTERVAL, DEFAULT_DELTA_SYNC_FULL_SYNC_INTERVAL));
+	}
+
+	/**
+	 * Interval between scans of target server which find persons without
+	 * source entries. Other runs detect removed entries by snapshots. Value 0
+	 * means scan on each run
+	 */
+	public int getRemovalReconciliationIntervalMinutes() {
+		return Math.max(0, getInt(REMOVAL_RECONCILIATION_INTERVAL, DEFAULT_REMOVAL_RECONCILIATION_INTERVAL));
+	}
+
+	/**
+	 * Count of entries passed to one call of Cache Refresh scripts which
+	 * support batch API
+	 */
+	public int getScriptBatchSize() {
+		return Math.max(1, getInt(SCRIPT_BATCH_SIZE, DEFAULT_SCRIPT_BATCH_SIZE));
+	}
+
+	/**
+	 * Count of entries written to target server between run journal
+	 * checkpoints. Interrupted run resumes after last checkpoint
+	 */
+	public int getCheckpointBatchSize() {
+		return Math.max(1, getInt(CHECKPOINT_BATCH_SIZE, DEFAULT_CHECKPOINT_BATCH_SIZE));
+	}
+
+	/**
+	 * All cluster nodes process Cache Refresh. Each of them processes own range
+	 * of compound keys
+	 */
+	public boolean isShardingEnabled() {
+		return getBoolean(SHARDING_ENABLED, false);
+	}
+
+	/**
+	 * Unique node Id in cluster. Host name is used if it's not specified
+	 */
+	public String getShardingNodeId() {
+		return getString(SHARDING_NODE_ID, null);
+	}
+
+	/**
+	 * Node without heartbeat during this period is considered dead and its keys
+	 * are moved to other nodes. Heartbeat is sent every minute
+	 */
+	public int getShardingLeaseSeconds() {
+		return Math.max(MIN_SHARDING_LEASE, getInt(SHARDING_LEASE, DEFAULT_SHARDING_LEASE));
+	}
+
+	/**
+	 * Keep connections to source, inum and target servers between runs. They
+	 * are recreated if server configuration was changed
+	 */
+	public boolean isKeepConnections() {
+		return getBoolean(CONNECTIONS_KEEP_ALIVE, true);
+	}
+
+	/**
+	 * Delay before first retry of entry which wasn't written to target server.
+	 * Delay is doubled after each failed attempt
+	 */
+	public int getRetryInitialDelayMinutes() {
+		return Math.max(0, getInt(RETRY_INITIAL_DELAY, DEFAULT_RETRY_INITIAL_DELAY));
+	}
+
+	public int getRetryMaxDelayMinutes() {
+		return Math.max(0, getInt(RETRY_MAX_DELAY, DEFAULT_RETRY_MAX_DELAY));
+	}
+
+	/**
+	 * Entry which failed this number of times isn't retried until it's changed
+	 * in source server. Value 0 disables quarantine
+	 */
+	public int getRetryQuarantineAttempts() {
+		return Math.max(0, getInt(RETRY_QUARANTINE_ATTEMPTS, DEFAULT_RETRY_QUARANTINE_ATTEMPTS));
+	}
+
+	protected int getThreadsCount(String key, int defaultValue) {
+		int threadsCount = getInt(key, defaultValue);
+		if (threadsCount < 1) {
+			return 1;
+		}
+
+		return Math.min(threadsCount, MAX_THREADS);
+	}
+
+	protected int getInt(String key, int defaultValue) {
+		FileConfiguration currentConfiguration = this.tuningConfiguration;
+		if ((currentConfiguration == null) || !currentConfiguration.isLoaded()) {
+			return defaultValue;
+		}
+
+		return currentConfiguration.getInt(key, defaultValue);
+	}
+
+	protected String getString(String key, String defaultValue) {
+		FileConfiguration currentConfiguration = this.tuningConfiguration;
+		if ((currentConfiguration == null) || !currentConfiguration.isLoaded()) {
+			return defaultValue;
+		}
+
+		return currentConfiguration.getString(key, defaultValue);
+	}
+
+	protected boolean getBoolean(String key, boolean defaultValue) {
+		FileConfiguration currentConfiguration = this.tuningConfiguration;
+		if ((currentConfiguration == null) || !currentConfiguration.isLoaded()) {
+			return defaultValue;
+		}
+
+		return currentConfiguration.getBoolean(key, defaultValue);
+	}
+
+}
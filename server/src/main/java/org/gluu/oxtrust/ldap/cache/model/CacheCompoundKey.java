@@ -7,61 +7,135 @@
 package org.gluu.oxtrust.ldap.cache.model;
 
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.Arrays;
-
-import org.gluu.util.ArrayHelper;
+import java.util.Comparator;
+import java.util.List;
 
 /**
- * Compound key with String[] array
+ * Compound key with String[] array. Values are compared regardless of order.
+ * Key is converted into canonical form once, so hash code and equals don't sort
+ * values on each call. Only canonical form and it's hash code are stored
  * 
  * @author Yuriy Movchan Date: 07.21.2011
  */
 public class CacheCompoundKey implements Serializable {
 
-	private static final long serialVersionUID = -3366537601347036591L;
+	private static final long serialVersionUID = -3366537601347036593L;
+
+	private static final Comparator<String> NULLS_FIRST = new Comparator<String>() {
+		@Override
+		public int compare(String value1, String value2) {
+			if (value1 == null) {
+				return value2 == null ? 0 : -1;
+			}
+			if (value2 == null) {
+				return 1;
+			}
+
+			return value1.compareTo(value2);
+		}
+	};
 
-	private String[] primaryKeyValues;
-	private String[] secondaryKeyValues;
-	private String[] tertiaryKeyValues;
+	private final String canonicalKey;
+	private final int hashCode;
 
 	public CacheCompoundKey(String[] primaryKeyValues, String[] secondaryKeyValues, String[] tertiaryKeyValues) {
-		this.primaryKeyValues = primaryKeyValues;
-		this.secondaryKeyValues = secondaryKeyValues;
-		this.tertiaryKeyValues = tertiaryKeyValues;
+		this.canonicalKey = toCanonicalKey(primaryKeyValues, secondaryKeyValues, tertiaryKeyValues);
+		this.hashCode = canonicalKey.hashCode();
 	}
 
 	public CacheCompoundKey(String[][] keyValues) {
-		if (keyValues.length > 0) {
-			primaryKeyValues = keyValues[0];
-		}
-		if (keyValues.length > 1) {
-			secondaryKeyValues = keyValues[1];
-		}
-		if (keyValues.length > 2) {
-			tertiaryKeyValues = keyValues[2];
-		}
+		this(keyValues.length > 0 ? keyValues[0] : null, keyValues.length > 1 ? keyValues[1] : null,
+				keyValues.length > 2 ? keyValues[2] : null);
 	}
 
+	/**
+	 * Values are restored from canonical form, so they are returned sorted
+	 */
 	public String[] getPrimaryKeyValues() {
-		return primaryKeyValues;
+		return parseCanonicalValues(0);
 	}
 
 	public String[] getSecondaryKeyValues() {
-		return secondaryKeyValues;
+		return parseCanonicalValues(1);
 	}
 
 	public String[] getTertiaryKeyValues() {
-		return tertiaryKeyValues;
+		return parseCanonicalValues(2);
+	}
+
+	private static String toCanonicalKey(String[] primaryKeyValues, String[] secondaryKeyValues,
+			String[] tertiaryKeyValues) {
+		StringBuilder builder = new StringBuilder();
+		appendCanonicalValues(builder, primaryKeyValues);
+		appendCanonicalValues(builder, secondaryKeyValues);
+		appendCanonicalValues(builder, tertiaryKeyValues);
+
+		return builder.toString();
+	}
+
+	/**
+	 * Appends sorted values. Each value is prefixed with length to avoid
+	 * ambiguity without escaping separators
+	 */
+	private static void appendCanonicalValues(StringBuilder builder, String[] values) {
+		if (values == null) {
+			builder.append('-');
+			return;
+		}
+
+		String[] canonicalValues = values.clone();
+		Arrays.sort(canonicalValues, NULLS_FIRST);
+
+		builder.append('[');
+		for (String canonicalValue : canonicalValues) {
+			if (canonicalValue == null) {
+				builder.append("-1:");
+			} else {
+				builder.append(canonicalValue.length()).append(':').append(canonicalValue);
+			}
+		}
+		builder.append(']');
+	}
+
+	private String[] parseCanonicalValues(int index) {
+		int pos = 0;
+		for (int i = 0; i <= index; i++) {
+			if (canonicalKey.charAt(pos) == '-') {
+				pos++;
+				if (i == index) {
+					return null;
+				}
+				continue;
+			}
+
+			List<String> values = new ArrayList<String>();
+			pos++;
+			while (canonicalKey.charAt(pos) != ']') {
+				int separator = canonicalKey.indexOf(':', pos);
+				int length = Integer.parseInt(canonicalKey.substring(pos, separator));
+				pos = separator + 1;
+				if (length < 0) {
+					values.add(null);
+				} else {
+					values.add(canonicalKey.substring(pos, pos + length));
+					pos += length;
+				}
+			}
+			pos++;
+
+			if (i == index) {
+				return values.toArray(new String[values.size()]);
+			}
+		}
+
+		return null;
 	}
 
 	@Override
 	public int hashCode() {
-		final int prime = 31;
-		int result = 1;
-		result = prime * result + Arrays.hashCode(primaryKeyValues);
-		result = prime * result + Arrays.hashCode(secondaryKeyValues);
-		result = prime * result + Arrays.hashCode(tertiaryKeyValues);
-		return result;
+		return hashCode;
 	}
 
 	@Override
@@ -73,21 +147,15 @@ public class CacheCompoundKey implements Serializable {
 		if (getClass() != obj.getClass())
 			return false;
 		CacheCompoundKey other = (CacheCompoundKey) obj;
-		if (!ArrayHelper.equalsIgnoreOrder(primaryKeyValues, other.primaryKeyValues))
-			return false;
-		if (!ArrayHelper.equalsIgnoreOrder(secondaryKeyValues, other.secondaryKeyValues))
-			return false;
-		if (!ArrayHelper.equalsIgnoreOrder(tertiaryKeyValues, other.tertiaryKeyValues))
-			return false;
-		return true;
+		return (hashCode == other.hashCode) && canonicalKey.equals(other.canonicalKey);
 	}
 
 	@Override
 	public String toString() {
 		StringBuilder builder = new StringBuilder();
-		builder.append("CacheCompoundKey [primaryKeyValues=").append(Arrays.toString(primaryKeyValues)).append(", secondaryKeyValues=")
-				.append(Arrays.toString(secondaryKeyValues)).append(", tertiaryKeyValues=").append(Arrays.toString(tertiaryKeyValues))
-				.append("]");
+		builder.append("CacheCompoundKey [primaryKeyValues=").append(Arrays.toString(getPrimaryKeyValues()))
+				.append(", secondaryKeyValues=").append(Arrays.toString(getSecondaryKeyValues()))
+				.append(", tertiaryKeyValues=").append(Arrays.toString(getTertiaryKeyValues())).append("]");
 		return builder.toString();
 	}
 
@@ -0,0 +1,46 @@
+/*
+ * oxTrust is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2014, Gluu
+ */
+
+package org.gluu.oxtrust.ldap.cache.model;
+
+import java.util.Date;
+
+/**
+ * State of delta Cache Refresh update method between runs
+ */
+public class CacheRefreshDeltaSyncState {
+
+	// Start time of last successful run
+	private Date lastSyncTime;
+
+	// Start time of last successful full reconciliation
+	private Date lastFullSyncTime;
+
+	public Date getLastSyncTime() {
+		return lastSyncTime;
+	}
+
+	public void setLastSyncTime(Date lastSyncTime) {
+		this.lastSyncTime = lastSyncTime;
+	}
+
+	public Date getLastFullSyncTime() {
+		return lastFullSyncTime;
+	}
+
+	public void setLastFullSyncTime(Date lastFullSyncTime) {
+		this.lastFullSyncTime = lastFullSyncTime;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder();
+		builder.append("CacheRefreshDeltaSyncState [lastSyncTime=").append(lastSyncTime).append(", lastFullSyncTime=")
+				.append(lastFullSyncTime).append("]");
+		return builder.toString();
+	}
+
+}
@@ -0,0 +1,69 @@
+/*
+ * oxTrust is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2014, Gluu
+ */
+
+package org.gluu.oxtrust.ldap.cache.model;
+
+import java.io.Serializable;
+import java.util.Date;
+
+import org.gluu.persist.annotation.AttributeName;
+import org.gluu.persist.annotation.DataEntry;
+import org.gluu.persist.annotation.ObjectClass;
+import org.gluu.persist.model.base.Entry;
+
+/**
+ * Cluster node which takes part in sharded Cache Refresh. Node holds lease
+ * while it updates heartbeat time. Layout is list of live nodes seen by this
+ * node
+ */
+@DataEntry
+@ObjectClass(value = "oxCacheRefreshNode")
+public class CacheRefreshNode extends Entry implements Serializable {
+
+	private static final long serialVersionUID = 4415326532398715208L;
+
+	@AttributeName(name = "ou")
+	private String nodeId;
+
+	@AttributeName(name = "oxLastAccessTime")
+	private Date heartbeatTime;
+
+	@AttributeName(name = "oxCacheRefreshLayout")
+	private String layout;
+
+	public String getNodeId() {
+		return nodeId;
+	}
+
+	public void setNodeId(String nodeId) {
+		this.nodeId = nodeId;
+	}
+
+	public Date getHeartbeatTime() {
+		return heartbeatTime;
+	}
+
+	public void setHeartbeatTime(Date heartbeatTime) {
+		this.heartbeatTime = heartbeatTime;
+	}
+
+	public String getLayout() {
+		return layout;
+	}
+
+	public void setLayout(String layout) {
+		this.layout = layout;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder();
+		builder.append("CacheRefreshNode [nodeId=").append(nodeId).append(", heartbeatTime=").append(heartbeatTime)
+				.append(", layout=").append(layout).append("]");
+		return builder.toString();
+	}
+
+}
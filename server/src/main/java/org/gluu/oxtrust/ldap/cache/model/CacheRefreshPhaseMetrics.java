@@ -0,0 +1,68 @@
+/*
+ * oxTrust is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2014, Gluu
+ */
+
+package org.gluu.oxtrust.ldap.cache.model;
+
+import java.io.Serializable;
+
+import org.gluu.oxtrust.ldap.cache.service.CacheRefreshPhase;
+
+/**
+ * Duration and throughput of one Cache Refresh run phase
+ */
+public class CacheRefreshPhaseMetrics implements Serializable {
+
+	private static final long serialVersionUID = -3415432870125826512L;
+
+	private final CacheRefreshPhase phase;
+
+	private long durationMillis;
+	private long entries;
+	private long ldapOperations;
+
+	public CacheRefreshPhaseMetrics(CacheRefreshPhase phase) {
+		this.phase = phase;
+	}
+
+	public CacheRefreshPhase getPhase() {
+		return phase;
+	}
+
+	public long getDurationMillis() {
+		return durationMillis;
+	}
+
+	public long getEntries() {
+		return entries;
+	}
+
+	public long getLdapOperations() {
+		return ldapOperations;
+	}
+
+	public long getEntriesPerSecond() {
+		if (durationMillis == 0) {
+			return 0;
+		}
+
+		return entries * 1000 / durationMillis;
+	}
+
+	public void add(long durationMillis, long entries, long ldapOperations) {
+		this.durationMillis += durationMillis;
+		this.entries += entries;
+		this.ldapOperations += ldapOperations;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder();
+		builder.append("CacheRefreshPhaseMetrics [phase=").append(phase).append(", durationMillis=").append(durationMillis)
+				.append(", entries=").append(entries).append(", ldapOperations=").append(ldapOperations).append("]");
+		return builder.toString();
+	}
+
+}
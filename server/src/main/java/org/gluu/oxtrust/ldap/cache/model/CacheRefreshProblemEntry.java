@@ -0,0 +1,84 @@
+/*
+ * oxTrust is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2014, Gluu
+ */
+
+package org.gluu.oxtrust.ldap.cache.model;
+
+/**
+ * Entry which Cache Refresh failed to write to target server
+ */
+public class CacheRefreshProblemEntry {
+
+	private String inum;
+
+	// Count of failed attempts to write entry
+	private int attempts;
+
+	// Class name of last error
+	private String lastError;
+
+	// Entry isn't retried before this time
+	private long nextAttemptTime;
+
+	// Entry isn't retried until it's changed in source server
+	private boolean quarantined;
+
+	public CacheRefreshProblemEntry() {
+	}
+
+	public CacheRefreshProblemEntry(String inum) {
+		this.inum = inum;
+	}
+
+	public String getInum() {
+		return inum;
+	}
+
+	public void setInum(String inum) {
+		this.inum = inum;
+	}
+
+	public int getAttempts() {
+		return attempts;
+	}
+
+	public void setAttempts(int attempts) {
+		this.attempts = attempts;
+	}
+
+	public String getLastError() {
+		return lastError;
+	}
+
+	public void setLastError(String lastError) {
+		this.lastError = lastError;
+	}
+
+	public long getNextAttemptTime() {
+		return nextAttemptTime;
+	}
+
+	public void setNextAttemptTime(long nextAttemptTime) {
+		this.nextAttemptTime = nextAttemptTime;
+	}
+
+	public boolean isQuarantined() {
+		return quarantined;
+	}
+
+	public void setQuarantined(boolean quarantined) {
+		this.quarantined = quarantined;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder();
+		builder.append("CacheRefreshProblemEntry [inum=").append(inum).append(", attempts=").append(attempts)
+				.append(", lastError=").append(lastError).append(", nextAttemptTime=").append(nextAttemptTime)
+				.append(", quarantined=").append(quarantined).append("]");
+		return builder.toString();
+	}
+
+}
@@ -0,0 +1,120 @@
+/*
+ * oxTrust is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2014, Gluu
+ */
+
+package org.gluu.oxtrust.ldap.cache.model;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.gluu.oxtrust.ldap.cache.service.CacheRefreshPhase;
+
+/**
+ * Metrics of one Cache Refresh run
+ */
+public class CacheRefreshRunMetrics implements Serializable {
+
+	private static final long serialVersionUID = 5186460129640520387L;
+
+	private final Date startTime;
+	private final String updateMethod;
+	private final Map<CacheRefreshPhase, CacheRefreshPhaseMetrics> phases = new EnumMap<CacheRefreshPhase, CacheRefreshPhaseMetrics>(
+			CacheRefreshPhase.class);
+	private final AtomicLong pendingLdapOperations = new AtomicLong();
+
+	private long durationMillis;
+	private long peakHeapUsage;
+	private boolean success;
+
+	public CacheRefreshRunMetrics(Date startTime, String updateMethod) {
+		this.startTime = startTime;
+		this.updateMethod = updateMethod;
+	}
+
+	/**
+	 * Counts LDAP requests sent by workers of current phase
+	 */
+	public void addLdapOperations(long count) {
+		pendingLdapOperations.addAndGet(count);
+	}
+
+	/**
+	 * Adds time elapsed since phase start and LDAP requests counted since end of
+	 * previous phase. Phase might be measured several times per run
+	 */
+	public void endPhase(CacheRefreshPhase phase, long phaseStartTime, long entries) {
+		CacheRefreshPhaseMetrics phaseMetrics = phases.get(phase);
+		if (phaseMetrics == null) {
+			phaseMetrics = new CacheRefreshPhaseMetrics(phase);
+			phases.put(phase, phaseMetrics);
+		}
+
+		phaseMetrics.add(System.currentTimeMillis() - phaseStartTime, entries, pendingLdapOperations.getAndSet(0));
+	}
+
+	public List<CacheRefreshPhaseMetrics> getPhases() {
+		return new ArrayList<CacheRefreshPhaseMetrics>(phases.values());
+	}
+
+	public long getLdapOperations() {
+		long result = 0;
+		for (CacheRefreshPhaseMetrics phaseMetrics : phases.values()) {
+			result += phaseMetrics.getLdapOperations();
+		}
+
+		return result;
+	}
+
+	public Date getStartTime() {
+		return startTime;
+	}
+
+	public String getUpdateMethod() {
+		return updateMethod;
+	}
+
+	public long getDurationMillis() {
+		return durationMillis;
+	}
+
+	public void setDurationMillis(long durationMillis) {
+		this.durationMillis = durationMillis;
+	}
+
+	public long getPeakHeapUsage() {
+		return peakHeapUsage;
+	}
+
+	public long getPeakHeapUsageMb() {
+		return peakHeapUsage / (1024 * 1024);
+	}
+
+	public void setPeakHeapUsage(long peakHeapUsage) {
+		this.peakHeapUsage = peakHeapUsage;
+	}
+
+	public boolean isSuccess() {
+		return success;
+	}
+
+	public void setSuccess(boolean success) {
+		this.success = success;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder();
+		builder.append("CacheRefreshRunMetrics [startTime=").append(startTime).append(", updateMethod=").append(updateMethod)
+				.append(", durationMillis=").append(durationMillis).append(", peakHeapUsage=").append(peakHeapUsage)
+				.append(", success=").append(success).append(", phases=").append(phases.values()).append("]");
+		return builder.toString();
+	}
+
+}
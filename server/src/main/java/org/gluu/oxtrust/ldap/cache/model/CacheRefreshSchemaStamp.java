@@ -0,0 +1,44 @@
+/*
+ * oxTrust is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2014, Gluu
+ */
+
+package org.gluu.oxtrust.ldap.cache.model;
+
+import java.io.Serializable;
+
+import org.gluu.persist.annotation.AttributeName;
+import org.gluu.persist.annotation.DataEntry;
+import org.gluu.persist.annotation.ObjectClass;
+import org.gluu.persist.model.base.Entry;
+
+/**
+ * Modification time of schema entry. It allows to detect schema changes
+ * without loading whole schema
+ */
+@DataEntry
+@ObjectClass(value = "subschema")
+public class CacheRefreshSchemaStamp extends Entry implements Serializable {
+
+	private static final long serialVersionUID = -2350918265839517492L;
+
+	@AttributeName(name = "modifyTimestamp")
+	private String modifyTimestamp;
+
+	public String getModifyTimestamp() {
+		return modifyTimestamp;
+	}
+
+	public void setModifyTimestamp(String modifyTimestamp) {
+		this.modifyTimestamp = modifyTimestamp;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder();
+		builder.append("CacheRefreshSchemaStamp [modifyTimestamp=").append(modifyTimestamp).append("]");
+		return builder.toString();
+	}
+
+}
@@ -7,9 +7,9 @@
 package org.gluu.oxtrust.ldap.cache.model;
 
 import java.io.Serializable;
-import java.util.ArrayList;
 import java.util.List;
 
+import org.gluu.oxtrust.model.CustomAttributesList;
 import org.gluu.oxtrust.model.CustomEntry;
 import org.gluu.oxtrust.model.GluuCustomAttribute;
 import org.gluu.persist.annotation.AttributesList;
@@ -28,14 +28,14 @@ public class GluuSimplePerson extends CustomEntry implements Serializable {
 	private String sourceServerName;
 
 	@AttributesList(name = "name", value = "values", sortByName = true)
-	private List<GluuCustomAttribute> customAttributes = new ArrayList<GluuCustomAttribute>();
+	private List<GluuCustomAttribute> customAttributes = new CustomAttributesList();
 
 	public List<GluuCustomAttribute> getCustomAttributes() {
 		return customAttributes;
 	}
 
 	public void setCustomAttributes(List<GluuCustomAttribute> customAttributes) {
-		this.customAttributes = customAttributes;
+		this.customAttributes = CustomAttributesList.wrap(customAttributes);
 	}
 
 	public String getSourceServerName() {
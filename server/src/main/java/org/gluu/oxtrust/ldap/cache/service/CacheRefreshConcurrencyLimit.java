@@ -0,0 +1,105 @@
+/*
+ * oxTrust is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2014, Gluu
+ */
+
+package org.gluu.oxtrust.ldap.cache.service;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Adaptive limit of concurrent operations. It uses additive increase and
+ * multiplicative decrease: limit grows by one per round trip while operation
+ * latency stays close to observed baseline and halves when latency exceeds
+ * baseline by specified ratio or operation fails with exception. Entry which
+ * wasn't written without exception isn't overload sign
+ */
+public class CacheRefreshConcurrencyLimit {
+
+	// Baseline slowly follows latency up to handle long term server changes
+	private static final double BASELINE_DRIFT = 0.01;
+
+	private final int maxLimit;
+	private final double latencyThreshold;
+
+	private double limit;
+	private int inFlight;
+
+	private long baselineLatency = Long.MAX_VALUE;
+	private long lastDecreaseTime;
+
+	public CacheRefreshConcurrencyLimit(int initialLimit, int maxLimit, double latencyThreshold) {
+		this.maxLimit = Math.max(1, maxLimit);
+		this.latencyThreshold = latencyThreshold;
+		this.limit = Math.max(1, Math.min(initialLimit, this.maxLimit));
+
+		// System.nanoTime() has arbitrary origin and can be negative
+		this.lastDecreaseTime = System.nanoTime();
+	}
+
+	/**
+	 * Blocks until there are less operations in flight than current limit
+	 */
+	public synchronized void acquire() throws InterruptedException {
+		while (inFlight >= (int) limit) {
+			wait();
+		}
+		inFlight++;
+	}
+
+	/**
+	 * Releases permit and adjusts limit with latency and outcome of completed
+	 * operation
+	 */
+	public synchronized void release(long latencyNanos, Outcome outcome) {
+		inFlight--;
+
+		long now = System.nanoTime();
+		// Not written entry might be rejected without request to server
+		if (Outcome.SUCCESS == outcome) {
+			if (latencyNanos < baselineLatency) {
+				baselineLatency = latencyNanos;
+			} else {
+				baselineLatency += (long) ((latencyNanos - baselineLatency) * BASELINE_DRIFT);
+			}
+		}
+
+		boolean overloaded = (Outcome.FAILED == outcome) || (latencyNanos > baselineLatency * latencyThreshold);
+		if (overloaded) {
+			// Decrease once per round trip. Operations which were started with old limit report same overload
+			if (now - lastDecreaseTime >= latencyNanos) {
+				limit = Math.max(1, limit / 2);
+				lastDecreaseTime = now;
+			}
+		} else if (limit < maxLimit) {
+			limit = Math.min(maxLimit, limit + 1 / limit);
+		}
+
+		notifyAll();
+	}
+
+	public synchronized int getLimit() {
+		return (int) limit;
+	}
+
+	public synchronized long getBaselineLatencyMillis() {
+		if (baselineLatency == Long.MAX_VALUE) {
+			return 0;
+		}
+
+		return TimeUnit.NANOSECONDS.toMillis(baselineLatency);
+	}
+
+	public enum Outcome {
+
+		// Operation completed successfully
+		SUCCESS,
+		// Operation completed without exception but reported that it didn't write entry
+		NOT_WRITTEN,
+		// Operation failed with exception
+		FAILED
+
+	}
+
+}
@@ -0,0 +1,178 @@
+/*
+ * oxTrust is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2014, Gluu
+ */
+
+package org.gluu.oxtrust.ldap.cache.service;
+
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.inject.Named;
+
+import org.gluu.persist.PersistenceEntryManager;
+import org.gluu.persist.PersistenceEntryManagerFactory;
+import org.slf4j.Logger;
+
+/**
+ * Keeps connections to source, inum and target servers between Cache Refresh
+ * runs. Connection is identified by hash of its properties including
+ * credentials, so it's recreated only when server configuration changes or
+ * connection is not healthy. Connections which weren't used by last run are
+ * closed
+ */
+@ApplicationScoped
+@Named
+public class CacheRefreshConnectionRegistry {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	@Inject
+	private Logger log;
+
+	private final Map<String, RegisteredConnection> connections = new HashMap<String, RegisteredConnection>();
+	private final Set<String> usedConnectionKeys = new HashSet<String>();
+
+	/**
+	 * Returns connected entry manager for specified properties. It reuses
+	 * existing connection if it's still connected
+	 */
+	public synchronized PersistenceEntryManager getEntryManager(String configId,
+			PersistenceEntryManagerFactory entryManagerFactory, Properties ldapDecryptedProperties) {
+		String connectionKey = getConnectionKey(entryManagerFactory.getPersistenceType(), ldapDecryptedProperties);
+
+		RegisteredConnection connection = connections.get(connectionKey);
+		if (connection != null) {
+			if (connection.getEntryManager().getOperationService().isConnected()) {
+				log.debug("Reusing Cache Refresh PersistenceEntryManager of configuration {}", configId);
+				usedConnectionKeys.add(connectionKey);
+				return connection.getEntryManager();
+			}
+
+			log.warn("Cache Refresh connection of configuration {} is broken. Recreating it", configId);
+			connections.remove(connectionKey);
+			destroy(connection);
+		}
+
+		log.trace("Attempting to create PersistenceEntryManager with properties: {}", ldapDecryptedProperties);
+		PersistenceEntryManager entryManager = entryManagerFactory.createEntryManager(ldapDecryptedProperties);
+		log.info("Created Cache Refresh PersistenceEntryManager: {}", entryManager);
+
+		if (!entryManager.getOperationService().isConnected()) {
+			entryManager.destroy();
+			return null;
+		}
+
+		connections.put(connectionKey, new RegisteredConnection(configId, entryManager));
+		usedConnectionKeys.add(connectionKey);
+
+		return entryManager;
+	}
+
+	/**
+	 * Should be called at the end of each run. Closes connections which weren't
+	 * requested during run or all of them if keepConnections is false
+	 */
+	public synchronized void releaseConnections(boolean keepConnections) {
+		for (Iterator<Entry<String, RegisteredConnection>> it = connections.entrySet().iterator(); it.hasNext();) {
+			Entry<String, RegisteredConnection> connectionEntry = it.next();
+			if (!keepConnections || !usedConnectionKeys.contains(connectionEntry.getKey())) {
+				it.remove();
+				destroy(connectionEntry.getValue());
+			}
+		}
+		usedConnectionKeys.clear();
+	}
+
+	@PreDestroy
+	public synchronized void closeConnections() {
+		releaseConnections(false);
+	}
+
+	/**
+	 * Entry managers of open connections by connection key. Few connections
+	 * might have same configuration Id. Released connections are removed from
+	 * registry before they are closed, but run end can close returned entry
+	 * manager later
+	 */
+	public synchronized Map<String, PersistenceEntryManager> getEntryManagers() {
+		Map<String, PersistenceEntryManager> result = new LinkedHashMap<String, PersistenceEntryManager>();
+		for (Entry<String, RegisteredConnection> connectionEntry : connections.entrySet()) {
+			result.put(connectionEntry.getKey(), connectionEntry.getValue().getEntryManager());
+		}
+
+		return result;
+	}
+
+	private void destroy(RegisteredConnection connection) {
+		try {
+			connection.getEntryManager().destroy();
+			log.debug("Closed Cache Refresh connection of configuration {}", connection.getConfigId());
+		} catch (Exception ex) {
+			log.warn("Failed to close Cache Refresh connection of configuration {}", connection.getConfigId(), ex);
+		}
+	}
+
+	private String getConnectionKey(String persistenceType, Properties ldapDecryptedProperties) {
+		// Properties order is not defined
+		Map<String, String> sortedProperties = new TreeMap<String, String>();
+		for (String name : ldapDecryptedProperties.stringPropertyNames()) {
+			sortedProperties.put(name, ldapDecryptedProperties.getProperty(name));
+		}
+
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			digest.update(persistenceType.getBytes(UTF8));
+			for (Entry<String, String> property : sortedProperties.entrySet()) {
+				digest.update((byte) 0);
+				digest.update(property.getKey().getBytes(UTF8));
+				digest.update((byte) 0);
+				digest.update(String.valueOf(property.getValue()).getBytes(UTF8));
+			}
+
+			StringBuilder result = new StringBuilder();
+			for (byte b : digest.digest()) {
+				result.append(String.format("%02x", b));
+			}
+
+			return result.toString();
+		} catch (NoSuchAlgorithmException ex) {
+			throw new IllegalStateException("SHA-256 is not supported", ex);
+		}
+	}
+
+	private static class RegisteredConnection {
+
+		private final String configId;
+		private final PersistenceEntryManager entryManager;
+
+		RegisteredConnection(String configId, PersistenceEntryManager entryManager) {
+			this.configId = configId;
+			this.entryManager = entryManager;
+		}
+
+		public String getConfigId() {
+			return configId;
+		}
+
+		public PersistenceEntryManager getEntryManager() {
+			return entryManager;
+		}
+
+	}
+
+}
@@ -0,0 +1,21 @@
+/*
+ * oxTrust is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2014, Gluu
+ */
+
+package org.gluu.oxtrust.ldap.cache.service;
+
+import org.gluu.oxtrust.ldap.cache.model.GluuSimplePerson;
+
+/**
+ * Calculates source entry fingerprint which is used to detect changed entries
+ * between Cache Refresh runs
+ */
+public interface CacheRefreshFingerprint {
+
+	CacheRefreshFingerprintAlgorithm getAlgorithm();
+
+	long calculate(GluuSimplePerson person);
+
+}
@@ -0,0 +1,71 @@
+/*
+ * oxTrust is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2014, Gluu
+ */
+
+package org.gluu.oxtrust.ldap.cache.service;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.gluu.persist.PersistenceEntryManager;
+
+/**
+ * Available entry fingerprint algorithms. Id is stored in snapshot header
+ */
+public enum CacheRefreshFingerprintAlgorithm {
+
+	LEGACY(0, "legacy"), FNV1A_64(1, "fnv1a64");
+
+	private int id;
+	private String value;
+
+	private static Map<String, CacheRefreshFingerprintAlgorithm> mapByValues = new HashMap<String, CacheRefreshFingerprintAlgorithm>();
+	private static Map<Integer, CacheRefreshFingerprintAlgorithm> mapByIds = new HashMap<Integer, CacheRefreshFingerprintAlgorithm>();
+	static {
+		for (CacheRefreshFingerprintAlgorithm enumType : values()) {
+			mapByValues.put(enumType.getValue(), enumType);
+			mapByIds.put(enumType.getId(), enumType);
+		}
+	}
+
+	private CacheRefreshFingerprintAlgorithm(int id, String value) {
+		this.id = id;
+		this.value = value;
+	}
+
+	public int getId() {
+		return id;
+	}
+
+	public String getValue() {
+		return value;
+	}
+
+	public static CacheRefreshFingerprintAlgorithm getByValue(String value) {
+		return mapByValues.get(value);
+	}
+
+	public static CacheRefreshFingerprintAlgorithm getById(int id) {
+		return mapByIds.get(id);
+	}
+
+	/**
+	 * @param entryManager used by legacy algorithm only
+	 * @param attributes mapped attributes which should be included into fingerprint
+	 */
+	public CacheRefreshFingerprint createFingerprint(PersistenceEntryManager entryManager, String[] attributes) {
+		if (this == LEGACY) {
+			return new LegacyHashCodeFingerprint(entryManager);
+		}
+
+		return new Fnv64Fingerprint(attributes);
+	}
+
+	@Override
+	public String toString() {
+		return value;
+	}
+
+}
@@ -0,0 +1,212 @@
+/*
+ * oxTrust is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2014, Gluu
+ */
+
+package org.gluu.oxtrust.ldap.cache.service;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.inject.Named;
+
+import org.gluu.model.GluuStatus;
+import org.gluu.oxtrust.ldap.cache.conf.CacheRefreshTuningConfiguration;
+import org.gluu.oxtrust.ldap.cache.model.CacheCompoundKey;
+import org.gluu.oxtrust.ldap.cache.model.GluuInumMap;
+import org.gluu.oxtrust.model.GluuConfiguration;
+import org.gluu.oxtrust.service.ConfigurationService;
+import org.gluu.persist.PersistenceEntryManager;
+import org.gluu.persist.exception.EntryPersistenceException;
+import org.slf4j.Logger;
+
+/**
+ * Creates inum entries for new source entries. Inums are reserved in blocks,
+ * collisions are checked in batches and entries are written by bounded pool
+ * of workers. Progress is logged after each block and published via Cache
+ * Refresh status attributes not more often than once per update interval
+ */
+@ApplicationScoped
+@Named
+public class CacheRefreshInumAllocator {
+
+	private static final long PROGRESS_UPDATE_INTERVAL = 30 * 1000L;
+
+	@Inject
+	private Logger log;
+
+	@Inject
+	private CacheRefreshService cacheRefreshService;
+
+	@Inject
+	private ConfigurationService configurationService;
+
+	@Inject
+	private CacheRefreshTuningConfiguration cacheRefreshTuningConfiguration;
+
+	public Map<CacheCompoundKey, GluuInumMap> addInumMaps(String inumbBaseDn,
+			PersistenceEntryManager inumDbPersistenceEntryManager, String[] keyAttributesWithoutValues,
+			Map<CacheCompoundKey, String[][]> newKeyAttributesValues) {
+		Map<CacheCompoundKey, GluuInumMap> result = new LinkedHashMap<CacheCompoundKey, GluuInumMap>();
+		if (newKeyAttributesValues.isEmpty()) {
+			return result;
+		}
+
+		int blockSize = cacheRefreshTuningConfiguration.getInumAllocationBlockSize();
+		int checkBatchSize = cacheRefreshTuningConfiguration.getInumAllocationCheckBatchSize();
+		int threadsCount = cacheRefreshTuningConfiguration.getInumAllocationThreads();
+
+		int total = newKeyAttributesValues.size();
+		log.info("Adding '{}' new inum entries using blocks of '{}' inums and '{}' workers", total, blockSize, threadsCount);
+
+		ExecutorService executorService = null;
+		if (threadsCount > 1) {
+			executorService = Executors.newFixedThreadPool(threadsCount, new CacheRefreshThreadFactory("InumAllocator"));
+		}
+
+		try {
+			long lastProgressUpdate = System.currentTimeMillis();
+			List<Entry<CacheCompoundKey, String[][]>> blockEntries = new ArrayList<Entry<CacheCompoundKey, String[][]>>(
+					Math.min(blockSize, total));
+			for (Entry<CacheCompoundKey, String[][]> newKeyAttributesValuesEntry : newKeyAttributesValues.entrySet()) {
+				blockEntries.add(newKeyAttributesValuesEntry);
+				if (blockEntries.size() == blockSize) {
+					addInumMapsBlock(inumbBaseDn, inumDbPersistenceEntryManager, keyAttributesWithoutValues, blockEntries,
+							checkBatchSize, executorService, result);
+					blockEntries.clear();
+					lastProgressUpdate = reportProgress(result.size(), total, lastProgressUpdate);
+				}
+			}
+
+			if (!blockEntries.isEmpty()) {
+				addInumMapsBlock(inumbBaseDn, inumDbPersistenceEntryManager, keyAttributesWithoutValues, blockEntries,
+						checkBatchSize, executorService, result);
+				log.info("Added '{}' from '{}' new inum entries", result.size(), total);
+			}
+		} finally {
+			if (executorService != null) {
+				executorService.shutdownNow();
+			}
+		}
+
+		return result;
+	}
+
+	private void addInumMapsBlock(String inumbBaseDn, PersistenceEntryManager inumDbPersistenceEntryManager,
+			String[] keyAttributesWithoutValues, List<Entry<CacheCompoundKey, String[][]>> blockEntries,
+			int checkBatchSize, ExecutorService executorService, Map<CacheCompoundKey, GluuInumMap> result) {
+		List<String> inums = cacheRefreshService.generateInumsForNewInumMaps(inumbBaseDn, inumDbPersistenceEntryManager,
+				blockEntries.size(), checkBatchSize);
+
+		List<InumMapWriter> writers = new ArrayList<InumMapWriter>(blockEntries.size());
+		for (int i = 0; i < blockEntries.size(); i++) {
+			GluuInumMap inumMap = createInumMap(inumbBaseDn, inums.get(i), keyAttributesWithoutValues,
+					blockEntries.get(i).getValue());
+			writers.add(new InumMapWriter(inumbBaseDn, inumDbPersistenceEntryManager, inumMap));
+		}
+
+		if (executorService == null) {
+			for (int i = 0; i < writers.size(); i++) {
+				result.put(blockEntries.get(i).getKey(), writers.get(i).call());
+			}
+
+			return;
+		}
+
+		List<Future<GluuInumMap>> futures = new ArrayList<Future<GluuInumMap>>(writers.size());
+		for (InumMapWriter writer : writers) {
+			futures.add(executorService.submit(writer));
+		}
+
+		for (int i = 0; i < futures.size(); i++) {
+			result.put(blockEntries.get(i).getKey(), CacheRefreshThreadFactory.getWorkerResult(futures.get(i)));
+		}
+	}
+
+	private GluuInumMap createInumMap(String inumbBaseDn, String inum, String[] primaryKeyAttrName,
+			String[][] primaryKeyValues) {
+		GluuInumMap inumMap = new GluuInumMap();
+		inumMap.setDn(cacheRefreshService.getDnForInum(inumbBaseDn, inum));
+		inumMap.setInum(inum);
+		inumMap.setPrimaryKeyAttrName(primaryKeyAttrName[0]);
+		inumMap.setPrimaryKeyValues(primaryKeyValues[0]);
+		if (primaryKeyAttrName.length > 1) {
+			inumMap.setSecondaryKeyAttrName(primaryKeyAttrName[1]);
+			inumMap.setSecondaryKeyValues(primaryKeyValues[1]);
+		}
+		if (primaryKeyAttrName.length > 2) {
+			inumMap.setTertiaryKeyAttrName(primaryKeyAttrName[2]);
+			inumMap.setTertiaryKeyValues(primaryKeyValues[2]);
+		}
+		inumMap.setStatus(GluuStatus.ACTIVE);
+
+		return inumMap;
+	}
+
+	/**
+	 * Logs progress and updates last update date and count status attributes.
+	 * Merge writes only changed attributes. Returns time of last status update
+	 */
+	private long reportProgress(int added, int total, long lastProgressUpdate) {
+		log.info("Added '{}' from '{}' new inum entries", added, total);
+
+		long now = System.currentTimeMillis();
+		if (now - lastProgressUpdate < PROGRESS_UPDATE_INTERVAL) {
+			return lastProgressUpdate;
+		}
+
+		try {
+			GluuConfiguration configuration = configurationService.getConfiguration();
+			configuration.setVdsCacheRefreshLastUpdate(new Date(now));
+			configuration.setVdsCacheRefreshLastUpdateCount(String.valueOf(added));
+			configurationService.updateConfiguration(configuration);
+		} catch (EntryPersistenceException ex) {
+			log.warn("Failed to update Cache Refresh progress", ex);
+		}
+
+		return now;
+	}
+
+	private class InumMapWriter implements Callable<GluuInumMap> {
+
+		private final String inumbBaseDn;
+		private final PersistenceEntryManager inumDbPersistenceEntryManager;
+		private final GluuInumMap inumMap;
+
+		InumMapWriter(String inumbBaseDn, PersistenceEntryManager inumDbPersistenceEntryManager, GluuInumMap inumMap) {
+			this.inumbBaseDn = inumbBaseDn;
+			this.inumDbPersistenceEntryManager = inumDbPersistenceEntryManager;
+			this.inumMap = inumMap;
+		}
+
+		@Override
+		public GluuInumMap call() {
+			try {
+				cacheRefreshService.addInumMap(inumDbPersistenceEntryManager, inumMap);
+			} catch (EntryPersistenceException ex) {
+				// Inum might be taken after batch check. Fall back to inum checked individually
+				log.debug("Failed to add inum entry '{}'. Retrying with new inum", inumMap.getDn(), ex);
+
+				String inum = cacheRefreshService.generateInumForNewInumMap(inumbBaseDn, inumDbPersistenceEntryManager);
+				inumMap.setInum(inum);
+				inumMap.setDn(cacheRefreshService.getDnForInum(inumbBaseDn, inum));
+				cacheRefreshService.addInumMap(inumDbPersistenceEntryManager, inumMap);
+			}
+
+			return inumMap;
+		}
+
+	}
+
+}
@@ -0,0 +1,337 @@
+/*
+ * oxTrust is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2014, Gluu
+ */
+
+package org.gluu.oxtrust.ldap.cache.service;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import org.gluu.model.GluuStatus;
+import org.gluu.oxtrust.ldap.cache.model.GluuInumMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Local disk cache of inum entries. File consists of header and segments. First
+ * segment contains all inum entries, next segments contain added and removed
+ * entries of each run. Every segment has CRC32 checksum. Segments are appended
+ * until there are too many of them, after that file is compacted into single
+ * segment. File is read sequentially and all entries are decoded on load
+ */
+public class CacheRefreshInumMapStore {
+
+	private static final Logger log = LoggerFactory.getLogger(CacheRefreshInumMapStore.class);
+
+	public static final int MAGIC = 0x47494d53;
+	public static final int VERSION = 1;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final int HEADER_SIZE = 8;
+	private static final int SEGMENT_HEADER_SIZE = 16;
+
+	private static final byte RECORD_PUT = 1;
+	private static final byte RECORD_REMOVE = 2;
+
+	private static final int MAX_SEGMENTS = 16;
+
+	private final File file;
+
+	private boolean loaded;
+	private int segmentsCount;
+	private int baseRecordsCount;
+	private int deltaRecordsCount;
+
+	public CacheRefreshInumMapStore(String path) {
+		this.file = new File(path);
+	}
+
+	/**
+	 * Loads inum entries. Returns null if there is no cache file or it's
+	 * corrupted. In this case caller should load entries from inum server
+	 */
+	public List<GluuInumMap> load() {
+		this.loaded = false;
+		if (!file.exists()) {
+			return null;
+		}
+
+		Map<String, GluuInumMap> inumMaps = new LinkedHashMap<String, GluuInumMap>();
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+			long fileSize = file.length();
+			if ((fileSize < HEADER_SIZE) || (in.readInt() != MAGIC) || (in.readInt() != VERSION)) {
+				log.error("Inum cache file '{}' has invalid header", file);
+				return null;
+			}
+
+			int segments = 0;
+			int baseRecords = 0;
+			int deltaRecords = 0;
+
+			long position = HEADER_SIZE;
+			while (position < fileSize) {
+				if (position + SEGMENT_HEADER_SIZE > fileSize) {
+					log.error("Inum cache file '{}' has incomplete segment header", file);
+					return null;
+				}
+
+				int recordsCount = in.readInt();
+				int payloadSize = in.readInt();
+				long checksum = in.readLong();
+				long payloadStart = position + SEGMENT_HEADER_SIZE;
+				if ((recordsCount < 0) || (payloadSize < 0) || (payloadStart + payloadSize > fileSize)) {
+					log.error("Inum cache file '{}' has incomplete segment", file);
+					return null;
+				}
+
+				// Records are decoded only after segment checksum validation
+				byte[] payloadBytes = new byte[payloadSize];
+				in.readFully(payloadBytes);
+
+				CRC32 crc = new CRC32();
+				crc.update(payloadBytes);
+				if (crc.getValue() != checksum) {
+					log.error("Inum cache file '{}' has segment with invalid checksum", file);
+					return null;
+				}
+
+				ByteBuffer payload = ByteBuffer.wrap(payloadBytes);
+				for (int i = 0; i < recordsCount; i++) {
+					readRecord(payload, inumMaps);
+				}
+
+				if (segments == 0) {
+					baseRecords = recordsCount;
+				} else {
+					deltaRecords += recordsCount;
+				}
+				segments++;
+				position = payloadStart + payloadSize;
+			}
+
+			this.segmentsCount = segments;
+			this.baseRecordsCount = baseRecords;
+			this.deltaRecordsCount = deltaRecords;
+		} catch (IOException | RuntimeException ex) {
+			log.error("Failed to load inum cache file '{}'", file, ex);
+			return null;
+		}
+
+		this.loaded = true;
+
+		return new ArrayList<GluuInumMap>(inumMaps.values());
+	}
+
+	/**
+	 * Persists changes of current run. It appends segment with changes if cache
+	 * was loaded from disk and rewrites whole file otherwise or if there are too
+	 * many segments
+	 */
+	public boolean update(Collection<GluuInumMap> currentInumMaps, Collection<GluuInumMap> addedInumMaps,
+			Collection<String> removedInums) {
+		try {
+			if (!loaded || isCompactionNeeded(addedInumMaps.size() + removedInums.size())) {
+				write(currentInumMaps);
+			} else if (!addedInumMaps.isEmpty() || !removedInums.isEmpty()) {
+				append(addedInumMaps, removedInums);
+			}
+		} catch (IOException ex) {
+			log.error("Failed to write inum cache file '{}'", file, ex);
+			cleanup();
+			return false;
+		}
+
+		return true;
+	}
+
+	public void cleanup() {
+		this.loaded = false;
+		if (file.exists() && !file.delete()) {
+			log.warn("Failed to remove inum cache file '{}'", file);
+		}
+	}
+
+	private boolean isCompactionNeeded(int newDeltaRecordsCount) {
+		return (segmentsCount + 1 > MAX_SEGMENTS) || (deltaRecordsCount + newDeltaRecordsCount > baseRecordsCount);
+	}
+
+	private void write(Collection<GluuInumMap> inumMaps) throws IOException {
+		byte[] segment = createSegment(inumMaps, null);
+
+		File tmpFile = new File(file.getPath() + ".tmp");
+		try (FileChannel channel = FileChannel.open(tmpFile.toPath(), StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			header.putInt(MAGIC).putInt(VERSION).flip();
+			writeFully(channel, header);
+			writeFully(channel, ByteBuffer.wrap(segment));
+			channel.force(true);
+		}
+
+		// Replace file atomically to keep previous version if write fails
+		Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+		this.loaded = true;
+		this.segmentsCount = 1;
+		this.baseRecordsCount = inumMaps.size();
+		this.deltaRecordsCount = 0;
+		log.debug("Written '{}' entries into inum cache file '{}'", inumMaps.size(), file);
+	}
+
+	private void append(Collection<GluuInumMap> addedInumMaps, Collection<String> removedInums) throws IOException {
+		byte[] segment = createSegment(addedInumMaps, removedInums);
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE,
+				StandardOpenOption.APPEND)) {
+			writeFully(channel, ByteBuffer.wrap(segment));
+			channel.force(true);
+		}
+
+		this.segmentsCount++;
+		this.deltaRecordsCount += addedInumMaps.size() + removedInums.size();
+		log.debug("Appended '{}' added and '{}' removed entries into inum cache file '{}'", addedInumMaps.size(),
+				removedInums.size(), file);
+	}
+
+	private byte[] createSegment(Collection<GluuInumMap> inumMaps, Collection<String> removedInums)
+			throws IOException {
+		ByteArrayOutputStream payload = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(payload);
+
+		int recordsCount = 0;
+		if (removedInums != null) {
+			for (String removedInum : removedInums) {
+				out.writeByte(RECORD_REMOVE);
+				writeString(out, removedInum);
+				recordsCount++;
+			}
+		}
+
+		for (GluuInumMap inumMap : inumMaps) {
+			out.writeByte(RECORD_PUT);
+			writeString(out, inumMap.getDn());
+			writeString(out, inumMap.getInum());
+			writeString(out, inumMap.getPrimaryKeyAttrName());
+			writeStrings(out, inumMap.getPrimaryKeyValues());
+			writeString(out, inumMap.getSecondaryKeyAttrName());
+			writeStrings(out, inumMap.getSecondaryKeyValues());
+			writeString(out, inumMap.getTertiaryKeyAttrName());
+			writeStrings(out, inumMap.getTertiaryKeyValues());
+			writeString(out, inumMap.getStatus() == null ? null : inumMap.getStatus().getValue());
+			recordsCount++;
+		}
+		out.flush();
+
+		byte[] payloadBytes = payload.toByteArray();
+		CRC32 crc = new CRC32();
+		crc.update(payloadBytes);
+
+		ByteBuffer segment = ByteBuffer.allocate(SEGMENT_HEADER_SIZE + payloadBytes.length);
+		segment.putInt(recordsCount).putInt(payloadBytes.length).putLong(crc.getValue()).put(payloadBytes);
+
+		return segment.array();
+	}
+
+	private void readRecord(ByteBuffer payload, Map<String, GluuInumMap> inumMaps) {
+		byte type = payload.get();
+		if (type == RECORD_REMOVE) {
+			inumMaps.remove(readString(payload));
+			return;
+		}
+
+		if (type != RECORD_PUT) {
+			throw new IllegalStateException(String.format("Unknown record type '%d'", type));
+		}
+
+		GluuInumMap inumMap = new GluuInumMap();
+		inumMap.setDn(readString(payload));
+		inumMap.setInum(readString(payload));
+		inumMap.setPrimaryKeyAttrName(readString(payload));
+		inumMap.setPrimaryKeyValues(readStrings(payload));
+		inumMap.setSecondaryKeyAttrName(readString(payload));
+		inumMap.setSecondaryKeyValues(readStrings(payload));
+		inumMap.setTertiaryKeyAttrName(readString(payload));
+		inumMap.setTertiaryKeyValues(readStrings(payload));
+		String status = readString(payload);
+		if (status != null) {
+			inumMap.setStatus(GluuStatus.getByValue(status));
+		}
+
+		inumMaps.put(inumMap.getInum(), inumMap);
+	}
+
+	private static void writeString(DataOutputStream out, String value) throws IOException {
+		if (value == null) {
+			out.writeInt(-1);
+			return;
+		}
+
+		byte[] bytes = value.getBytes(UTF8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static void writeStrings(DataOutputStream out, String[] values) throws IOException {
+		if (values == null) {
+			out.writeInt(-1);
+			return;
+		}
+
+		out.writeInt(values.length);
+		for (String value : values) {
+			writeString(out, value);
+		}
+	}
+
+	private static String readString(ByteBuffer buffer) {
+		int length = buffer.getInt();
+		if (length < 0) {
+			return null;
+		}
+
+		byte[] bytes = new byte[length];
+		buffer.get(bytes);
+
+		return new String(bytes, UTF8);
+	}
+
+	private static String[] readStrings(ByteBuffer buffer) {
+		int count = buffer.getInt();
+		if (count < 0) {
+			return null;
+		}
+
+		String[] values = new String[count];
+		for (int i = 0; i < count; i++) {
+			values[i] = readString(buffer);
+		}
+
+		return values;
+	}
+
+	private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+	}
+
+}
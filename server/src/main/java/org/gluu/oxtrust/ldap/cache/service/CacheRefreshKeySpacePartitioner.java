@@ -0,0 +1,536 @@
+/*
+ * oxTrust is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2014, Gluu
+ */
+
+package org.gluu.oxtrust.ldap.cache.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.inject.Named;
+
+import org.gluu.config.oxtrust.CacheRefreshConfiguration;
+import org.gluu.oxtrust.ldap.cache.model.GluuSimplePerson;
+import org.gluu.persist.PersistenceEntryManager;
+import org.gluu.persist.exception.BasePersistenceException;
+import org.gluu.persist.exception.EntryPersistenceException;
+import org.gluu.persist.exception.operation.SearchException;
+import org.gluu.persist.model.SearchScope;
+import org.gluu.search.filter.Filter;
+import org.slf4j.Logger;
+
+/**
+ * Loads entries from source servers which limit search result size. Key space
+ * of first key attribute is split into prefixes. Search starts with single
+ * character prefixes and prefix is split only when search result reaches size
+ * limit. Resulted partitions layout is stored in snapshots folder and reused
+ * in next runs. Split prefix is merged back when all its partitions together
+ * return less than half of size limit. If source index is specified entries
+ * are passed to it as soon as partition is loaded
+ */
+@ApplicationScoped
+@Named
+public class CacheRefreshKeySpacePartitioner {
+
+	private static final String LETTERS_FOR_SEARCH = "abcdefghijklmnopqrstuvwxyz1234567890.";
+
+	private static final int MAX_PREFIX_LENGTH = 8;
+
+	private static final String EXACT_PARTITION_MARKER = "=";
+
+	@Inject
+	private Logger log;
+
+	@Inject
+	private CacheRefreshService cacheRefreshService;
+
+	@Inject
+	private CacheRefreshMetricsService cacheRefreshMetricsService;
+
+	@Inject
+	private CacheRefreshSnapshotFileService cacheRefreshSnapshotFileService;
+
+	public List<GluuSimplePerson> loadSourceServerEntries(CacheRefreshConfiguration cacheRefreshConfiguration,
+			LdapServerConnection[] sourceServerConnections, String[] keyAttributes, String[] keyAttributesWithoutValues,
+			String[] keyObjectClasses, Filter customFilter, String[] returnAttributes, int threadsCount,
+			CacheRefreshSourceIndex sourceIndex) throws SearchException {
+		int sizeLimit = cacheRefreshConfiguration.getLdapSearchSizeLimit();
+		PartitionFilterFactory filterFactory = new PartitionFilterFactory(keyAttributes, keyAttributesWithoutValues[0],
+				keyObjectClasses, customFilter);
+		String layoutSignature = Arrays.toString(keyAttributes) + Arrays.toString(keyObjectClasses)
+				+ cacheRefreshConfiguration.getCustomLdapFilter() + sizeLimit;
+
+		// Layouts of previous run. Missing or damaged file means default layouts
+		Map<String, List<String>> partitionLayouts = cacheRefreshSnapshotFileService
+				.readPartitionLayouts(cacheRefreshConfiguration);
+		if (partitionLayouts == null) {
+			partitionLayouts = new HashMap<String, List<String>>();
+		}
+
+		// Prepare initial searches. Each source server and base DN pair has own layout
+		List<String> layoutKeys = new ArrayList<String>();
+		List<PartitionSearch> searches = new ArrayList<PartitionSearch>();
+		for (LdapServerConnection sourceServerConnection : sourceServerConnections) {
+			for (String baseDn : sourceServerConnection.getBaseDns()) {
+				int layoutIndex = layoutKeys.size();
+				String layoutKey = sourceServerConnection.getSourceServerName() + "|" + baseDn + "|" + layoutSignature;
+				layoutKeys.add(layoutKey);
+
+				for (KeySpacePartition partition : getPartitionLayout(partitionLayouts.get(layoutKey))) {
+					searches.add(new PartitionSearch(layoutIndex, sourceServerConnection, baseDn, partition,
+							filterFactory.createFilter(partition), returnAttributes, sizeLimit));
+				}
+			}
+		}
+
+		List<PartitionResult> partitionResults = new ArrayList<PartitionResult>();
+
+		int poolSize = Math.max(1, Math.min(threadsCount, searches.size()));
+		log.debug("Loading entries from source servers using '{}' workers, '{}' initial partitions", poolSize,
+				searches.size());
+
+		ExecutorService executorService = Executors.newFixedThreadPool(poolSize,
+				new CacheRefreshThreadFactory("KeySpaceLoader"));
+		try {
+			CompletionService<PartitionResult> completionService = new ExecutorCompletionService<PartitionResult>(
+					executorService);
+			int activeSearches = 0;
+			for (PartitionSearch search : searches) {
+				completionService.submit(search);
+				activeSearches++;
+			}
+
+			while (activeSearches > 0) {
+				PartitionResult partitionResult = CacheRefreshThreadFactory.getWorkerResult(completionService.take());
+				activeSearches--;
+
+				KeySpacePartition partition = partitionResult.getPartition();
+				if (!partitionResult.isSizeLimitReached()) {
+					partitionResults.add(completePartition(partitionResult, sourceIndex));
+					continue;
+				}
+
+				if (!partition.canBeSplit()) {
+					log.warn("Search with prefix '{}' in '{}' reached size limit '{}' and can't be split. Result is incomplete",
+							partition.getPrefix(), partitionResult.getSearch().getBaseDn(), sizeLimit);
+					if (partitionResult.getEntries() != null) {
+						partitionResults.add(completePartition(partitionResult, sourceIndex));
+					}
+					continue;
+				}
+
+				log.debug("Splitting prefix '{}' in '{}' due to size limit", partition.getPrefix(),
+						partitionResult.getSearch().getBaseDn());
+				for (KeySpacePartition childPartition : partition.split()) {
+					completionService.submit(partitionResult.getSearch().forPartition(childPartition,
+							filterFactory.createFilter(childPartition)));
+					activeSearches++;
+				}
+			}
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new EntryPersistenceException("Interrupted while loading entries from source servers", ex);
+		} finally {
+			executorService.shutdownNow();
+		}
+
+		// Merge results in deterministic order to produce the same result as serial load
+		Collections.sort(partitionResults, PARTITION_RESULT_COMPARATOR);
+
+		List<List<PartitionResult>> layoutResults = new ArrayList<List<PartitionResult>>(layoutKeys.size());
+		for (int i = 0; i < layoutKeys.size(); i++) {
+			layoutResults.add(new ArrayList<PartitionResult>());
+		}
+
+		List<GluuSimplePerson> sourcePersons = new ArrayList<GluuSimplePerson>();
+		Set<String> addedDns = new HashSet<String>();
+		for (PartitionResult partitionResult : partitionResults) {
+			layoutResults.get(partitionResult.getSearch().getLayoutIndex()).add(partitionResult);
+			if (partitionResult.getEntries() != null) {
+				CacheRefreshSourceLoader.addSourcePersons(sourcePersons, addedDns, partitionResult.getEntries());
+			}
+		}
+
+		Map<String, List<String>> newPartitionLayouts = new HashMap<String, List<String>>();
+		for (int i = 0; i < layoutKeys.size(); i++) {
+			newPartitionLayouts.put(layoutKeys.get(i), toLayout(mergePartitions(layoutResults.get(i), sizeLimit)));
+		}
+		cacheRefreshSnapshotFileService.writePartitionLayouts(cacheRefreshConfiguration, newPartitionLayouts);
+		log.debug("Loaded '{}' entries from '{}' partitions", sourcePersons.size(), partitionResults.size());
+
+		return sourcePersons;
+	}
+
+	private PartitionResult completePartition(PartitionResult partitionResult, CacheRefreshSourceIndex sourceIndex) {
+		if (sourceIndex == null) {
+			return partitionResult;
+		}
+
+		// Pass entries to index right away and keep only partition info
+		sourceIndex.addSourcePersons(partitionResult.getEntries(), partitionResult.getSearch().getLayoutIndex());
+
+		return new PartitionResult(partitionResult.getSearch(), null, partitionResult.getEntriesCount(),
+				partitionResult.isSizeLimitReached());
+	}
+
+	/**
+	 * Replaces partitions of split prefix with this prefix if all of them
+	 * together returned less than half of size limit. Margin prevents split and
+	 * merge of the same prefix on each run
+	 */
+	private List<KeySpacePartition> mergePartitions(List<PartitionResult> partitionResults, int sizeLimit) {
+		List<KeySpacePartition> result = new ArrayList<KeySpacePartition>(partitionResults.size());
+		if (sizeLimit <= 0) {
+			for (PartitionResult partitionResult : partitionResults) {
+				result.add(partitionResult.getPartition());
+			}
+
+			return result;
+		}
+
+		// Count entries under each split prefix
+		Map<String, Integer> prefixCounts = new HashMap<String, Integer>();
+		for (PartitionResult partitionResult : partitionResults) {
+			KeySpacePartition partition = partitionResult.getPartition();
+			int count = partitionResult.isSizeLimitReached() ? sizeLimit : partitionResult.getEntriesCount();
+			for (String prefix : getSplitPrefixes(partition)) {
+				Integer prefixCount = prefixCounts.get(prefix);
+				prefixCounts.put(prefix, (prefixCount == null ? 0 : prefixCount) + count);
+			}
+		}
+
+		// Counts of longer prefixes aren't greater, so the shortest prefix which fits is merged
+		Set<String> mergedPrefixes = new HashSet<String>();
+		for (PartitionResult partitionResult : partitionResults) {
+			KeySpacePartition partition = partitionResult.getPartition();
+			String mergedPrefix = null;
+			for (String prefix : getSplitPrefixes(partition)) {
+				if (prefixCounts.get(prefix) * 2 < sizeLimit) {
+					mergedPrefix = prefix;
+					break;
+				}
+			}
+
+			if (mergedPrefix == null) {
+				result.add(partition);
+			} else if (mergedPrefixes.add(mergedPrefix)) {
+				log.debug("Merging partitions of prefix '{}'", mergedPrefix);
+				result.add(new KeySpacePartition(mergedPrefix, false));
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * Prefixes which were split to produce partition, from the shortest one
+	 */
+	private List<String> getSplitPrefixes(KeySpacePartition partition) {
+		String prefix = partition.getPrefix();
+		int length = partition.isExact() ? prefix.length() : prefix.length() - 1;
+
+		List<String> result = new ArrayList<String>(length);
+		for (int i = 1; i <= length; i++) {
+			result.add(prefix.substring(0, i));
+		}
+
+		return result;
+	}
+
+	/**
+	 * Checks that each key space part is covered by exactly one partition
+	 */
+	private boolean isCompleteLayout(List<String> partitionLayout) {
+		Set<String> partitions = new HashSet<String>(partitionLayout);
+		if (partitions.size() != partitionLayout.size()) {
+			return false;
+		}
+
+		int[] usedCount = new int[1];
+		for (char character : LETTERS_FOR_SEARCH.toCharArray()) {
+			if (!isCoveredPrefix(String.valueOf(character), partitions, usedCount)) {
+				return false;
+			}
+		}
+
+		return usedCount[0] == partitions.size();
+	}
+
+	private boolean isCoveredPrefix(String prefix, Set<String> partitions, int[] usedCount) {
+		if (partitions.contains(prefix)) {
+			usedCount[0]++;
+			return true;
+		}
+
+		if ((prefix.length() >= MAX_PREFIX_LENGTH) || !partitions.contains(EXACT_PARTITION_MARKER + prefix)) {
+			return false;
+		}
+		usedCount[0]++;
+
+		for (char character : LETTERS_FOR_SEARCH.toCharArray()) {
+			if (!isCoveredPrefix(prefix + character, partitions, usedCount)) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	private List<String> toLayout(List<KeySpacePartition> partitions) {
+		List<String> result = new ArrayList<String>(partitions.size());
+		for (KeySpacePartition partition : partitions) {
+			result.add(partition.isExact() ? EXACT_PARTITION_MARKER + partition.getPrefix() : partition.getPrefix());
+		}
+
+		return result;
+	}
+
+	private List<KeySpacePartition> getPartitionLayout(List<String> partitionLayout) {
+		if (partitionLayout != null) {
+			List<KeySpacePartition> result = new ArrayList<KeySpacePartition>(partitionLayout.size());
+			for (String partition : partitionLayout) {
+				if (partition.startsWith(EXACT_PARTITION_MARKER)) {
+					result.add(new KeySpacePartition(partition.substring(EXACT_PARTITION_MARKER.length()), true));
+				} else {
+					result.add(new KeySpacePartition(partition, false));
+				}
+			}
+
+			// Layout with gaps would make entries look removed
+			if (isCompleteLayout(partitionLayout)) {
+				return result;
+			}
+			log.warn("Stored partition layout is incomplete. Using default layout");
+		}
+
+		char[] characters = LETTERS_FOR_SEARCH.toCharArray();
+		List<KeySpacePartition> result = new ArrayList<KeySpacePartition>(characters.length);
+		for (char character : characters) {
+			result.add(new KeySpacePartition(String.valueOf(character), false));
+		}
+
+		return result;
+	}
+
+	private static final Comparator<PartitionResult> PARTITION_RESULT_COMPARATOR = new Comparator<PartitionResult>() {
+		@Override
+		public int compare(PartitionResult result1, PartitionResult result2) {
+			int layoutIndexCompare = Integer.compare(result1.getSearch().getLayoutIndex(),
+					result2.getSearch().getLayoutIndex());
+			if (layoutIndexCompare != 0) {
+				return layoutIndexCompare;
+			}
+
+			int prefixCompare = result1.getPartition().getPrefix().compareTo(result2.getPartition().getPrefix());
+			if (prefixCompare != 0) {
+				return prefixCompare;
+			}
+
+			// Exact value partition goes before its children
+			return Boolean.compare(!result1.getPartition().isExact(), !result2.getPartition().isExact());
+		}
+	};
+
+	/**
+	 * Part of key space: all values which start with prefix or value which is
+	 * equal to prefix
+	 */
+	private static class KeySpacePartition {
+
+		private final String prefix;
+		private final boolean exact;
+
+		KeySpacePartition(String prefix, boolean exact) {
+			this.prefix = prefix;
+			this.exact = exact;
+		}
+
+		public String getPrefix() {
+			return prefix;
+		}
+
+		public boolean isExact() {
+			return exact;
+		}
+
+		public boolean canBeSplit() {
+			return !exact && (prefix.length() < MAX_PREFIX_LENGTH);
+		}
+
+		public List<KeySpacePartition> split() {
+			char[] characters = LETTERS_FOR_SEARCH.toCharArray();
+			List<KeySpacePartition> result = new ArrayList<KeySpacePartition>(characters.length + 1);
+
+			// Value equal to prefix doesn't match any of longer prefixes
+			result.add(new KeySpacePartition(prefix, true));
+			for (char character : characters) {
+				result.add(new KeySpacePartition(prefix + character, false));
+			}
+
+			return result;
+		}
+
+	}
+
+	private class PartitionFilterFactory {
+
+		private final String[] keyAttributes;
+		private final String firstKeyAttribute;
+		private final String[] keyObjectClasses;
+		private final Filter customFilter;
+
+		PartitionFilterFactory(String[] keyAttributes, String firstKeyAttribute, String[] keyObjectClasses,
+				Filter customFilter) {
+			this.keyAttributes = keyAttributes;
+			this.firstKeyAttribute = firstKeyAttribute;
+			this.keyObjectClasses = keyObjectClasses;
+			this.customFilter = customFilter;
+		}
+
+		public Filter createFilter(KeySpacePartition partition) throws SearchException {
+			if (!partition.isExact()) {
+				return cacheRefreshService.createFilter(keyAttributes, keyObjectClasses, partition.getPrefix(),
+						customFilter);
+			}
+
+			Filter exactFilter = Filter.createEqualityFilter(firstKeyAttribute, partition.getPrefix());
+			if (customFilter != null) {
+				exactFilter = Filter.createANDFilter(customFilter, exactFilter);
+			}
+
+			return cacheRefreshService.createFilter(keyAttributes, keyObjectClasses, null, exactFilter);
+		}
+
+	}
+
+	private class PartitionSearch implements Callable<PartitionResult> {
+
+		private final int layoutIndex;
+		private final LdapServerConnection sourceServerConnection;
+		private final String baseDn;
+		private final KeySpacePartition partition;
+		private final Filter filter;
+		private final String[] returnAttributes;
+		private final int sizeLimit;
+
+		PartitionSearch(int layoutIndex, LdapServerConnection sourceServerConnection, String baseDn,
+				KeySpacePartition partition, Filter filter, String[] returnAttributes, int sizeLimit) {
+			this.layoutIndex = layoutIndex;
+			this.sourceServerConnection = sourceServerConnection;
+			this.baseDn = baseDn;
+			this.partition = partition;
+			this.filter = filter;
+			this.returnAttributes = returnAttributes;
+			this.sizeLimit = sizeLimit;
+		}
+
+		public int getLayoutIndex() {
+			return layoutIndex;
+		}
+
+		public String getBaseDn() {
+			return baseDn;
+		}
+
+		public PartitionSearch forPartition(KeySpacePartition childPartition, Filter childFilter) {
+			return new PartitionSearch(layoutIndex, sourceServerConnection, baseDn, childPartition, childFilter,
+					returnAttributes, sizeLimit);
+		}
+
+		@Override
+		public PartitionResult call() {
+			if (log.isTraceEnabled()) {
+				log.trace("Using next filter to load entris from source server: {}", filter);
+			}
+
+			PersistenceEntryManager sourcePersistenceEntryManager = sourceServerConnection.getPersistenceEntryManager();
+			List<GluuSimplePerson> currentSourcePersons;
+			try {
+				// Result is limited on client side too. Full page means that partition should be split
+				cacheRefreshMetricsService.addLdapOperations(1);
+				currentSourcePersons = sourcePersistenceEntryManager.findEntries(baseDn, GluuSimplePerson.class, filter,
+						SearchScope.SUB, returnAttributes, null, 0, sizeLimit, sizeLimit);
+			} catch (BasePersistenceException ex) {
+				// Servers without paging support fail when result is larger than server side size limit
+				if (!partition.canBeSplit()) {
+					throw ex;
+				}
+				log.debug("Failed to load entries with prefix '{}'. Attempting to split it", partition.getPrefix(), ex);
+
+				return new PartitionResult(this, null, true);
+			}
+
+			String sourceServerName = sourceServerConnection.getSourceServerName();
+			for (GluuSimplePerson currentSourcePerson : currentSourcePersons) {
+				currentSourcePerson.setSourceServerName(sourceServerName);
+			}
+
+			boolean sizeLimitReached = (sizeLimit > 0) && (currentSourcePersons.size() >= sizeLimit);
+
+			return new PartitionResult(this, currentSourcePersons, sizeLimitReached);
+		}
+
+		public KeySpacePartition getPartition() {
+			return partition;
+		}
+
+	}
+
+	private static class PartitionResult {
+
+		private final PartitionSearch search;
+		private final List<GluuSimplePerson> entries;
+		private final int entriesCount;
+		private final boolean sizeLimitReached;
+
+		PartitionResult(PartitionSearch search, List<GluuSimplePerson> entries, boolean sizeLimitReached) {
+			this(search, entries, entries == null ? 0 : entries.size(), sizeLimitReached);
+		}
+
+		PartitionResult(PartitionSearch search, List<GluuSimplePerson> entries, int entriesCount,
+				boolean sizeLimitReached) {
+			this.search = search;
+			this.entries = entries;
+			this.entriesCount = entriesCount;
+			this.sizeLimitReached = sizeLimitReached;
+		}
+
+		public PartitionSearch getSearch() {
+			return search;
+		}
+
+		public KeySpacePartition getPartition() {
+			return search.getPartition();
+		}
+
+		public List<GluuSimplePerson> getEntries() {
+			return entries;
+		}
+
+		public int getEntriesCount() {
+			return entriesCount;
+		}
+
+		public boolean isSizeLimitReached() {
+			return sizeLimitReached;
+		}
+
+	}
+
+}
@@ -0,0 +1,85 @@
+/*
+ * oxTrust is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2014, Gluu
+ */
+
+package org.gluu.oxtrust.ldap.cache.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+
+import org.gluu.oxtrust.ldap.cache.model.GluuSimplePerson;
+import org.gluu.oxtrust.model.GluuCustomAttribute;
+import org.gluu.oxtrust.model.GluuCustomPerson;
+import org.gluu.util.ArrayHelper;
+
+/**
+ * Target server attributes mapping compiled once per run. Source attribute
+ * names are resolved into arrays of target attribute names, so applying plan
+ * to entry needs neither intermediate maps nor lower case copies of names
+ */
+public class CacheRefreshMappingPlan {
+
+	private static final String[] NOT_MAPPED = new String[0];
+
+	// Source attribute name in any case -> target attribute names
+	private final Map<String, String[]> targetAttributeNames;
+
+	public CacheRefreshMappingPlan(Map<String, String> targetServerAttributesMapping) {
+		Map<String, List<String>> sourceToTargets = new TreeMap<String, List<String>>(String.CASE_INSENSITIVE_ORDER);
+		for (Entry<String, String> targetServerAttributeEntry : targetServerAttributesMapping.entrySet()) {
+			List<String> targets = sourceToTargets.get(targetServerAttributeEntry.getValue());
+			if (targets == null) {
+				targets = new ArrayList<String>(1);
+				sourceToTargets.put(targetServerAttributeEntry.getValue(), targets);
+			}
+			targets.add(targetServerAttributeEntry.getKey());
+		}
+
+		this.targetAttributeNames = new TreeMap<String, String[]>(String.CASE_INSENSITIVE_ORDER);
+		for (Entry<String, List<String>> sourceToTargetsEntry : sourceToTargets.entrySet()) {
+			this.targetAttributeNames.put(sourceToTargetsEntry.getKey(),
+					sourceToTargetsEntry.getValue().toArray(new String[sourceToTargetsEntry.getValue().size()]));
+		}
+	}
+
+	/**
+	 * Copies not mapped source attributes as is and then adds mapped
+	 * attributes. Mapped attribute replaces not mapped one with same name
+	 */
+	public void apply(GluuSimplePerson sourcePerson, GluuCustomPerson targetPerson) {
+		List<GluuCustomAttribute> sourceAttributes = sourcePerson.getCustomAttributes();
+		int count = sourceAttributes.size();
+
+		for (int i = 0; i < count; i++) {
+			GluuCustomAttribute sourceAttribute = sourceAttributes.get(i);
+			if (getTargetAttributeNames(sourceAttribute.getName()) == NOT_MAPPED) {
+				targetPerson.setAttribute(sourceAttribute);
+			}
+		}
+
+		for (int i = 0; i < count; i++) {
+			GluuCustomAttribute sourceAttribute = sourceAttributes.get(i);
+			String[] targetNames = getTargetAttributeNames(sourceAttribute.getName());
+			for (String targetName : targetNames) {
+				String[] clonedValues = ArrayHelper.arrayClone(sourceAttribute.getValues());
+				targetPerson.setAttribute(new GluuCustomAttribute(targetName, clonedValues));
+			}
+		}
+	}
+
+	private String[] getTargetAttributeNames(String sourceAttributeName) {
+		if (sourceAttributeName == null) {
+			return NOT_MAPPED;
+		}
+
+		String[] targetNames = targetAttributeNames.get(sourceAttributeName);
+
+		return targetNames == null ? NOT_MAPPED : targetNames;
+	}
+
+}
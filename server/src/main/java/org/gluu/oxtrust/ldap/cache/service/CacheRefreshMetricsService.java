@@ -0,0 +1,110 @@
+/*
+ * oxTrust is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2014, Gluu
+ */
+
+package org.gluu.oxtrust.ldap.cache.service;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedList;
+import java.util.List;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.inject.Named;
+
+import org.gluu.oxtrust.ldap.cache.model.CacheRefreshPhaseMetrics;
+import org.gluu.oxtrust.ldap.cache.model.CacheRefreshRunMetrics;
+import org.slf4j.Logger;
+
+/**
+ * Keeps metrics of last Cache Refresh runs
+ */
+@ApplicationScoped
+@Named
+public class CacheRefreshMetricsService {
+
+	private static final int HISTORY_SIZE = 24;
+
+	@Inject
+	private Logger log;
+
+	private final LinkedList<CacheRefreshRunMetrics> history = new LinkedList<CacheRefreshRunMetrics>();
+
+	private volatile CacheRefreshRunMetrics currentRun;
+
+	public CacheRefreshRunMetrics startRun(CacheRefreshUpdateMethod updateMethod) {
+		for (MemoryPoolMXBean memoryPool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (MemoryType.HEAP.equals(memoryPool.getType())) {
+				memoryPool.resetPeakUsage();
+			}
+		}
+
+		this.currentRun = new CacheRefreshRunMetrics(new Date(), updateMethod == null ? null : updateMethod.getDisplayName());
+
+		return this.currentRun;
+	}
+
+	/**
+	 * Counts LDAP requests of current run. Paged search is counted as one request
+	 */
+	public void addLdapOperations(long count) {
+		CacheRefreshRunMetrics runMetrics = this.currentRun;
+		if (runMetrics != null) {
+			runMetrics.addLdapOperations(count);
+		}
+	}
+
+	public void finishRun(CacheRefreshRunMetrics runMetrics, boolean success) {
+		if (this.currentRun == runMetrics) {
+			this.currentRun = null;
+		}
+
+		runMetrics.setDurationMillis(System.currentTimeMillis() - runMetrics.getStartTime().getTime());
+		runMetrics.setSuccess(success);
+
+		long peakHeapUsage = 0;
+		for (MemoryPoolMXBean memoryPool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (MemoryType.HEAP.equals(memoryPool.getType()) && (memoryPool.getPeakUsage() != null)) {
+				peakHeapUsage += memoryPool.getPeakUsage().getUsed();
+			}
+		}
+		runMetrics.setPeakHeapUsage(peakHeapUsage);
+
+		for (CacheRefreshPhaseMetrics phaseMetrics : runMetrics.getPhases()) {
+			log.info("Cache Refresh phase '{}' took '{}' ms, entries: '{}', entries/s: '{}', LDAP operations: '{}'",
+					phaseMetrics.getPhase().getDisplayName(), phaseMetrics.getDurationMillis(), phaseMetrics.getEntries(),
+					phaseMetrics.getEntriesPerSecond(), phaseMetrics.getLdapOperations());
+		}
+		log.info("Cache Refresh run took '{}' ms, peak heap usage: '{}' MB", runMetrics.getDurationMillis(),
+				runMetrics.getPeakHeapUsageMb());
+
+		synchronized (history) {
+			history.addFirst(runMetrics);
+			while (history.size() > HISTORY_SIZE) {
+				history.removeLast();
+			}
+		}
+	}
+
+	/**
+	 * Returns metrics of last runs. Latest run is first
+	 */
+	public List<CacheRefreshRunMetrics> getHistory() {
+		synchronized (history) {
+			return new ArrayList<CacheRefreshRunMetrics>(history);
+		}
+	}
+
+	public CacheRefreshRunMetrics getLastRun() {
+		synchronized (history) {
+			return history.isEmpty() ? null : history.getFirst();
+		}
+	}
+
+}
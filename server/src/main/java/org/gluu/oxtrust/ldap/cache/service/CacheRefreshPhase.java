@@ -0,0 +1,27 @@
+/*
+ * oxTrust is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2014, Gluu
+ */
+
+package org.gluu.oxtrust.ldap.cache.service;
+
+/**
+ * Cache Refresh run phases which are measured separately
+ */
+public enum CacheRefreshPhase {
+
+	SOURCE_LOAD("Source load"), INUM_MAP("Inum map"), HASHING("Hashing"), SNAPSHOT_IO("Snapshot I/O"),
+	TARGET_WRITE("Target write"), REMOVAL("Removal");
+
+	private String displayName;
+
+	private CacheRefreshPhase(String displayName) {
+		this.displayName = displayName;
+	}
+
+	public String getDisplayName() {
+		return displayName;
+	}
+
+}
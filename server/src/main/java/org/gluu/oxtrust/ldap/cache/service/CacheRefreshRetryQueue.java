@@ -0,0 +1,137 @@
+/*
+ * oxTrust is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2014, Gluu
+ */
+
+package org.gluu.oxtrust.ldap.cache.service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.gluu.oxtrust.ldap.cache.model.CacheRefreshProblemEntry;
+
+/**
+ * Entries which Cache Refresh failed to write to target server. Each failed
+ * entry is retried with exponential backoff. Entry which failed specified
+ * number of times is quarantined and it's retried only if it's changed in
+ * source server
+ */
+public class CacheRefreshRetryQueue {
+
+	// Error of entry which writer rejected without exception
+	public static final String ERROR_NOT_WRITTEN = "NotWritten";
+
+	private static final int MAX_BACKOFF_SHIFT = 30;
+
+	private final Map<String, CacheRefreshProblemEntry> entries;
+
+	private final long initialDelay;
+	private final long maxDelay;
+	private final int quarantineAttempts;
+
+	/**
+	 * Quarantine is disabled if quarantineAttempts is 0
+	 */
+	public CacheRefreshRetryQueue(List<CacheRefreshProblemEntry> problemEntries, long initialDelay, long maxDelay,
+			int quarantineAttempts) {
+		this.entries = new LinkedHashMap<String, CacheRefreshProblemEntry>();
+		if (problemEntries != null) {
+			for (CacheRefreshProblemEntry problemEntry : problemEntries) {
+				this.entries.put(problemEntry.getInum(), problemEntry);
+			}
+		}
+
+		this.initialDelay = initialDelay;
+		this.maxDelay = Math.max(initialDelay, maxDelay);
+		this.quarantineAttempts = quarantineAttempts;
+	}
+
+	/**
+	 * Inums of entries which should be retried in run started at specified time
+	 */
+	public Set<String> getEligibleInums(long time) {
+		Set<String> result = new HashSet<String>();
+		for (CacheRefreshProblemEntry problemEntry : entries.values()) {
+			if (!problemEntry.isQuarantined() && (problemEntry.getNextAttemptTime() <= time)) {
+				result.add(problemEntry.getInum());
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * Removes entries which don't exist in source server anymore. Returns count
+	 * of removed entries
+	 */
+	public int retainInums(InumHashCodeMap inumWithEntryHashCodeMap) {
+		int count = 0;
+		for (Iterator<String> it = entries.keySet().iterator(); it.hasNext();) {
+			if (!inumWithEntryHashCodeMap.containsKey(it.next())) {
+				it.remove();
+				count++;
+			}
+		}
+
+		return count;
+	}
+
+	public void succeeded(Collection<String> inums) {
+		for (String inum : inums) {
+			entries.remove(inum);
+		}
+	}
+
+	public void failed(String inum, String error, long time) {
+		CacheRefreshProblemEntry problemEntry = entries.get(inum);
+		if (problemEntry == null) {
+			problemEntry = new CacheRefreshProblemEntry(inum);
+			entries.put(inum, problemEntry);
+		}
+
+		int attempts = problemEntry.getAttempts() + 1;
+		long delay = Math.min(maxDelay, initialDelay << Math.min(attempts - 1, MAX_BACKOFF_SHIFT));
+
+		problemEntry.setAttempts(attempts);
+		problemEntry.setLastError(error == null ? ERROR_NOT_WRITTEN : error);
+		problemEntry.setNextAttemptTime(time + delay);
+		problemEntry.setQuarantined((quarantineAttempts > 0) && (attempts >= quarantineAttempts));
+	}
+
+	/**
+	 * Entry wasn't attempted in this run. It will be retried on next run
+	 * without changing count of attempts
+	 */
+	public void postponed(String inum) {
+		if (!entries.containsKey(inum)) {
+			entries.put(inum, new CacheRefreshProblemEntry(inum));
+		}
+	}
+
+	public int getQuarantinedCount() {
+		int count = 0;
+		for (CacheRefreshProblemEntry problemEntry : entries.values()) {
+			if (problemEntry.isQuarantined()) {
+				count++;
+			}
+		}
+
+		return count;
+	}
+
+	public int size() {
+		return entries.size();
+	}
+
+	public List<CacheRefreshProblemEntry> getEntries() {
+		return new ArrayList<CacheRefreshProblemEntry>(entries.values());
+	}
+
+}
@@ -0,0 +1,213 @@
+/*
+ * oxTrust is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2014, Gluu
+ */
+
+package org.gluu.oxtrust.ldap.cache.service;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Journal of Cache Refresh run. Only batches of entries written to target
+ * server are recorded. Other phases are repeated by resumed run because they
+ * are needed to build snapshot. If run is interrupted next run resumes it:
+ * entries which were written with same fingerprint are skipped. Journal is
+ * removed after successful run
+ */
+public class CacheRefreshRunJournal {
+
+	private static final Logger log = LoggerFactory.getLogger(CacheRefreshRunJournal.class);
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final String RECORD_RUN = "run";
+	private static final String RECORD_BATCH = "batch";
+
+	private static final char FIELD_SEPARATOR = '\t';
+	private static final char VALUE_SEPARATOR = ',';
+	private static final char HASH_SEPARATOR = '=';
+
+	private final File file;
+
+	private final Map<String, Long> committedHashCodes = new HashMap<String, Long>();
+
+	private Writer writer;
+
+	public CacheRefreshRunJournal(String path) {
+		this.file = new File(path);
+	}
+
+	/**
+	 * Loads journal of interrupted run if it was started with same run key.
+	 * Otherwise starts new journal. Returns true if run is resumed
+	 */
+	public boolean open(String runKey) {
+		boolean resumed = load(runKey);
+		try {
+			this.writer = new OutputStreamWriter(new FileOutputStream(file, resumed), UTF8);
+			if (!resumed) {
+				writeRecord(RECORD_RUN + FIELD_SEPARATOR + runKey);
+			} else if (!isEndsWithNewLine()) {
+				// Terminate incomplete record of interrupted run
+				writeRecord("");
+			}
+		} catch (IOException ex) {
+			log.error("Failed to open Cache Refresh run journal '{}'", file, ex);
+			close();
+		}
+
+		return resumed;
+	}
+
+	/**
+	 * Checks if entry was written to target server by interrupted run and
+	 * wasn't changed in source server after that
+	 */
+	public boolean isCommitted(String inum, long hashCode) {
+		Long committedHashCode = committedHashCodes.get(inum);
+
+		return (committedHashCode != null) && (committedHashCode == hashCode);
+	}
+
+	public int getCommittedCount() {
+		return committedHashCodes.size();
+	}
+
+	/**
+	 * Records batch of inums with fingerprints of entries which were written to
+	 * target server
+	 */
+	public void commitBatch(Map<String, Long> inumHashCodes) {
+		if (inumHashCodes.isEmpty()) {
+			return;
+		}
+
+		StringBuilder values = new StringBuilder();
+		for (Entry<String, Long> inumHashCode : inumHashCodes.entrySet()) {
+			if (values.length() > 0) {
+				values.append(VALUE_SEPARATOR);
+			}
+			values.append(inumHashCode.getKey()).append(HASH_SEPARATOR).append(Long.toHexString(inumHashCode.getValue()));
+		}
+
+		// Batch line might be incomplete after crash. Checksum allows to skip it
+		writeRecord(RECORD_BATCH + FIELD_SEPARATOR + checksum(values.toString()) + FIELD_SEPARATOR + values);
+		committedHashCodes.putAll(inumHashCodes);
+	}
+
+	/**
+	 * Removes journal after successful run
+	 */
+	public void finish() {
+		close();
+		committedHashCodes.clear();
+		if (file.exists() && !file.delete()) {
+			log.warn("Failed to remove Cache Refresh run journal '{}'", file);
+		}
+	}
+
+	public void close() {
+		if (writer == null) {
+			return;
+		}
+
+		try {
+			writer.close();
+		} catch (IOException ex) {
+			log.warn("Failed to close Cache Refresh run journal '{}'", file, ex);
+		}
+		writer = null;
+	}
+
+	private boolean load(String runKey) {
+		if (!file.exists()) {
+			return false;
+		}
+
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), UTF8))) {
+			String line = reader.readLine();
+			if ((line == null) || !line.equals(RECORD_RUN + FIELD_SEPARATOR + runKey)) {
+				log.info("Cache Refresh run journal '{}' belongs to run with another configuration. Ignoring it", file);
+				return false;
+			}
+
+			while ((line = reader.readLine()) != null) {
+				readRecord(line);
+			}
+		} catch (IOException | RuntimeException ex) {
+			log.error("Failed to load Cache Refresh run journal '{}'", file, ex);
+			committedHashCodes.clear();
+			return false;
+		}
+
+		return true;
+	}
+
+	private boolean isEndsWithNewLine() throws IOException {
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+			if (raf.length() == 0) {
+				return true;
+			}
+
+			raf.seek(raf.length() - 1);
+			return raf.read() == '\n';
+		}
+	}
+
+	private void readRecord(String line) {
+		if (line.isEmpty()) {
+			return;
+		}
+
+		String[] fields = line.split(String.valueOf(FIELD_SEPARATOR), -1);
+		if (!RECORD_BATCH.equals(fields[0]) || (fields.length != 3) || !fields[1].equals(checksum(fields[2]))) {
+			log.warn("Skipping incomplete record in Cache Refresh run journal '{}'", file);
+			return;
+		}
+
+		for (String value : fields[2].split(String.valueOf(VALUE_SEPARATOR))) {
+			int idx = value.lastIndexOf(HASH_SEPARATOR);
+			committedHashCodes.put(value.substring(0, idx), Long.parseUnsignedLong(value.substring(idx + 1), 16));
+		}
+	}
+
+	private void writeRecord(String record) {
+		if (writer == null) {
+			return;
+		}
+
+		try {
+			writer.write(record);
+			writer.write('\n');
+			writer.flush();
+		} catch (IOException ex) {
+			log.error("Failed to write Cache Refresh run journal '{}'", file, ex);
+			close();
+		}
+	}
+
+	private static String checksum(String value) {
+		CRC32 crc = new CRC32();
+		crc.update(value.getBytes(UTF8));
+
+		return Long.toHexString(crc.getValue());
+	}
+
+}
@@ -8,11 +8,10 @@ package org.gluu.oxtrust.ldap.cache.service;
 
 import java.io.Serializable;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.Set;
 
 import javax.ejb.Stateless;
@@ -21,15 +20,15 @@ import javax.inject.Named;
 
 import org.gluu.oxtrust.ldap.cache.model.GluuInumMap;
 import org.gluu.oxtrust.ldap.cache.model.GluuSimplePerson;
-import org.gluu.oxtrust.model.GluuCustomAttribute;
 import org.gluu.oxtrust.model.GluuCustomPerson;
 import org.gluu.oxtrust.service.InumService;
+import org.gluu.oxtrust.service.PersonService;
 import org.gluu.oxtrust.util.OxTrustConstants;
 import org.gluu.persist.PersistenceEntryManager;
+import org.gluu.persist.exception.EntryPersistenceException;
 import org.gluu.persist.exception.operation.SearchException;
 import org.gluu.persist.ldap.impl.LdapFilterConverter;
 import org.gluu.search.filter.Filter;
-import org.gluu.util.ArrayHelper;
 import org.gluu.util.OxConstants;
 import org.gluu.util.StringHelper;
 import org.slf4j.Logger;
@@ -45,6 +44,8 @@ public class CacheRefreshService implements Serializable {
 
 	private static final long serialVersionUID = -2225880517520443390L;
 
+	private static final int MAX_INUM_GENERATION_ATTEMPTS = 10;
+
 	@Inject
 	private Logger log;
 
@@ -54,6 +55,15 @@ public class CacheRefreshService implements Serializable {
 	@Inject
 	private InumService inumService;
 
+	@Inject
+	private PersonService personService;
+
+	@Inject
+	private PersistenceEntryManager persistenceEntryManager;
+
+	@Inject
+	private CacheRefreshMetricsService cacheRefreshMetricsService;
+
 	public Filter createFilter(String customLdapFilter) throws SearchException {
 		if (StringHelper.isEmpty(customLdapFilter)) {
 			return null;
@@ -105,10 +115,12 @@ public class CacheRefreshService implements Serializable {
 	}
 
 	public void addInumMap(PersistenceEntryManager ldapEntryManager, GluuInumMap inumMap) {
+		cacheRefreshMetricsService.addLdapOperations(1);
 		ldapEntryManager.persist(inumMap);
 	}
 
 	public boolean containsInumMap(PersistenceEntryManager ldapEntryManager, String dn) {
+		cacheRefreshMetricsService.addLdapOperations(1);
 		return ldapEntryManager.contains(dn, GluuInumMap.class);
 	}
 
@@ -123,54 +135,92 @@ public class CacheRefreshService implements Serializable {
 		return newInum;
 	}
 
-	public String getDnForInum(String baseDn, String inum) {
-		return String.format("inum=%s,%s", inum, baseDn);
-	}
+	/**
+	 * Generates block of unique inums. Collisions with existing inum map entries
+	 * and people are checked by single search per batch instead of lookup per
+	 * inum
+	 */
+	public List<String> generateInumsForNewInumMaps(String inumbBaseDn, PersistenceEntryManager ldapEntryManager,
+			int count, int checkBatchSize) {
+		Set<String> result = new LinkedHashSet<String>();
+		for (int attempt = 0; (result.size() < count) && (attempt < MAX_INUM_GENERATION_ATTEMPTS); attempt++) {
+			Set<String> candidateSet = new LinkedHashSet<String>();
+			while (candidateSet.size() < count - result.size()) {
+				String candidate = inumService.generateInums(OxTrustConstants.INUM_TYPE_PEOPLE_SLUG, false);
+				if (!result.contains(candidate)) {
+					candidateSet.add(candidate);
+				}
+			}
 
-	private String generateInumForNewInumMapImpl() {
-		String inum = inumService.generateInums(OxTrustConstants.INUM_TYPE_PEOPLE_SLUG);
-		return inum;
-	}
+			List<String> candidates = new ArrayList<String>(candidateSet);
 
-	public void setTargetEntryAttributes(GluuSimplePerson sourcePerson, Map<String, String> targetServerAttributesMapping,
-			GluuCustomPerson targetPerson) {
-		// Collect all attributes to single map
-		Map<String, GluuCustomAttribute> customAttributesMap = new HashMap<String, GluuCustomAttribute>();
-		for (GluuCustomAttribute sourceCustomAttribute : sourcePerson.getCustomAttributes()) {
-			customAttributesMap.put(StringHelper.toLowerCase(sourceCustomAttribute.getName()), sourceCustomAttribute);
+			for (int i = 0; i < candidates.size(); i += checkBatchSize) {
+				List<String> batch = candidates.subList(i, Math.min(i + checkBatchSize, candidates.size()));
+				Set<String> existingInums = findExistingInums(inumbBaseDn, ldapEntryManager, batch);
+				existingInums.addAll(findExistingPersonInums(batch));
+				for (String candidate : batch) {
+					if (!existingInums.contains(candidate)) {
+						result.add(candidate);
+					}
+				}
+			}
 		}
 
-		List<GluuCustomAttribute> resultAttributes = new ArrayList<GluuCustomAttribute>();
+		if (result.size() < count) {
+			throw new EntryPersistenceException(String.format("Failed to generate '%d' unique inums", count));
+		}
 
-		// Add attributes configured via mapping
-		Set<String> processedAttributeNames = new HashSet<String>();
-		for (Entry<String, String> targetServerAttributeEntry : targetServerAttributesMapping.entrySet()) {
-			String sourceKeyAttributeName = StringHelper.toLowerCase(targetServerAttributeEntry.getValue());
-			String targetKeyAttributeName = targetServerAttributeEntry.getKey();
+		return new ArrayList<String>(result);
+	}
 
-			processedAttributeNames.add(sourceKeyAttributeName);
+	private Set<String> findExistingInums(String inumbBaseDn, PersistenceEntryManager ldapEntryManager, List<String> inums) {
+		Filter[] inumFilters = new Filter[inums.size()];
+		for (int i = 0; i < inums.size(); i++) {
+			inumFilters[i] = Filter.createEqualityFilter(OxTrustConstants.inum, inums.get(i));
+		}
 
-			GluuCustomAttribute gluuCustomAttribute = customAttributesMap.get(sourceKeyAttributeName);
-			if (gluuCustomAttribute != null) {
-				String[] values = gluuCustomAttribute.getValues();
-				String[] clonedValue = ArrayHelper.arrayClone(values);
-				
-				GluuCustomAttribute gluuCustomAttributeCopy = new GluuCustomAttribute(targetKeyAttributeName, clonedValue);
-				gluuCustomAttributeCopy.setName(targetKeyAttributeName);
-				resultAttributes.add(gluuCustomAttributeCopy);
-			}
+		cacheRefreshMetricsService.addLdapOperations(1);
+		List<GluuInumMap> existingInumMaps = ldapEntryManager.findEntries(inumbBaseDn, GluuInumMap.class,
+				Filter.createORFilter(inumFilters), new String[] { OxTrustConstants.inum });
+
+		Set<String> result = new HashSet<String>();
+		for (GluuInumMap existingInumMap : existingInumMaps) {
+			result.add(existingInumMap.getInum());
 		}
 
-		// Set destination entry attributes
-		for (Entry<String, GluuCustomAttribute> sourceCustomAttributeEntry : customAttributesMap.entrySet()) {
-			if (!processedAttributeNames.contains(sourceCustomAttributeEntry.getKey())) {
-				targetPerson.setAttribute(sourceCustomAttributeEntry.getValue());
-			}
+		return result;
+	}
+
+	private Set<String> findExistingPersonInums(List<String> inums) {
+		Filter[] inumFilters = new Filter[inums.size()];
+		for (int i = 0; i < inums.size(); i++) {
+			inumFilters[i] = Filter.createEqualityFilter(OxTrustConstants.inum, inums.get(i));
 		}
 
-		for (GluuCustomAttribute resultAttribute : resultAttributes) {
-			targetPerson.setAttribute(resultAttribute);
+		cacheRefreshMetricsService.addLdapOperations(1);
+		List<GluuCustomPerson> existingPersons = persistenceEntryManager.findEntries(personService.getDnForPerson(null),
+				GluuCustomPerson.class, Filter.createORFilter(inumFilters), new String[] { OxTrustConstants.inum });
+
+		Set<String> result = new HashSet<String>();
+		for (GluuCustomPerson existingPerson : existingPersons) {
+			result.add(existingPerson.getInum());
 		}
+
+		return result;
+	}
+
+	public String getDnForInum(String baseDn, String inum) {
+		return String.format("inum=%s,%s", inum, baseDn);
+	}
+
+	private String generateInumForNewInumMapImpl() {
+		String inum = inumService.generateInums(OxTrustConstants.INUM_TYPE_PEOPLE_SLUG);
+		return inum;
+	}
+
+	public void setTargetEntryAttributes(GluuSimplePerson sourcePerson, Map<String, String> targetServerAttributesMapping,
+			GluuCustomPerson targetPerson) {
+		new CacheRefreshMappingPlan(targetServerAttributesMapping).apply(sourcePerson, targetPerson);
 	}
 
 }
@@ -0,0 +1,87 @@
+/*
+ * oxTrust is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2014, Gluu
+ */
+
+package org.gluu.oxtrust.ldap.cache.service;
+
+import org.gluu.oxtrust.ldap.cache.model.CacheCompoundKey;
+
+/**
+ * Part of compound keys space processed by one cluster node. Hash space of
+ * compound keys is split into equal ranges, one range per live node
+ */
+public class CacheRefreshShard {
+
+	// Golden ratio multiplier spreads compound key hash codes evenly over hash space
+	private static final int HASH_SPREAD = 0x9E3779B9;
+
+	private final String nodeId;
+	private final int index;
+	private final int count;
+
+	public CacheRefreshShard(String nodeId, int index, int count) {
+		this.nodeId = nodeId;
+		this.index = index;
+		this.count = count;
+	}
+
+	public boolean isOwner(CacheCompoundKey cacheCompoundKey) {
+		if (count == 1) {
+			return true;
+		}
+
+		long hash = (cacheCompoundKey.hashCode() * HASH_SPREAD) & 0xFFFFFFFFL;
+
+		return (int) ((hash * count) >>> 32) == index;
+	}
+
+	/**
+	 * Snapshots folder of shard. Folder changes with shards layout to avoid
+	 * comparing snapshots of different key ranges
+	 */
+	public String getFolderName() {
+		return String.format("shard-%d-of-%d", index + 1, count);
+	}
+
+	public String getNodeId() {
+		return nodeId;
+	}
+
+	public int getIndex() {
+		return index;
+	}
+
+	public int getCount() {
+		return count;
+	}
+
+	@Override
+	public int hashCode() {
+		return 31 * index + count;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (!(obj instanceof CacheRefreshShard)) {
+			return false;
+		}
+
+		CacheRefreshShard other = (CacheRefreshShard) obj;
+
+		return (index == other.index) && (count == other.count);
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder();
+		builder.append("CacheRefreshShard [nodeId=").append(nodeId).append(", index=").append(index).append(", count=")
+				.append(count).append("]");
+		return builder.toString();
+	}
+
+}
@@ -0,0 +1,239 @@
+/*
+ * oxTrust is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2014, Gluu
+ */
+
+package org.gluu.oxtrust.ldap.cache.service;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.inject.Named;
+
+import org.gluu.oxtrust.ldap.cache.conf.CacheRefreshTuningConfiguration;
+import org.gluu.oxtrust.ldap.cache.model.CacheRefreshNode;
+import org.gluu.oxtrust.service.ConfigurationService;
+import org.gluu.persist.PersistenceEntryManager;
+import org.gluu.persist.exception.BasePersistenceException;
+import org.gluu.persist.model.base.SimpleBranch;
+import org.gluu.util.StringHelper;
+import org.slf4j.Logger;
+
+/**
+ * Coordinates sharded Cache Refresh between cluster nodes. Each node keeps
+ * entry with heartbeat time in LDAP. Nodes with heartbeat within lease period
+ * are live, they are ordered by node Id and each of them gets range of
+ * compound keys hash space. Every node publishes layout which it sees. Shard
+ * is used only after all live nodes publish the same layout
+ */
+@ApplicationScoped
+@Named
+public class CacheRefreshShardCoordinator {
+
+	@Inject
+	private Logger log;
+
+	@Inject
+	private PersistenceEntryManager ldapEntryManager;
+
+	@Inject
+	private ConfigurationService configurationService;
+
+	@Inject
+	private CacheRefreshTuningConfiguration cacheRefreshTuningConfiguration;
+
+	private String localNodeId;
+
+	private volatile String publishedLayout;
+
+	/**
+	 * Renews lease of this node and returns shard which it should process. Returns
+	 * null if it's not possible to determine live nodes or if they don't agree
+	 * on layout yet
+	 */
+	public CacheRefreshShard acquireShard() {
+		if (!heartbeat()) {
+			return null;
+		}
+
+		List<CacheRefreshNode> liveNodes = findLiveNodes(true);
+		if (liveNodes == null) {
+			return null;
+		}
+
+		String nodeId = getLocalNodeId();
+		List<String> liveNodeIds = getLiveNodeIds(liveNodes);
+		String layout = liveNodeIds.toString();
+		if (!layout.equals(this.publishedLayout)) {
+			// Other nodes will see new layout on their next run
+			this.publishedLayout = layout;
+			if (!heartbeat()) {
+				return null;
+			}
+		}
+
+		List<String> otherLayoutNodeIds = new ArrayList<String>();
+		for (CacheRefreshNode liveNode : liveNodes) {
+			if (!StringHelper.equals(nodeId, liveNode.getNodeId()) && !layout.equals(liveNode.getLayout())) {
+				otherLayoutNodeIds.add(liveNode.getNodeId());
+			}
+		}
+
+		if (!otherLayoutNodeIds.isEmpty()) {
+			log.info("Waiting for Cache Refresh nodes '{}' to agree on layout '{}'", otherLayoutNodeIds, layout);
+			return null;
+		}
+
+		CacheRefreshShard shard = new CacheRefreshShard(nodeId, liveNodeIds.indexOf(nodeId), liveNodeIds.size());
+		log.info("Cache Refresh live nodes: '{}'. Processing shard '{}' of '{}'", liveNodeIds, shard.getIndex() + 1,
+				shard.getCount());
+
+		return shard;
+	}
+
+	/**
+	 * Returns shard according to current live nodes without waiting for other
+	 * nodes. It allows to detect layout change during run. Returns null if it's
+	 * not possible to load live nodes
+	 */
+	public CacheRefreshShard findCurrentShard() {
+		List<CacheRefreshNode> liveNodes = findLiveNodes(false);
+		if (liveNodes == null) {
+			return null;
+		}
+
+		String nodeId = getLocalNodeId();
+		List<String> liveNodeIds = getLiveNodeIds(liveNodes);
+
+		return new CacheRefreshShard(nodeId, liveNodeIds.indexOf(nodeId), liveNodeIds.size());
+	}
+
+	private List<CacheRefreshNode> findLiveNodes(boolean removeExpiredNodes) {
+		List<CacheRefreshNode> nodes;
+		try {
+			nodes = ldapEntryManager.findEntries(getDnForNode(null), CacheRefreshNode.class, null);
+		} catch (BasePersistenceException ex) {
+			log.error("Failed to load Cache Refresh nodes", ex);
+			return null;
+		}
+
+		String nodeId = getLocalNodeId();
+		long leaseExpiration = System.currentTimeMillis() - cacheRefreshTuningConfiguration.getShardingLeaseSeconds() * 1000L;
+
+		List<CacheRefreshNode> result = new ArrayList<CacheRefreshNode>();
+		for (CacheRefreshNode node : nodes) {
+			if ((node.getHeartbeatTime() != null) && (node.getHeartbeatTime().getTime() >= leaseExpiration)) {
+				result.add(node);
+			} else if (removeExpiredNodes && !StringHelper.equals(nodeId, node.getNodeId())) {
+				removeExpiredNode(node);
+			}
+		}
+
+		return result;
+	}
+
+	private List<String> getLiveNodeIds(List<CacheRefreshNode> liveNodes) {
+		List<String> result = new ArrayList<String>();
+		for (CacheRefreshNode liveNode : liveNodes) {
+			result.add(liveNode.getNodeId());
+		}
+
+		String nodeId = getLocalNodeId();
+		if (!result.contains(nodeId)) {
+			result.add(nodeId);
+		}
+		Collections.sort(result);
+
+		return result;
+	}
+
+	/**
+	 * Updates heartbeat time of this node. It should be called more often than
+	 * lease period during long runs
+	 */
+	public boolean heartbeat() {
+		String nodeId = getLocalNodeId();
+		String nodeDn = getDnForNode(nodeId);
+		try {
+			prepareBranch();
+
+			CacheRefreshNode node = new CacheRefreshNode();
+			node.setDn(nodeDn);
+			node.setNodeId(nodeId);
+			node.setHeartbeatTime(new Date());
+			node.setLayout(this.publishedLayout);
+
+			if (ldapEntryManager.contains(nodeDn, CacheRefreshNode.class)) {
+				ldapEntryManager.merge(node);
+			} else {
+				ldapEntryManager.persist(node);
+			}
+		} catch (BasePersistenceException ex) {
+			log.error("Failed to update heartbeat of Cache Refresh node '{}'", nodeId, ex);
+			return false;
+		}
+
+		return true;
+	}
+
+	public String getLocalNodeId() {
+		String nodeId = cacheRefreshTuningConfiguration.getShardingNodeId();
+		if (StringHelper.isNotEmpty(nodeId)) {
+			return nodeId;
+		}
+
+		if (this.localNodeId == null) {
+			try {
+				this.localNodeId = InetAddress.getLocalHost().getHostName();
+			} catch (UnknownHostException ex) {
+				this.localNodeId = UUID.randomUUID().toString();
+				log.warn("Failed to determine host name. Using generated Cache Refresh node Id '{}'", this.localNodeId, ex);
+			}
+		}
+
+		return this.localNodeId;
+	}
+
+	private void removeExpiredNode(CacheRefreshNode node) {
+		try {
+			ldapEntryManager.remove(node);
+			log.info("Removed expired Cache Refresh node '{}'", node.getNodeId());
+		} catch (BasePersistenceException ex) {
+			// Another node might remove it already
+			log.debug("Failed to remove expired Cache Refresh node '{}'", node.getNodeId(), ex);
+		}
+	}
+
+	private void prepareBranch() {
+		String baseDn = getDnForNode(null);
+		if (!ldapEntryManager.hasBranchesSupport(baseDn)) {
+			return;
+		}
+
+		if (!ldapEntryManager.contains(baseDn, SimpleBranch.class)) {
+			SimpleBranch branch = new SimpleBranch();
+			branch.setOrganizationalUnitName("cacheRefreshNodes");
+			branch.setDn(baseDn);
+
+			ldapEntryManager.persist(branch);
+		}
+	}
+
+	private String getDnForNode(String nodeId) {
+		String baseDn = String.format("ou=cacheRefreshNodes,%s", configurationService.getDnForConfiguration());
+		if (StringHelper.isEmpty(nodeId)) {
+			return baseDn;
+		}
+
+		return String.format("ou=%s,%s", nodeId, baseDn);
+	}
+
+}
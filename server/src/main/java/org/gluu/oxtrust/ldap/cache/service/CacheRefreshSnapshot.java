@@ -0,0 +1,287 @@
+/*
+ * oxTrust is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2014, Gluu
+ */
+
+package org.gluu.oxtrust.ldap.cache.service;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+
+/**
+ * Read only snapshot of inum to entry fingerprint pairs in binary format.
+ *
+ * Layout: header (magic, version, records count, string pool size and since
+ * version 2 fingerprint algorithm id), records sorted by inum UTF-8 bytes
+ * (string pool offset, fingerprint) and string pool with inums. Version 1
+ * records have 32-bit hash codes, version 2 records have 64-bit
+ * fingerprints. It can be used directly on top of memory-mapped file without
+ * creating objects per entry
+ */
+public class CacheRefreshSnapshot {
+
+	public static final int MAGIC = 0x47435253;
+	public static final int VERSION_1 = 1;
+	public static final int VERSION_2 = 2;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final int HEADER_SIZE_V1 = 16;
+	private static final int RECORD_SIZE_V1 = 8;
+	private static final int HEADER_SIZE_V2 = 20;
+	private static final int RECORD_SIZE_V2 = 12;
+
+	private final ByteBuffer buffer;
+	private final int version;
+	private final int count;
+	private final int poolSize;
+	private final int headerSize;
+	private final int recordSize;
+	private final int poolStart;
+	private final CacheRefreshFingerprintAlgorithm algorithm;
+
+	private CacheRefreshSnapshot(ByteBuffer buffer) {
+		this.buffer = buffer;
+		this.version = buffer.getInt(4);
+		this.count = buffer.getInt(8);
+		this.poolSize = buffer.getInt(12);
+		if (version == VERSION_1) {
+			this.headerSize = HEADER_SIZE_V1;
+			this.recordSize = RECORD_SIZE_V1;
+			this.algorithm = CacheRefreshFingerprintAlgorithm.LEGACY;
+		} else {
+			this.headerSize = HEADER_SIZE_V2;
+			this.recordSize = RECORD_SIZE_V2;
+			this.algorithm = CacheRefreshFingerprintAlgorithm.getById(buffer.getInt(16));
+		}
+		this.poolStart = headerSize + count * recordSize;
+	}
+
+	/**
+	 * Wraps buffer with snapshot data. Throws IllegalArgumentException if buffer
+	 * content is not valid snapshot of supported version or if record offsets
+	 * point outside of string pool
+	 */
+	public static CacheRefreshSnapshot wrap(ByteBuffer buffer) {
+		buffer.order(ByteOrder.BIG_ENDIAN);
+		if (buffer.limit() < HEADER_SIZE_V1) {
+			throw new IllegalArgumentException("Snapshot is too short");
+		}
+
+		if (buffer.getInt(0) != MAGIC) {
+			throw new IllegalArgumentException("Snapshot has invalid header");
+		}
+
+		int version = buffer.getInt(4);
+		int headerSize, recordSize;
+		if (version == VERSION_1) {
+			headerSize = HEADER_SIZE_V1;
+			recordSize = RECORD_SIZE_V1;
+		} else if (version == VERSION_2) {
+			headerSize = HEADER_SIZE_V2;
+			recordSize = RECORD_SIZE_V2;
+		} else {
+			throw new IllegalArgumentException(String.format("Snapshot version '%d' is not supported", version));
+		}
+
+		int count = buffer.getInt(8);
+		int poolSize = buffer.getInt(12);
+		if ((count < 0) || (poolSize < 0) || ((long) headerSize + (long) count * recordSize + poolSize != buffer.limit())) {
+			throw new IllegalArgumentException("Snapshot size doesn't match header");
+		}
+
+		// Inum length is calculated from offset of next record. Damaged offsets lead to reads outside of inum bounds
+		int prevOffset = 0;
+		for (int i = 0; i < count; i++) {
+			int offset = buffer.getInt(headerSize + i * recordSize);
+			if ((offset < prevOffset) || (offset > poolSize) || ((i == 0) && (offset != 0))) {
+				throw new IllegalArgumentException(String.format("Snapshot record '%d' has invalid inum offset", i));
+			}
+			prevOffset = offset;
+		}
+
+		return new CacheRefreshSnapshot(buffer);
+	}
+
+	public static CacheRefreshSnapshot create(InumHashCodeMap inumWithEntryHashCodeMap,
+			CacheRefreshFingerprintAlgorithm algorithm) {
+		int[] slots = inumWithEntryHashCodeMap.getSortedSlots();
+
+		int poolSize = 0;
+		for (int slot : slots) {
+			poolSize += inumWithEntryHashCodeMap.getKeyLength(slot);
+		}
+
+		ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE_V2 + slots.length * RECORD_SIZE_V2 + poolSize);
+		buffer.putInt(MAGIC).putInt(VERSION_2).putInt(slots.length).putInt(poolSize).putInt(algorithm.getId());
+
+		int poolOffset = 0;
+		for (int slot : slots) {
+			buffer.putInt(poolOffset).putLong(inumWithEntryHashCodeMap.getValue(slot));
+			poolOffset += inumWithEntryHashCodeMap.getKeyLength(slot);
+		}
+
+		byte[] keyPool = inumWithEntryHashCodeMap.getKeyPool();
+		for (int slot : slots) {
+			buffer.put(keyPool, inumWithEntryHashCodeMap.getKeyOffset(slot), inumWithEntryHashCodeMap.getKeyLength(slot));
+		}
+		buffer.flip();
+
+		return new CacheRefreshSnapshot(buffer);
+	}
+
+	/**
+	 * Algorithm which was used to calculate fingerprints. It's null if snapshot
+	 * was created with unknown algorithm
+	 */
+	public CacheRefreshFingerprintAlgorithm getAlgorithm() {
+		return algorithm;
+	}
+
+	/**
+	 * Returns copy of snapshot data which can be written to file
+	 */
+	public ByteBuffer getData() {
+		return buffer.duplicate();
+	}
+
+	public int size() {
+		return count;
+	}
+
+	public String getInum(int index) {
+		int offset = getInumOffset(index);
+		byte[] inum = new byte[getInumLength(index)];
+		for (int i = 0; i < inum.length; i++) {
+			inum[i] = buffer.get(offset + i);
+		}
+
+		return new String(inum, UTF8);
+	}
+
+	public long getHashCode(int index) {
+		if (version == VERSION_1) {
+			return buffer.getInt(headerSize + index * recordSize + 4);
+		}
+
+		return buffer.getLong(headerSize + index * recordSize + 4);
+	}
+
+	/**
+	 * Binary search of fingerprint by inum. Returns null if there is no such
+	 * inum in snapshot
+	 */
+	public Long findHashCode(String inum) {
+		byte[] inumBytes = inum.getBytes(UTF8);
+		ByteBuffer inumBuffer = ByteBuffer.wrap(inumBytes);
+
+		int low = 0;
+		int high = count - 1;
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			int compare = compareBytes(buffer, getInumOffset(middle), getInumLength(middle), inumBuffer, 0, inumBytes.length);
+			if (compare < 0) {
+				low = middle + 1;
+			} else if (compare > 0) {
+				high = middle - 1;
+			} else {
+				return getHashCode(middle);
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * Merge-join of this snapshot with previous one. Both of them are sorted, so
+	 * it's single sequential pass without lookups. If previous snapshot is null
+	 * all inums are new
+	 */
+	public CacheRefreshSnapshotDiff diff(CacheRefreshSnapshot prevSnapshot) {
+		return diff(prevSnapshot, true);
+	}
+
+	/**
+	 * Merge-join without collecting removed inums. It's useful when this
+	 * snapshot contains only part of entries
+	 */
+	public CacheRefreshSnapshotDiff diff(CacheRefreshSnapshot prevSnapshot, boolean collectRemoved) {
+		CacheRefreshSnapshotDiff result = new CacheRefreshSnapshotDiff();
+		if (prevSnapshot == null) {
+			for (int i = 0; i < count; i++) {
+				result.getAddedInums().add(getInum(i));
+			}
+
+			return result;
+		}
+
+		int currIndex = 0;
+		int prevIndex = 0;
+		while ((currIndex < count) && (prevIndex < prevSnapshot.count)) {
+			int compare = compareBytes(buffer, getInumOffset(currIndex), getInumLength(currIndex), prevSnapshot.buffer,
+					prevSnapshot.getInumOffset(prevIndex), prevSnapshot.getInumLength(prevIndex));
+			if (compare < 0) {
+				result.getAddedInums().add(getInum(currIndex));
+				currIndex++;
+			} else if (compare > 0) {
+				if (collectRemoved) {
+					result.getRemovedInums().add(prevSnapshot.getInum(prevIndex));
+				}
+				prevIndex++;
+			} else {
+				if (getHashCode(currIndex) != prevSnapshot.getHashCode(prevIndex)) {
+					result.getChangedInums().add(getInum(currIndex));
+				}
+				currIndex++;
+				prevIndex++;
+			}
+		}
+
+		for (; currIndex < count; currIndex++) {
+			result.getAddedInums().add(getInum(currIndex));
+		}
+
+		if (collectRemoved) {
+			for (; prevIndex < prevSnapshot.count; prevIndex++) {
+				result.getRemovedInums().add(prevSnapshot.getInum(prevIndex));
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * Puts all snapshot entries into map without decoding inums
+	 */
+	public void copyTo(InumHashCodeMap inumWithEntryHashCodeMap) {
+		for (int i = 0; i < count; i++) {
+			inumWithEntryHashCodeMap.put(buffer, getInumOffset(i), getInumLength(i), getHashCode(i));
+		}
+	}
+
+	private int getInumOffset(int index) {
+		return poolStart + buffer.getInt(headerSize + index * recordSize);
+	}
+
+	private int getInumLength(int index) {
+		int nextOffset = (index + 1 < count) ? buffer.getInt(headerSize + (index + 1) * recordSize) : poolSize;
+
+		return nextOffset - buffer.getInt(headerSize + index * recordSize);
+	}
+
+	private static int compareBytes(ByteBuffer buffer1, int offset1, int length1, ByteBuffer buffer2, int offset2,
+			int length2) {
+		int length = Math.min(length1, length2);
+		for (int i = 0; i < length; i++) {
+			int compare = (buffer1.get(offset1 + i) & 0xFF) - (buffer2.get(offset2 + i) & 0xFF);
+			if (compare != 0) {
+				return compare;
+			}
+		}
+
+		return length1 - length2;
+	}
+
+}
@@ -0,0 +1,33 @@
+/*
+ * oxTrust is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2014, Gluu
+ */
+
+package org.gluu.oxtrust.ldap.cache.service;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Result of comparison current snapshot with previous one
+ */
+public class CacheRefreshSnapshotDiff {
+
+	private final List<String> addedInums = new ArrayList<String>();
+	private final List<String> changedInums = new ArrayList<String>();
+	private final List<String> removedInums = new ArrayList<String>();
+
+	public List<String> getAddedInums() {
+		return addedInums;
+	}
+
+	public List<String> getChangedInums() {
+		return changedInums;
+	}
+
+	public List<String> getRemovedInums() {
+		return removedInums;
+	}
+
+}
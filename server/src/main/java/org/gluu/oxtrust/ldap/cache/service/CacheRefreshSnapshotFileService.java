@@ -9,10 +9,18 @@ package org.gluu.oxtrust.ldap.cache.service;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
@@ -22,7 +30,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.Set;
+import java.util.Properties;
 
 import javax.enterprise.context.ApplicationScoped;
 import javax.inject.Inject;
@@ -32,7 +40,10 @@ import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.io.filefilter.WildcardFileFilter;
 import org.gluu.config.oxtrust.CacheRefreshConfiguration;
+import org.gluu.oxtrust.ldap.cache.model.CacheRefreshDeltaSyncState;
+import org.gluu.oxtrust.ldap.cache.model.CacheRefreshProblemEntry;
 import org.gluu.util.ArrayHelper;
+import org.gluu.util.StringHelper;
 import org.slf4j.Logger;
 
 /**
@@ -48,7 +59,15 @@ public class CacheRefreshSnapshotFileService {
 	private Logger log;
 
 	private static final String SNAPSHOT_FILE_NAME_PATTERN = "inum-snapshot-%s.txt";
+	private static final String BINARY_SNAPSHOT_FILE_NAME_PATTERN = "inum-snapshot-%s.dat";
+	private static final String BINARY_SNAPSHOT_FILE_EXTENSION = ".dat";
 	private static final String PROBLEM_LIST_FILE_NAME = "problem-inum-list.txt";
+	private static final String PROBLEM_ENTRIES_FILE_NAME = "problem-inum-retries.txt";
+	private static final String DELTA_SYNC_STATE_FILE_NAME = "delta-sync-state.properties";
+	private static final String DELTA_SYNC_LAST_SYNC_TIME = "lastSyncTime";
+	private static final String DELTA_SYNC_LAST_FULL_SYNC_TIME = "lastFullSyncTime";
+	private static final String PARTITION_LAYOUTS_FILE_NAME = "key-space-partitions.properties";
+	private static final String PARTITION_SEPARATOR = ",";
 	private static final String SNAPSHOT_FILE_NAME_DATE_PATTERN = "yyyy-MM-dd-HH-mm";
 
 	public boolean prepareSnapshotsFolder(CacheRefreshConfiguration cacheRefreshConfiguration) {
@@ -67,39 +86,50 @@ public class CacheRefreshSnapshotFileService {
 		return true;
 	}
 
-	public boolean createSnapshot(CacheRefreshConfiguration cacheRefreshConfiguration, Map<String, Integer> inumWithEntryHashCodeMap) {
+	public boolean createSnapshot(CacheRefreshConfiguration cacheRefreshConfiguration, CacheRefreshSnapshot snapshot) {
 		if (!prepareSnapshotsFolder(cacheRefreshConfiguration)) {
 			return false;
 		}
 
 		DateFormat fileNameDateFormat = new SimpleDateFormat(SNAPSHOT_FILE_NAME_DATE_PATTERN);
-		String snapshotFileName = String.format(SNAPSHOT_FILE_NAME_PATTERN, fileNameDateFormat.format(new Date()));
+		String snapshotFileName = String.format(BINARY_SNAPSHOT_FILE_NAME_PATTERN, fileNameDateFormat.format(new Date()));
 
+		// Write into temporary file first. Previous snapshot with the same name might be still mapped into memory
 		File file = new File(cacheRefreshConfiguration.getSnapshotFolder() + File.separator + snapshotFileName);
-		BufferedWriter bos;
+		File tmpFile = new File(file.getAbsolutePath() + ".tmp");
+		FileOutputStream fos;
 		try {
-			bos = new BufferedWriter(new FileWriter(file));
+			fos = new FileOutputStream(tmpFile);
 		} catch (IOException ex) {
-			log.error("Failed to create snapshot file '{}'", file.getAbsolutePath(), ex);
+			log.error("Failed to create snapshot file '{}'", tmpFile.getAbsolutePath(), ex);
 			return false;
 		}
 
 		try {
-			for (Entry<String, Integer> entry : inumWithEntryHashCodeMap.entrySet()) {
-				bos.write(String.format("%s:%d\n", entry.getKey(), entry.getValue()));
+			FileChannel channel = fos.getChannel();
+			ByteBuffer data = snapshot.getData();
+			while (data.hasRemaining()) {
+				channel.write(data);
 			}
-			bos.flush();
+			channel.force(false);
 		} catch (IOException ex) {
-			log.error("Failed to create snapshot file '{}'", file.getAbsolutePath(), ex);
+			log.error("Failed to create snapshot file '{}'", tmpFile.getAbsolutePath(), ex);
 			return false;
 		} finally {
-			IOUtils.closeQuietly(bos);
+			IOUtils.closeQuietly(fos);
+		}
+
+		try {
+			Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException ex) {
+			log.error("Failed to rename snapshot file '{}' to '{}'", tmpFile.getAbsolutePath(), file.getAbsolutePath(), ex);
+			return false;
 		}
 
 		return true;
 	}
 
-	public Map<String, Integer> readSnapshot(CacheRefreshConfiguration cacheRefreshConfiguration, String snapshotFileName) {
+	public CacheRefreshSnapshot readSnapshot(CacheRefreshConfiguration cacheRefreshConfiguration, String snapshotFileName) {
 		if (!prepareSnapshotsFolder(cacheRefreshConfiguration)) {
 			return null;
 		}
@@ -109,6 +139,46 @@ public class CacheRefreshSnapshotFileService {
 			return null;
 		}
 
+		if (snapshotFileName.endsWith(BINARY_SNAPSHOT_FILE_EXTENSION)) {
+			return readBinarySnapshot(file);
+		}
+
+		InumHashCodeMap inumWithEntryHashCodeMap = readTextSnapshot(file);
+		if (inumWithEntryHashCodeMap == null) {
+			return null;
+		}
+
+		// Text snapshots contain 32-bit hash codes calculated by persistence layer
+		return CacheRefreshSnapshot.create(inumWithEntryHashCodeMap, CacheRefreshFingerprintAlgorithm.LEGACY);
+	}
+
+	private CacheRefreshSnapshot readBinarySnapshot(File file) {
+		RandomAccessFile raf;
+		try {
+			raf = new RandomAccessFile(file, "r");
+		} catch (FileNotFoundException ex) {
+			log.error("Failed to load snapshot file '{}'", file.getAbsolutePath(), ex);
+			return null;
+		}
+
+		try {
+			// Mapping stays valid after closing file
+			FileChannel channel = raf.getChannel();
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+			return CacheRefreshSnapshot.wrap(buffer);
+		} catch (IOException ex) {
+			log.error("Failed to load snapshot file '{}'", file.getAbsolutePath(), ex);
+			return null;
+		} catch (IllegalArgumentException ex) {
+			log.error("Failed to parse snapshot file '{}'", file.getAbsolutePath(), ex);
+			return null;
+		} finally {
+			IOUtils.closeQuietly(raf);
+		}
+	}
+
+	private InumHashCodeMap readTextSnapshot(File file) {
 		BufferedReader bis;
 		try {
 			bis = new BufferedReader(new FileReader(file));
@@ -117,7 +187,7 @@ public class CacheRefreshSnapshotFileService {
 			return null;
 		}
 
-		Map<String, Integer> result = new HashMap<String, Integer>();
+		InumHashCodeMap result = new InumHashCodeMap();
 		try {
 			String line;
 			while ((line = bis.readLine()) != null) {
@@ -128,7 +198,7 @@ public class CacheRefreshSnapshotFileService {
 				}
 
 				try {
-					result.put(lineValues[0], Integer.valueOf(lineValues[1]));
+					result.put(lineValues[0], Integer.parseInt(lineValues[1]));
 				} catch (RuntimeException ex) {
 					log.error("Failed to parse '{}' to integer", lineValues[1], ex);
 					return null;
@@ -144,7 +214,7 @@ public class CacheRefreshSnapshotFileService {
 		return result;
 	}
 
-	public Map<String, Integer> readLastSnapshot(CacheRefreshConfiguration cacheRefreshConfiguration) {
+	public CacheRefreshSnapshot readLastSnapshot(CacheRefreshConfiguration cacheRefreshConfiguration) {
 		if (!prepareSnapshotsFolder(cacheRefreshConfiguration)) {
 			return null;
 		}
@@ -159,7 +229,8 @@ public class CacheRefreshSnapshotFileService {
 
 	private String[] getSnapshotsList(CacheRefreshConfiguration cacheRefreshConfiguration) {
 		File file = new File(cacheRefreshConfiguration.getSnapshotFolder());
-		String[] files = file.list(new WildcardFileFilter(String.format(SNAPSHOT_FILE_NAME_PATTERN, "*")));
+		String[] files = file.list(new WildcardFileFilter(new String[] { String.format(SNAPSHOT_FILE_NAME_PATTERN, "*"),
+				String.format(BINARY_SNAPSHOT_FILE_NAME_PATTERN, "*") }));
 		Arrays.sort(files);
 
 		return files;
@@ -185,14 +256,22 @@ public class CacheRefreshSnapshotFileService {
 		return true;
 	}
 
-	public List<String> readProblemList(CacheRefreshConfiguration cacheRefreshConfiguration) {
+	/**
+	 * Loads entries which weren't written by previous runs. Flat problem list
+	 * of old versions is loaded as entries with one failed attempt
+	 */
+	public List<CacheRefreshProblemEntry> readProblemEntries(CacheRefreshConfiguration cacheRefreshConfiguration) {
 		if (!prepareSnapshotsFolder(cacheRefreshConfiguration)) {
 			return null;
 		}
 
-		File file = new File(cacheRefreshConfiguration.getSnapshotFolder() + File.separator + PROBLEM_LIST_FILE_NAME);
-		if (!file.exists()) {
-			return null;
+		File file = new File(cacheRefreshConfiguration.getSnapshotFolder() + File.separator + PROBLEM_ENTRIES_FILE_NAME);
+		boolean legacyFormat = !file.exists();
+		if (legacyFormat) {
+			file = new File(cacheRefreshConfiguration.getSnapshotFolder() + File.separator + PROBLEM_LIST_FILE_NAME);
+			if (!file.exists()) {
+				return null;
+			}
 		}
 
 		BufferedReader bis;
@@ -203,11 +282,20 @@ public class CacheRefreshSnapshotFileService {
 			return null;
 		}
 
-		List<String> result = new ArrayList<String>();
+		List<CacheRefreshProblemEntry> result = new ArrayList<CacheRefreshProblemEntry>();
 		try {
 			String line;
 			while ((line = bis.readLine()) != null) {
-				result.add(line);
+				if (StringHelper.isEmpty(line)) {
+					continue;
+				}
+
+				CacheRefreshProblemEntry problemEntry = legacyFormat ? toLegacyProblemEntry(line) : toProblemEntry(line);
+				if (problemEntry == null) {
+					log.warn("Skipping invalid line '{}' in problem list file '{}'", line, file.getAbsolutePath());
+				} else {
+					result.add(problemEntry);
+				}
 			}
 		} catch (IOException ex) {
 			log.error("Failed to load problem list from file '{}'", file.getAbsolutePath(), ex);
@@ -219,12 +307,13 @@ public class CacheRefreshSnapshotFileService {
 		return result;
 	}
 
-	public boolean writeProblemList(CacheRefreshConfiguration cacheRefreshConfiguration, Set<String> changedInums) {
+	public boolean writeProblemEntries(CacheRefreshConfiguration cacheRefreshConfiguration,
+			List<CacheRefreshProblemEntry> problemEntries) {
 		if (!prepareSnapshotsFolder(cacheRefreshConfiguration)) {
 			return false;
 		}
 
-		File file = new File(cacheRefreshConfiguration.getSnapshotFolder() + File.separator + PROBLEM_LIST_FILE_NAME);
+		File file = new File(cacheRefreshConfiguration.getSnapshotFolder() + File.separator + PROBLEM_ENTRIES_FILE_NAME);
 		BufferedWriter bos;
 		try {
 			bos = new BufferedWriter(new FileWriter(file));
@@ -234,8 +323,10 @@ public class CacheRefreshSnapshotFileService {
 		}
 
 		try {
-			for (String changedInum : changedInums) {
-				bos.write(String.format("%s\n", changedInum));
+			for (CacheRefreshProblemEntry problemEntry : problemEntries) {
+				bos.write(String.format("%s\t%d\t%d\t%b\t%s\n", problemEntry.getInum(), problemEntry.getAttempts(),
+						problemEntry.getNextAttemptTime(), problemEntry.isQuarantined(),
+						StringHelper.isEmpty(problemEntry.getLastError()) ? "" : problemEntry.getLastError()));
 			}
 			bos.flush();
 		} catch (IOException ex) {
@@ -245,7 +336,205 @@ public class CacheRefreshSnapshotFileService {
 			IOUtils.closeQuietly(bos);
 		}
 
+		// Problem list of old versions was converted
+		File legacyFile = new File(cacheRefreshConfiguration.getSnapshotFolder() + File.separator + PROBLEM_LIST_FILE_NAME);
+		if (legacyFile.exists() && !legacyFile.delete()) {
+			log.warn("Failed to remove problem list file '{}'", legacyFile.getAbsolutePath());
+		}
+
 		return true;
 	}
 
+	private CacheRefreshProblemEntry toProblemEntry(String line) {
+		String[] fields = line.split("\t", -1);
+		if (fields.length != 5) {
+			return null;
+		}
+
+		CacheRefreshProblemEntry problemEntry = new CacheRefreshProblemEntry(fields[0]);
+		try {
+			problemEntry.setAttempts(Integer.parseInt(fields[1]));
+			problemEntry.setNextAttemptTime(Long.parseLong(fields[2]));
+		} catch (NumberFormatException ex) {
+			return null;
+		}
+		problemEntry.setQuarantined(Boolean.parseBoolean(fields[3]));
+		problemEntry.setLastError(StringHelper.isEmpty(fields[4]) ? null : fields[4]);
+
+		return problemEntry;
+	}
+
+	private CacheRefreshProblemEntry toLegacyProblemEntry(String inum) {
+		CacheRefreshProblemEntry problemEntry = new CacheRefreshProblemEntry(inum.trim());
+		problemEntry.setAttempts(1);
+
+		return problemEntry;
+	}
+
+	public CacheRefreshDeltaSyncState readDeltaSyncState(CacheRefreshConfiguration cacheRefreshConfiguration) {
+		if (!prepareSnapshotsFolder(cacheRefreshConfiguration)) {
+			return null;
+		}
+
+		File file = new File(cacheRefreshConfiguration.getSnapshotFolder() + File.separator + DELTA_SYNC_STATE_FILE_NAME);
+		if (!file.exists()) {
+			return null;
+		}
+
+		FileInputStream fis;
+		try {
+			fis = new FileInputStream(file);
+		} catch (FileNotFoundException ex) {
+			log.error("Failed to load delta sync state from file '{}'", file.getAbsolutePath(), ex);
+			return null;
+		}
+
+		Properties properties = new Properties();
+		try {
+			properties.load(fis);
+		} catch (IOException ex) {
+			log.error("Failed to load delta sync state from file '{}'", file.getAbsolutePath(), ex);
+			return null;
+		} finally {
+			IOUtils.closeQuietly(fis);
+		}
+
+		CacheRefreshDeltaSyncState result = new CacheRefreshDeltaSyncState();
+		try {
+			result.setLastSyncTime(toDate(properties.getProperty(DELTA_SYNC_LAST_SYNC_TIME)));
+			result.setLastFullSyncTime(toDate(properties.getProperty(DELTA_SYNC_LAST_FULL_SYNC_TIME)));
+		} catch (NumberFormatException ex) {
+			log.error("Failed to parse delta sync state from file '{}'", file.getAbsolutePath(), ex);
+			return null;
+		}
+
+		return result;
+	}
+
+	public boolean writeDeltaSyncState(CacheRefreshConfiguration cacheRefreshConfiguration,
+			CacheRefreshDeltaSyncState deltaSyncState) {
+		if (!prepareSnapshotsFolder(cacheRefreshConfiguration)) {
+			return false;
+		}
+
+		Properties properties = new Properties();
+		if (deltaSyncState.getLastSyncTime() != null) {
+			properties.setProperty(DELTA_SYNC_LAST_SYNC_TIME, String.valueOf(deltaSyncState.getLastSyncTime().getTime()));
+		}
+		if (deltaSyncState.getLastFullSyncTime() != null) {
+			properties.setProperty(DELTA_SYNC_LAST_FULL_SYNC_TIME,
+					String.valueOf(deltaSyncState.getLastFullSyncTime().getTime()));
+		}
+
+		File file = new File(cacheRefreshConfiguration.getSnapshotFolder() + File.separator + DELTA_SYNC_STATE_FILE_NAME);
+		FileOutputStream fos;
+		try {
+			fos = new FileOutputStream(file);
+		} catch (IOException ex) {
+			log.error("Failed to write delta sync state to file '{}'", file.getAbsolutePath(), ex);
+			return false;
+		}
+
+		try {
+			properties.store(fos, "Cache Refresh delta sync state");
+		} catch (IOException ex) {
+			log.error("Failed to write delta sync state to file '{}'", file.getAbsolutePath(), ex);
+			return false;
+		} finally {
+			IOUtils.closeQuietly(fos);
+		}
+
+		return true;
+	}
+
+	/**
+	 * Loads key space partitions of each source server and base DN which were
+	 * used by previous run
+	 */
+	public Map<String, List<String>> readPartitionLayouts(CacheRefreshConfiguration cacheRefreshConfiguration) {
+		if (!prepareSnapshotsFolder(cacheRefreshConfiguration)) {
+			return null;
+		}
+
+		File file = new File(cacheRefreshConfiguration.getSnapshotFolder() + File.separator + PARTITION_LAYOUTS_FILE_NAME);
+		if (!file.exists()) {
+			return null;
+		}
+
+		FileInputStream fis;
+		try {
+			fis = new FileInputStream(file);
+		} catch (FileNotFoundException ex) {
+			log.error("Failed to load partition layouts from file '{}'", file.getAbsolutePath(), ex);
+			return null;
+		}
+
+		Properties properties = new Properties();
+		try {
+			properties.load(fis);
+		} catch (IOException ex) {
+			log.error("Failed to load partition layouts from file '{}'", file.getAbsolutePath(), ex);
+			return null;
+		} catch (IllegalArgumentException ex) {
+			log.error("Failed to parse partition layouts from file '{}'", file.getAbsolutePath(), ex);
+			return null;
+		} finally {
+			IOUtils.closeQuietly(fis);
+		}
+
+		Map<String, List<String>> result = new HashMap<String, List<String>>();
+		for (String layoutKey : properties.stringPropertyNames()) {
+			String[] partitions = StringHelper.split(properties.getProperty(layoutKey), PARTITION_SEPARATOR, true,
+					false);
+			if (ArrayHelper.isEmpty(partitions)) {
+				continue;
+			}
+
+			result.put(layoutKey, Arrays.asList(partitions));
+		}
+
+		return result;
+	}
+
+	public boolean writePartitionLayouts(CacheRefreshConfiguration cacheRefreshConfiguration,
+			Map<String, List<String>> partitionLayouts) {
+		if (!prepareSnapshotsFolder(cacheRefreshConfiguration)) {
+			return false;
+		}
+
+		Properties properties = new Properties();
+		for (Entry<String, List<String>> partitionLayout : partitionLayouts.entrySet()) {
+			properties.setProperty(partitionLayout.getKey(),
+					String.join(PARTITION_SEPARATOR, partitionLayout.getValue()));
+		}
+
+		File file = new File(cacheRefreshConfiguration.getSnapshotFolder() + File.separator + PARTITION_LAYOUTS_FILE_NAME);
+		FileOutputStream fos;
+		try {
+			fos = new FileOutputStream(file);
+		} catch (IOException ex) {
+			log.error("Failed to write partition layouts to file '{}'", file.getAbsolutePath(), ex);
+			return false;
+		}
+
+		try {
+			properties.store(fos, "Cache Refresh key space partitions");
+		} catch (IOException ex) {
+			log.error("Failed to write partition layouts to file '{}'", file.getAbsolutePath(), ex);
+			return false;
+		} finally {
+			IOUtils.closeQuietly(fos);
+		}
+
+		return true;
+	}
+
+	private Date toDate(String value) {
+		if (value == null) {
+			return null;
+		}
+
+		return new Date(Long.parseLong(value));
+	}
+
 }
@@ -0,0 +1,215 @@
+/*
+ * oxTrust is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2014, Gluu
+ */
+
+package org.gluu.oxtrust.ldap.cache.service;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import org.gluu.oxtrust.ldap.cache.model.CacheCompoundKey;
+import org.gluu.oxtrust.ldap.cache.model.GluuInumMap;
+import org.gluu.oxtrust.ldap.cache.model.GluuSimplePerson;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Folds source entries into compound key index and entry fingerprints while
+ * they are being loaded page by page. Full entry is kept only if it's needed
+ * later: entry is new, changed since last snapshot or it's in problem list.
+ * Memory usage is proportional to count of keys instead of all source entries
+ * attributes. If several sources return the same DN, entry of the source which
+ * goes first in configuration is used regardless of load order.
+ * 
+ * Until {@link #removeDuplicateKeys()} is called index keeps lower-cased DN,
+ * source entry holder and map node for each loaded entry in addition to its
+ * compound key and fingerprint. It's about 100 bytes plus two bytes per DN
+ * character per entry. DN hash can't replace DN here, equal hash of entries
+ * from different sources doesn't prove that it's the same entry
+ */
+public class CacheRefreshSourceIndex {
+
+	private static final Logger log = LoggerFactory.getLogger(CacheRefreshSourceIndex.class);
+
+	private final String[] keyAttributesWithoutValues;
+	private final CacheRefreshFingerprint fingerprint;
+	private final Map<CacheCompoundKey, GluuInumMap> primaryKeyAttrValueInumMap;
+	private final CacheRefreshSnapshot prevSnapshot;
+	private final Collection<String> problemInums;
+	private final boolean keepChangedEntries;
+	private final CacheRefreshShard shard;
+
+	// Lower-cased DN -> entry. It's cleared after load
+	private final Map<String, SourceEntry> addedEntries = new HashMap<String, SourceEntry>();
+	private final Map<CacheCompoundKey, Long> sourceHashCodes = new HashMap<CacheCompoundKey, Long>();
+	private final Map<CacheCompoundKey, GluuSimplePerson> sourcePersons = new HashMap<CacheCompoundKey, GluuSimplePerson>();
+
+	public CacheRefreshSourceIndex(String[] keyAttributesWithoutValues,
+			CacheRefreshFingerprint fingerprint, Map<CacheCompoundKey, GluuInumMap> primaryKeyAttrValueInumMap,
+			CacheRefreshSnapshot prevSnapshot, Collection<String> problemInums,
+			boolean keepChangedEntries, CacheRefreshShard shard) {
+		this.keyAttributesWithoutValues = keyAttributesWithoutValues;
+		this.fingerprint = fingerprint;
+		this.primaryKeyAttrValueInumMap = primaryKeyAttrValueInumMap;
+		this.prevSnapshot = prevSnapshot;
+		this.problemInums = problemInums == null ? new HashSet<String>() : new HashSet<String>(problemInums);
+		this.keepChangedEntries = keepChangedEntries;
+		this.shard = shard;
+	}
+
+	/**
+	 * Called by source loader workers for each page of entries. Source order is
+	 * position of source server and base DN in configuration. Keys and
+	 * fingerprints are calculated before taking lock
+	 */
+	public void addSourcePersons(List<GluuSimplePerson> currentSourcePersons, int sourceOrder) {
+		int count = currentSourcePersons.size();
+		String[] dns = new String[count];
+		CacheCompoundKey[] cacheCompoundKeys = new CacheCompoundKey[count];
+		Long[] hashCodes = new Long[count];
+		boolean[] keepEntries = new boolean[count];
+
+		for (int i = 0; i < count; i++) {
+			GluuSimplePerson sourcePerson = currentSourcePersons.get(i);
+
+			CacheCompoundKey cacheCompoundKey = new CacheCompoundKey(getKeyAttributesValues(sourcePerson));
+			if ((shard != null) && !shard.isOwner(cacheCompoundKey)) {
+				// Entry is processed by another node
+				continue;
+			}
+
+			dns[i] = sourcePerson.getDn().toLowerCase();
+			cacheCompoundKeys[i] = cacheCompoundKey;
+			hashCodes[i] = fingerprint.calculate(sourcePerson);
+			keepEntries[i] = isKeepEntry(cacheCompoundKey, hashCodes[i]);
+		}
+
+		synchronized (this) {
+			for (int i = 0; i < count; i++) {
+				CacheCompoundKey cacheCompoundKey = cacheCompoundKeys[i];
+				if (cacheCompoundKey == null) {
+					continue;
+				}
+
+				// Workers finish in random order. Keep entry which serial load would add first
+				SourceEntry addedEntry = addedEntries.get(dns[i]);
+				if ((addedEntry != null) && (addedEntry.sourceOrder <= sourceOrder)) {
+					continue;
+				}
+
+				addedEntries.put(dns[i], new SourceEntry(sourceOrder, cacheCompoundKey, hashCodes[i],
+						keepEntries[i] ? currentSourcePersons.get(i) : null));
+			}
+		}
+	}
+
+	private boolean isKeepEntry(CacheCompoundKey cacheCompoundKey, Long hashCode) {
+		GluuInumMap inumMap = primaryKeyAttrValueInumMap.get(cacheCompoundKey);
+		if (inumMap == null) {
+			// New entry. It's needed to add inum entry
+			return true;
+		}
+
+		if (!keepChangedEntries) {
+			return false;
+		}
+
+		if ((prevSnapshot == null) || problemInums.contains(inumMap.getInum())) {
+			return true;
+		}
+
+		return !hashCode.equals(prevSnapshot.findHashCode(inumMap.getInum()));
+	}
+
+	/**
+	 * Should be called after load. Builds index from entries with unique DNs
+	 * and skips keys which belong to several entries
+	 */
+	public synchronized void removeDuplicateKeys() {
+		Set<CacheCompoundKey> duplicateKeys = new HashSet<CacheCompoundKey>();
+		for (SourceEntry addedEntry : addedEntries.values()) {
+			if (sourceHashCodes.put(addedEntry.cacheCompoundKey, addedEntry.hashCode) != null) {
+				duplicateKeys.add(addedEntry.cacheCompoundKey);
+			}
+
+			if (addedEntry.sourcePerson != null) {
+				sourcePersons.put(addedEntry.cacheCompoundKey, addedEntry.sourcePerson);
+			}
+		}
+
+		// DNs are needed only during load
+		addedEntries.clear();
+
+		for (CacheCompoundKey duplicateKey : duplicateKeys) {
+			log.error("Non-deterministic primary key. Skipping user with key: {}", duplicateKey);
+			sourceHashCodes.remove(duplicateKey);
+			sourcePersons.remove(duplicateKey);
+		}
+	}
+
+	/**
+	 * Excludes entries from this run
+	 */
+	public synchronized void removeSourcePersons(Collection<CacheCompoundKey> cacheCompoundKeys) {
+		for (CacheCompoundKey cacheCompoundKey : cacheCompoundKeys) {
+			sourceHashCodes.remove(cacheCompoundKey);
+			sourcePersons.remove(cacheCompoundKey);
+		}
+	}
+
+	/**
+	 * Entries which are new or need update on target server
+	 */
+	public Map<CacheCompoundKey, GluuSimplePerson> getSourcePersons() {
+		return sourcePersons;
+	}
+
+	public int getCountUniqueEntries() {
+		return sourceHashCodes.size();
+	}
+
+	public InumHashCodeMap getInumWithEntryHashCodeMap(
+			Map<CacheCompoundKey, GluuInumMap> allPrimaryKeyAttrValueInumMap) {
+		InumHashCodeMap result = new InumHashCodeMap(sourceHashCodes.size());
+
+		for (Entry<CacheCompoundKey, Long> sourceHashCodeEntry : sourceHashCodes.entrySet()) {
+			GluuInumMap currentInumMap = allPrimaryKeyAttrValueInumMap.get(sourceHashCodeEntry.getKey());
+			result.put(currentInumMap.getInum(), sourceHashCodeEntry.getValue());
+		}
+
+		return result;
+	}
+
+	private String[][] getKeyAttributesValues(GluuSimplePerson person) {
+		String[][] result = new String[keyAttributesWithoutValues.length][];
+		for (int i = 0; i < keyAttributesWithoutValues.length; i++) {
+			result[i] = person.getAttributes(keyAttributesWithoutValues[i]);
+		}
+
+		return result;
+	}
+
+	private static class SourceEntry {
+
+		private final int sourceOrder;
+		private final CacheCompoundKey cacheCompoundKey;
+		private final Long hashCode;
+		private final GluuSimplePerson sourcePerson;
+
+		SourceEntry(int sourceOrder, CacheCompoundKey cacheCompoundKey, Long hashCode, GluuSimplePerson sourcePerson) {
+			this.sourceOrder = sourceOrder;
+			this.cacheCompoundKey = cacheCompoundKey;
+			this.hashCode = hashCode;
+			this.sourcePerson = sourcePerson;
+		}
+
+	}
+
+}
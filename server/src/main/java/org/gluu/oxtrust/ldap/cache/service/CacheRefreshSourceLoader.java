@@ -0,0 +1,224 @@
+/*
+ * oxTrust is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2014, Gluu
+ */
+
+package org.gluu.oxtrust.ldap.cache.service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.inject.Named;
+
+import org.gluu.oxtrust.ldap.cache.model.GluuSimplePerson;
+import org.gluu.persist.PersistenceEntryManager;
+import org.gluu.persist.model.BatchOperation;
+import org.gluu.persist.model.ProcessBatchOperation;
+import org.gluu.persist.model.SearchScope;
+import org.gluu.search.filter.Filter;
+import org.slf4j.Logger;
+
+/**
+ * Loads entries from source servers. Searches per server, filter and base DN
+ * are executed by bounded pool of workers. Results are merged in the same
+ * order as serial load does, so the output doesn't depend on workers count
+ */
+@ApplicationScoped
+@Named
+public class CacheRefreshSourceLoader {
+
+	@Inject
+	private Logger log;
+
+	@Inject
+	private CacheRefreshMetricsService cacheRefreshMetricsService;
+
+	public List<GluuSimplePerson> loadSourceServerEntries(LdapServerConnection[] sourceServerConnections, Filter[] filters,
+			String[] returnAttributes, int chunkSize, int threadsCount) {
+		return loadSourceServerEntries(sourceServerConnections, filters, null, returnAttributes, chunkSize, threadsCount);
+	}
+
+	/**
+	 * Filters are adjusted by filter factory for each source server and base DN
+	 */
+	public List<GluuSimplePerson> loadSourceServerEntries(LdapServerConnection[] sourceServerConnections, Filter[] filters,
+			SourceFilterFactory filterFactory, String[] returnAttributes, int chunkSize, int threadsCount) {
+		List<SourceServerSearch> searches = createSearches(sourceServerConnections, filters, filterFactory,
+				returnAttributes, chunkSize, null);
+
+		List<GluuSimplePerson> sourcePersons = new ArrayList<GluuSimplePerson>();
+		Set<String> addedDns = new HashSet<String>();
+
+		if ((threadsCount <= 1) || (searches.size() <= 1)) {
+			for (SourceServerSearch search : searches) {
+				addSourcePersons(sourcePersons, addedDns, search.call());
+			}
+
+			return sourcePersons;
+		}
+
+		int poolSize = Math.min(threadsCount, searches.size());
+		log.debug("Loading entries from source servers using '{}' workers, '{}' searches", poolSize, searches.size());
+
+		ExecutorService executorService = Executors.newFixedThreadPool(poolSize, new CacheRefreshThreadFactory("SourceLoader"));
+		try {
+			List<Future<List<GluuSimplePerson>>> futures = new ArrayList<Future<List<GluuSimplePerson>>>(searches.size());
+			for (SourceServerSearch search : searches) {
+				futures.add(executorService.submit(search));
+			}
+
+			// Merge in submission order. Each worker owns its result list, so only this thread touches addedDns
+			for (Future<List<GluuSimplePerson>> future : futures) {
+				addSourcePersons(sourcePersons, addedDns, CacheRefreshThreadFactory.getWorkerResult(future));
+			}
+		} finally {
+			executorService.shutdownNow();
+		}
+
+		return sourcePersons;
+	}
+
+	/**
+	 * Loads entries page by page and pass each page to source index. Entries
+	 * aren't collected into result list
+	 */
+	public void streamSourceServerEntries(LdapServerConnection[] sourceServerConnections, Filter[] filters,
+			String[] returnAttributes, int chunkSize, int threadsCount, CacheRefreshSourceIndex sourceIndex) {
+		List<SourceServerSearch> searches = createSearches(sourceServerConnections, filters, null, returnAttributes,
+				chunkSize, sourceIndex);
+
+		if ((threadsCount <= 1) || (searches.size() <= 1)) {
+			for (SourceServerSearch search : searches) {
+				search.call();
+			}
+
+			return;
+		}
+
+		int poolSize = Math.min(threadsCount, searches.size());
+		log.debug("Streaming entries from source servers using '{}' workers, '{}' searches", poolSize, searches.size());
+
+		ExecutorService executorService = Executors.newFixedThreadPool(poolSize, new CacheRefreshThreadFactory("SourceLoader"));
+		try {
+			List<Future<List<GluuSimplePerson>>> futures = new ArrayList<Future<List<GluuSimplePerson>>>(searches.size());
+			for (SourceServerSearch search : searches) {
+				futures.add(executorService.submit(search));
+			}
+
+			for (Future<List<GluuSimplePerson>> future : futures) {
+				CacheRefreshThreadFactory.getWorkerResult(future);
+			}
+		} finally {
+			executorService.shutdownNow();
+		}
+	}
+
+	private List<SourceServerSearch> createSearches(LdapServerConnection[] sourceServerConnections, Filter[] filters,
+			SourceFilterFactory filterFactory, String[] returnAttributes, int chunkSize,
+			CacheRefreshSourceIndex sourceIndex) {
+		List<SourceServerSearch> searches = new ArrayList<SourceServerSearch>();
+		for (LdapServerConnection sourceServerConnection : sourceServerConnections) {
+			for (Filter filter : filters) {
+				for (String baseDn : sourceServerConnection.getBaseDns()) {
+					Filter searchFilter = (filterFactory == null) ? filter
+							: filterFactory.createFilter(sourceServerConnection, baseDn, filter);
+					searches.add(new SourceServerSearch(searches.size(), sourceServerConnection, baseDn, searchFilter,
+							returnAttributes, chunkSize, sourceIndex));
+				}
+			}
+		}
+
+		return searches;
+	}
+
+	static void addSourcePersons(List<GluuSimplePerson> sourcePersons, Set<String> addedDns,
+			List<GluuSimplePerson> currentSourcePersons) {
+		for (GluuSimplePerson currentSourcePerson : currentSourcePersons) {
+			String currentSourcePersonDn = currentSourcePerson.getDn().toLowerCase();
+			if (addedDns.add(currentSourcePersonDn)) {
+				sourcePersons.add(currentSourcePerson);
+			}
+		}
+	}
+
+	/**
+	 * Builds filter for search in specified source server base DN
+	 */
+	public interface SourceFilterFactory {
+
+		Filter createFilter(LdapServerConnection sourceServerConnection, String baseDn, Filter filter);
+
+	}
+
+	private class SourceServerSearch implements Callable<List<GluuSimplePerson>> {
+
+		private final int searchIndex;
+		private final LdapServerConnection sourceServerConnection;
+		private final String baseDn;
+		private final Filter filter;
+		private final String[] returnAttributes;
+		private final int chunkSize;
+		private final CacheRefreshSourceIndex sourceIndex;
+
+		SourceServerSearch(int searchIndex, LdapServerConnection sourceServerConnection, String baseDn, Filter filter,
+				String[] returnAttributes, int chunkSize, CacheRefreshSourceIndex sourceIndex) {
+			this.searchIndex = searchIndex;
+			this.sourceServerConnection = sourceServerConnection;
+			this.baseDn = baseDn;
+			this.filter = filter;
+			this.returnAttributes = returnAttributes;
+			this.chunkSize = chunkSize;
+			this.sourceIndex = sourceIndex;
+		}
+
+		@Override
+		public List<GluuSimplePerson> call() {
+			if (log.isTraceEnabled()) {
+				log.trace("Using next filter to load entris from source server '{}' with base DN '{}': {}",
+						sourceServerConnection.getSourceServerName(), baseDn, filter);
+			}
+
+			PersistenceEntryManager sourcePersistenceEntryManager = sourceServerConnection.getPersistenceEntryManager();
+			final String sourceServerName = sourceServerConnection.getSourceServerName();
+			if (sourceIndex != null) {
+				BatchOperation<GluuSimplePerson> batchOperation = new ProcessBatchOperation<GluuSimplePerson>() {
+					@Override
+					public void performAction(List<GluuSimplePerson> entries) {
+						for (GluuSimplePerson entry : entries) {
+							entry.setSourceServerName(sourceServerName);
+						}
+						sourceIndex.addSourcePersons(entries, searchIndex);
+					}
+				};
+
+				cacheRefreshMetricsService.addLdapOperations(1);
+				sourcePersistenceEntryManager.findEntries(baseDn, GluuSimplePerson.class, filter, SearchScope.SUB,
+						returnAttributes, batchOperation, 0, 0, chunkSize);
+
+				return Collections.emptyList();
+			}
+
+			cacheRefreshMetricsService.addLdapOperations(1);
+			List<GluuSimplePerson> currentSourcePersons = sourcePersistenceEntryManager.findEntries(baseDn,
+					GluuSimplePerson.class, filter, SearchScope.SUB, returnAttributes, null, 0, 0, chunkSize);
+
+			for (GluuSimplePerson currentSourcePerson : currentSourcePersons) {
+				currentSourcePerson.setSourceServerName(sourceServerName);
+			}
+
+			return currentSourcePersons;
+		}
+
+	}
+
+}
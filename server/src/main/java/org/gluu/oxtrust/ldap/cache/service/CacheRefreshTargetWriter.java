@@ -0,0 +1,176 @@
+/*
+ * oxTrust is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2014, Gluu
+ */
+
+package org.gluu.oxtrust.ldap.cache.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.inject.Named;
+
+import org.gluu.oxtrust.ldap.cache.conf.CacheRefreshTuningConfiguration;
+import org.gluu.oxtrust.ldap.cache.service.CacheRefreshConcurrencyLimit.Outcome;
+import org.slf4j.Logger;
+
+/**
+ * Writes entries to target server by pool of workers. Entry write which failed
+ * with exception is retried with exponential backoff. Count of concurrent
+ * writes adapts to target server latency
+ */
+@ApplicationScoped
+@Named
+public class CacheRefreshTargetWriter {
+
+	@Inject
+	private Logger log;
+
+	@Inject
+	private CacheRefreshTuningConfiguration cacheRefreshTuningConfiguration;
+
+	/**
+	 * Executes writers and returns inums which were written successfully.
+	 * Writer should return false or throw exception if entry wasn't written.
+	 * Only exceptions are retried, false result is final. Last error of each
+	 * failed entry is put into writeErrors
+	 */
+	public List<String> writeEntries(Map<String, Callable<Boolean>> entryWriters, Map<String, String> writeErrors) {
+		List<String> result = new ArrayList<String>();
+		if (entryWriters.isEmpty()) {
+			return result;
+		}
+
+		int threadsCount = cacheRefreshTuningConfiguration.getTargetWriteThreads();
+		int retries = cacheRefreshTuningConfiguration.getTargetWriteRetries();
+		long retryDelay = cacheRefreshTuningConfiguration.getTargetWriteRetryDelayMillis();
+		double latencyThreshold = cacheRefreshTuningConfiguration.getTargetWriteLatencyThresholdPercent() / 100.0;
+
+		log.info("Writing '{}' entries to target server using up to '{}' workers", entryWriters.size(), threadsCount);
+
+		CacheRefreshConcurrencyLimit concurrencyLimit = new CacheRefreshConcurrencyLimit((threadsCount + 1) / 2,
+				threadsCount, latencyThreshold);
+
+		if (threadsCount == 1) {
+			for (Entry<String, Callable<Boolean>> entryWriter : entryWriters.entrySet()) {
+				EntryWriter writer = new EntryWriter(entryWriter.getKey(), entryWriter.getValue(), writeErrors,
+						concurrencyLimit, retries, retryDelay);
+				if (writer.call()) {
+					result.add(entryWriter.getKey());
+				}
+			}
+
+			return result;
+		}
+
+		ExecutorService executorService = Executors.newFixedThreadPool(threadsCount,
+				new CacheRefreshThreadFactory("TargetWriter"));
+		try {
+			List<String> inums = new ArrayList<String>(entryWriters.size());
+			List<Future<Boolean>> futures = new ArrayList<Future<Boolean>>(entryWriters.size());
+			for (Entry<String, Callable<Boolean>> entryWriter : entryWriters.entrySet()) {
+				inums.add(entryWriter.getKey());
+				futures.add(executorService.submit(new EntryWriter(entryWriter.getKey(), entryWriter.getValue(),
+						writeErrors, concurrencyLimit, retries, retryDelay)));
+			}
+
+			for (int i = 0; i < futures.size(); i++) {
+				if (CacheRefreshThreadFactory.getWorkerResult(futures.get(i))) {
+					result.add(inums.get(i));
+				}
+			}
+		} finally {
+			executorService.shutdownNow();
+		}
+
+		log.info("Written '{}' entries to target server. Final concurrency limit: '{}', baseline latency: '{}' ms",
+				result.size(), concurrencyLimit.getLimit(), concurrencyLimit.getBaselineLatencyMillis());
+
+		return result;
+	}
+
+	private class EntryWriter implements Callable<Boolean> {
+
+		private final String inum;
+		private final Callable<Boolean> writer;
+		private final Map<String, String> writeErrors;
+		private final CacheRefreshConcurrencyLimit concurrencyLimit;
+		private final int retries;
+		private final long retryDelay;
+
+		private String lastError;
+		private boolean retryable;
+
+		EntryWriter(String inum, Callable<Boolean> writer, Map<String, String> writeErrors,
+				CacheRefreshConcurrencyLimit concurrencyLimit, int retries, long retryDelay) {
+			this.inum = inum;
+			this.writer = writer;
+			this.writeErrors = writeErrors;
+			this.concurrencyLimit = concurrencyLimit;
+			this.retries = retries;
+			this.retryDelay = retryDelay;
+		}
+
+		@Override
+		public Boolean call() {
+			try {
+				for (int attempt = 0; attempt <= retries; attempt++) {
+					if (attempt > 0) {
+						log.debug("Retrying to write entry '{}', attempt '{}'", inum, attempt);
+						Thread.sleep(retryDelay << (attempt - 1));
+					}
+
+					if (write()) {
+						return true;
+					}
+
+					if (!retryable) {
+						break;
+					}
+				}
+				writeErrors.put(inum, lastError);
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				log.warn("Interrupted while writing entry '{}'", inum);
+			}
+
+			return false;
+		}
+
+		private boolean write() throws InterruptedException {
+			concurrencyLimit.acquire();
+
+			long start = System.nanoTime();
+			Outcome outcome = Outcome.NOT_WRITTEN;
+			try {
+				if (Boolean.TRUE.equals(writer.call())) {
+					outcome = Outcome.SUCCESS;
+				}
+				lastError = CacheRefreshRetryQueue.ERROR_NOT_WRITTEN;
+				retryable = false;
+			} catch (InterruptedException ex) {
+				throw ex;
+			} catch (Exception ex) {
+				outcome = Outcome.FAILED;
+				lastError = ex.getClass().getName();
+				retryable = true;
+				log.error("Failed to write entry '{}'", inum, ex);
+			} finally {
+				concurrencyLimit.release(System.nanoTime() - start, outcome);
+			}
+
+			return Outcome.SUCCESS == outcome;
+		}
+
+	}
+
+}
@@ -0,0 +1,59 @@
+/*
+ * oxTrust is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2014, Gluu
+ */
+
+package org.gluu.oxtrust.ldap.cache.service;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.gluu.persist.exception.EntryPersistenceException;
+
+/**
+ * Creates named daemon threads for Cache Refresh worker pools
+ */
+public class CacheRefreshThreadFactory implements ThreadFactory {
+
+	private final String namePrefix;
+	private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+	public CacheRefreshThreadFactory(String poolName) {
+		this.namePrefix = "CacheRefresh-" + poolName + "-";
+	}
+
+	@Override
+	public Thread newThread(Runnable runnable) {
+		Thread thread = new Thread(runnable, namePrefix + threadNumber.getAndIncrement());
+		thread.setDaemon(true);
+
+		return thread;
+	}
+
+	/**
+	 * Waits for worker result. Worker exception is rethrown as is if it's
+	 * unchecked one
+	 */
+	public static <T> T getWorkerResult(Future<T> future) {
+		try {
+			return future.get();
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new EntryPersistenceException("Interrupted while waiting for Cache Refresh worker", ex);
+		} catch (ExecutionException ex) {
+			Throwable cause = ex.getCause();
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+
+			throw new EntryPersistenceException("Cache Refresh worker failed", cause);
+		}
+	}
+
+}
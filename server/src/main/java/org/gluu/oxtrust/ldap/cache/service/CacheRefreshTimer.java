@@ -9,19 +9,28 @@ package org.gluu.oxtrust.ldap.cache.service;
 import java.net.InetAddress;
 import java.net.NetworkInterface;
 import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Properties;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.enterprise.context.ApplicationScoped;
@@ -39,10 +48,15 @@ import org.gluu.model.GluuStatus;
 import org.gluu.model.SchemaEntry;
 import org.gluu.model.custom.script.model.bind.BindCredentials;
 import org.gluu.model.ldap.GluuLdapConfiguration;
+import org.gluu.oxtrust.ldap.cache.conf.CacheRefreshTuningConfiguration;
 import org.gluu.oxtrust.service.config.ConfigurationFactory;
 import org.gluu.oxtrust.ldap.cache.model.CacheCompoundKey;
+import org.gluu.oxtrust.ldap.cache.model.CacheRefreshDeltaSyncState;
+import org.gluu.oxtrust.ldap.cache.model.CacheRefreshRunMetrics;
+import org.gluu.oxtrust.ldap.cache.model.CacheRefreshSchemaStamp;
 import org.gluu.oxtrust.ldap.cache.model.GluuInumMap;
 import org.gluu.oxtrust.ldap.cache.model.GluuSimplePerson;
+import org.gluu.oxtrust.ldap.cache.service.CacheRefreshSourceLoader.SourceFilterFactory;
 import org.gluu.oxtrust.model.GluuConfiguration;
 import org.gluu.oxtrust.model.GluuCustomAttribute;
 import org.gluu.oxtrust.model.GluuCustomPerson;
@@ -64,6 +78,8 @@ import org.gluu.persist.exception.operation.SearchException;
 import org.gluu.persist.ldap.impl.LdapEntryManager;
 import org.gluu.persist.ldap.impl.LdapEntryManagerFactory;
 import org.gluu.persist.ldap.operation.LdapOperationService;
+import org.gluu.persist.model.BatchOperation;
+import org.gluu.persist.model.ProcessBatchOperation;
 import org.gluu.persist.model.SearchScope;
 import org.gluu.persist.model.base.GluuDummyEntry;
 import org.gluu.persist.operation.PersistenceOperationService;
@@ -91,7 +107,6 @@ import org.slf4j.Logger;
 @Named
 public class CacheRefreshTimer {
 
-	private static final String LETTERS_FOR_SEARCH = "abcdefghijklmnopqrstuvwxyz1234567890.";
 	private static final String[] TARGET_PERSON_RETURN_ATTRIBUTES = { OxTrustConstants.inum };
 
 	private static final int DEFAULT_INTERVAL = 60;
@@ -144,8 +159,38 @@ public class CacheRefreshTimer {
 	@Inject
 	private ObjectSerializationService objectSerializationService;
 
+	@Inject
+	private CacheRefreshTuningConfiguration cacheRefreshTuningConfiguration;
+
+	@Inject
+	private CacheRefreshSourceLoader cacheRefreshSourceLoader;
+
+	@Inject
+	private CacheRefreshKeySpacePartitioner cacheRefreshKeySpacePartitioner;
+
+	@Inject
+	private CacheRefreshInumAllocator cacheRefreshInumAllocator;
+
+	@Inject
+	private CacheRefreshTargetWriter cacheRefreshTargetWriter;
+
+	@Inject
+	private CacheRefreshMetricsService cacheRefreshMetricsService;
+
+	@Inject
+	private CacheRefreshShardCoordinator cacheRefreshShardCoordinator;
+
+	@Inject
+	private CacheRefreshConnectionRegistry cacheRefreshConnectionRegistry;
+
 	private AtomicBoolean isActive;
 	private long lastFinishedTime;
+	private CacheRefreshShard lastShard;
+	private long lastRemovalReconciliationTime;
+
+	// Result of last target server schema validation and its inputs
+	private String lastSchemaValidationKey;
+	private boolean lastSchemaValidationResult;
 
 	public void initTimer() {
 		log.info("Initializing Cache Refresh Timer");
@@ -156,8 +201,8 @@ public class CacheRefreshTimer {
 		if (cacheRefreshConfiguration != null) {
 			String snapshotFolder = cacheRefreshConfiguration.getSnapshotFolder();
 			if (StringHelper.isNotEmpty(snapshotFolder)) {
-				String inumCachePath = getInumCachePath(cacheRefreshConfiguration);
-				objectSerializationService.cleanup(inumCachePath);
+				new CacheRefreshInumMapStore(getInumCachePath(cacheRefreshConfiguration)).cleanup();
+				objectSerializationService.cleanup(getLegacyInumCachePath(cacheRefreshConfiguration));
 			}
 		}
 
@@ -172,6 +217,10 @@ public class CacheRefreshTimer {
 	public void process(@Observes @Scheduled CacheRefreshEvent cacheRefreshEvent) {
 		if (this.isActive.get()) {
 			log.debug("Another process is active");
+			if (cacheRefreshTuningConfiguration.isShardingEnabled()) {
+				// Keep lease during long runs
+				cacheRefreshShardCoordinator.heartbeat();
+			}
 			return;
 		}
 
@@ -191,6 +240,9 @@ public class CacheRefreshTimer {
 	public void processInt() {
 		CacheRefreshConfiguration cacheRefreshConfiguration = configurationFactory.getCacheRefreshConfiguration();
 		try {
+			// Apply latest performance settings
+			cacheRefreshTuningConfiguration.reload();
+
 			GluuConfiguration currentConfiguration = configurationService.getConfiguration();
 			if (!isStartCacheRefresh(cacheRefreshConfiguration, currentConfiguration)) {
 				log.debug("Starting conditions aren't reached");
@@ -209,6 +261,7 @@ public class CacheRefreshTimer {
 	private boolean isStartCacheRefresh(CacheRefreshConfiguration cacheRefreshConfiguration,
 			GluuConfiguration currentConfiguration) {
 		if (!currentConfiguration.isVdsCacheRefreshEnabled()) {
+			cacheRefreshConnectionRegistry.closeConnections();
 			return false;
 		}
 
@@ -223,8 +276,10 @@ public class CacheRefreshTimer {
 		// return false;
 		// }
 
+		// In sharded mode all nodes take part in Cache Refresh
+		boolean cacheRefreshServer = cacheRefreshTuningConfiguration.isShardingEnabled();
+
 		// Compare server IP address with cacheRefreshServerIp
-		boolean cacheRefreshServer = false;
 		try {
 			Enumeration<NetworkInterface> nets = NetworkInterface.getNetworkInterfaces();
 			for (NetworkInterface networkInterface : Collections.list(nets)) {
@@ -268,6 +323,29 @@ public class CacheRefreshTimer {
 			throws SearchException {
 		CacheRefreshUpdateMethod updateMethod = getUpdateMethod(cacheRefreshConfiguration);
 
+		// In sharded mode each node processes own range of keys and keeps own snapshots
+		CacheRefreshShard shard = null;
+		boolean isShardChanged = false;
+		if (cacheRefreshTuningConfiguration.isShardingEnabled()) {
+			shard = cacheRefreshShardCoordinator.acquireShard();
+			if (shard == null) {
+				log.warn("Skipping cache refresh because shard of this node isn't determined");
+				return;
+			}
+
+			cacheRefreshConfiguration = getShardCacheRefreshConfiguration(cacheRefreshConfiguration, shard);
+			if (cacheRefreshConfiguration == null) {
+				return;
+			}
+
+			if (!shard.equals(this.lastShard)) {
+				// Inum entries of new keys might be added by other nodes
+				new CacheRefreshInumMapStore(getInumCachePath(cacheRefreshConfiguration)).cleanup();
+				isShardChanged = this.lastShard != null;
+			}
+			this.lastShard = shard;
+		}
+
 		// Prepare and check connections to LDAP servers
 		LdapServerConnection[] sourceServerConnections = prepareLdapServerConnections(cacheRefreshConfiguration,
 				cacheRefreshConfiguration.getSourceConfigs());
@@ -298,96 +376,55 @@ public class CacheRefreshTimer {
 					|| (isVdsUpdate && (targetServerConnection == null))) {
 				log.error("Skipping cache refresh due to invalid server configuration");
 			} else {
-				detectChangedEntries(cacheRefreshConfiguration, currentConfiguration, sourceServerConnections,
-						inumDbServerConnection, targetServerConnection, updateMethod);
-			}
-		} finally {
-			// Close connections to LDAP servers
-			try {
-				closeLdapServerConnection(sourceServerConnections);
-			} catch (Exception e) {
-				// Nothing can be done
-			}
-
-			if (!cacheRefreshConfiguration.isDefaultInumServer()) {
+				CacheRefreshRunMetrics runMetrics = cacheRefreshMetricsService.startRun(updateMethod);
+				CacheRefreshRunJournal runJournal = new CacheRefreshRunJournal(getRunJournalPath(cacheRefreshConfiguration));
+				boolean success = false;
 				try {
-					closeLdapServerConnection(inumDbServerConnection);
-				} catch (Exception e) {
-					// Nothing can be done
-				}
-			}
-			try {
-				if (isVdsUpdate) {
-					closeLdapServerConnection(targetServerConnection);
+					success = detectChangedEntries(cacheRefreshConfiguration, currentConfiguration,
+							sourceServerConnections, inumDbServerConnection, targetServerConnection, updateMethod, shard,
+							isShardChanged, runJournal, runMetrics);
+				} finally {
+					runJournal.close();
+					cacheRefreshMetricsService.finishRun(runMetrics, success);
 				}
-			} catch (Exception e) {
-				// Nothing can be done
 			}
+		} finally {
+			// Keep connections to LDAP servers for next run
+			cacheRefreshConnectionRegistry
+					.releaseConnections(cacheRefreshTuningConfiguration.isKeepConnections());
 		}
 
 		return;
 	}
 
-	@SuppressWarnings("unchecked")
 	private boolean detectChangedEntries(CacheRefreshConfiguration cacheRefreshConfiguration,
 			GluuConfiguration currentConfiguration, LdapServerConnection[] sourceServerConnections,
 			LdapServerConnection inumDbServerConnection, LdapServerConnection targetServerConnection,
-			CacheRefreshUpdateMethod updateMethod) throws SearchException {
+			CacheRefreshUpdateMethod updateMethod, CacheRefreshShard shard, boolean isShardChanged,
+			CacheRefreshRunJournal runJournal, CacheRefreshRunMetrics runMetrics) throws SearchException {
 		boolean isVDSMode = CacheRefreshUpdateMethod.VDS.equals(updateMethod);
 
-		// Load all entries from Source servers
-		log.info("Attempting to load entries from source server");
-		List<GluuSimplePerson> sourcePersons;
-
-		if (cacheRefreshConfiguration.isUseSearchLimit()) {
-			sourcePersons = loadSourceServerEntries(cacheRefreshConfiguration, sourceServerConnections);
-		} else {
-			sourcePersons = loadSourceServerEntriesWithoutLimits(cacheRefreshConfiguration, sourceServerConnections);
-		}
-
-		log.info("Found '{}' entries in source server", sourcePersons.size());
-
-		Map<CacheCompoundKey, GluuSimplePerson> sourcePersonCacheCompoundKeyMap = getSourcePersonCompoundKeyMap(
-				cacheRefreshConfiguration, sourcePersons);
-		log.info("Found '{}' unique entries in source server", sourcePersonCacheCompoundKeyMap.size());
-
 		// Load all inum entries
 		List<GluuInumMap> inumMaps = null;
 
 		// Load all inum entries from local disk cache
-		String inumCachePath = getInumCachePath(cacheRefreshConfiguration);
-		Object loadedObject = objectSerializationService.loadObject(inumCachePath);
-		if (loadedObject != null) {
-			try {
-				inumMaps = (List<GluuInumMap>) loadedObject;
-				log.debug("Found '{}' entries in inum objects disk cache", inumMaps.size());
-			} catch (Exception ex) {
-				log.error("Failed to convert to GluuInumMap list", ex);
-				objectSerializationService.cleanup(inumCachePath);
-			}
+		long phaseStartTime = System.currentTimeMillis();
+		CacheRefreshInumMapStore inumMapStore = new CacheRefreshInumMapStore(getInumCachePath(cacheRefreshConfiguration));
+		inumMaps = inumMapStore.load();
+		if (inumMaps != null) {
+			log.debug("Found '{}' entries in inum objects disk cache", inumMaps.size());
+			runMetrics.endPhase(CacheRefreshPhase.INUM_MAP, phaseStartTime, inumMaps.size());
 		}
 
 		if (inumMaps == null) {
 			// Load all inum entries from LDAP
 			inumMaps = loadInumServerEntries(cacheRefreshConfiguration, inumDbServerConnection);
 			log.info("Found '{}' entries in inum server", inumMaps.size());
+			runMetrics.endPhase(CacheRefreshPhase.INUM_MAP, phaseStartTime, inumMaps.size());
 		}
 
 		HashMap<CacheCompoundKey, GluuInumMap> primaryKeyAttrValueInumMap = getPrimaryKeyAttrValueInumMap(inumMaps);
 
-		// Go through Source entries and create new InumMap entries if needed
-		HashMap<CacheCompoundKey, GluuInumMap> addedPrimaryKeyAttrValueInumMap = addNewInumServerEntries(
-				cacheRefreshConfiguration, inumDbServerConnection, sourcePersonCacheCompoundKeyMap,
-				primaryKeyAttrValueInumMap);
-
-		HashMap<CacheCompoundKey, GluuInumMap> allPrimaryKeyAttrValueInumMap = getAllInumServerEntries(
-				primaryKeyAttrValueInumMap, addedPrimaryKeyAttrValueInumMap);
-		log.debug("Count actual inum entries '{}' after updating inum server", allPrimaryKeyAttrValueInumMap.size());
-
-		HashMap<String, Integer> currInumWithEntryHashCodeMap = getSourcePersonsHashCodesMap(inumDbServerConnection,
-				sourcePersonCacheCompoundKeyMap, allPrimaryKeyAttrValueInumMap);
-		log.debug("Count actual source entries '{}' after calculating hash code", currInumWithEntryHashCodeMap.size());
-
 		// Create snapshots cache folder if needed
 		boolean result = cacheRefreshSnapshotFileService.prepareSnapshotsFolder(cacheRefreshConfiguration);
 		if (!result) {
@@ -395,38 +432,182 @@ public class CacheRefreshTimer {
 		}
 
 		// Load last snapshot into memory
-		Map<String, Integer> prevInumWithEntryHashCodeMap = cacheRefreshSnapshotFileService
-				.readLastSnapshot(cacheRefreshConfiguration);
+		phaseStartTime = System.currentTimeMillis();
+		CacheRefreshFingerprint fingerprint = createFingerprint(cacheRefreshConfiguration, inumDbServerConnection);
+
+		// Resume interrupted run from last checkpoint if it was started with same configuration
+		boolean isResumedRun = runJournal.open(getRunKey(cacheRefreshConfiguration, updateMethod, fingerprint));
+		if (isResumedRun) {
+			log.info("Resuming interrupted run. Entries written to target server: '{}'",
+					runJournal.getCommittedCount());
+		}
+
+		CacheRefreshSnapshot prevSnapshot = cacheRefreshSnapshotFileService.readLastSnapshot(cacheRefreshConfiguration);
+		if ((prevSnapshot != null) && (prevSnapshot.getAlgorithm() != fingerprint.getAlgorithm())) {
+			// Fingerprints calculated by different algorithms are not comparable
+			log.info("Last snapshot was created with '{}' fingerprint algorithm. Ignoring it because current algorithm is '{}'",
+					prevSnapshot.getAlgorithm(), fingerprint.getAlgorithm());
+			prevSnapshot = null;
+		}
+		if ((prevSnapshot != null) && isShardChanged) {
+			// Snapshot in this shard folder might be left by other nodes long time ago
+			log.info("Shards layout was changed. Ignoring last snapshot of shard '{}'", shard.getFolderName());
+			prevSnapshot = null;
+		}
+
+		// Load problem entries from disk. Only entries which backoff delay is expired are retried
+		Date runDate = new Date();
+		CacheRefreshRetryQueue retryQueue = new CacheRefreshRetryQueue(
+				cacheRefreshSnapshotFileService.readProblemEntries(cacheRefreshConfiguration),
+				cacheRefreshTuningConfiguration.getRetryInitialDelayMinutes() * 60 * 1000L,
+				cacheRefreshTuningConfiguration.getRetryMaxDelayMinutes() * 60 * 1000L,
+				cacheRefreshTuningConfiguration.getRetryQuarantineAttempts());
+		Set<String> problemInums = retryQueue.getEligibleInums(runDate.getTime());
+		runMetrics.endPhase(CacheRefreshPhase.SNAPSHOT_IO, phaseStartTime, prevSnapshot == null ? 0 : prevSnapshot.size());
+
+		// Delta run loads only entries which were changed since last successful run
+		CacheRefreshDeltaSyncState deltaSyncState = null;
+		Date deltaSyncSince = null;
+		if (CacheRefreshUpdateMethod.DELTA.equals(updateMethod)) {
+			deltaSyncState = cacheRefreshSnapshotFileService.readDeltaSyncState(cacheRefreshConfiguration);
+			deltaSyncSince = getDeltaSyncSince(deltaSyncState, prevSnapshot, runDate);
+			if (deltaSyncSince != null) {
+				log.info("Starting delta run. Loading entries which were changed since '{}'", deltaSyncSince);
+			} else {
+				log.info("Starting full reconciliation run");
+			}
+		}
+		boolean isDeltaRun = deltaSyncSince != null;
+
+		// Load all entries from Source servers
+		log.info("Attempting to load entries from source server");
+		Map<CacheCompoundKey, GluuSimplePerson> sourcePersonCacheCompoundKeyMap;
+		HashMap<CacheCompoundKey, GluuInumMap> addedPrimaryKeyAttrValueInumMap;
+		HashMap<CacheCompoundKey, GluuInumMap> allPrimaryKeyAttrValueInumMap;
+		InumHashCodeMap currInumWithEntryHashCodeMap;
+
+		if (cacheRefreshTuningConfiguration.isStreamingSourceLoad() && !isDeltaRun) {
+			// Fold entries into index page by page and keep only entries which might be needed for update
+			CacheRefreshSourceIndex sourceIndex = new CacheRefreshSourceIndex(
+					getCompoundKeyAttributesWithoutValues(cacheRefreshConfiguration),
+					fingerprint, primaryKeyAttrValueInumMap, prevSnapshot, problemInums, !isVDSMode, shard);
+
+			// Fingerprints are calculated during load
+			phaseStartTime = System.currentTimeMillis();
+			if (cacheRefreshConfiguration.isUseSearchLimit()) {
+				loadSourceServerEntries(cacheRefreshConfiguration, sourceServerConnections, sourceIndex);
+			} else {
+				streamSourceServerEntriesWithoutLimits(cacheRefreshConfiguration, sourceServerConnections, sourceIndex);
+			}
+			sourceIndex.removeDuplicateKeys();
+
+			sourcePersonCacheCompoundKeyMap = sourceIndex.getSourcePersons();
+			log.info("Found '{}' unique entries in source server, '{}' of them are new or changed",
+					sourceIndex.getCountUniqueEntries(), sourcePersonCacheCompoundKeyMap.size());
+			if (shard != null) {
+				sourceIndex.removeSourcePersons(
+						getMovedNewKeys(sourcePersonCacheCompoundKeyMap, primaryKeyAttrValueInumMap, shard));
+			}
+			runMetrics.endPhase(CacheRefreshPhase.SOURCE_LOAD, phaseStartTime, sourceIndex.getCountUniqueEntries());
+
+			// Go through Source entries and create new InumMap entries if needed
+			phaseStartTime = System.currentTimeMillis();
+			addedPrimaryKeyAttrValueInumMap = addNewInumServerEntries(cacheRefreshConfiguration, inumDbServerConnection,
+					sourcePersonCacheCompoundKeyMap, primaryKeyAttrValueInumMap);
+
+			allPrimaryKeyAttrValueInumMap = getAllInumServerEntries(primaryKeyAttrValueInumMap,
+					addedPrimaryKeyAttrValueInumMap);
+			log.debug("Count actual inum entries '{}' after updating inum server", allPrimaryKeyAttrValueInumMap.size());
+			runMetrics.endPhase(CacheRefreshPhase.INUM_MAP, phaseStartTime, addedPrimaryKeyAttrValueInumMap.size());
+
+			phaseStartTime = System.currentTimeMillis();
+			currInumWithEntryHashCodeMap = sourceIndex.getInumWithEntryHashCodeMap(allPrimaryKeyAttrValueInumMap);
+		} else {
+			phaseStartTime = System.currentTimeMillis();
+			List<GluuSimplePerson> sourcePersons;
+			if (cacheRefreshConfiguration.isUseSearchLimit() && !isDeltaRun) {
+				sourcePersons = loadSourceServerEntries(cacheRefreshConfiguration, sourceServerConnections, null);
+			} else {
+				sourcePersons = loadSourceServerEntriesWithoutLimits(cacheRefreshConfiguration, sourceServerConnections,
+						deltaSyncSince);
+			}
+
+			log.info("Found '{}' entries in source server", sourcePersons.size());
+
+			sourcePersonCacheCompoundKeyMap = getSourcePersonCompoundKeyMap(cacheRefreshConfiguration, sourcePersons);
+			if (shard != null) {
+				retainShardSourcePersons(sourcePersonCacheCompoundKeyMap, shard);
+				sourcePersonCacheCompoundKeyMap.keySet().removeAll(
+						getMovedNewKeys(sourcePersonCacheCompoundKeyMap, primaryKeyAttrValueInumMap, shard));
+			}
+			log.info("Found '{}' unique entries in source server", sourcePersonCacheCompoundKeyMap.size());
+			runMetrics.endPhase(CacheRefreshPhase.SOURCE_LOAD, phaseStartTime, sourcePersons.size());
+
+			// Go through Source entries and create new InumMap entries if needed
+			phaseStartTime = System.currentTimeMillis();
+			addedPrimaryKeyAttrValueInumMap = addNewInumServerEntries(cacheRefreshConfiguration, inumDbServerConnection,
+					sourcePersonCacheCompoundKeyMap, primaryKeyAttrValueInumMap);
+
+			allPrimaryKeyAttrValueInumMap = getAllInumServerEntries(primaryKeyAttrValueInumMap,
+					addedPrimaryKeyAttrValueInumMap);
+			log.debug("Count actual inum entries '{}' after updating inum server", allPrimaryKeyAttrValueInumMap.size());
+			runMetrics.endPhase(CacheRefreshPhase.INUM_MAP, phaseStartTime, addedPrimaryKeyAttrValueInumMap.size());
+
+			phaseStartTime = System.currentTimeMillis();
+			currInumWithEntryHashCodeMap = getSourcePersonsHashCodesMap(fingerprint,
+					sourcePersonCacheCompoundKeyMap, allPrimaryKeyAttrValueInumMap);
+		}
+		log.debug("Count actual source entries '{}' after calculating hash code", currInumWithEntryHashCodeMap.size());
 
 		// Compare 2 snapshot and invoke update if needed
-		Set<String> changedInums = getChangedInums(currInumWithEntryHashCodeMap, prevInumWithEntryHashCodeMap,
-				isVDSMode);
+		CacheRefreshSnapshot currSnapshot = CacheRefreshSnapshot.create(currInumWithEntryHashCodeMap,
+				fingerprint.getAlgorithm());
+		CacheRefreshSnapshotDiff snapshotDiff = currSnapshot.diff(prevSnapshot, !isDeltaRun);
+		Set<String> changedInums = getChangedInums(snapshotDiff, isVDSMode);
 		log.info("Found '{}' changed entries", changedInums.size());
 
-		// Load problem list from disk and add to changedInums
-		List<String> problemInums = cacheRefreshSnapshotFileService.readProblemList(cacheRefreshConfiguration);
-		if (problemInums != null) {
-			log.info("Loaded '{}' problem entries from problem file", problemInums.size());
-			// Process inums from problem list too
-			changedInums.addAll(problemInums);
+		if (isDeltaRun) {
+			// Current snapshot has only changed entries. Apply them to last snapshot
+			currSnapshot = mergeSnapshots(prevSnapshot, currInumWithEntryHashCodeMap, fingerprint);
+		}
+		runMetrics.endPhase(CacheRefreshPhase.HASHING, phaseStartTime, currInumWithEntryHashCodeMap.size());
+
+		// Add problem entries to changedInums
+		if (!isDeltaRun) {
+			int removedCount = retryQueue.retainInums(currInumWithEntryHashCodeMap);
+			log.debug("Removed '{}' problem entries which don't exist in source server", removedCount);
+		}
+		problemInums = retryQueue.getEligibleInums(runDate.getTime());
+		log.info("Loaded '{}' problem entries from problem file, '{}' of them are eligible for retry, '{}' are quarantined",
+				retryQueue.size(), problemInums.size(), retryQueue.getQuarantinedCount());
+		changedInums.addAll(problemInums);
+
+		if (isResumedRun) {
+			int skippedCount = removeCommittedInums(changedInums, currInumWithEntryHashCodeMap, runJournal);
+			log.info("Skipping '{}' entries which were written to target server by interrupted run", skippedCount);
 		}
 
+		phaseStartTime = System.currentTimeMillis();
 		List<String> updatedInums = null;
+		Map<String, String> writeErrors = new ConcurrentHashMap<String, String>();
 		if (isVDSMode) {
 			// Update request to VDS to update entries on target server
-			updatedInums = updateTargetEntriesViaVDS(cacheRefreshConfiguration, targetServerConnection, changedInums);
+			updatedInums = updateTargetEntriesViaVDS(cacheRefreshConfiguration, targetServerConnection, changedInums,
+					currInumWithEntryHashCodeMap, writeErrors, runJournal);
 		} else {
 			updatedInums = updateTargetEntriesViaCopy(cacheRefreshConfiguration, sourcePersonCacheCompoundKeyMap,
-					allPrimaryKeyAttrValueInumMap, changedInums);
+					allPrimaryKeyAttrValueInumMap, changedInums, currInumWithEntryHashCodeMap, writeErrors, runJournal);
 		}
 
 		log.info("Updated '{}' entries", updatedInums.size());
+		runMetrics.endPhase(CacheRefreshPhase.TARGET_WRITE, phaseStartTime, updatedInums.size());
 		changedInums.removeAll(updatedInums);
 		log.info("Failed to update '{}' entries", changedInums.size());
+		updateRetryQueue(retryQueue, updatedInums, changedInums, writeErrors);
 
 		// Persist snapshot to cache folder
-		result = cacheRefreshSnapshotFileService.createSnapshot(cacheRefreshConfiguration,
-				currInumWithEntryHashCodeMap);
+		phaseStartTime = System.currentTimeMillis();
+		result = cacheRefreshSnapshotFileService.createSnapshot(cacheRefreshConfiguration, currSnapshot);
 		if (!result) {
 			return false;
 		}
@@ -435,51 +616,211 @@ public class CacheRefreshTimer {
 		cacheRefreshSnapshotFileService.retainSnapshots(cacheRefreshConfiguration,
 				cacheRefreshConfiguration.getSnapshotMaxCount());
 
-		// Save changedInums as problem list to disk
-		currentConfiguration.setVdsCacheRefreshProblemCount(String.valueOf(changedInums.size()));
-		cacheRefreshSnapshotFileService.writeProblemList(cacheRefreshConfiguration, changedInums);
+		// Save problem entries to disk
+		currentConfiguration.setVdsCacheRefreshProblemCount(String.valueOf(retryQueue.size()));
+		cacheRefreshSnapshotFileService.writeProblemEntries(cacheRefreshConfiguration, retryQueue.getEntries());
+		runMetrics.endPhase(CacheRefreshPhase.SNAPSHOT_IO, phaseStartTime, currSnapshot.size());
 
 		// Prepare list of persons for removal
+		phaseStartTime = System.currentTimeMillis();
 		List<GluuSimplePerson> personsForRemoval = null;
+		HashMap<String, GluuInumMap> inumInumMap = getInumInumMap(inumMaps);
 
 		boolean keepExternalPerson = cacheRefreshConfiguration.isKeepExternalPerson();
 		log.debug("Keep external persons: '{}'", keepExternalPerson);
-		if (keepExternalPerson) {
+		if (isDeltaRun) {
+			// Removed entries are detected by periodic full reconciliation only
+			personsForRemoval = new ArrayList<GluuSimplePerson>(0);
+		} else if (keepExternalPerson) {
 			// Determine entries which need to remove
-			personsForRemoval = getRemovedPersons(currInumWithEntryHashCodeMap, prevInumWithEntryHashCodeMap);
+			personsForRemoval = getRemovedPersons(snapshotDiff);
+		} else if ((prevSnapshot != null) && !isRemovalReconciliationNeeded(runDate)) {
+			// Entries which were removed from source server since last run
+			personsForRemoval = getRemovedPersons(snapshotDiff);
 		} else {
-			// Process entries which don't exist in source server
-
-			// Load all entries from Target server
-			List<GluuSimplePerson> targetPersons = loadTargetServerEntries(cacheRefreshConfiguration, ldapEntryManager);
-			log.info("Found '{}' entries in target server", targetPersons.size());
-
-			// Detect entries which need to remove
-			personsForRemoval = processTargetPersons(targetPersons, currInumWithEntryHashCodeMap);
+			// Process entries which don't exist in source server. It also finds persons which weren't added by Cache Refresh
+			log.info("Starting reconciliation with target server to find entries for removal");
+			personsForRemoval = findTargetPersonsForRemoval(cacheRefreshConfiguration, currInumWithEntryHashCodeMap,
+					inumInumMap, shard);
+			this.lastRemovalReconciliationTime = runDate.getTime();
 		}
 		log.debug("Count entries '{}' for removal from target server", personsForRemoval.size());
 
 		// Remove entries from target server
-		HashMap<String, GluuInumMap> inumInumMap = getInumInumMap(inumMaps);
 		Pair<List<String>, List<String>> removeTargetEntriesResult = removeTargetEntries(inumDbServerConnection,
 				ldapEntryManager, personsForRemoval, inumInumMap);
 		List<String> removedPersonInums = removeTargetEntriesResult.getFirst();
 		List<String> removedGluuInumMaps = removeTargetEntriesResult.getSecond();
 		log.info("Removed '{}' persons from target server", removedPersonInums.size());
+		runMetrics.endPhase(CacheRefreshPhase.REMOVAL, phaseStartTime, removedPersonInums.size());
 
 		// Prepare list of inum for serialization
+		phaseStartTime = System.currentTimeMillis();
 		ArrayList<GluuInumMap> currentInumMaps = applyChangesToInumMap(inumInumMap, addedPrimaryKeyAttrValueInumMap,
 				removedGluuInumMaps);
 
-		// Strore all inum entries into local disk cache
-		objectSerializationService.saveObject(inumCachePath, currentInumMaps);
+		// Store all inum entries into local disk cache
+		inumMapStore.update(currentInumMaps, addedPrimaryKeyAttrValueInumMap.values(), removedGluuInumMaps);
+		runMetrics.endPhase(CacheRefreshPhase.INUM_MAP, phaseStartTime, 0);
 
 		currentConfiguration
 				.setVdsCacheRefreshLastUpdateCount(String.valueOf(updatedInums.size() + removedPersonInums.size()));
 
+		if (CacheRefreshUpdateMethod.DELTA.equals(updateMethod)) {
+			if (deltaSyncState == null) {
+				deltaSyncState = new CacheRefreshDeltaSyncState();
+			}
+
+			deltaSyncState.setLastSyncTime(runDate);
+			if (!isDeltaRun) {
+				deltaSyncState.setLastFullSyncTime(runDate);
+			}
+			cacheRefreshSnapshotFileService.writeDeltaSyncState(cacheRefreshConfiguration, deltaSyncState);
+		}
+
+		// Snapshot contains all changes of this run. There is nothing to resume
+		runJournal.finish();
+
 		return true;
 	}
 
+	/**
+	 * Failed entries are retried with backoff. Entries which weren't attempted,
+	 * e.g. because target schema is invalid, are retried on next run
+	 */
+	private void updateRetryQueue(CacheRefreshRetryQueue retryQueue, List<String> updatedInums,
+			Set<String> failedInums, Map<String, String> writeErrors) {
+		retryQueue.succeeded(updatedInums);
+
+		long failureTime = System.currentTimeMillis();
+		for (String failedInum : failedInums) {
+			String writeError = writeErrors.get(failedInum);
+			if (writeError == null) {
+				retryQueue.postponed(failedInum);
+			} else {
+				retryQueue.failed(failedInum, writeError, failureTime);
+			}
+		}
+
+		if (retryQueue.getQuarantinedCount() > 0) {
+			log.warn("There are '{}' quarantined entries. They will be retried after update in source server",
+					retryQueue.getQuarantinedCount());
+		}
+	}
+
+	/**
+	 * Removes entries which were written by interrupted run and weren't changed
+	 * in source server after that
+	 */
+	private int removeCommittedInums(Set<String> changedInums, InumHashCodeMap currInumWithEntryHashCodeMap,
+			CacheRefreshRunJournal runJournal) {
+		int count = 0;
+		for (Iterator<String> it = changedInums.iterator(); it.hasNext();) {
+			String changedInum = it.next();
+			if (currInumWithEntryHashCodeMap.containsKey(changedInum)
+					&& runJournal.isCommitted(changedInum, currInumWithEntryHashCodeMap.get(changedInum, 0))) {
+				it.remove();
+				count++;
+			}
+		}
+
+		return count;
+	}
+
+	private void commitWrittenInums(Collection<String> writtenInums, InumHashCodeMap currInumWithEntryHashCodeMap,
+			CacheRefreshRunJournal runJournal) {
+		Map<String, Long> inumHashCodes = new LinkedHashMap<String, Long>();
+		for (String writtenInum : writtenInums) {
+			// Problem entries which aren't in delta run have no fingerprint
+			if (currInumWithEntryHashCodeMap.containsKey(writtenInum)) {
+				inumHashCodes.put(writtenInum, currInumWithEntryHashCodeMap.get(writtenInum, 0));
+			}
+		}
+
+		runJournal.commitBatch(inumHashCodes);
+	}
+
+	/**
+	 * Interrupted run can be resumed only if it was started with same settings
+	 */
+	private String getRunKey(CacheRefreshConfiguration cacheRefreshConfiguration,
+			CacheRefreshUpdateMethod updateMethod, CacheRefreshFingerprint fingerprint) {
+		String[] keyAttributesWithoutValues = getCompoundKeyAttributesWithoutValues(cacheRefreshConfiguration);
+		Map<String, String> targetServerAttributesMapping = new TreeMap<String, String>(
+				getTargetServerAttributesMapping(cacheRefreshConfiguration));
+
+		// Full digest. Run with other settings must never resume this journal
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			for (String keyAttribute : keyAttributesWithoutValues) {
+				digest.update((byte) 0);
+				digest.update(String.valueOf(keyAttribute).getBytes(StandardCharsets.UTF_8));
+			}
+			digest.update((byte) 1);
+			for (Entry<String, String> attributeMapping : targetServerAttributesMapping.entrySet()) {
+				digest.update((byte) 0);
+				digest.update(String.valueOf(attributeMapping.getKey()).getBytes(StandardCharsets.UTF_8));
+				digest.update((byte) 0);
+				digest.update(String.valueOf(attributeMapping.getValue()).getBytes(StandardCharsets.UTF_8));
+			}
+
+			StringBuilder settingsDigest = new StringBuilder();
+			for (byte b : digest.digest()) {
+				settingsDigest.append(String.format("%02x", b));
+			}
+
+			return String.format("%s:%s:%s", updateMethod, fingerprint.getAlgorithm().getValue(), settingsDigest);
+		} catch (NoSuchAlgorithmException ex) {
+			throw new IllegalStateException("SHA-256 is not supported", ex);
+		}
+	}
+
+	private Date getDeltaSyncSince(CacheRefreshDeltaSyncState deltaSyncState, CacheRefreshSnapshot prevSnapshot,
+			Date runDate) {
+		// Delta run needs complete snapshot from last run
+		if ((deltaSyncState == null) || (deltaSyncState.getLastSyncTime() == null)
+				|| (deltaSyncState.getLastFullSyncTime() == null) || (prevSnapshot == null)) {
+			return null;
+		}
+
+		long fullSyncInterval = cacheRefreshTuningConfiguration.getDeltaSyncFullSyncIntervalMinutes() * 60 * 1000L;
+		if (runDate.getTime() - deltaSyncState.getLastFullSyncTime().getTime() >= fullSyncInterval) {
+			return null;
+		}
+
+		long overlap = cacheRefreshTuningConfiguration.getDeltaSyncOverlapSeconds() * 1000L;
+
+		return new Date(deltaSyncState.getLastSyncTime().getTime() - overlap);
+	}
+
+	/**
+	 * Time format depends on source server persistence type, so filter is built
+	 * for each source server base DN
+	 */
+	private Filter createDeltaSyncFilter(LdapServerConnection sourceServerConnection, String baseDn,
+			Date deltaSyncSince) {
+		String encodedDeltaSyncSince = sourceServerConnection.getPersistenceEntryManager().encodeTime(baseDn,
+				deltaSyncSince);
+
+		String[] timestampAttributes = cacheRefreshTuningConfiguration.getDeltaSyncTimestampAttributes();
+		Filter[] filters = new Filter[timestampAttributes.length];
+		for (int i = 0; i < timestampAttributes.length; i++) {
+			filters[i] = Filter.createGreaterOrEqualFilter(timestampAttributes[i], encodedDeltaSyncSince);
+		}
+
+		return Filter.createORFilter(filters);
+	}
+
+	private CacheRefreshSnapshot mergeSnapshots(CacheRefreshSnapshot prevSnapshot,
+			InumHashCodeMap changedInumWithEntryHashCodeMap, CacheRefreshFingerprint fingerprint) {
+		InumHashCodeMap inumWithEntryHashCodeMap = new InumHashCodeMap(
+				prevSnapshot.size() + changedInumWithEntryHashCodeMap.size());
+		prevSnapshot.copyTo(inumWithEntryHashCodeMap);
+		inumWithEntryHashCodeMap.putAll(changedInumWithEntryHashCodeMap);
+
+		return CacheRefreshSnapshot.create(inumWithEntryHashCodeMap, fingerprint.getAlgorithm());
+	}
+
 	private ArrayList<GluuInumMap> applyChangesToInumMap(HashMap<String, GluuInumMap> inumInumMap,
 			HashMap<CacheCompoundKey, GluuInumMap> addedPrimaryKeyAttrValueInumMap, List<String> removedGluuInumMaps) {
 		log.info("There are '{}' entries before updating inum list", inumInumMap.size());
@@ -496,52 +837,22 @@ public class CacheRefreshTimer {
 		return currentInumMaps;
 	}
 
-	private Set<String> getChangedInums(HashMap<String, Integer> currInumWithEntryHashCodeMap,
-			Map<String, Integer> prevInumWithEntryHashCodeMap, boolean includeDeleted) {
-		// Find chaged inums
-		Set<String> changedInums = null;
-		// First time run
-		if (prevInumWithEntryHashCodeMap == null) {
-			changedInums = new HashSet<String>(currInumWithEntryHashCodeMap.keySet());
-		} else {
-			changedInums = new HashSet<String>();
-
-			// Add all inums which not exist in new snapshot
-			if (includeDeleted) {
-				for (String prevInumKey : prevInumWithEntryHashCodeMap.keySet()) {
-					if (!currInumWithEntryHashCodeMap.containsKey(prevInumKey)) {
-						changedInums.add(prevInumKey);
-					}
-				}
-			}
+	private Set<String> getChangedInums(CacheRefreshSnapshotDiff snapshotDiff, boolean includeDeleted) {
+		// Add all new inums and changed inums
+		Set<String> changedInums = new HashSet<String>(snapshotDiff.getAddedInums());
+		changedInums.addAll(snapshotDiff.getChangedInums());
 
-			// Add all new inums and changed inums
-			for (Entry<String, Integer> currEntry : currInumWithEntryHashCodeMap.entrySet()) {
-				String currInumKey = currEntry.getKey();
-				Integer prevHashCode = prevInumWithEntryHashCodeMap.get(currInumKey);
-				if ((prevHashCode == null)
-						|| ((prevHashCode != null) && !(prevHashCode.equals(currEntry.getValue())))) {
-					changedInums.add(currInumKey);
-				}
-			}
+		// Add all inums which not exist in new snapshot
+		if (includeDeleted) {
+			changedInums.addAll(snapshotDiff.getRemovedInums());
 		}
+
 		return changedInums;
 	}
 
-	private List<GluuSimplePerson> getRemovedPersons(HashMap<String, Integer> currInumWithEntryHashCodeMap,
-			Map<String, Integer> prevInumWithEntryHashCodeMap) {
-		// First time run
-		if (prevInumWithEntryHashCodeMap == null) {
-			return new ArrayList<GluuSimplePerson>(0);
-		}
-
-		// Add all inums which not exist in new snapshot
-		Set<String> deletedInums = new HashSet<String>();
-		for (String prevInumKey : prevInumWithEntryHashCodeMap.keySet()) {
-			if (!currInumWithEntryHashCodeMap.containsKey(prevInumKey)) {
-				deletedInums.add(prevInumKey);
-			}
-		}
+	private List<GluuSimplePerson> getRemovedPersons(CacheRefreshSnapshotDiff snapshotDiff) {
+		// Inums which not exist in new snapshot. It's empty on first time run
+		List<String> deletedInums = snapshotDiff.getRemovedInums();
 
 		List<GluuSimplePerson> deletedPersons = new ArrayList<GluuSimplePerson>(deletedInums.size());
 		for (String deletedInum : deletedInums) {
@@ -560,55 +871,168 @@ public class CacheRefreshTimer {
 	}
 
 	private List<String> updateTargetEntriesViaVDS(CacheRefreshConfiguration cacheRefreshConfiguration,
-			LdapServerConnection targetServerConnection, Set<String> changedInums) {
+			LdapServerConnection targetServerConnection, Set<String> changedInums,
+			InumHashCodeMap currInumWithEntryHashCodeMap, Map<String, String> writeErrors,
+			CacheRefreshRunJournal runJournal) {
 		List<String> result = new ArrayList<String>();
+		int checkpointBatchSize = cacheRefreshTuningConfiguration.getCheckpointBatchSize();
+		int committedCount = 0;
 
 		PersistenceEntryManager targetPersistenceEntryManager = targetServerConnection.getPersistenceEntryManager();
 		Filter filter = cacheRefreshService.createObjectClassPresenceFilter();
 		for (String changedInum : changedInums) {
 			String baseDn = "action=synchronizecache," + personService.getDnForPerson(changedInum);
 			try {
+				cacheRefreshMetricsService.addLdapOperations(1);
 				targetPersistenceEntryManager.findEntries(baseDn, GluuDummyEntry.class, filter, SearchScope.SUB, null,
 						null, 0, 0, cacheRefreshConfiguration.getLdapSearchSizeLimit());
 				result.add(changedInum);
 				log.debug("Updated entry with inum {}", changedInum);
 			} catch (BasePersistenceException ex) {
+				writeErrors.put(changedInum, ex.getClass().getName());
 				log.error("Failed to update entry with inum '{}' using baseDN {}", changedInum, baseDn, ex);
 			}
+
+			if (result.size() - committedCount >= checkpointBatchSize) {
+				commitWrittenInums(result.subList(committedCount, result.size()), currInumWithEntryHashCodeMap,
+						runJournal);
+				committedCount = result.size();
+			}
 		}
+		commitWrittenInums(result.subList(committedCount, result.size()), currInumWithEntryHashCodeMap, runJournal);
 
 		return result;
 	}
 
 	private List<String> updateTargetEntriesViaCopy(CacheRefreshConfiguration cacheRefreshConfiguration,
 			Map<CacheCompoundKey, GluuSimplePerson> sourcePersonCacheCompoundKeyMap,
-			HashMap<CacheCompoundKey, GluuInumMap> primaryKeyAttrValueInumMap, Set<String> changedInums) {
+			HashMap<CacheCompoundKey, GluuInumMap> primaryKeyAttrValueInumMap, Set<String> changedInums,
+			InumHashCodeMap currInumWithEntryHashCodeMap, Map<String, String> writeErrors,
+			CacheRefreshRunJournal runJournal) {
 		HashMap<String, CacheCompoundKey> inumCacheCompoundKeyMap = getInumCacheCompoundKeyMap(
 				primaryKeyAttrValueInumMap);
-		Map<String, String> targetServerAttributesMapping = getTargetServerAttributesMapping(cacheRefreshConfiguration);
+		CacheRefreshMappingPlan attributeMappingPlan = new CacheRefreshMappingPlan(
+				getTargetServerAttributesMapping(cacheRefreshConfiguration));
 		String[] customObjectClasses = appConfiguration.getPersonObjectClassTypes();
 
 		List<String> result = new ArrayList<String>();
 
-		if (!validateTargetServerSchema(cacheRefreshConfiguration, targetServerAttributesMapping,
+		if (!validateTargetServerSchema(cacheRefreshConfiguration, attributeMappingPlan,
 				customObjectClasses)) {
 			return result;
 		}
 
-		for (String targetInum : changedInums) {
-			CacheCompoundKey compoundKey = inumCacheCompoundKeyMap.get(targetInum);
-			if (compoundKey == null) {
-				continue;
+		// Each written batch is checkpoint of run
+		int checkpointBatchSize = cacheRefreshTuningConfiguration.getCheckpointBatchSize();
+		List<String> batchInums = new ArrayList<String>(Math.min(checkpointBatchSize, changedInums.size()));
+		for (Iterator<String> it = changedInums.iterator(); it.hasNext();) {
+			batchInums.add(it.next());
+			if ((batchInums.size() == checkpointBatchSize) || !it.hasNext()) {
+				List<String> writtenInums = updateTargetEntriesBatchViaCopy(sourcePersonCacheCompoundKeyMap,
+						inumCacheCompoundKeyMap, batchInums, customObjectClasses, attributeMappingPlan, writeErrors);
+				commitWrittenInums(writtenInums, currInumWithEntryHashCodeMap, runJournal);
+
+				result.addAll(writtenInums);
+				batchInums.clear();
 			}
+		}
 
-			GluuSimplePerson sourcePerson = sourcePersonCacheCompoundKeyMap.get(compoundKey);
-			if (sourcePerson == null) {
+		return result;
+	}
+
+	private List<String> updateTargetEntriesBatchViaCopy(
+			Map<CacheCompoundKey, GluuSimplePerson> sourcePersonCacheCompoundKeyMap,
+			HashMap<String, CacheCompoundKey> inumCacheCompoundKeyMap, List<String> changedInums,
+			final String[] customObjectClasses, final CacheRefreshMappingPlan attributeMappingPlan,
+			Map<String, String> writeErrors) {
+		// Load existing target entries by few searches instead of two requests per entry
+		Set<String> notPrefetchedInums = new HashSet<String>();
+		final Map<String, GluuCustomPerson> targetPersons = findTargetPersons(changedInums, notPrefetchedInums);
+
+		// Scripts are executed in this thread. Existing scripts aren't written for concurrent calls
+		Map<String, GluuCustomPerson> preparedPersons = prepareTargetEntriesViaScripts(sourcePersonCacheCompoundKeyMap,
+				inumCacheCompoundKeyMap, changedInums, notPrefetchedInums, targetPersons, customObjectClasses,
+				attributeMappingPlan, writeErrors);
+
+		Map<String, Callable<Boolean>> entryWriters = new LinkedHashMap<String, Callable<Boolean>>();
+		for (final String targetInum : changedInums) {
+			final GluuCustomPerson preparedPerson = preparedPersons.get(targetInum);
+			if (preparedPerson == null) {
 				continue;
 			}
 
-			if (updateTargetEntryViaCopy(sourcePerson, targetInum, customObjectClasses,
-					targetServerAttributesMapping)) {
-				result.add(targetInum);
+			entryWriters.put(targetInum, new Callable<Boolean>() {
+				private boolean firstAttempt = true;
+
+				@Override
+				public Boolean call() throws Exception {
+					boolean updatePerson = targetPersons.containsKey(targetInum);
+					if (!firstAttempt) {
+						// Entry might be added or removed by someone else before retry
+						cacheRefreshMetricsService.addLdapOperations(1);
+						updatePerson = personService.contains(preparedPerson.getDn());
+					}
+					firstAttempt = false;
+
+					return writeTargetEntry(preparedPerson, updatePerson);
+				}
+			});
+		}
+
+		return cacheRefreshTargetWriter.writeEntries(entryWriters, writeErrors);
+	}
+
+	/**
+	 * Prepares entries and executes scripts for them by chunks. Returns entries
+	 * accepted by scripts. Entries which weren't prefetched are loaded one by
+	 * one and put into target persons if they exist
+	 */
+	private Map<String, GluuCustomPerson> prepareTargetEntriesViaScripts(
+			Map<CacheCompoundKey, GluuSimplePerson> sourcePersonCacheCompoundKeyMap,
+			HashMap<String, CacheCompoundKey> inumCacheCompoundKeyMap, List<String> changedInums,
+			Set<String> notPrefetchedInums, Map<String, GluuCustomPerson> targetPersons, String[] customObjectClasses,
+			CacheRefreshMappingPlan attributeMappingPlan, Map<String, String> writeErrors) {
+		Map<String, GluuCustomPerson> result = new HashMap<String, GluuCustomPerson>();
+
+		int chunkSize = cacheRefreshTuningConfiguration.getScriptBatchSize();
+		List<GluuCustomPerson> chunk = new ArrayList<GluuCustomPerson>(Math.min(chunkSize, changedInums.size()));
+		for (Iterator<String> it = changedInums.iterator(); it.hasNext();) {
+			String targetInum = it.next();
+			CacheCompoundKey compoundKey = inumCacheCompoundKeyMap.get(targetInum);
+			GluuSimplePerson sourcePerson = compoundKey == null ? null : sourcePersonCacheCompoundKeyMap.get(compoundKey);
+			if (sourcePerson != null) {
+				GluuCustomPerson targetPerson = targetPersons.get(targetInum);
+				boolean loaded = true;
+				if (notPrefetchedInums.contains(targetInum)) {
+					try {
+						targetPerson = findTargetPerson(targetInum);
+						if (targetPerson != null) {
+							targetPersons.put(targetInum, targetPerson);
+						}
+					} catch (Exception ex) {
+						log.error("Failed to load target person '{}'", targetInum, ex);
+						writeErrors.put(targetInum, ex.getClass().getName());
+						loaded = false;
+					}
+				}
+
+				if (loaded) {
+					chunk.add(prepareTargetEntry(sourcePerson, targetInum, targetPerson, customObjectClasses,
+							attributeMappingPlan));
+				}
+			}
+
+			if ((chunk.size() == chunkSize) || (!it.hasNext() && !chunk.isEmpty())) {
+				boolean[] executionResult = externalCacheRefreshService.executeExternalUpdateUsersMethods(chunk);
+				for (int i = 0; i < chunk.size(); i++) {
+					if (executionResult[i]) {
+						result.put(chunk.get(i).getInum(), chunk.get(i));
+					} else {
+						log.error("Failed to execute Cache Refresh scripts for person '{}'", chunk.get(i).getInum());
+						writeErrors.put(chunk.get(i).getInum(), CacheRefreshRetryQueue.ERROR_NOT_WRITTEN);
+					}
+				}
+				chunk.clear();
 			}
 		}
 
@@ -616,12 +1040,20 @@ public class CacheRefreshTimer {
 	}
 
 	private boolean validateTargetServerSchema(CacheRefreshConfiguration cacheRefreshConfiguration,
-			Map<String, String> targetServerAttributesMapping, String[] customObjectClasses) {
+			CacheRefreshMappingPlan attributeMappingPlan, String[] customObjectClasses) {
 		// Get list of return attributes
 		String[] keyAttributesWithoutValues = getCompoundKeyAttributesWithoutValues(cacheRefreshConfiguration);
 		String[] sourceAttributes = getSourceAttributes(cacheRefreshConfiguration);
 		String[] returnAttributes = ArrayHelper.arrayMerge(keyAttributesWithoutValues, sourceAttributes);
 
+		// Validation is redone only if schema, mapping or scripts were changed
+		String schemaValidationKey = getSchemaValidationKey(cacheRefreshConfiguration, returnAttributes,
+				customObjectClasses);
+		if ((schemaValidationKey != null) && schemaValidationKey.equals(this.lastSchemaValidationKey)) {
+			log.debug("Using result of last target server schema validation: '{}'", this.lastSchemaValidationResult);
+			return this.lastSchemaValidationResult;
+		}
+
 		GluuSimplePerson sourcePerson = new GluuSimplePerson();
 		for (String returnAttribute : returnAttributes) {
 			sourcePerson.setAttribute(returnAttribute, "Test");
@@ -637,10 +1069,9 @@ public class CacheRefreshTimer {
 		targetPerson.setCustomObjectClasses(customObjectClasses);
 
 		// Update list of return attributes according mapping
-		cacheRefreshService.setTargetEntryAttributes(sourcePerson, targetServerAttributesMapping, targetPerson);
+		attributeMappingPlan.apply(sourcePerson, targetPerson);
 
 		// Execute interceptor script
-		externalCacheRefreshService.executeExternalUpdateUserMethods(targetPerson);
 		boolean executionResult = externalCacheRefreshService.executeExternalUpdateUserMethods(targetPerson);
 		if (!executionResult) {
 			log.error("Failed to execute Cache Refresh scripts for person '{}'", targetInum);
@@ -658,7 +1089,42 @@ public class CacheRefreshTimer {
 		List<String> targetObjectClasses = Arrays
 				.asList(ldapEntryManager.getObjectClasses(targetPerson, GluuCustomPerson.class));
 
-		return validateTargetServerSchema(targetObjectClasses, targetAttributes);
+		boolean result = validateTargetServerSchema(targetObjectClasses, targetAttributes);
+
+		// Script errors might be temporary. Only schema validation result is cached
+		this.lastSchemaValidationKey = schemaValidationKey;
+		this.lastSchemaValidationResult = result;
+
+		return result;
+	}
+
+	/**
+	 * Returns null if schema modification time is unknown. In this case
+	 * validation result isn't cached
+	 */
+	private String getSchemaValidationKey(CacheRefreshConfiguration cacheRefreshConfiguration,
+			String[] returnAttributes, String[] customObjectClasses) {
+		String schemaModifyTimestamp = null;
+		try {
+			CacheRefreshSchemaStamp schemaStamp = ldapEntryManager.find(schemaService.getDnForSchema(),
+					CacheRefreshSchemaStamp.class, new String[] { "modifyTimestamp" });
+			if (schemaStamp != null) {
+				schemaModifyTimestamp = schemaStamp.getModifyTimestamp();
+			}
+		} catch (BasePersistenceException ex) {
+			log.debug("Failed to load target server schema modification time", ex);
+		}
+
+		if (StringHelper.isEmpty(schemaModifyTimestamp)) {
+			return null;
+		}
+
+		Map<String, String> targetServerAttributesMapping = new TreeMap<String, String>(
+				getTargetServerAttributesMapping(cacheRefreshConfiguration));
+		int settingsHashCode = (Arrays.toString(returnAttributes) + targetServerAttributesMapping
+				+ Arrays.toString(customObjectClasses) + externalCacheRefreshService.getScriptsFingerprint()).hashCode();
+
+		return String.format("%s:%08x", schemaModifyTimestamp, settingsHashCode);
 	}
 
 	private boolean validateTargetServerSchema(List<String> targetObjectClasses, List<String> targetAttributes) {
@@ -688,52 +1154,88 @@ public class CacheRefreshTimer {
 		return false;
 	}
 
-	private boolean updateTargetEntryViaCopy(GluuSimplePerson sourcePerson, String targetInum,
-			String[] targetCustomObjectClasses, Map<String, String> targetServerAttributesMapping) {
-		String targetPersonDn = personService.getDnForPerson(targetInum);
-		GluuCustomPerson targetPerson = null;
-		boolean updatePerson;
-		if (personService.contains(targetPersonDn)) {
-			try {
-				targetPerson = personService.findPersonByDn(targetPersonDn);
-				log.debug("Found person by inum '{}'", targetInum);
-			} catch (EntryPersistenceException ex) {
-				log.error("Failed to find person '{}'", targetInum, ex);
-				return false;
+	private Map<String, GluuCustomPerson> findTargetPersons(Collection<String> inums, Set<String> notFoundInums) {
+		Map<String, GluuCustomPerson> result = new HashMap<String, GluuCustomPerson>();
+		if (inums.isEmpty()) {
+			return result;
+		}
+
+		int batchSize = cacheRefreshTuningConfiguration.getTargetWritePrefetchBatchSize();
+		String personsBaseDn = personService.getDnForPerson(null);
+
+		List<String> batch = new ArrayList<String>(Math.min(batchSize, inums.size()));
+		Iterator<String> it = inums.iterator();
+		while (it.hasNext()) {
+			batch.add(it.next());
+			if ((batch.size() == batchSize) || !it.hasNext()) {
+				Filter[] inumFilters = new Filter[batch.size()];
+				for (int i = 0; i < batch.size(); i++) {
+					inumFilters[i] = Filter.createEqualityFilter(OxTrustConstants.inum, batch.get(i));
+				}
+
+				try {
+					cacheRefreshMetricsService.addLdapOperations(1);
+					List<GluuCustomPerson> targetPersons = ldapEntryManager.findEntries(personsBaseDn,
+							GluuCustomPerson.class, Filter.createORFilter(inumFilters));
+					for (GluuCustomPerson targetPerson : targetPersons) {
+						result.put(targetPerson.getInum(), targetPerson);
+					}
+				} catch (EntryPersistenceException ex) {
+					// Entries of this batch will be checked one by one
+					log.error("Failed to load '{}' target persons", batch.size(), ex);
+					notFoundInums.addAll(batch);
+				}
+				batch.clear();
 			}
-			updatePerson = true;
-		} else {
+		}
+		log.debug("Loaded '{}' existing target persons from '{}' changed entries", result.size(), inums.size());
+
+		return result;
+	}
+
+	private GluuCustomPerson findTargetPerson(String targetInum) {
+		String targetPersonDn = personService.getDnForPerson(targetInum);
+		cacheRefreshMetricsService.addLdapOperations(1);
+		if (!personService.contains(targetPersonDn)) {
+			return null;
+		}
+
+		log.debug("Found person by inum '{}'", targetInum);
+
+		cacheRefreshMetricsService.addLdapOperations(1);
+		return personService.findPersonByDn(targetPersonDn);
+	}
+
+	private GluuCustomPerson prepareTargetEntry(GluuSimplePerson sourcePerson, String targetInum,
+			GluuCustomPerson existingTargetPerson, String[] targetCustomObjectClasses,
+			CacheRefreshMappingPlan attributeMappingPlan) {
+		GluuCustomPerson targetPerson = existingTargetPerson;
+		if (targetPerson == null) {
 			targetPerson = new GluuCustomPerson();
-			targetPerson.setDn(targetPersonDn);
+			targetPerson.setDn(personService.getDnForPerson(targetInum));
 			targetPerson.setInum(targetInum);
 			targetPerson.setStatus(appConfiguration.getSupportedUserStatus().get(0));
-			updatePerson = false;
 		}
 		targetPerson.setCustomObjectClasses(targetCustomObjectClasses);
 
 		targetPerson.setSourceServerName(sourcePerson.getSourceServerName());
 		targetPerson.setSourceServerUserDn(sourcePerson.getDn());
 
-		cacheRefreshService.setTargetEntryAttributes(sourcePerson, targetServerAttributesMapping, targetPerson);
+		attributeMappingPlan.apply(sourcePerson, targetPerson);
 
-		// Execute interceptor script
-		boolean executionResult = externalCacheRefreshService.executeExternalUpdateUserMethods(targetPerson);
-		if (!executionResult) {
-			log.error("Failed to execute Cache Refresh scripts for person '{}'", targetInum);
-			return false;
-		}
+		return targetPerson;
+	}
 
-		try {
-			if (updatePerson) {
-				personService.updatePerson(targetPerson);
-				log.debug("Updated person '{}'", targetInum);
-			} else {
-				personService.addPerson(targetPerson);
-				log.debug("Added new person '{}'", targetInum);
-			}
-		} catch (Exception ex) {
-			log.error("Failed to '{}' person '{}'", updatePerson ? "update" : "add", targetInum, ex);
-			return false;
+	private boolean writeTargetEntry(GluuCustomPerson targetPerson, boolean updatePerson) throws Exception {
+		// Error is logged and recorded by target writer
+		String targetInum = targetPerson.getInum();
+		cacheRefreshMetricsService.addLdapOperations(1);
+		if (updatePerson) {
+			personService.updatePerson(targetPerson);
+			log.debug("Updated person '{}'", targetInum);
+		} else {
+			personService.addPerson(targetPerson);
+			log.debug("Added new person '{}'", targetInum);
 		}
 
 		return true;
@@ -772,6 +1274,7 @@ public class CacheRefreshTimer {
 				GluuInumMap removedInumMap = getMarkInumMapEntryAsRemoved(currentInumMap,
 						ldapEntryManager.encodeTime(removedPerson.getDn(), runDate));
 				try {
+					cacheRefreshMetricsService.addLdapOperations(1);
 					inumDbPersistenceEntryManager.merge(removedInumMap);
 					result2.add(removedInumMap.getInum());
 				} catch (BasePersistenceException ex) {
@@ -783,6 +1286,7 @@ public class CacheRefreshTimer {
 
 			// Remove person from target server
 			try {
+				cacheRefreshMetricsService.addLdapOperations(1);
 				targetPersistenceEntryManager.removeRecursively(removedPerson.getDn());
 				result1.add(inum);
 			} catch (BasePersistenceException ex) {
@@ -849,13 +1353,14 @@ public class CacheRefreshTimer {
 				Filter.createEqualityFilter(OxTrustConstants.gluuStatus, GluuStatus.INACTIVE.getValue()));
 		Filter filter = Filter.createANDFilter(filterObjectClass, filterStatus);
 
+		cacheRefreshMetricsService.addLdapOperations(1);
 		return inumDbPersistenceEntryManager.findEntries(inumbaseDn, GluuInumMap.class, filter, SearchScope.SUB, null,
 				null, 0, 0, cacheRefreshConfiguration.getLdapSearchSizeLimit());
 	}
 
 	private List<GluuSimplePerson> loadSourceServerEntriesWithoutLimits(
-			CacheRefreshConfiguration cacheRefreshConfiguration, LdapServerConnection[] sourceServerConnections)
-			throws SearchException {
+			CacheRefreshConfiguration cacheRefreshConfiguration, LdapServerConnection[] sourceServerConnections,
+			final Date deltaSyncSince) throws SearchException {
 		Filter customFilter = cacheRefreshService.createFilter(cacheRefreshConfiguration.getCustomLdapFilter());
 		String[] keyAttributes = getCompoundKeyAttributes(cacheRefreshConfiguration);
 		String[] keyAttributesWithoutValues = getCompoundKeyAttributesWithoutValues(cacheRefreshConfiguration);
@@ -864,123 +1369,100 @@ public class CacheRefreshTimer {
 
 		String[] returnAttributes = ArrayHelper.arrayMerge(keyAttributesWithoutValues, sourceAttributes);
 
-		Set<String> addedDns = new HashSet<String>();
+		Filter filter = cacheRefreshService.createFilter(keyAttributes, keyObjectClasses, "", customFilter);
 
-		List<GluuSimplePerson> sourcePersons = new ArrayList<GluuSimplePerson>();
-		for (LdapServerConnection sourceServerConnection : sourceServerConnections) {
-			String sourceServerName = sourceServerConnection.getSourceServerName();
-
-			PersistenceEntryManager sourcePersistenceEntryManager = sourceServerConnection.getPersistenceEntryManager();
-			String[] baseDns = sourceServerConnection.getBaseDns();
-			Filter filter = cacheRefreshService.createFilter(keyAttributes, keyObjectClasses, "", customFilter);
-			if (log.isTraceEnabled()) {
-				log.trace("Using next filter to load entris from source server: {}", filter);
-			}
-
-			for (String baseDn : baseDns) {
-				List<GluuSimplePerson> currentSourcePersons = sourcePersistenceEntryManager.findEntries(baseDn,
-						GluuSimplePerson.class, filter, SearchScope.SUB, returnAttributes, null, 0, 0,
-						cacheRefreshConfiguration.getLdapSearchSizeLimit());
-
-				// Add to result and ignore root entry if needed
-				for (GluuSimplePerson currentSourcePerson : currentSourcePersons) {
-					currentSourcePerson.setSourceServerName(sourceServerName);
-					// if (!StringHelper.equalsIgnoreCase(baseDn,
-					// currentSourcePerson.getDn())) {
-					String currentSourcePersonDn = currentSourcePerson.getDn().toLowerCase();
-					if (!addedDns.contains(currentSourcePersonDn)) {
-						sourcePersons.add(currentSourcePerson);
-						addedDns.add(currentSourcePersonDn);
-					}
-					// }
+		SourceFilterFactory filterFactory = null;
+		if (deltaSyncSince != null) {
+			filterFactory = new SourceFilterFactory() {
+				@Override
+				public Filter createFilter(LdapServerConnection sourceServerConnection, String baseDn,
+						Filter searchFilter) {
+					return Filter.createANDFilter(searchFilter,
+							createDeltaSyncFilter(sourceServerConnection, baseDn, deltaSyncSince));
 				}
-			}
+			};
 		}
 
-		return sourcePersons;
+		return cacheRefreshSourceLoader.loadSourceServerEntries(sourceServerConnections, new Filter[] { filter },
+				filterFactory, returnAttributes, cacheRefreshConfiguration.getLdapSearchSizeLimit(),
+				cacheRefreshTuningConfiguration.getSourceLoadThreads());
 	}
 
-	private List<GluuSimplePerson> loadSourceServerEntries(CacheRefreshConfiguration cacheRefreshConfiguration,
-			LdapServerConnection[] sourceServerConnections) throws SearchException {
+	private void streamSourceServerEntriesWithoutLimits(CacheRefreshConfiguration cacheRefreshConfiguration,
+			LdapServerConnection[] sourceServerConnections, CacheRefreshSourceIndex sourceIndex) throws SearchException {
 		Filter customFilter = cacheRefreshService.createFilter(cacheRefreshConfiguration.getCustomLdapFilter());
 		String[] keyAttributes = getCompoundKeyAttributes(cacheRefreshConfiguration);
 		String[] keyAttributesWithoutValues = getCompoundKeyAttributesWithoutValues(cacheRefreshConfiguration);
 		String[] keyObjectClasses = getCompoundKeyObjectClasses(cacheRefreshConfiguration);
 		String[] sourceAttributes = getSourceAttributes(cacheRefreshConfiguration);
 
-		String[] twoLettersArray = createTwoLettersArray();
 		String[] returnAttributes = ArrayHelper.arrayMerge(keyAttributesWithoutValues, sourceAttributes);
 
-		Set<String> addedDns = new HashSet<String>();
+		Filter filter = cacheRefreshService.createFilter(keyAttributes, keyObjectClasses, "", customFilter);
 
-		List<GluuSimplePerson> sourcePersons = new ArrayList<GluuSimplePerson>();
-		for (LdapServerConnection sourceServerConnection : sourceServerConnections) {
-			String sourceServerName = sourceServerConnection.getSourceServerName();
+		cacheRefreshSourceLoader.streamSourceServerEntries(sourceServerConnections, new Filter[] { filter },
+				returnAttributes, cacheRefreshConfiguration.getLdapSearchSizeLimit(),
+				cacheRefreshTuningConfiguration.getSourceLoadThreads(), sourceIndex);
+	}
 
-			PersistenceEntryManager sourcePersistenceEntryManager = sourceServerConnection.getPersistenceEntryManager();
-			String[] baseDns = sourceServerConnection.getBaseDns();
-			for (String keyAttributeStart : twoLettersArray) {
-				Filter filter = cacheRefreshService.createFilter(keyAttributes, keyObjectClasses, keyAttributeStart,
-						customFilter);
-				if (log.isDebugEnabled()) {
-					log.trace("Using next filter to load entris from source server: {}", filter);
-				}
+	private List<GluuSimplePerson> loadSourceServerEntries(CacheRefreshConfiguration cacheRefreshConfiguration,
+			LdapServerConnection[] sourceServerConnections, CacheRefreshSourceIndex sourceIndex) throws SearchException {
+		Filter customFilter = cacheRefreshService.createFilter(cacheRefreshConfiguration.getCustomLdapFilter());
+		String[] keyAttributes = getCompoundKeyAttributes(cacheRefreshConfiguration);
+		String[] keyAttributesWithoutValues = getCompoundKeyAttributesWithoutValues(cacheRefreshConfiguration);
+		String[] keyObjectClasses = getCompoundKeyObjectClasses(cacheRefreshConfiguration);
+		String[] sourceAttributes = getSourceAttributes(cacheRefreshConfiguration);
 
-				for (String baseDn : baseDns) {
-					List<GluuSimplePerson> currentSourcePersons = sourcePersistenceEntryManager.findEntries(baseDn,
-							GluuSimplePerson.class, filter, SearchScope.SUB, returnAttributes, null, 0, 0,
-							cacheRefreshConfiguration.getLdapSearchSizeLimit());
-
-					// Add to result and ignore root entry if needed
-					for (GluuSimplePerson currentSourcePerson : currentSourcePersons) {
-						currentSourcePerson.setSourceServerName(sourceServerName);
-						// if (!StringHelper.equalsIgnoreCase(baseDn,
-						// currentSourcePerson.getDn())) {
-						String currentSourcePersonDn = currentSourcePerson.getDn().toLowerCase();
-						if (!addedDns.contains(currentSourcePersonDn)) {
-							sourcePersons.add(currentSourcePerson);
-							addedDns.add(currentSourcePersonDn);
-						}
-						// }
-					}
-				}
-			}
-		}
+		String[] returnAttributes = ArrayHelper.arrayMerge(keyAttributesWithoutValues, sourceAttributes);
 
-		return sourcePersons;
+		return cacheRefreshKeySpacePartitioner.loadSourceServerEntries(cacheRefreshConfiguration, sourceServerConnections,
+				keyAttributes, keyAttributesWithoutValues, keyObjectClasses, customFilter, returnAttributes,
+				cacheRefreshTuningConfiguration.getSourceLoadThreads(), sourceIndex);
 	}
 
-	private List<GluuSimplePerson> loadTargetServerEntries(CacheRefreshConfiguration cacheRefreshConfiguration,
-			PersistenceEntryManager targetPersistenceEntryManager) {
-		Filter filter = Filter.createEqualityFilter(OxConstants.OBJECT_CLASS, OxTrustConstants.objectClassPerson);
+	/**
+	 * Regular runs detect removed entries by snapshots. Target server is
+	 * scanned after restart and with configured interval only
+	 */
+	private boolean isRemovalReconciliationNeeded(Date runDate) {
+		long reconciliationInterval = cacheRefreshTuningConfiguration.getRemovalReconciliationIntervalMinutes() * 60 * 1000L;
 
-		return targetPersistenceEntryManager.findEntries(personService.getDnForPerson(null), GluuSimplePerson.class,
-				filter, SearchScope.SUB, TARGET_PERSON_RETURN_ATTRIBUTES, null, 0, 0,
-				cacheRefreshConfiguration.getLdapSearchSizeLimit());
+		return (this.lastRemovalReconciliationTime == 0)
+				|| (runDate.getTime() - this.lastRemovalReconciliationTime >= reconciliationInterval);
 	}
 
-	private GluuInumMap addGluuInumMap(String inumbBaseDn, PersistenceEntryManager inumDbPersistenceEntryManager,
-			String[] primaryKeyAttrName, String[][] primaryKeyValues) {
-		String inum = cacheRefreshService.generateInumForNewInumMap(inumbBaseDn, inumDbPersistenceEntryManager);
-		String inumDn = cacheRefreshService.getDnForInum(inumbBaseDn, inum);
+	/**
+	 * Scans target server page by page and keeps only persons which don't
+	 * exist in source server
+	 */
+	private List<GluuSimplePerson> findTargetPersonsForRemoval(
+			CacheRefreshConfiguration cacheRefreshConfiguration, final InumHashCodeMap currInumWithEntryHashCodeMap,
+			final Map<String, GluuInumMap> inumInumMap, final CacheRefreshShard shard) {
+		final List<GluuSimplePerson> result = new ArrayList<GluuSimplePerson>();
+		final int[] counters = new int[1];
+
+		BatchOperation<GluuSimplePerson> batchOperation = new ProcessBatchOperation<GluuSimplePerson>() {
+			@Override
+			public void performAction(List<GluuSimplePerson> targetPersons) {
+				counters[0] += targetPersons.size();
+
+				List<GluuSimplePerson> shardTargetPersons = targetPersons;
+				if (shard != null) {
+					shardTargetPersons = getShardTargetPersons(targetPersons, inumInumMap, shard);
+				}
 
-		GluuInumMap inumMap = new GluuInumMap();
-		inumMap.setDn(inumDn);
-		inumMap.setInum(inum);
-		inumMap.setPrimaryKeyAttrName(primaryKeyAttrName[0]);
-		inumMap.setPrimaryKeyValues(primaryKeyValues[0]);
-		if (primaryKeyAttrName.length > 1) {
-			inumMap.setSecondaryKeyAttrName(primaryKeyAttrName[1]);
-			inumMap.setSecondaryKeyValues(primaryKeyValues[1]);
-		}
-		if (primaryKeyAttrName.length > 2) {
-			inumMap.setTertiaryKeyAttrName(primaryKeyAttrName[2]);
-			inumMap.setTertiaryKeyValues(primaryKeyValues[2]);
-		}
-		inumMap.setStatus(GluuStatus.ACTIVE);
-		cacheRefreshService.addInumMap(inumDbPersistenceEntryManager, inumMap);
+				result.addAll(processTargetPersons(shardTargetPersons, currInumWithEntryHashCodeMap));
+			}
+		};
 
-		return inumMap;
+		Filter filter = Filter.createEqualityFilter(OxConstants.OBJECT_CLASS, OxTrustConstants.objectClassPerson);
+		cacheRefreshMetricsService.addLdapOperations(1);
+		ldapEntryManager.findEntries(personService.getDnForPerson(null), GluuSimplePerson.class, filter,
+				SearchScope.SUB, TARGET_PERSON_RETURN_ATTRIBUTES, batchOperation, 0, 0,
+				cacheRefreshConfiguration.getLdapSearchSizeLimit());
+		log.info("Found '{}' entries in target server", counters[0]);
+
+		return result;
 	}
 
 	private HashMap<CacheCompoundKey, GluuInumMap> addNewInumServerEntries(
@@ -990,7 +1472,7 @@ public class CacheRefreshTimer {
 		PersistenceEntryManager inumDbPersistenceEntryManager = inumDbServerConnection.getPersistenceEntryManager();
 		String inumbaseDn = inumDbServerConnection.getBaseDns()[0];
 
-		HashMap<CacheCompoundKey, GluuInumMap> result = new HashMap<CacheCompoundKey, GluuInumMap>();
+		Map<CacheCompoundKey, String[][]> newKeyAttributesValues = new LinkedHashMap<CacheCompoundKey, String[][]>();
 
 		String[] keyAttributesWithoutValues = getCompoundKeyAttributesWithoutValues(cacheRefreshConfiguration);
 		for (Entry<CacheCompoundKey, GluuSimplePerson> sourcePersonCacheCompoundKeyEntry : sourcePersonCacheCompoundKeyMap
@@ -1005,15 +1487,18 @@ public class CacheRefreshTimer {
 			GluuInumMap currentInumMap = primaryKeyAttrValueInumMap.get(cacheCompoundKey);
 			if (currentInumMap == null) {
 				String[][] keyAttributesValues = getKeyAttributesValues(keyAttributesWithoutValues, sourcePerson);
-				currentInumMap = addGluuInumMap(inumbaseDn, inumDbPersistenceEntryManager, keyAttributesWithoutValues,
-						keyAttributesValues);
-				result.put(cacheCompoundKey, currentInumMap);
-				log.debug("Added new inum entry for DN: {}", sourcePerson.getDn());
+				newKeyAttributesValues.put(cacheCompoundKey, keyAttributesValues);
+				log.debug("Adding new inum entry for DN: {}", sourcePerson.getDn());
 			} else {
 				log.trace("Inum entry for DN: '{}' exist", sourcePerson.getDn());
 			}
 		}
 
+		// Create inum entries in blocks
+		HashMap<CacheCompoundKey, GluuInumMap> result = new HashMap<CacheCompoundKey, GluuInumMap>();
+		result.putAll(cacheRefreshInumAllocator.addInumMaps(inumbaseDn, inumDbPersistenceEntryManager,
+				keyAttributesWithoutValues, newKeyAttributesValues));
+
 		return result;
 	}
 
@@ -1028,12 +1513,21 @@ public class CacheRefreshTimer {
 		return result;
 	}
 
-	private HashMap<String, Integer> getSourcePersonsHashCodesMap(LdapServerConnection inumDbServerConnection,
+	private CacheRefreshFingerprint createFingerprint(CacheRefreshConfiguration cacheRefreshConfiguration,
+			LdapServerConnection inumDbServerConnection) {
+		String[] keyAttributesWithoutValues = getCompoundKeyAttributesWithoutValues(cacheRefreshConfiguration);
+		String[] sourceAttributes = getSourceAttributes(cacheRefreshConfiguration);
+
+		CacheRefreshFingerprintAlgorithm algorithm = cacheRefreshTuningConfiguration.getFingerprintAlgorithm();
+
+		return algorithm.createFingerprint(inumDbServerConnection.getPersistenceEntryManager(),
+				ArrayHelper.arrayMerge(keyAttributesWithoutValues, sourceAttributes));
+	}
+
+	private InumHashCodeMap getSourcePersonsHashCodesMap(CacheRefreshFingerprint fingerprint,
 			Map<CacheCompoundKey, GluuSimplePerson> sourcePersonCacheCompoundKeyMap,
 			HashMap<CacheCompoundKey, GluuInumMap> primaryKeyAttrValueInumMap) {
-		PersistenceEntryManager inumDbPersistenceEntryManager = inumDbServerConnection.getPersistenceEntryManager();
-
-		HashMap<String, Integer> result = new HashMap<String, Integer>();
+		InumHashCodeMap result = new InumHashCodeMap(sourcePersonCacheCompoundKeyMap.size());
 
 		for (Entry<CacheCompoundKey, GluuSimplePerson> sourcePersonCacheCompoundKeyEntry : sourcePersonCacheCompoundKeyMap
 				.entrySet()) {
@@ -1042,14 +1536,14 @@ public class CacheRefreshTimer {
 
 			GluuInumMap currentInumMap = primaryKeyAttrValueInumMap.get(cacheCompoundKey);
 
-			result.put(currentInumMap.getInum(), inumDbPersistenceEntryManager.getHashCode(sourcePerson));
+			result.put(currentInumMap.getInum(), fingerprint.calculate(sourcePerson));
 		}
 
 		return result;
 	}
 
 	private List<GluuSimplePerson> processTargetPersons(List<GluuSimplePerson> targetPersons,
-			HashMap<String, Integer> currInumWithEntryHashCodeMap) {
+			InumHashCodeMap currInumWithEntryHashCodeMap) {
 		List<GluuSimplePerson> result = new ArrayList<GluuSimplePerson>();
 
 		for (GluuSimplePerson targetPerson : targetPersons) {
@@ -1063,6 +1557,68 @@ public class CacheRefreshTimer {
 		return result;
 	}
 
+	private void retainShardSourcePersons(Map<CacheCompoundKey, GluuSimplePerson> sourcePersonCacheCompoundKeyMap,
+			CacheRefreshShard shard) {
+		for (Iterator<CacheCompoundKey> it = sourcePersonCacheCompoundKeyMap.keySet().iterator(); it.hasNext();) {
+			if (!shard.isOwner(it.next())) {
+				it.remove();
+			}
+		}
+		log.info("Found '{}' unique entries in source server which belong to this shard",
+				sourcePersonCacheCompoundKeyMap.size());
+	}
+
+	/**
+	 * New keys which belong to another node after shards layout change during
+	 * this run. Inum entries for them are added by their new owner, so two
+	 * nodes don't add inum entries for the same key
+	 */
+	private Set<CacheCompoundKey> getMovedNewKeys(Map<CacheCompoundKey, GluuSimplePerson> sourcePersonCacheCompoundKeyMap,
+			Map<CacheCompoundKey, GluuInumMap> primaryKeyAttrValueInumMap, CacheRefreshShard shard) {
+		Set<CacheCompoundKey> result = new HashSet<CacheCompoundKey>();
+
+		CacheRefreshShard currentShard = cacheRefreshShardCoordinator.findCurrentShard();
+		if (shard.equals(currentShard)) {
+			return result;
+		}
+
+		for (CacheCompoundKey cacheCompoundKey : sourcePersonCacheCompoundKeyMap.keySet()) {
+			if (!primaryKeyAttrValueInumMap.containsKey(cacheCompoundKey)
+					&& ((currentShard == null) || !currentShard.isOwner(cacheCompoundKey))) {
+				result.add(cacheCompoundKey);
+			}
+		}
+		log.warn("Shards layout was changed during run. Skipping '{}' new entries which might belong to other node",
+				result.size());
+
+		return result;
+	}
+
+	/**
+	 * Target persons which are mapped to keys of this shard. Persons without
+	 * known inum entry can be added by other nodes, they are skipped
+	 */
+	private List<GluuSimplePerson> getShardTargetPersons(List<GluuSimplePerson> targetPersons,
+			Map<String, GluuInumMap> inumInumMap, CacheRefreshShard shard) {
+		List<GluuSimplePerson> result = new ArrayList<GluuSimplePerson>();
+
+		for (GluuSimplePerson targetPerson : targetPersons) {
+			GluuInumMap inumMap = inumInumMap.get(targetPerson.getAttribute(OxTrustConstants.inum));
+			if (inumMap == null) {
+				log.debug("Skipping person '{}' without known inum entry in sharded mode", targetPerson.getDn());
+				continue;
+			}
+
+			CacheCompoundKey cacheCompoundKey = new CacheCompoundKey(inumMap.getPrimaryKeyValues(),
+					inumMap.getSecondaryKeyValues(), inumMap.getTertiaryKeyValues());
+			if (shard.isOwner(cacheCompoundKey)) {
+				result.add(targetPerson);
+			}
+		}
+
+		return result;
+	}
+
 	private HashMap<CacheCompoundKey, GluuInumMap> getPrimaryKeyAttrValueInumMap(List<GluuInumMap> inumMaps) {
 		HashMap<CacheCompoundKey, GluuInumMap> result = new HashMap<CacheCompoundKey, GluuInumMap>();
 
@@ -1152,12 +1708,9 @@ public class CacheRefreshTimer {
 					bindCredentials.getBindPassword());
 		}
 
-		log.trace("Attempting to create PersistenceEntryManager with properties: {}", ldapDecryptedProperties);
-		PersistenceEntryManager customPersistenceEntryManager = entryManagerFactory
-				.createEntryManager(ldapDecryptedProperties);
-		log.info("Created Cache Refresh PersistenceEntryManager: {}", customPersistenceEntryManager);
-
-		if (!customPersistenceEntryManager.getOperationService().isConnected()) {
+		PersistenceEntryManager customPersistenceEntryManager = cacheRefreshConnectionRegistry
+				.getEntryManager(ldapConfig, entryManagerFactory, ldapDecryptedProperties);
+		if (customPersistenceEntryManager == null) {
 			log.error("Failed to connect to LDAP server using configuration {}", ldapConfig);
 			return null;
 		}
@@ -1165,28 +1718,6 @@ public class CacheRefreshTimer {
 		return new LdapServerConnection(ldapConfig, customPersistenceEntryManager, getBaseDNs(ldapConfiguration));
 	}
 
-	private void closeLdapServerConnection(LdapServerConnection... ldapServerConnections) {
-		for (LdapServerConnection ldapServerConnection : ldapServerConnections) {
-			if ((ldapServerConnection != null) && (ldapServerConnection.getPersistenceEntryManager() != null)) {
-				ldapServerConnection.getPersistenceEntryManager().destroy();
-			}
-		}
-	}
-
-	private String[] createTwoLettersArray() {
-		char[] characters = LETTERS_FOR_SEARCH.toCharArray();
-		int lettersCount = characters.length;
-
-		String[] result = new String[lettersCount * lettersCount];
-		for (int i = 0; i < lettersCount; i++) {
-			for (int j = 0; j < lettersCount; j++) {
-				result[i * lettersCount + j] = "" + characters[i] + characters[j];
-			}
-		}
-
-		return result;
-	}
-
 	private String[][] getKeyAttributesValues(String[] attrs, GluuSimplePerson person) {
 		String[][] result = new String[attrs.length][];
 		for (int i = 0; i < attrs.length; i++) {
@@ -1205,33 +1736,39 @@ public class CacheRefreshTimer {
 		configurationService.updateConfiguration(configuration);
 	}
 
-	private String getInumCachePath(CacheRefreshConfiguration cacheRefreshConfiguration) {
-		return FilenameUtils.concat(cacheRefreshConfiguration.getSnapshotFolder(), "inum_cache.dat");
-	}
+	/**
+	 * Copy of configuration with snapshots folder of specified shard
+	 */
+	private CacheRefreshConfiguration getShardCacheRefreshConfiguration(
+			CacheRefreshConfiguration cacheRefreshConfiguration, CacheRefreshShard shard) {
+		CacheRefreshConfiguration shardCacheRefreshConfiguration;
+		try {
+			shardCacheRefreshConfiguration = (CacheRefreshConfiguration) BeanUtilsBean2.getInstance()
+					.cloneBean(cacheRefreshConfiguration);
+		} catch (Exception ex) {
+			log.error("Failed to prepare Cache Refresh configuration of shard '{}'", shard, ex);
+			return null;
+		}
 
-	private class LdapServerConnection {
-		private String sourceServerName;
-		private PersistenceEntryManager ldapEntryManager;
-		private String[] baseDns;
+		shardCacheRefreshConfiguration.setSnapshotFolder(
+				FilenameUtils.concat(cacheRefreshConfiguration.getSnapshotFolder(), shard.getFolderName()));
 
-		protected LdapServerConnection(String sourceServerName, PersistenceEntryManager ldapEntryManager,
-				String[] baseDns) {
-			this.sourceServerName = sourceServerName;
-			this.ldapEntryManager = ldapEntryManager;
-			this.baseDns = baseDns;
-		}
+		return shardCacheRefreshConfiguration;
+	}
 
-		public final String getSourceServerName() {
-			return sourceServerName;
-		}
+	private String getRunJournalPath(CacheRefreshConfiguration cacheRefreshConfiguration) {
+		return FilenameUtils.concat(cacheRefreshConfiguration.getSnapshotFolder(), "run-journal.txt");
+	}
 
-		public final PersistenceEntryManager getPersistenceEntryManager() {
-			return ldapEntryManager;
-		}
+	private String getInumCachePath(CacheRefreshConfiguration cacheRefreshConfiguration) {
+		return FilenameUtils.concat(cacheRefreshConfiguration.getSnapshotFolder(), "inum_maps.dat");
+	}
 
-		public final String[] getBaseDns() {
-			return baseDns;
-		}
+	/**
+	 * Java serialized inum cache of previous versions
+	 */
+	private String getLegacyInumCachePath(CacheRefreshConfiguration cacheRefreshConfiguration) {
+		return FilenameUtils.concat(cacheRefreshConfiguration.getSnapshotFolder(), "inum_cache.dat");
 	}
 
 	private CacheRefreshUpdateMethod getUpdateMethod(CacheRefreshConfiguration cacheRefreshConfiguration) {
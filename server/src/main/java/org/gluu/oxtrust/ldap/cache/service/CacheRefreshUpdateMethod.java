@@ -18,7 +18,7 @@ import org.gluu.persist.annotation.AttributeEnum;
  */
 public enum CacheRefreshUpdateMethod implements AttributeEnum {
 
-	VDS("vds", "VDS"), COPY("copy", "Copy");
+	VDS("vds", "VDS"), COPY("copy", "Copy"), DELTA("delta", "Delta");
 
 	private boolean booleanValue;
 	private String value;
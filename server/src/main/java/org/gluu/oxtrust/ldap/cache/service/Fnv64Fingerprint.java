@@ -0,0 +1,124 @@
+/*
+ * oxTrust is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2014, Gluu
+ */
+
+package org.gluu.oxtrust.ldap.cache.service;
+
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+import org.gluu.oxtrust.ldap.cache.model.GluuSimplePerson;
+import org.gluu.oxtrust.model.GluuCustomAttribute;
+
+/**
+ * 64-bit FNV-1a fingerprint over canonicalized mapped attributes. Attribute
+ * names are case insensitive and processed in sorted order, values of multi
+ * valued attributes are sorted. Other attributes are ignored. Lower case
+ * entry DN and source server name are part of fingerprint too, because they
+ * are written to target entry. Characters are fed into hash directly without
+ * creating intermediate strings
+ */
+public class Fnv64Fingerprint implements CacheRefreshFingerprint {
+
+	private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+	private static final long FNV_PRIME = 0x100000001b3L;
+
+	private final String[] attributes;
+
+	public Fnv64Fingerprint(String[] attributes) {
+		Set<String> uniqueAttributes = new LinkedHashSet<String>();
+		for (String attribute : attributes) {
+			uniqueAttributes.add(attribute.toLowerCase(Locale.ROOT));
+		}
+
+		this.attributes = uniqueAttributes.toArray(new String[uniqueAttributes.size()]);
+		Arrays.sort(this.attributes);
+	}
+
+	@Override
+	public CacheRefreshFingerprintAlgorithm getAlgorithm() {
+		return CacheRefreshFingerprintAlgorithm.FNV1A_64;
+	}
+
+	@Override
+	public long calculate(GluuSimplePerson person) {
+		List<GluuCustomAttribute> customAttributes = person.getCustomAttributes();
+
+		// Moved or renamed entry should be updated even if its attributes are the same
+		long hash = FNV_OFFSET_BASIS;
+		String dn = person.getDn();
+		hash = hashString(hash, dn == null ? null : dn.toLowerCase(Locale.ROOT));
+		hash = hashString(hash, person.getSourceServerName());
+
+		for (String attribute : attributes) {
+			String[] values = getValues(customAttributes, attribute);
+			if ((values == null) || (values.length == 0)) {
+				continue;
+			}
+
+			hash = hashString(hash, attribute);
+			hash = hashInt(hash, values.length);
+
+			if (values.length > 1) {
+				values = values.clone();
+				Arrays.sort(values);
+			}
+
+			for (String value : values) {
+				hash = hashString(hash, value);
+			}
+		}
+
+		return mix(hash);
+	}
+
+	private String[] getValues(List<GluuCustomAttribute> customAttributes, String attribute) {
+		for (GluuCustomAttribute customAttribute : customAttributes) {
+			if (attribute.equalsIgnoreCase(customAttribute.getName())) {
+				return customAttribute.getValues();
+			}
+		}
+
+		return null;
+	}
+
+	private long hashString(long hash, String value) {
+		if (value == null) {
+			return hashInt(hash, -1);
+		}
+
+		// Length prefix makes concatenation of values unambiguous
+		hash = hashInt(hash, value.length());
+		for (int i = 0; i < value.length(); i++) {
+			char ch = value.charAt(i);
+			hash = (hash ^ (ch & 0xFF)) * FNV_PRIME;
+			hash = (hash ^ (ch >>> 8)) * FNV_PRIME;
+		}
+
+		return hash;
+	}
+
+	private long hashInt(long hash, int value) {
+		for (int i = 0; i < 4; i++) {
+			hash = (hash ^ ((value >>> (i * 8)) & 0xFF)) * FNV_PRIME;
+		}
+
+		return hash;
+	}
+
+	private long mix(long hash) {
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= hash >>> 33;
+		hash *= 0xc4ceb9a53fe1a85fL;
+		hash ^= hash >>> 33;
+
+		return hash;
+	}
+
+}
@@ -0,0 +1,312 @@
+/*
+ * oxTrust is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2014, Gluu
+ */
+
+package org.gluu.oxtrust.ldap.cache.service;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Open addressing map of inum to entry fingerprint. Inums are stored as UTF-8
+ * bytes in shared pool and fingerprints as primitive values, so there are no
+ * objects per entry. This class is not thread safe
+ */
+public class InumHashCodeMap {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final int DEFAULT_CAPACITY = 1024;
+
+	private byte[] keyPool;
+	private int keyPoolSize;
+
+	// Slot stores key offset + 1, 0 means empty slot
+	private int[] keyOffsets;
+	private int[] keyLengths;
+	private int[] keyHashes;
+	private long[] values;
+
+	private int size;
+	private int mask;
+
+	public InumHashCodeMap() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	public InumHashCodeMap(int expectedSize) {
+		int capacity = Integer.highestOneBit(Math.max(expectedSize, 8) * 2 - 1) << 1;
+		this.keyPool = new byte[Math.max(expectedSize, 8) * 16];
+		allocateSlots(capacity);
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public void put(String inum, long hashCode) {
+		int keyOffset = keyPoolSize;
+		int keyLength = appendKey(inum);
+
+		putAppendedKey(keyOffset, keyLength, hashCode);
+	}
+
+	/**
+	 * Puts inum stored as UTF-8 bytes in buffer
+	 */
+	void put(ByteBuffer buffer, int offset, int length, long hashCode) {
+		ensurePoolCapacity(length);
+
+		int keyOffset = keyPoolSize;
+		for (int i = 0; i < length; i++) {
+			keyPool[keyPoolSize++] = buffer.get(offset + i);
+		}
+
+		putAppendedKey(keyOffset, length, hashCode);
+	}
+
+	public void putAll(InumHashCodeMap inumWithEntryHashCodeMap) {
+		for (int slot = 0; slot < inumWithEntryHashCodeMap.keyOffsets.length; slot++) {
+			if (inumWithEntryHashCodeMap.keyOffsets[slot] == 0) {
+				continue;
+			}
+
+			int keyLength = inumWithEntryHashCodeMap.keyLengths[slot];
+			ensurePoolCapacity(keyLength);
+
+			int keyOffset = keyPoolSize;
+			System.arraycopy(inumWithEntryHashCodeMap.keyPool, inumWithEntryHashCodeMap.keyOffsets[slot] - 1, keyPool,
+					keyOffset, keyLength);
+			keyPoolSize += keyLength;
+
+			putAppendedKey(keyOffset, keyLength, inumWithEntryHashCodeMap.values[slot]);
+		}
+	}
+
+	private void putAppendedKey(int keyOffset, int keyLength, long hashCode) {
+		int keyHash = hash(keyPool, keyOffset, keyLength);
+
+		int slot = findSlot(keyPool, keyOffset, keyLength, keyHash);
+		if (keyOffsets[slot] != 0) {
+			// Key already exists. Drop appended copy of the key
+			keyPoolSize = keyOffset;
+			values[slot] = hashCode;
+			return;
+		}
+
+		keyOffsets[slot] = keyOffset + 1;
+		keyLengths[slot] = keyLength;
+		keyHashes[slot] = keyHash;
+		values[slot] = hashCode;
+		size++;
+
+		if (size * 2 > keyOffsets.length) {
+			resize();
+		}
+	}
+
+	public boolean containsKey(String inum) {
+		return getSlot(inum) >= 0;
+	}
+
+	/**
+	 * Returns fingerprint for inum or specified default value if there is no such inum
+	 */
+	public long get(String inum, long defaultValue) {
+		int slot = getSlot(inum);
+		if (slot < 0) {
+			return defaultValue;
+		}
+
+		return values[slot];
+	}
+
+	/**
+	 * Returns used slots ordered by key bytes. It allows to write sorted snapshot
+	 * without creating String per entry
+	 */
+	int[] getSortedSlots() {
+		int[] slots = new int[size];
+		int count = 0;
+		for (int slot = 0; slot < keyOffsets.length; slot++) {
+			if (keyOffsets[slot] != 0) {
+				slots[count++] = slot;
+			}
+		}
+
+		int[] buffer = new int[size];
+		mergeSort(slots, buffer, 0, size);
+
+		return slots;
+	}
+
+	byte[] getKeyPool() {
+		return keyPool;
+	}
+
+	int getKeyOffset(int slot) {
+		return keyOffsets[slot] - 1;
+	}
+
+	int getKeyLength(int slot) {
+		return keyLengths[slot];
+	}
+
+	long getValue(int slot) {
+		return values[slot];
+	}
+
+	private int getSlot(String inum) {
+		if (inum == null) {
+			return -1;
+		}
+
+		// Use free space at the end of pool as scratch buffer
+		int keyOffset = keyPoolSize;
+		int keyLength = appendKey(inum);
+		keyPoolSize = keyOffset;
+
+		int slot = findSlot(keyPool, keyOffset, keyLength, hash(keyPool, keyOffset, keyLength));
+		if (keyOffsets[slot] == 0) {
+			return -1;
+		}
+
+		return slot;
+	}
+
+	private int findSlot(byte[] key, int keyOffset, int keyLength, int keyHash) {
+		int slot = keyHash & mask;
+		while (keyOffsets[slot] != 0) {
+			if ((keyHashes[slot] == keyHash) && (keyLengths[slot] == keyLength)
+					&& equalBytes(keyPool, keyOffsets[slot] - 1, key, keyOffset, keyLength)) {
+				return slot;
+			}
+			slot = (slot + 1) & mask;
+		}
+
+		return slot;
+	}
+
+	private int appendKey(String inum) {
+		ensurePoolCapacity(inum.length());
+
+		int start = keyPoolSize;
+		for (int i = 0; i < inum.length(); i++) {
+			char ch = inum.charAt(i);
+			if (ch >= 0x80) {
+				// Not ASCII inum. Encode it in generic way
+				byte[] bytes = inum.getBytes(UTF8);
+				keyPoolSize = start;
+				ensurePoolCapacity(bytes.length);
+				System.arraycopy(bytes, 0, keyPool, start, bytes.length);
+				keyPoolSize = start + bytes.length;
+
+				return bytes.length;
+			}
+			keyPool[keyPoolSize++] = (byte) ch;
+		}
+
+		return keyPoolSize - start;
+	}
+
+	private void ensurePoolCapacity(int length) {
+		if (keyPoolSize + length > keyPool.length) {
+			keyPool = Arrays.copyOf(keyPool, Math.max(keyPool.length * 2, keyPoolSize + length));
+		}
+	}
+
+	private void allocateSlots(int capacity) {
+		this.keyOffsets = new int[capacity];
+		this.keyLengths = new int[capacity];
+		this.keyHashes = new int[capacity];
+		this.values = new long[capacity];
+		this.mask = capacity - 1;
+	}
+
+	private void resize() {
+		int[] oldKeyOffsets = keyOffsets;
+		int[] oldKeyLengths = keyLengths;
+		int[] oldKeyHashes = keyHashes;
+		long[] oldValues = values;
+
+		allocateSlots(oldKeyOffsets.length * 2);
+		for (int oldSlot = 0; oldSlot < oldKeyOffsets.length; oldSlot++) {
+			if (oldKeyOffsets[oldSlot] == 0) {
+				continue;
+			}
+
+			int slot = oldKeyHashes[oldSlot] & mask;
+			while (keyOffsets[slot] != 0) {
+				slot = (slot + 1) & mask;
+			}
+
+			keyOffsets[slot] = oldKeyOffsets[oldSlot];
+			keyLengths[slot] = oldKeyLengths[oldSlot];
+			keyHashes[slot] = oldKeyHashes[oldSlot];
+			values[slot] = oldValues[oldSlot];
+		}
+	}
+
+	private void mergeSort(int[] slots, int[] buffer, int from, int to) {
+		if (to - from < 2) {
+			return;
+		}
+
+		int middle = (from + to) >>> 1;
+		mergeSort(slots, buffer, from, middle);
+		mergeSort(slots, buffer, middle, to);
+
+		System.arraycopy(slots, from, buffer, from, to - from);
+		int left = from;
+		int right = middle;
+		for (int i = from; i < to; i++) {
+			if ((right >= to) || ((left < middle) && (compareKeys(buffer[left], buffer[right]) <= 0))) {
+				slots[i] = buffer[left++];
+			} else {
+				slots[i] = buffer[right++];
+			}
+		}
+	}
+
+	private int compareKeys(int slot1, int slot2) {
+		int offset1 = keyOffsets[slot1] - 1;
+		int offset2 = keyOffsets[slot2] - 1;
+		int length = Math.min(keyLengths[slot1], keyLengths[slot2]);
+		for (int i = 0; i < length; i++) {
+			int compare = (keyPool[offset1 + i] & 0xFF) - (keyPool[offset2 + i] & 0xFF);
+			if (compare != 0) {
+				return compare;
+			}
+		}
+
+		return keyLengths[slot1] - keyLengths[slot2];
+	}
+
+	private static boolean equalBytes(byte[] bytes1, int offset1, byte[] bytes2, int offset2, int length) {
+		for (int i = 0; i < length; i++) {
+			if (bytes1[offset1 + i] != bytes2[offset2 + i]) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	private static int hash(byte[] bytes, int offset, int length) {
+		int hash = 0x811c9dc5;
+		for (int i = offset; i < offset + length; i++) {
+			hash = (hash ^ bytes[i]) * 0x01000193;
+		}
+
+		// Spread bits because slot is selected by low bits
+		hash ^= hash >>> 16;
+		hash *= 0x85ebca6b;
+		hash ^= hash >>> 13;
+
+		return hash;
+	}
+
+}
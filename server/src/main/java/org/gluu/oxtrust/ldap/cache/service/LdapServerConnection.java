@@ -0,0 +1,40 @@
+/*
+ * oxTrust is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2014, Gluu
+ */
+
+package org.gluu.oxtrust.ldap.cache.service;
+
+import org.gluu.persist.PersistenceEntryManager;
+
+/**
+ * Connection to source, inum or target server used by Cache Refresh
+ *
+ * @author Yuriy Movchan Date: 05.05.2011
+ */
+public class LdapServerConnection {
+
+	private String sourceServerName;
+	private PersistenceEntryManager ldapEntryManager;
+	private String[] baseDns;
+
+	public LdapServerConnection(String sourceServerName, PersistenceEntryManager ldapEntryManager, String[] baseDns) {
+		this.sourceServerName = sourceServerName;
+		this.ldapEntryManager = ldapEntryManager;
+		this.baseDns = baseDns;
+	}
+
+	public final String getSourceServerName() {
+		return sourceServerName;
+	}
+
+	public final PersistenceEntryManager getPersistenceEntryManager() {
+		return ldapEntryManager;
+	}
+
+	public final String[] getBaseDns() {
+		return baseDns;
+	}
+
+}
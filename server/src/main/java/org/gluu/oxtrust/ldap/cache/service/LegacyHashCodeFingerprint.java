@@ -0,0 +1,34 @@
+/*
+ * oxTrust is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2014, Gluu
+ */
+
+package org.gluu.oxtrust.ldap.cache.service;
+
+import org.gluu.oxtrust.ldap.cache.model.GluuSimplePerson;
+import org.gluu.persist.PersistenceEntryManager;
+
+/**
+ * 32-bit hash code calculated by persistence layer. It's compatible with
+ * snapshots created by previous versions
+ */
+public class LegacyHashCodeFingerprint implements CacheRefreshFingerprint {
+
+	private final PersistenceEntryManager entryManager;
+
+	public LegacyHashCodeFingerprint(PersistenceEntryManager entryManager) {
+		this.entryManager = entryManager;
+	}
+
+	@Override
+	public CacheRefreshFingerprintAlgorithm getAlgorithm() {
+		return CacheRefreshFingerprintAlgorithm.LEGACY;
+	}
+
+	@Override
+	public long calculate(GluuSimplePerson person) {
+		return entryManager.getHashCode(person);
+	}
+
+}
@@ -0,0 +1,204 @@
+/*
+ * oxTrust is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2014, Gluu
+ */
+
+package org.gluu.oxtrust.model;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.faces.application.FacesMessage;
+
+import org.gluu.jsf2.message.FacesMessages;
+import org.gluu.oxtrust.service.IPersonService;
+import org.gluu.oxtrust.util.OxTrustConstants;
+import org.gluu.persist.model.BatchOperation;
+import org.gluu.persist.model.PagedResult;
+import org.gluu.persist.model.ProcessBatchOperation;
+import org.gluu.util.OxConstants;
+import org.gluu.util.StringHelper;
+import org.primefaces.model.FilterMeta;
+import org.primefaces.model.LazyDataModel;
+import org.primefaces.model.SortOrder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Persons found by pattern. Only page which table renders is loaded from
+ * persistence layer. Empty pattern matches all persons
+ */
+public class PersonLazyDataModel extends LazyDataModel<GluuCustomPerson> {
+
+	private static final long serialVersionUID = -1730298454615493762L;
+
+	private static final Logger log = LoggerFactory.getLogger(PersonLazyDataModel.class);
+
+	// Rows count of persons table
+	public static final int DEFAULT_PAGE_SIZE = 50;
+
+	private static final int MAX_PAGE_SIZE = 500;
+
+	// Attributes which persons table renders
+	private static final String[] RETURN_ATTRIBUTES = new String[] { OxTrustConstants.inum, OxConstants.UID,
+			OxTrustConstants.displayName, "givenName", OxTrustConstants.mail, OxTrustConstants.gluuStatus,
+			"memberOf" };
+
+	private static final String DEFAULT_SORT_ATTRIBUTE = OxConstants.UID;
+
+	// Table column field -> sort attribute
+	private static final Map<String, String> SORT_ATTRIBUTES = new HashMap<String, String>();
+
+	static {
+		SORT_ATTRIBUTES.put("uid", OxConstants.UID);
+		SORT_ATTRIBUTES.put("displayName", OxTrustConstants.displayName);
+		SORT_ATTRIBUTES.put("givenName", "givenName");
+		SORT_ATTRIBUTES.put("mail", OxTrustConstants.mail);
+		SORT_ATTRIBUTES.put("status", OxTrustConstants.gluuStatus);
+	}
+
+	private final IPersonService personService;
+	private final FacesMessages facesMessages;
+	private final String pattern;
+
+	private List<GluuCustomPerson> page = new ArrayList<GluuCustomPerson>();
+	private List<GluuCustomPerson> preloadedPage;
+	private boolean failed;
+
+	private String sortAttribute = DEFAULT_SORT_ATTRIBUTE;
+	private org.gluu.persist.model.SortOrder persistenceSortOrder = org.gluu.persist.model.SortOrder.ASCENDING;
+
+	public PersonLazyDataModel(IPersonService personService, FacesMessages facesMessages, String pattern) {
+		this.personService = personService;
+		this.facesMessages = facesMessages;
+		this.pattern = pattern;
+	}
+
+	/**
+	 * Loads first page before table is rendered, so action can report failed
+	 * search. First table load uses this page
+	 */
+	public void preload() {
+		PagedResult<GluuCustomPerson> pagedResult = searchPersons(0, DEFAULT_PAGE_SIZE);
+
+		this.preloadedPage = toPage(pagedResult);
+		setRowCount(pagedResult.getTotalEntriesCount());
+	}
+
+	@Override
+	public List<GluuCustomPerson> load(int first, int pageSize, String sortField, SortOrder sortOrder,
+			Map<String, FilterMeta> filterBy) {
+		String currentSortAttribute = SORT_ATTRIBUTES.get(sortField);
+		if (currentSortAttribute == null) {
+			currentSortAttribute = DEFAULT_SORT_ATTRIBUTE;
+		}
+
+		org.gluu.persist.model.SortOrder currentSortOrder = SortOrder.DESCENDING.equals(sortOrder)
+				? org.gluu.persist.model.SortOrder.DESCENDING
+				: org.gluu.persist.model.SortOrder.ASCENDING;
+
+		List<GluuCustomPerson> preloadedPage = this.preloadedPage;
+		this.preloadedPage = null;
+		if ((preloadedPage != null) && (first == 0) && (pageSize == DEFAULT_PAGE_SIZE)
+				&& currentSortAttribute.equals(this.sortAttribute) && currentSortOrder.equals(this.persistenceSortOrder)) {
+			this.page = preloadedPage;
+			return this.page;
+		}
+
+		this.sortAttribute = currentSortAttribute;
+		this.persistenceSortOrder = currentSortOrder;
+
+		PagedResult<GluuCustomPerson> pagedResult;
+		try {
+			pagedResult = searchPersons(Math.max(0, first), pageSize);
+			this.failed = false;
+		} catch (Exception ex) {
+			log.error("Failed to find persons", ex);
+			facesMessages.add(FacesMessage.SEVERITY_ERROR, "Failed to find persons");
+			this.failed = true;
+			this.page = new ArrayList<GluuCustomPerson>();
+			setRowCount(0);
+			return this.page;
+		}
+
+		this.page = toPage(pagedResult);
+		setRowCount(pagedResult.getTotalEntriesCount());
+
+		return this.page;
+	}
+
+	/**
+	 * Passes all persons which match pattern to handler in persistence order.
+	 * Persons are loaded by chunks of single search, paged search with offset
+	 * would read skipped entries again for each page
+	 */
+	public void export(final PersonHandler handler) throws IOException {
+		BatchOperation<GluuCustomPerson> batchOperation = new ProcessBatchOperation<GluuCustomPerson>() {
+			@Override
+			public void performAction(List<GluuCustomPerson> entries) {
+				for (GluuCustomPerson person : entries) {
+					try {
+						handler.handle(person);
+					} catch (IOException ex) {
+						// Stop search, client can't receive rest of persons
+						throw new UncheckedIOException(ex);
+					}
+				}
+			}
+		};
+
+		try {
+			personService.searchPersons(pattern, RETURN_ATTRIBUTES, batchOperation, MAX_PAGE_SIZE);
+		} catch (UncheckedIOException ex) {
+			throw ex.getCause();
+		}
+	}
+
+	private PagedResult<GluuCustomPerson> searchPersons(int start, int pageSize) {
+		return personService.searchPersons(pattern, RETURN_ATTRIBUTES, sortAttribute, persistenceSortOrder, start,
+				Math.min(Math.max(1, pageSize), MAX_PAGE_SIZE));
+	}
+
+	private List<GluuCustomPerson> toPage(PagedResult<GluuCustomPerson> pagedResult) {
+		return pagedResult.getEntries() == null ? new ArrayList<GluuCustomPerson>() : pagedResult.getEntries();
+	}
+
+	@Override
+	public Object getRowKey(GluuCustomPerson person) {
+		return person.getInum();
+	}
+
+	@Override
+	public GluuCustomPerson getRowData(String rowKey) {
+		for (GluuCustomPerson person : page) {
+			if (StringHelper.equals(rowKey, person.getInum())) {
+				return person;
+			}
+		}
+
+		return null;
+	}
+
+	public String getPattern() {
+		return pattern;
+	}
+
+	/**
+	 * Last page load failed. Table shows it instead of empty result message
+	 */
+	public boolean isFailed() {
+		return failed;
+	}
+
+	public interface PersonHandler {
+
+		void handle(GluuCustomPerson person) throws IOException;
+
+	}
+
+}
@@ -13,16 +13,32 @@ import java.util.Iterator;
 import javax.enterprise.context.ApplicationScoped;
 import javax.inject.Inject;
 import javax.inject.Named;
+import javax.xml.parsers.ParserConfigurationException;
 
 import org.apache.poi.EncryptedDocumentException;
 import org.apache.poi.openxml4j.exceptions.InvalidFormatException;
+import org.apache.poi.openxml4j.exceptions.OpenXML4JException;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.poifs.filesystem.FileMagic;
 import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.DataFormatter;
 import org.apache.poi.ss.usermodel.Row;
 import org.apache.poi.ss.usermodel.Sheet;
 import org.apache.poi.ss.usermodel.Workbook;
 import org.apache.poi.ss.usermodel.WorkbookFactory;
+import org.apache.poi.ss.util.CellReference;
+import org.apache.poi.util.SAXHelper;
+import org.apache.poi.xssf.eventusermodel.ReadOnlySharedStringsTable;
+import org.apache.poi.xssf.eventusermodel.XSSFReader;
+import org.apache.poi.xssf.eventusermodel.XSSFSheetXMLHandler;
+import org.apache.poi.xssf.eventusermodel.XSSFSheetXMLHandler.SheetContentsHandler;
+import org.apache.poi.xssf.model.StylesTable;
+import org.apache.poi.xssf.usermodel.XSSFComment;
 import org.gluu.oxtrust.model.table.Table;
 import org.slf4j.Logger;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
 
 /**
  * Service class to work with Excel files
@@ -37,30 +53,117 @@ public class ExcelService {
 	@Inject
 	private Logger log;
 
+	/**
+	 * Reads first sheet. XLSX sheet is parsed as stream of SAX events without
+	 * building workbook in memory
+	 */
 	public Table read(InputStream is) {
 		org.gluu.oxtrust.model.table.Table result = null;
 		try {
 			result = new org.gluu.oxtrust.model.table.Table();
-			Workbook workbook = WorkbookFactory.create(is);
-			Sheet datatypeSheet = workbook.getSheetAt(0);
-			Iterator<Row> iterator = datatypeSheet.iterator();
-			while (iterator.hasNext()) {
-				Row currentRow = iterator.next();
-				Iterator<Cell> cellIterator = currentRow.iterator();
-				while (cellIterator.hasNext()) {
-					Cell currentCell = cellIterator.next();
-					result.addCell(new org.gluu.oxtrust.model.table.Cell(currentCell.getColumnIndex(),
-							currentCell.getRowIndex(), currentCell.getStringCellValue()));
-				}
+			InputStream checkedIs = FileMagic.prepareToCheckMagic(is);
+			if (FileMagic.valueOf(checkedIs) == FileMagic.OOXML) {
+				readXlsx(checkedIs, result);
+			} else {
+				readWorkbook(checkedIs, result);
 			}
+			result.trimToSize();
 		} catch (IOException e) {
 			log.error("Error: " + e);
 		} catch (EncryptedDocumentException e) {
 			log.error("Error: " + e);
-		} catch (InvalidFormatException e) {
+		} catch (OpenXML4JException e) {
+			log.error("Error: " + e);
+		} catch (SAXException e) {
+			log.error("Error: " + e);
+		} catch (ParserConfigurationException e) {
 			log.error("Error: " + e);
 		}
 		return result;
 	}
 
+	private void readXlsx(InputStream is, Table table)
+			throws IOException, OpenXML4JException, SAXException, ParserConfigurationException {
+		OPCPackage pkg = OPCPackage.open(is);
+		try {
+			XSSFReader xssfReader = new XSSFReader(pkg);
+			ReadOnlySharedStringsTable strings = new ReadOnlySharedStringsTable(pkg);
+			StylesTable styles = xssfReader.getStylesTable();
+
+			Iterator<InputStream> sheets = xssfReader.getSheetsData();
+			if (!sheets.hasNext()) {
+				return;
+			}
+
+			try (InputStream sheetIs = sheets.next()) {
+				XMLReader parser = SAXHelper.newXMLReader();
+				parser.setContentHandler(new XSSFSheetXMLHandler(styles, null, strings, new TableSheetHandler(table),
+						new DataFormatter(), false));
+				parser.parse(new InputSource(sheetIs));
+			}
+		} finally {
+			// Package was opened from stream. Close it without saving
+			pkg.revert();
+		}
+	}
+
+	private void readWorkbook(InputStream is, Table table) throws IOException, InvalidFormatException {
+		Workbook workbook = WorkbookFactory.create(is);
+		Sheet datatypeSheet = workbook.getSheetAt(0);
+		Iterator<Row> iterator = datatypeSheet.iterator();
+		while (iterator.hasNext()) {
+			Row currentRow = iterator.next();
+			Iterator<Cell> cellIterator = currentRow.iterator();
+			while (cellIterator.hasNext()) {
+				Cell currentCell = cellIterator.next();
+				table.setCellValue(currentCell.getColumnIndex(), currentCell.getRowIndex(),
+						currentCell.getStringCellValue());
+			}
+		}
+	}
+
+	/**
+	 * Puts sheet cells into table as they are parsed
+	 */
+	private static class TableSheetHandler implements SheetContentsHandler {
+
+		private final Table table;
+
+		private int currentRow = -1;
+		private int currentCol = -1;
+
+		TableSheetHandler(Table table) {
+			this.table = table;
+		}
+
+		@Override
+		public void startRow(int rowNum) {
+			this.currentRow = rowNum;
+			this.currentCol = -1;
+		}
+
+		@Override
+		public void endRow(int rowNum) {
+		}
+
+		@Override
+		public void cell(String cellReference, String formattedValue, XSSFComment comment) {
+			// Reference is optional. Cell without it follows previous one
+			if (cellReference == null) {
+				this.currentCol++;
+			} else {
+				this.currentCol = new CellReference(cellReference).getCol();
+			}
+
+			if (formattedValue != null) {
+				table.setCellValue(currentCol, currentRow, formattedValue);
+			}
+		}
+
+		@Override
+		public void headerFooter(String text, boolean isHeader, String tagName) {
+		}
+
+	}
+
 }
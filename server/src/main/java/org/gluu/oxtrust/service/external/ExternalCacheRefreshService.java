@@ -6,6 +6,9 @@
 
 package org.gluu.oxtrust.service.external;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
 
 import javax.enterprise.context.ApplicationScoped;
@@ -14,9 +17,11 @@ import javax.inject.Named;
 import org.gluu.model.SimpleCustomProperty;
 import org.gluu.model.custom.script.CustomScriptType;
 import org.gluu.model.custom.script.conf.CustomScriptConfiguration;
+import org.gluu.model.custom.script.model.CustomScript;
 import org.gluu.model.custom.script.model.bind.BindCredentials;
 import org.gluu.model.custom.script.type.user.CacheRefreshType;
 import org.gluu.oxtrust.model.GluuCustomPerson;
+import org.gluu.oxtrust.service.external.type.BatchCacheRefreshType;
 import org.gluu.service.custom.script.ExternalScriptService;
 import org.gluu.util.StringHelper;
 
@@ -49,6 +54,43 @@ public class ExternalCacheRefreshService extends ExternalScriptService {
 		return false;
 	}
 
+	/**
+	 * Executes script for chunk of users. Scripts without batch API are called
+	 * for each user
+	 */
+	public boolean[] executeExternalUpdateUsersMethod(CustomScriptConfiguration customScriptConfiguration,
+			List<GluuCustomPerson> users) {
+		boolean[] result = new boolean[users.size()];
+		if (!(customScriptConfiguration.getExternalType() instanceof BatchCacheRefreshType)) {
+			for (int i = 0; i < users.size(); i++) {
+				result[i] = executeExternalUpdateUserMethod(customScriptConfiguration, users.get(i));
+			}
+
+			return result;
+		}
+
+		try {
+			log.debug("Executing python 'updateUsers' method");
+			BatchCacheRefreshType externalType = (BatchCacheRefreshType) customScriptConfiguration.getExternalType();
+			Map<String, SimpleCustomProperty> configurationAttributes = customScriptConfiguration.getConfigurationAttributes();
+			List<Boolean> usersResult = externalType.updateUsers(users, configurationAttributes);
+			if ((usersResult == null) || (usersResult.size() != users.size())) {
+				log.error("Script 'updateUsers' method should return result for each of '{}' users", users.size());
+				return result;
+			}
+
+			for (int i = 0; i < users.size(); i++) {
+				result[i] = Boolean.TRUE.equals(usersResult.get(i));
+			}
+		} catch (Exception ex) {
+			log.error(ex.getMessage(), ex);
+			saveScriptError(customScriptConfiguration.getCustomScript(), ex);
+			Arrays.fill(result, false);
+		}
+
+		return result;
+	}
+
     public BindCredentials executeExternalGetBindCredentialsMethod(CustomScriptConfiguration customScriptConfiguration, String configId) {
         try {
             log.debug("Executing python 'getBindCredentialsMethod' method");
@@ -97,6 +139,58 @@ public class ExternalCacheRefreshService extends ExternalScriptService {
 		return result;
 	}
 
+	/**
+	 * Executes all scripts for chunk of users. Returns result for each user.
+	 * Next script gets only users which were accepted by previous scripts
+	 */
+	public boolean[] executeExternalUpdateUsersMethods(List<GluuCustomPerson> users) {
+		boolean[] result = new boolean[users.size()];
+		Arrays.fill(result, true);
+
+		List<Integer> acceptedIndexes = new ArrayList<Integer>(users.size());
+		List<GluuCustomPerson> acceptedUsers = new ArrayList<GluuCustomPerson>(users);
+		for (int i = 0; i < users.size(); i++) {
+			acceptedIndexes.add(i);
+		}
+
+		for (CustomScriptConfiguration customScriptConfiguration : this.customScriptConfigurations) {
+			if (acceptedUsers.isEmpty()) {
+				break;
+			}
+
+			boolean[] scriptResult = executeExternalUpdateUsersMethod(customScriptConfiguration, acceptedUsers);
+
+			List<Integer> nextAcceptedIndexes = new ArrayList<Integer>(acceptedIndexes.size());
+			List<GluuCustomPerson> nextAcceptedUsers = new ArrayList<GluuCustomPerson>(acceptedUsers.size());
+			for (int i = 0; i < scriptResult.length; i++) {
+				if (scriptResult[i]) {
+					nextAcceptedIndexes.add(acceptedIndexes.get(i));
+					nextAcceptedUsers.add(acceptedUsers.get(i));
+				} else {
+					result[acceptedIndexes.get(i)] = false;
+				}
+			}
+			acceptedIndexes = nextAcceptedIndexes;
+			acceptedUsers = nextAcceptedUsers;
+		}
+
+		return result;
+	}
+
+	/**
+	 * Identifies set of loaded scripts. It changes when script is added, removed
+	 * or its revision is updated
+	 */
+	public String getScriptsFingerprint() {
+		StringBuilder result = new StringBuilder();
+		for (CustomScriptConfiguration customScriptConfiguration : this.customScriptConfigurations) {
+			CustomScript customScript = customScriptConfiguration.getCustomScript();
+			result.append(customScript.getInum()).append(':').append(customScript.getRevision()).append(';');
+		}
+
+		return result.toString();
+	}
+
     public BindCredentials executeExternalGetBindCredentialsMethods(String configId) {
         BindCredentials result = null;
         for (CustomScriptConfiguration customScriptConfiguration : this.customScriptConfigurations) {
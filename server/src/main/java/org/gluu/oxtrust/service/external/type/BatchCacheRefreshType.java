@@ -0,0 +1,29 @@
+/*
+ * oxTrust is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2014, Gluu
+ */
+
+package org.gluu.oxtrust.service.external.type;
+
+import java.util.List;
+import java.util.Map;
+
+import org.gluu.model.SimpleCustomProperty;
+import org.gluu.model.custom.script.type.user.CacheRefreshType;
+import org.gluu.oxtrust.model.GluuCustomPerson;
+
+/**
+ * Cache Refresh script which updates users by chunks. It allows to avoid
+ * script call overhead per entry. Scripts which implement only
+ * {@link CacheRefreshType} are called for each user
+ */
+public interface BatchCacheRefreshType extends CacheRefreshType {
+
+	/**
+	 * Updates users before persist them. Returns result for each user in same
+	 * order. Users with false result are not persisted
+	 */
+	List<Boolean> updateUsers(List<GluuCustomPerson> users, Map<String, SimpleCustomProperty> configurationAttributes);
+
+}
@@ -6,6 +6,7 @@
 
 package org.gluu.oxtrust.service.status.ldap;
 
+import java.util.Map.Entry;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.enterprise.context.ApplicationScoped;
@@ -14,9 +15,9 @@ import javax.enterprise.event.Observes;
 import javax.inject.Inject;
 import javax.inject.Named;
 
+import org.gluu.oxtrust.ldap.cache.service.CacheRefreshConnectionRegistry;
 import org.gluu.oxtrust.service.ApplicationFactory;
 import org.gluu.persist.PersistenceEntryManager;
-import org.gluu.persist.ldap.impl.LdapEntryManager;
 import org.gluu.persist.ldap.operation.LdapOperationService;
 import org.gluu.persist.ldap.operation.impl.LdapConnectionProvider;
 import org.gluu.persist.operation.PersistenceOperationService;
@@ -46,6 +47,9 @@ public class PersistanceStatusTimer {
 	@Inject @Named(ApplicationFactory.PERSISTENCE_ENTRY_MANAGER_NAME)
     private PersistenceEntryManager ldapEntryManager;
 
+	@Inject
+	private CacheRefreshConnectionRegistry cacheRefreshConnectionRegistry;
+
     private AtomicBoolean isActive;
 
     public void initTimer() {
@@ -75,6 +79,14 @@ public class PersistanceStatusTimer {
 
     private void processInt() {
     	logConnectionProviderStatistic(ldapEntryManager, "connectionProvider");
+
+		for (Entry<String, PersistenceEntryManager> entry : cacheRefreshConnectionRegistry.getEntryManagers().entrySet()) {
+			// Connection might be released by Cache Refresh run end
+			if (!entry.getValue().getOperationService().isConnected()) {
+				continue;
+			}
+			logConnectionProviderStatistic(entry.getValue(), "Cache Refresh '" + entry.getKey() + "' connectionProvider");
+		}
     }
 
 	public void logConnectionProviderStatistic(PersistenceEntryManager ldapEntryManager, String connectionProviderName) {
@@ -83,7 +95,7 @@ public class PersistanceStatusTimer {
 	        return;
 	    }
 
-	    LdapConnectionProvider ldapConnectionProvider = (LdapConnectionProvider) persistenceOperationService;
+	    LdapConnectionProvider ldapConnectionProvider = ((LdapOperationService) persistenceOperationService).getConnectionProvider();
         
         if (ldapConnectionProvider == null) {
         	log.error("{} is empty", connectionProviderName);
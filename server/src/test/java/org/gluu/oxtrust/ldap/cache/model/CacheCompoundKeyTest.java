@@ -0,0 +1,92 @@
+/*
+ * oxTrust is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2014, Gluu
+ */
+
+package org.gluu.oxtrust.ldap.cache.model;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotEquals;
+import static org.testng.Assert.assertNull;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.testng.annotations.Test;
+
+/**
+ * Test class for CacheCompoundKey
+ */
+public class CacheCompoundKeyTest {
+
+	@Test
+	public void testEqualsAndHashCodeAgree() {
+		CacheCompoundKey key1 = new CacheCompoundKey(new String[] { "a", "b" }, new String[] { "c" }, null);
+		CacheCompoundKey key2 = new CacheCompoundKey(new String[] { "b", "a" }, new String[] { "c" }, null);
+
+		assertEquals(key1, key2);
+		assertEquals(key2, key1);
+		assertEquals(key1.hashCode(), key2.hashCode());
+
+		Map<CacheCompoundKey, String> map = new HashMap<CacheCompoundKey, String>();
+		map.put(key1, "value");
+		assertEquals(map.get(key2), "value");
+	}
+
+	@Test
+	public void testCaseSensitive() {
+		CacheCompoundKey key1 = new CacheCompoundKey(new String[] { "User" }, new String[] { "User@Example.com" }, null);
+		CacheCompoundKey key2 = new CacheCompoundKey(new String[] { "user" }, new String[] { "user@example.COM" }, null);
+
+		assertNotEquals(key1, key2);
+	}
+
+	@Test
+	public void testValuesRestoredFromCanonicalForm() {
+		CacheCompoundKey key = new CacheCompoundKey(new String[] { "User", "Alias" },
+				new String[] { "a:b]", null }, null);
+
+		assertEquals(key.getPrimaryKeyValues(), new String[] { "Alias", "User" });
+		assertEquals(key.getSecondaryKeyValues(), new String[] { null, "a:b]" });
+		assertNull(key.getTertiaryKeyValues());
+		assertEquals(new CacheCompoundKey(new String[] { "a" }, new String[0], null).getSecondaryKeyValues(),
+				new String[0]);
+	}
+
+	@Test
+	public void testArrayConstructor() {
+		CacheCompoundKey key1 = new CacheCompoundKey(new String[][] { { "a" }, { "b" } });
+		CacheCompoundKey key2 = new CacheCompoundKey(new String[] { "a" }, new String[] { "b" }, null);
+
+		assertEquals(key1, key2);
+		assertEquals(key1.hashCode(), key2.hashCode());
+	}
+
+	@Test
+	public void testNullValues() {
+		CacheCompoundKey key1 = new CacheCompoundKey(new String[] { "a" }, null, null);
+		CacheCompoundKey key2 = new CacheCompoundKey(new String[] { "a" }, new String[0], null);
+		CacheCompoundKey key3 = new CacheCompoundKey(new String[] { "a", null }, null, null);
+		CacheCompoundKey key4 = new CacheCompoundKey(new String[] { null, "a" }, null, null);
+
+		assertEquals(key1, new CacheCompoundKey(new String[] { "a" }, null, null));
+		assertNotEquals(key1, key2);
+		assertNotEquals(key1, key3);
+		assertEquals(key3, key4);
+		assertEquals(key3.hashCode(), key4.hashCode());
+		assertNotEquals(key1, null);
+	}
+
+	@Test
+	public void testValuesNotMixedBetweenAttributes() {
+		CacheCompoundKey key1 = new CacheCompoundKey(new String[] { "a", "b" }, new String[] { "c" }, null);
+		CacheCompoundKey key2 = new CacheCompoundKey(new String[] { "a" }, new String[] { "b", "c" }, null);
+		CacheCompoundKey key3 = new CacheCompoundKey(new String[] { "ab" }, new String[] { "c" }, null);
+
+		assertNotEquals(key1, key2);
+		assertNotEquals(key1, key3);
+		assertNotEquals(key2, key3);
+	}
+
+}
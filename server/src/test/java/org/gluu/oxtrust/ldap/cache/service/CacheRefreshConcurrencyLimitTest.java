@@ -0,0 +1,149 @@
+/*
+ * oxTrust is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2014, Gluu
+ */
+
+package org.gluu.oxtrust.ldap.cache.service;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.gluu.oxtrust.ldap.cache.service.CacheRefreshConcurrencyLimit.Outcome;
+import org.testng.annotations.Test;
+
+/**
+ * Test class for CacheRefreshConcurrencyLimit
+ */
+public class CacheRefreshConcurrencyLimitTest {
+
+	@Test
+	public void testInitialLimitIsBounded() {
+		assertEquals(new CacheRefreshConcurrencyLimit(0, 4, 2.0).getLimit(), 1);
+		assertEquals(new CacheRefreshConcurrencyLimit(10, 4, 2.0).getLimit(), 4);
+		assertEquals(new CacheRefreshConcurrencyLimit(2, 0, 2.0).getLimit(), 1);
+	}
+
+	@Test
+	public void testLimitGrowsByOnePerRoundTrip() throws InterruptedException {
+		CacheRefreshConcurrencyLimit concurrencyLimit = new CacheRefreshConcurrencyLimit(2, 4, 2.0);
+
+		complete(concurrencyLimit, 1000, Outcome.SUCCESS);
+		complete(concurrencyLimit, 1000, Outcome.SUCCESS);
+		assertEquals(concurrencyLimit.getLimit(), 2);
+
+		complete(concurrencyLimit, 1000, Outcome.SUCCESS);
+		assertEquals(concurrencyLimit.getLimit(), 3);
+
+		// Limit doesn't grow above maximum
+		for (int i = 0; i < 100; i++) {
+			complete(concurrencyLimit, 1000, Outcome.SUCCESS);
+		}
+		assertEquals(concurrencyLimit.getLimit(), 4);
+	}
+
+	@Test
+	public void testFirstFailureHalvesLimit() throws InterruptedException {
+		CacheRefreshConcurrencyLimit concurrencyLimit = new CacheRefreshConcurrencyLimit(8, 8, 2.0);
+
+		complete(concurrencyLimit, 0, Outcome.FAILED);
+		assertEquals(concurrencyLimit.getLimit(), 4);
+
+		complete(concurrencyLimit, 0, Outcome.FAILED);
+		complete(concurrencyLimit, 0, Outcome.FAILED);
+		assertEquals(concurrencyLimit.getLimit(), 1);
+
+		// Limit doesn't fall below one
+		complete(concurrencyLimit, 0, Outcome.FAILED);
+		assertEquals(concurrencyLimit.getLimit(), 1);
+	}
+
+	@Test
+	public void testNotWrittenEntryDoesNotDecreaseLimit() throws InterruptedException {
+		CacheRefreshConcurrencyLimit concurrencyLimit = new CacheRefreshConcurrencyLimit(8, 8, 2.0);
+
+		complete(concurrencyLimit, 1000, Outcome.SUCCESS);
+		Thread.sleep(1);
+
+		for (int i = 0; i < 10; i++) {
+			complete(concurrencyLimit, 1000, Outcome.NOT_WRITTEN);
+		}
+		assertEquals(concurrencyLimit.getLimit(), 8);
+
+		// Fast rejected entries don't lower baseline
+		complete(concurrencyLimit, 0, Outcome.NOT_WRITTEN);
+		complete(concurrencyLimit, 1500, Outcome.SUCCESS);
+		assertEquals(concurrencyLimit.getLimit(), 8);
+	}
+
+	@Test
+	public void testLimitDecreasesOncePerRoundTrip() throws InterruptedException {
+		CacheRefreshConcurrencyLimit concurrencyLimit = new CacheRefreshConcurrencyLimit(8, 8, 2.0);
+
+		concurrencyLimit.acquire();
+		concurrencyLimit.acquire();
+
+		concurrencyLimit.release(0, Outcome.FAILED);
+		assertEquals(concurrencyLimit.getLimit(), 4);
+
+		// Operation started before previous decrease reports same overload
+		concurrencyLimit.release(TimeUnit.SECONDS.toNanos(10), Outcome.FAILED);
+		assertEquals(concurrencyLimit.getLimit(), 4);
+	}
+
+	@Test
+	public void testLatencyAboveThresholdHalvesLimit() throws InterruptedException {
+		CacheRefreshConcurrencyLimit concurrencyLimit = new CacheRefreshConcurrencyLimit(8, 8, 2.0);
+
+		complete(concurrencyLimit, 1000, Outcome.SUCCESS);
+		complete(concurrencyLimit, 1500, Outcome.SUCCESS);
+		assertEquals(concurrencyLimit.getLimit(), 8);
+
+		// Make sure that more than one round trip passed since limit creation
+		Thread.sleep(1);
+
+		complete(concurrencyLimit, 5000, Outcome.SUCCESS);
+		assertEquals(concurrencyLimit.getLimit(), 4);
+	}
+
+	@Test
+	public void testAcquireBlocksAtLimit() throws InterruptedException {
+		final CacheRefreshConcurrencyLimit concurrencyLimit = new CacheRefreshConcurrencyLimit(1, 1, 2.0);
+		concurrencyLimit.acquire();
+
+		final CountDownLatch acquired = new CountDownLatch(1);
+		Thread thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					concurrencyLimit.acquire();
+					acquired.countDown();
+				} catch (InterruptedException ex) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		});
+		thread.start();
+
+		try {
+			assertFalse(acquired.await(100, TimeUnit.MILLISECONDS));
+
+			concurrencyLimit.release(0, Outcome.SUCCESS);
+			assertTrue(acquired.await(10, TimeUnit.SECONDS));
+		} finally {
+			thread.interrupt();
+			thread.join();
+		}
+	}
+
+	private void complete(CacheRefreshConcurrencyLimit concurrencyLimit, long latencyNanos, Outcome outcome)
+			throws InterruptedException {
+		concurrencyLimit.acquire();
+		concurrencyLimit.release(latencyNanos, outcome);
+	}
+
+}
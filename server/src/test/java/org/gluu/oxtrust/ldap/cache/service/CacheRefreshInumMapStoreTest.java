@@ -0,0 +1,247 @@
+/*
+ * oxTrust is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2014, Gluu
+ */
+
+package org.gluu.oxtrust.ldap.cache.service;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.gluu.model.GluuStatus;
+import org.gluu.oxtrust.ldap.cache.model.GluuInumMap;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Test class for CacheRefreshInumMapStore
+ */
+public class CacheRefreshInumMapStoreTest {
+
+	private File file;
+	private File expectedFile;
+
+	@BeforeMethod
+	public void setUp() throws IOException {
+		file = File.createTempFile("inum_maps", ".dat");
+		expectedFile = File.createTempFile("inum_maps_expected", ".dat");
+		file.delete();
+		expectedFile.delete();
+	}
+
+	@AfterMethod
+	public void tearDown() {
+		file.delete();
+		expectedFile.delete();
+	}
+
+	@Test
+	public void testLoadMissingFile() {
+		assertNull(new CacheRefreshInumMapStore(file.getPath()).load());
+	}
+
+	@Test
+	public void testWriteAndLoad() {
+		GluuInumMap inumMap1 = createInumMap("inum-1", "user1");
+		inumMap1.setSecondaryKeyAttrName("mail");
+		inumMap1.setSecondaryKeyValues(new String[] { "user1@example.com", null });
+		inumMap1.setStatus(GluuStatus.ACTIVE);
+		GluuInumMap inumMap2 = createInumMap("inum-2", "\u00e9l\u00e8ve");
+
+		List<GluuInumMap> inumMaps = Arrays.asList(inumMap1, inumMap2);
+		assertTrue(new CacheRefreshInumMapStore(file.getPath()).update(inumMaps, inumMaps,
+				Collections.<String> emptyList()));
+
+		List<GluuInumMap> loaded = new CacheRefreshInumMapStore(file.getPath()).load();
+		assertNotNull(loaded);
+		assertEquals(loaded.size(), 2);
+
+		GluuInumMap loaded1 = loaded.get(0);
+		assertEquals(loaded1.getDn(), "inum=inum-1,ou=cache-refresh,o=site");
+		assertEquals(loaded1.getInum(), "inum-1");
+		assertEquals(loaded1.getPrimaryKeyAttrName(), "uid");
+		assertEquals(loaded1.getPrimaryKeyValues(), new String[] { "user1" });
+		assertEquals(loaded1.getSecondaryKeyAttrName(), "mail");
+		assertEquals(loaded1.getSecondaryKeyValues(), new String[] { "user1@example.com", null });
+		assertNull(loaded1.getTertiaryKeyAttrName());
+		assertNull(loaded1.getTertiaryKeyValues());
+		assertEquals(loaded1.getStatus(), GluuStatus.ACTIVE);
+
+		GluuInumMap loaded2 = loaded.get(1);
+		assertEquals(loaded2.getInum(), "inum-2");
+		assertEquals(loaded2.getPrimaryKeyValues(), new String[] { "\u00e9l\u00e8ve" });
+		assertNull(loaded2.getStatus());
+	}
+
+	@Test
+	public void testAppend() {
+		List<GluuInumMap> current = createInumMaps(0, 10);
+		new CacheRefreshInumMapStore(file.getPath()).update(current, current, Collections.<String> emptyList());
+
+		CacheRefreshInumMapStore store = new CacheRefreshInumMapStore(file.getPath());
+		assertEquals(store.load().size(), 10);
+		long baseLength = file.length();
+
+		GluuInumMap added = createInumMap("inum-10", "user10");
+		current.add(added);
+		current.remove(0);
+		assertTrue(store.update(current, Collections.singletonList(added), Collections.singletonList("inum-0")));
+		assertTrue(file.length() > baseLength);
+
+		List<GluuInumMap> loaded = new CacheRefreshInumMapStore(file.getPath()).load();
+		assertEquals(getInums(loaded), getInums(current));
+	}
+
+	@Test
+	public void testCompactionOnLargeDelta() throws IOException {
+		List<GluuInumMap> current = createInumMaps(0, 2);
+		new CacheRefreshInumMapStore(file.getPath()).update(current, current, Collections.<String> emptyList());
+
+		CacheRefreshInumMapStore store = new CacheRefreshInumMapStore(file.getPath());
+		store.load();
+
+		// Delta of 3 records is bigger than base of 2 records
+		List<GluuInumMap> added = createInumMaps(2, 5);
+		current.addAll(added);
+		store.update(current, added, Collections.<String> emptyList());
+
+		assertSameContent(current);
+	}
+
+	@Test
+	public void testCompactionOnMaxSegments() throws IOException {
+		List<GluuInumMap> current = createInumMaps(0, 100);
+		new CacheRefreshInumMapStore(file.getPath()).update(current, current, Collections.<String> emptyList());
+
+		CacheRefreshInumMapStore store = new CacheRefreshInumMapStore(file.getPath());
+		store.load();
+
+		// Base segment and 15 delta segments
+		for (int i = 0; i < 15; i++) {
+			current.remove(0);
+			store.update(current, Collections.<GluuInumMap> emptyList(), Collections.singletonList("inum-" + i));
+		}
+		assertEquals(getInums(new CacheRefreshInumMapStore(file.getPath()).load()), getInums(current));
+
+		current.remove(0);
+		store.update(current, Collections.<GluuInumMap> emptyList(), Collections.singletonList("inum-15"));
+
+		assertSameContent(current);
+	}
+
+	@Test
+	public void testInvalidHeader() throws IOException {
+		writeInumMaps(3);
+		corruptByte(0);
+
+		assertNull(new CacheRefreshInumMapStore(file.getPath()).load());
+	}
+
+	@Test
+	public void testChecksumMismatch() throws IOException {
+		writeInumMaps(3);
+		corruptByte(file.length() - 1);
+
+		assertNull(new CacheRefreshInumMapStore(file.getPath()).load());
+	}
+
+	@Test
+	public void testTruncatedSegment() throws IOException {
+		writeInumMaps(3);
+
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			raf.setLength(raf.length() - 1);
+		}
+
+		assertNull(new CacheRefreshInumMapStore(file.getPath()).load());
+	}
+
+	@Test
+	public void testTruncatedSegmentHeader() throws IOException {
+		writeInumMaps(3);
+
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			raf.setLength(12);
+		}
+
+		assertNull(new CacheRefreshInumMapStore(file.getPath()).load());
+	}
+
+	@Test
+	public void testRewriteAfterFailedLoad() throws IOException {
+		writeInumMaps(3);
+		corruptByte(file.length() - 1);
+
+		CacheRefreshInumMapStore store = new CacheRefreshInumMapStore(file.getPath());
+		assertNull(store.load());
+
+		// Store which wasn't loaded rewrites whole file
+		List<GluuInumMap> current = createInumMaps(0, 2);
+		store.update(current, Collections.<GluuInumMap> emptyList(), Collections.<String> emptyList());
+
+		assertEquals(getInums(new CacheRefreshInumMapStore(file.getPath()).load()), getInums(current));
+	}
+
+	private void writeInumMaps(int count) {
+		List<GluuInumMap> current = createInumMaps(0, count);
+		new CacheRefreshInumMapStore(file.getPath()).update(current, current, Collections.<String> emptyList());
+	}
+
+	private void corruptByte(long position) throws IOException {
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			raf.seek(position);
+			int value = raf.read();
+			raf.seek(position);
+			raf.write(value ^ 0xff);
+		}
+	}
+
+	private void assertSameContent(List<GluuInumMap> current) throws IOException {
+		new CacheRefreshInumMapStore(expectedFile.getPath()).update(current, current, Collections.<String> emptyList());
+
+		// Compacted file is equal to file written from scratch
+		assertEquals(Files.readAllBytes(file.toPath()), Files.readAllBytes(expectedFile.toPath()));
+	}
+
+	private List<GluuInumMap> createInumMaps(int from, int to) {
+		List<GluuInumMap> result = new ArrayList<GluuInumMap>();
+		for (int i = from; i < to; i++) {
+			result.add(createInumMap("inum-" + i, "user" + i));
+		}
+
+		return result;
+	}
+
+	private GluuInumMap createInumMap(String inum, String uid) {
+		GluuInumMap inumMap = new GluuInumMap();
+		inumMap.setDn("inum=" + inum + ",ou=cache-refresh,o=site");
+		inumMap.setInum(inum);
+		inumMap.setPrimaryKeyAttrName("uid");
+		inumMap.setPrimaryKeyValues(new String[] { uid });
+
+		return inumMap;
+	}
+
+	private List<String> getInums(List<GluuInumMap> inumMaps) {
+		List<String> result = new ArrayList<String>();
+		for (GluuInumMap inumMap : inumMaps) {
+			result.add(inumMap.getInum());
+		}
+
+		return result;
+	}
+
+}
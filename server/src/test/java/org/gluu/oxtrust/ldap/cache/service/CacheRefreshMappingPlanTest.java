@@ -0,0 +1,204 @@
+/*
+ * oxTrust is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2014, Gluu
+ */
+
+package org.gluu.oxtrust.ldap.cache.service;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import org.gluu.oxtrust.ldap.cache.model.GluuSimplePerson;
+import org.gluu.oxtrust.model.GluuCustomAttribute;
+import org.gluu.oxtrust.model.GluuCustomPerson;
+import org.gluu.util.ArrayHelper;
+import org.gluu.util.StringHelper;
+import org.testng.annotations.Test;
+
+/**
+ * Test class for CacheRefreshMappingPlan. Plan should give the same result as
+ * mapping which was used before it
+ */
+public class CacheRefreshMappingPlanTest {
+
+	@Test
+	public void testMixedCaseSourceAttributes() {
+		Map<String, String> mapping = createMapping("displayName", "CN", "mail", "Email");
+		GluuSimplePerson sourcePerson = createPerson(new String[] { "cn", "John Smith" },
+				new String[] { "EMAIL", "john@example.com" }, new String[] { "uid", "john" });
+
+		assertSameResult(sourcePerson, mapping);
+	}
+
+	@Test
+	public void testMultiValuedAttributes() {
+		Map<String, String> mapping = createMapping("oxTrustEmail", "mail");
+		GluuSimplePerson sourcePerson = createPerson(
+				new String[] { "mail", "john@example.com", "john.smith@example.com" },
+				new String[] { "memberOf", "group1", "group2", "group3" });
+
+		GluuCustomPerson targetPerson = assertSameResult(sourcePerson, mapping);
+		assertEquals(targetPerson.getAttributeValues("oxTrustEmail"),
+				new String[] { "john@example.com", "john.smith@example.com" });
+	}
+
+	@Test
+	public void testUnmappedAttributes() {
+		Map<String, String> mapping = createMapping("displayName", "cn", "sn", "surname");
+		GluuSimplePerson sourcePerson = createPerson(new String[] { "uid", "john" },
+				new String[] { "givenName", "John" }, new String[] { "cn", "John Smith" });
+
+		GluuCustomPerson targetPerson = assertSameResult(sourcePerson, mapping);
+		assertEquals(targetPerson.getAttribute("uid"), "john");
+		assertNull(targetPerson.getAttribute("cn"));
+	}
+
+	@Test
+	public void testMappedAttributeReplacesUnmappedAttribute() {
+		Map<String, String> mapping = createMapping("cn", "displayName");
+		GluuSimplePerson sourcePerson = createPerson(new String[] { "CN", "Source cn" },
+				new String[] { "displayName", "John Smith" });
+
+		GluuCustomPerson targetPerson = assertSameResult(sourcePerson, mapping);
+		assertEquals(targetPerson.getAttribute("cn"), "John Smith");
+	}
+
+	@Test
+	public void testSourceAttributeMappedToSeveralTargets() {
+		Map<String, String> mapping = createMapping("displayName", "cn", "gecos", "CN");
+		GluuSimplePerson sourcePerson = createPerson(new String[] { "Cn", "John Smith" },
+				new String[] { "uid", "john" });
+
+		assertSameResult(sourcePerson, mapping);
+	}
+
+	@Test
+	public void testDuplicateSourceAttributesDifferentCase() {
+		Map<String, String> mapping = createMapping("displayName", "cn");
+		GluuSimplePerson sourcePerson = createPerson(new String[] { "cn", "first" }, new String[] { "CN", "second" },
+				new String[] { "uid", "first" }, new String[] { "UID", "second" });
+
+		assertSameResult(sourcePerson, mapping);
+	}
+
+	@Test
+	public void testMappedValuesAreCloned() {
+		Map<String, String> mapping = createMapping("displayName", "cn");
+		GluuSimplePerson sourcePerson = createPerson(new String[] { "cn", "John Smith" });
+
+		GluuCustomPerson targetPerson = new GluuCustomPerson();
+		new CacheRefreshMappingPlan(mapping).apply(sourcePerson, targetPerson);
+
+		assertNotSame(targetPerson.getAttributeValues("displayName"), sourcePerson.getAttributes("cn"));
+	}
+
+	private GluuCustomPerson assertSameResult(GluuSimplePerson sourcePerson, Map<String, String> mapping) {
+		GluuCustomPerson expectedPerson = createTargetPerson();
+		setTargetEntryAttributesLegacy(sourcePerson, mapping, expectedPerson);
+
+		GluuCustomPerson targetPerson = createTargetPerson();
+		new CacheRefreshMappingPlan(mapping).apply(sourcePerson, targetPerson);
+
+		assertEquals(toSortedList(targetPerson), toSortedList(expectedPerson));
+
+		return targetPerson;
+	}
+
+	/**
+	 * Mapping implementation which was used before CacheRefreshMappingPlan
+	 */
+	private void setTargetEntryAttributesLegacy(GluuSimplePerson sourcePerson,
+			Map<String, String> targetServerAttributesMapping, GluuCustomPerson targetPerson) {
+		// Collect all attributes to single map
+		Map<String, GluuCustomAttribute> customAttributesMap = new HashMap<String, GluuCustomAttribute>();
+		for (GluuCustomAttribute sourceCustomAttribute : sourcePerson.getCustomAttributes()) {
+			customAttributesMap.put(StringHelper.toLowerCase(sourceCustomAttribute.getName()), sourceCustomAttribute);
+		}
+
+		List<GluuCustomAttribute> resultAttributes = new ArrayList<GluuCustomAttribute>();
+
+		// Add attributes configured via mapping
+		Set<String> processedAttributeNames = new HashSet<String>();
+		for (Entry<String, String> targetServerAttributeEntry : targetServerAttributesMapping.entrySet()) {
+			String sourceKeyAttributeName = StringHelper.toLowerCase(targetServerAttributeEntry.getValue());
+			String targetKeyAttributeName = targetServerAttributeEntry.getKey();
+
+			processedAttributeNames.add(sourceKeyAttributeName);
+
+			GluuCustomAttribute gluuCustomAttribute = customAttributesMap.get(sourceKeyAttributeName);
+			if (gluuCustomAttribute != null) {
+				String[] values = gluuCustomAttribute.getValues();
+				String[] clonedValue = ArrayHelper.arrayClone(values);
+
+				GluuCustomAttribute gluuCustomAttributeCopy = new GluuCustomAttribute(targetKeyAttributeName, clonedValue);
+				gluuCustomAttributeCopy.setName(targetKeyAttributeName);
+				resultAttributes.add(gluuCustomAttributeCopy);
+			}
+		}
+
+		// Set destination entry attributes
+		for (Entry<String, GluuCustomAttribute> sourceCustomAttributeEntry : customAttributesMap.entrySet()) {
+			if (!processedAttributeNames.contains(sourceCustomAttributeEntry.getKey())) {
+				targetPerson.setAttribute(sourceCustomAttributeEntry.getValue());
+			}
+		}
+
+		for (GluuCustomAttribute resultAttribute : resultAttributes) {
+			targetPerson.setAttribute(resultAttribute);
+		}
+	}
+
+	private Map<String, String> createMapping(String... targetAndSourceNames) {
+		Map<String, String> result = new LinkedHashMap<String, String>();
+		for (int i = 0; i < targetAndSourceNames.length; i += 2) {
+			result.put(targetAndSourceNames[i], targetAndSourceNames[i + 1]);
+		}
+
+		return result;
+	}
+
+	private GluuSimplePerson createPerson(String[]... attributes) {
+		GluuSimplePerson person = new GluuSimplePerson();
+		for (String[] attribute : attributes) {
+			person.getCustomAttributes()
+					.add(new GluuCustomAttribute(attribute[0], Arrays.copyOfRange(attribute, 1, attribute.length)));
+		}
+
+		return person;
+	}
+
+	private GluuCustomPerson createTargetPerson() {
+		GluuCustomPerson person = new GluuCustomPerson();
+		person.setAttribute("inum", "inum-1");
+
+		return person;
+	}
+
+	/**
+	 * Attributes order depends on hash map iteration order of old mapping, so
+	 * attributes are compared sorted
+	 */
+	private List<String> toSortedList(GluuCustomPerson person) {
+		List<String> result = new ArrayList<String>();
+		for (GluuCustomAttribute attribute : person.getCustomAttributes()) {
+			result.add(attribute.getName() + "=" + Arrays.toString(attribute.getValues()));
+		}
+		Collections.sort(result);
+
+		return result;
+	}
+
+}
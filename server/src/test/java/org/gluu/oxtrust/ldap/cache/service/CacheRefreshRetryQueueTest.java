@@ -0,0 +1,158 @@
+/*
+ * oxTrust is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2014, Gluu
+ */
+
+package org.gluu.oxtrust.ldap.cache.service;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+import org.gluu.oxtrust.ldap.cache.model.CacheRefreshProblemEntry;
+import org.testng.annotations.Test;
+
+/**
+ * Test class for CacheRefreshRetryQueue
+ */
+public class CacheRefreshRetryQueueTest {
+
+	@Test
+	public void testBackoff() {
+		CacheRefreshRetryQueue retryQueue = new CacheRefreshRetryQueue(null, 1000, 10000, 0);
+
+		long[] expectedDelays = { 1000, 2000, 4000, 8000, 10000, 10000 };
+		for (long expectedDelay : expectedDelays) {
+			retryQueue.failed("inum-1", "error", 100);
+			assertEquals(getEntry(retryQueue, 0).getNextAttemptTime(), 100 + expectedDelay);
+		}
+
+		assertEquals(getEntry(retryQueue, 0).getAttempts(), expectedDelays.length);
+		assertEquals(getEntry(retryQueue, 0).getLastError(), "error");
+	}
+
+	@Test
+	public void testBackoffShiftLimit() {
+		CacheRefreshRetryQueue retryQueue = new CacheRefreshRetryQueue(null, 1, Long.MAX_VALUE, 0);
+
+		// Shift is limited to avoid overflow of delay
+		for (int i = 0; i < 40; i++) {
+			retryQueue.failed("inum-1", null, 0);
+		}
+
+		assertEquals(getEntry(retryQueue, 0).getNextAttemptTime(), 1L << 30);
+		assertEquals(getEntry(retryQueue, 0).getLastError(), CacheRefreshRetryQueue.ERROR_NOT_WRITTEN);
+	}
+
+	@Test
+	public void testQuarantine() {
+		CacheRefreshRetryQueue retryQueue = new CacheRefreshRetryQueue(null, 1000, 10000, 3);
+
+		retryQueue.failed("inum-1", "error", 0);
+		retryQueue.failed("inum-1", "error", 0);
+		assertFalse(getEntry(retryQueue, 0).isQuarantined());
+		assertEquals(retryQueue.getQuarantinedCount(), 0);
+
+		retryQueue.failed("inum-1", "error", 0);
+		assertTrue(getEntry(retryQueue, 0).isQuarantined());
+		assertEquals(retryQueue.getQuarantinedCount(), 1);
+
+		// Quarantined entry isn't retried
+		assertTrue(retryQueue.getEligibleInums(Long.MAX_VALUE).isEmpty());
+	}
+
+	@Test
+	public void testQuarantineDisabled() {
+		CacheRefreshRetryQueue retryQueue = new CacheRefreshRetryQueue(null, 1000, 10000, 0);
+		for (int i = 0; i < 100; i++) {
+			retryQueue.failed("inum-1", "error", 0);
+		}
+
+		assertFalse(getEntry(retryQueue, 0).isQuarantined());
+		assertEquals(retryQueue.getQuarantinedCount(), 0);
+		assertEquals(retryQueue.getEligibleInums(Long.MAX_VALUE), Collections.singleton("inum-1"));
+	}
+
+	@Test
+	public void testEligibleInums() {
+		CacheRefreshRetryQueue retryQueue = new CacheRefreshRetryQueue(null, 1000, 10000, 0);
+		retryQueue.failed("inum-1", "error", 0);
+		retryQueue.failed("inum-2", "error", 500);
+
+		assertTrue(retryQueue.getEligibleInums(999).isEmpty());
+		assertEquals(retryQueue.getEligibleInums(1000), Collections.singleton("inum-1"));
+		assertEquals(retryQueue.getEligibleInums(1500), new HashSet<String>(Arrays.asList("inum-1", "inum-2")));
+	}
+
+	@Test
+	public void testLoadedEntries() {
+		CacheRefreshProblemEntry problemEntry = new CacheRefreshProblemEntry("inum-1");
+		problemEntry.setAttempts(2);
+		problemEntry.setNextAttemptTime(2000);
+
+		CacheRefreshRetryQueue retryQueue = new CacheRefreshRetryQueue(Arrays.asList(problemEntry), 1000, 10000, 3);
+		assertEquals(retryQueue.size(), 1);
+		assertTrue(retryQueue.getEligibleInums(1999).isEmpty());
+
+		// Attempts are continued from loaded entry
+		retryQueue.failed("inum-1", "error", 3000);
+		assertEquals(getEntry(retryQueue, 0).getAttempts(), 3);
+		assertEquals(getEntry(retryQueue, 0).getNextAttemptTime(), 3000 + 4000);
+		assertTrue(getEntry(retryQueue, 0).isQuarantined());
+	}
+
+	@Test
+	public void testRetainInums() {
+		CacheRefreshRetryQueue retryQueue = new CacheRefreshRetryQueue(null, 1000, 10000, 0);
+		retryQueue.failed("inum-1", "error", 0);
+		retryQueue.failed("inum-2", "error", 0);
+		retryQueue.postponed("inum-3");
+
+		InumHashCodeMap inumWithEntryHashCodeMap = new InumHashCodeMap();
+		inumWithEntryHashCodeMap.put("inum-2", 1L);
+		inumWithEntryHashCodeMap.put("inum-4", 2L);
+
+		assertEquals(retryQueue.retainInums(inumWithEntryHashCodeMap), 2);
+		assertEquals(retryQueue.size(), 1);
+		assertEquals(getEntry(retryQueue, 0).getInum(), "inum-2");
+	}
+
+	@Test
+	public void testSucceeded() {
+		CacheRefreshRetryQueue retryQueue = new CacheRefreshRetryQueue(null, 1000, 10000, 0);
+		retryQueue.failed("inum-1", "error", 0);
+		retryQueue.failed("inum-2", "error", 0);
+
+		retryQueue.succeeded(Arrays.asList("inum-1", "inum-3"));
+
+		assertEquals(retryQueue.size(), 1);
+		assertEquals(getEntry(retryQueue, 0).getInum(), "inum-2");
+	}
+
+	@Test
+	public void testPostponed() {
+		CacheRefreshRetryQueue retryQueue = new CacheRefreshRetryQueue(null, 1000, 10000, 0);
+
+		// New entry is retried on next run
+		retryQueue.postponed("inum-1");
+		assertEquals(getEntry(retryQueue, 0).getAttempts(), 0);
+		assertEquals(retryQueue.getEligibleInums(0), Collections.singleton("inum-1"));
+
+		// Attempts and next attempt time of failed entry aren't changed
+		retryQueue.failed("inum-2", "error", 0);
+		retryQueue.postponed("inum-2");
+		assertEquals(retryQueue.size(), 2);
+		assertEquals(getEntry(retryQueue, 1).getAttempts(), 1);
+		assertEquals(getEntry(retryQueue, 1).getNextAttemptTime(), 1000);
+	}
+
+	private CacheRefreshProblemEntry getEntry(CacheRefreshRetryQueue retryQueue, int index) {
+		return retryQueue.getEntries().get(index);
+	}
+
+}
@@ -0,0 +1,170 @@
+/*
+ * oxTrust is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2014, Gluu
+ */
+
+package org.gluu.oxtrust.ldap.cache.service;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Test class for CacheRefreshRunJournal
+ */
+public class CacheRefreshRunJournalTest {
+
+	private static final String RUN_KEY = "run-key";
+
+	private File file;
+
+	@BeforeMethod
+	public void setUp() throws IOException {
+		file = File.createTempFile("cache_refresh_run", ".journal");
+		file.delete();
+	}
+
+	@AfterMethod
+	public void tearDown() {
+		file.delete();
+	}
+
+	@Test
+	public void testResumeSkipsEntriesWithSameFingerprint() {
+		CacheRefreshRunJournal journal = openJournal(false);
+		journal.commitBatch(createBatch("inum-1", 1L, "inum-2", -2L));
+		journal.close();
+
+		CacheRefreshRunJournal resumedJournal = openJournal(true);
+		assertEquals(resumedJournal.getCommittedCount(), 2);
+		assertTrue(resumedJournal.isCommitted("inum-1", 1L));
+		assertTrue(resumedJournal.isCommitted("inum-2", -2L));
+
+		// Entry was changed in source server after it was written
+		assertFalse(resumedJournal.isCommitted("inum-1", 3L));
+		// Entry wasn't written by interrupted run
+		assertFalse(resumedJournal.isCommitted("inum-3", 1L));
+		resumedJournal.close();
+	}
+
+	@Test
+	public void testJournalOfAnotherRunIsIgnored() {
+		CacheRefreshRunJournal journal = openJournal(false);
+		journal.commitBatch(createBatch("inum-1", 1L));
+		journal.close();
+
+		CacheRefreshRunJournal newJournal = new CacheRefreshRunJournal(file.getPath());
+		assertFalse(newJournal.open("another-run-key"));
+		assertEquals(newJournal.getCommittedCount(), 0);
+		assertFalse(newJournal.isCommitted("inum-1", 1L));
+		newJournal.close();
+	}
+
+	@Test
+	public void testTruncatedLastLineIsSkipped() throws IOException {
+		CacheRefreshRunJournal journal = openJournal(false);
+		journal.commitBatch(createBatch("inum-1", 1L));
+		journal.commitBatch(createBatch("inum-2", 2L, "inum-3", 3L));
+		journal.close();
+
+		// Interrupted write of last batch
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			raf.setLength(raf.length() - 5);
+		}
+
+		CacheRefreshRunJournal resumedJournal = openJournal(true);
+		assertEquals(resumedJournal.getCommittedCount(), 1);
+		assertTrue(resumedJournal.isCommitted("inum-1", 1L));
+		assertFalse(resumedJournal.isCommitted("inum-2", 2L));
+
+		// Next batch is written after incomplete line
+		resumedJournal.commitBatch(createBatch("inum-4", 4L));
+		resumedJournal.close();
+
+		CacheRefreshRunJournal nextJournal = openJournal(true);
+		assertEquals(nextJournal.getCommittedCount(), 2);
+		assertTrue(nextJournal.isCommitted("inum-4", 4L));
+		nextJournal.close();
+	}
+
+	@Test
+	public void testCorruptLastLineIsSkipped() throws IOException {
+		CacheRefreshRunJournal journal = openJournal(false);
+		journal.commitBatch(createBatch("inum-1", 1L));
+		journal.close();
+
+		Files.write(file.toPath(), "batch\tgarbage".getBytes(StandardCharsets.UTF_8),
+				StandardOpenOption.APPEND);
+
+		CacheRefreshRunJournal resumedJournal = openJournal(true);
+		assertEquals(resumedJournal.getCommittedCount(), 1);
+		assertTrue(resumedJournal.isCommitted("inum-1", 1L));
+		resumedJournal.close();
+	}
+
+	@Test
+	public void testChecksumMismatchIsSkipped() throws IOException {
+		CacheRefreshRunJournal journal = openJournal(false);
+		journal.commitBatch(createBatch("inum-1", 1L));
+		journal.commitBatch(createBatch("inum-2", 2L));
+		journal.close();
+
+		// Change fingerprint of second batch without updating checksum
+		List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+		assertEquals(lines.size(), 3);
+		lines.set(2, lines.get(2).replace("inum-2=2", "inum-2=5"));
+		Files.write(file.toPath(), lines, StandardCharsets.UTF_8);
+
+		CacheRefreshRunJournal resumedJournal = openJournal(true);
+		assertEquals(resumedJournal.getCommittedCount(), 1);
+		assertTrue(resumedJournal.isCommitted("inum-1", 1L));
+		assertFalse(resumedJournal.isCommitted("inum-2", 2L));
+		assertFalse(resumedJournal.isCommitted("inum-2", 5L));
+		resumedJournal.close();
+	}
+
+	@Test
+	public void testFinishRemovesJournal() {
+		CacheRefreshRunJournal journal = openJournal(false);
+		journal.commitBatch(createBatch("inum-1", 1L));
+		journal.finish();
+
+		assertFalse(file.exists());
+
+		CacheRefreshRunJournal newJournal = openJournal(false);
+		assertFalse(newJournal.isCommitted("inum-1", 1L));
+		newJournal.close();
+	}
+
+	private CacheRefreshRunJournal openJournal(boolean expectedResumed) {
+		CacheRefreshRunJournal journal = new CacheRefreshRunJournal(file.getPath());
+		assertEquals(journal.open(RUN_KEY), expectedResumed);
+
+		return journal;
+	}
+
+	private Map<String, Long> createBatch(Object... inumsAndHashCodes) {
+		Map<String, Long> result = new LinkedHashMap<String, Long>();
+		for (int i = 0; i < inumsAndHashCodes.length; i += 2) {
+			result.put((String) inumsAndHashCodes[i], (Long) inumsAndHashCodes[i + 1]);
+		}
+
+		return result;
+	}
+
+}
@@ -0,0 +1,240 @@
+/*
+ * oxTrust is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2014, Gluu
+ */
+
+package org.gluu.oxtrust.ldap.cache.service;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.testng.annotations.Test;
+
+/**
+ * Test class for CacheRefreshSnapshot
+ */
+public class CacheRefreshSnapshotTest {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	@Test
+	public void testCreateAndWrap() {
+		InumHashCodeMap map = new InumHashCodeMap();
+		map.put("inum-3", 3L);
+		map.put("inum-1", Long.MIN_VALUE);
+		map.put("inum-2", Long.MAX_VALUE);
+
+		CacheRefreshSnapshot snapshot = CacheRefreshSnapshot.wrap(copy(
+				CacheRefreshSnapshot.create(map, CacheRefreshFingerprintAlgorithm.FNV1A_64).getData()));
+
+		assertEquals(snapshot.getAlgorithm(), CacheRefreshFingerprintAlgorithm.FNV1A_64);
+		assertEquals(snapshot.size(), 3);
+		assertEquals(snapshot.getInum(0), "inum-1");
+		assertEquals(snapshot.getInum(1), "inum-2");
+		assertEquals(snapshot.getInum(2), "inum-3");
+		assertEquals(snapshot.findHashCode("inum-1"), Long.valueOf(Long.MIN_VALUE));
+		assertEquals(snapshot.findHashCode("inum-2"), Long.valueOf(Long.MAX_VALUE));
+		assertEquals(snapshot.findHashCode("inum-3"), Long.valueOf(3L));
+		assertNull(snapshot.findHashCode("inum-0"));
+		assertNull(snapshot.findHashCode("inum-4"));
+		assertNull(snapshot.findHashCode("inum-"));
+	}
+
+	@Test
+	public void testEmptySnapshot() {
+		CacheRefreshSnapshot snapshot = CacheRefreshSnapshot.wrap(copy(
+				CacheRefreshSnapshot.create(new InumHashCodeMap(), CacheRefreshFingerprintAlgorithm.LEGACY).getData()));
+
+		assertEquals(snapshot.size(), 0);
+		assertNull(snapshot.findHashCode("inum"));
+		assertTrue(snapshot.diff(null).getAddedInums().isEmpty());
+	}
+
+	@Test
+	public void testNonAsciiInums() {
+		InumHashCodeMap map = new InumHashCodeMap();
+		map.put("\u00e9", 2L);
+		map.put("z", 1L);
+		map.put("\u4e2d", 3L);
+
+		CacheRefreshSnapshot snapshot = CacheRefreshSnapshot.create(map, CacheRefreshFingerprintAlgorithm.FNV1A_64);
+
+		// Records are ordered by UTF-8 bytes
+		assertEquals(snapshot.getInum(0), "z");
+		assertEquals(snapshot.getInum(1), "\u00e9");
+		assertEquals(snapshot.getInum(2), "\u4e2d");
+		assertEquals(snapshot.findHashCode("\u00e9"), Long.valueOf(2L));
+		assertEquals(snapshot.findHashCode("\u4e2d"), Long.valueOf(3L));
+	}
+
+	@Test
+	public void testWrapVersion1() {
+		CacheRefreshSnapshot snapshot = CacheRefreshSnapshot
+				.wrap(createVersion1(new String[] { "a", "bb", "ccc" }, new int[] { 1, -2, 3 }));
+
+		assertEquals(snapshot.getAlgorithm(), CacheRefreshFingerprintAlgorithm.LEGACY);
+		assertEquals(snapshot.size(), 3);
+		assertEquals(snapshot.getInum(1), "bb");
+		assertEquals(snapshot.findHashCode("a"), Long.valueOf(1L));
+		assertEquals(snapshot.findHashCode("bb"), Long.valueOf(-2L));
+		assertEquals(snapshot.findHashCode("ccc"), Long.valueOf(3L));
+		assertNull(snapshot.findHashCode("b"));
+	}
+
+	@Test(expectedExceptions = IllegalArgumentException.class)
+	public void testWrapInvalidMagic() {
+		ByteBuffer buffer = createVersion1(new String[] { "a" }, new int[] { 1 });
+		buffer.putInt(0, 0);
+
+		CacheRefreshSnapshot.wrap(buffer);
+	}
+
+	@Test(expectedExceptions = IllegalArgumentException.class)
+	public void testWrapUnsupportedVersion() {
+		ByteBuffer buffer = createVersion1(new String[] { "a" }, new int[] { 1 });
+		buffer.putInt(4, 3);
+
+		CacheRefreshSnapshot.wrap(buffer);
+	}
+
+	@Test(expectedExceptions = IllegalArgumentException.class)
+	public void testWrapTruncated() {
+		ByteBuffer buffer = createVersion1(new String[] { "a", "b" }, new int[] { 1, 2 });
+		buffer.limit(buffer.limit() - 1);
+
+		CacheRefreshSnapshot.wrap(buffer);
+	}
+
+	@Test(expectedExceptions = IllegalArgumentException.class)
+	public void testWrapDecreasingOffset() {
+		ByteBuffer buffer = createVersion1(new String[] { "a", "bb", "ccc" }, new int[] { 1, 2, 3 });
+		// Offsets of records are 0, 1 and 3
+		buffer.putInt(16 + 2 * 8, 0);
+
+		CacheRefreshSnapshot.wrap(buffer);
+	}
+
+	@Test(expectedExceptions = IllegalArgumentException.class)
+	public void testWrapOffsetOutsideOfPool() {
+		ByteBuffer buffer = createVersion1(new String[] { "a", "bb", "ccc" }, new int[] { 1, 2, 3 });
+		buffer.putInt(16 + 2 * 8, 7);
+
+		CacheRefreshSnapshot.wrap(buffer);
+	}
+
+	@Test(expectedExceptions = IllegalArgumentException.class)
+	public void testWrapNegativeOffset() {
+		ByteBuffer buffer = createVersion1(new String[] { "a", "bb" }, new int[] { 1, 2 });
+		buffer.putInt(16, -1);
+
+		CacheRefreshSnapshot.wrap(buffer);
+	}
+
+	@Test(expectedExceptions = IllegalArgumentException.class)
+	public void testWrapTooShort() {
+		CacheRefreshSnapshot.wrap(ByteBuffer.allocate(8));
+	}
+
+	@Test
+	public void testDiff() {
+		InumHashCodeMap prevMap = new InumHashCodeMap();
+		prevMap.put("a", 1L);
+		prevMap.put("b", 2L);
+		prevMap.put("c", 3L);
+		prevMap.put("e", 5L);
+
+		InumHashCodeMap currMap = new InumHashCodeMap();
+		currMap.put("b", 2L);
+		currMap.put("c", 30L);
+		currMap.put("d", 4L);
+		currMap.put("f", 6L);
+
+		CacheRefreshSnapshot prevSnapshot = CacheRefreshSnapshot.create(prevMap, CacheRefreshFingerprintAlgorithm.FNV1A_64);
+		CacheRefreshSnapshot currSnapshot = CacheRefreshSnapshot.create(currMap, CacheRefreshFingerprintAlgorithm.FNV1A_64);
+
+		CacheRefreshSnapshotDiff diff = currSnapshot.diff(prevSnapshot);
+		assertEquals(diff.getAddedInums(), Arrays.asList("d", "f"));
+		assertEquals(diff.getChangedInums(), Collections.singletonList("c"));
+		assertEquals(diff.getRemovedInums(), Arrays.asList("a", "e"));
+
+		CacheRefreshSnapshotDiff partialDiff = currSnapshot.diff(prevSnapshot, false);
+		assertEquals(partialDiff.getAddedInums(), Arrays.asList("d", "f"));
+		assertEquals(partialDiff.getChangedInums(), Collections.singletonList("c"));
+		assertTrue(partialDiff.getRemovedInums().isEmpty());
+
+		CacheRefreshSnapshotDiff initialDiff = currSnapshot.diff(null);
+		assertEquals(initialDiff.getAddedInums(), Arrays.asList("b", "c", "d", "f"));
+		assertTrue(initialDiff.getChangedInums().isEmpty());
+		assertTrue(initialDiff.getRemovedInums().isEmpty());
+	}
+
+	@Test
+	public void testDiffWithVersion1() {
+		CacheRefreshSnapshot prevSnapshot = CacheRefreshSnapshot
+				.wrap(createVersion1(new String[] { "a", "b" }, new int[] { 1, 2 }));
+
+		InumHashCodeMap currMap = new InumHashCodeMap();
+		currMap.put("a", 1L);
+		currMap.put("b", 3L);
+		CacheRefreshSnapshot currSnapshot = CacheRefreshSnapshot.create(currMap, CacheRefreshFingerprintAlgorithm.LEGACY);
+
+		CacheRefreshSnapshotDiff diff = currSnapshot.diff(prevSnapshot);
+		assertTrue(diff.getAddedInums().isEmpty());
+		assertEquals(diff.getChangedInums(), Collections.singletonList("b"));
+		assertTrue(diff.getRemovedInums().isEmpty());
+	}
+
+	@Test
+	public void testCopyTo() {
+		InumHashCodeMap map = new InumHashCodeMap();
+		map.put("a", 1L);
+		map.put("\u00e9", 2L);
+
+		InumHashCodeMap copy = new InumHashCodeMap();
+		CacheRefreshSnapshot.create(map, CacheRefreshFingerprintAlgorithm.FNV1A_64).copyTo(copy);
+
+		assertEquals(copy.size(), 2);
+		assertEquals(copy.get("a", -1L), 1L);
+		assertEquals(copy.get("\u00e9", -1L), 2L);
+	}
+
+	private ByteBuffer copy(ByteBuffer data) {
+		ByteBuffer result = ByteBuffer.allocate(data.remaining());
+		result.put(data);
+		result.flip();
+
+		return result;
+	}
+
+	private ByteBuffer createVersion1(String[] inums, int[] hashCodes) {
+		int poolSize = 0;
+		for (String inum : inums) {
+			poolSize += inum.getBytes(UTF8).length;
+		}
+
+		ByteBuffer buffer = ByteBuffer.allocate(16 + inums.length * 8 + poolSize);
+		buffer.putInt(CacheRefreshSnapshot.MAGIC).putInt(CacheRefreshSnapshot.VERSION_1).putInt(inums.length)
+				.putInt(poolSize);
+
+		int poolOffset = 0;
+		for (int i = 0; i < inums.length; i++) {
+			buffer.putInt(poolOffset).putInt(hashCodes[i]);
+			poolOffset += inums[i].getBytes(UTF8).length;
+		}
+
+		for (String inum : inums) {
+			buffer.put(inum.getBytes(UTF8));
+		}
+		buffer.flip();
+
+		return buffer;
+	}
+
+}
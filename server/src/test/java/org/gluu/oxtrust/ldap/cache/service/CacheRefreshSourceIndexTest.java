@@ -0,0 +1,131 @@
+/*
+ * oxTrust is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2014, Gluu
+ */
+
+package org.gluu.oxtrust.ldap.cache.service;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.gluu.oxtrust.ldap.cache.model.CacheCompoundKey;
+import org.gluu.oxtrust.ldap.cache.model.GluuInumMap;
+import org.gluu.oxtrust.ldap.cache.model.GluuSimplePerson;
+import org.gluu.oxtrust.model.GluuCustomAttribute;
+import org.testng.annotations.Test;
+
+/**
+ * Test class for CacheRefreshSourceIndex
+ */
+public class CacheRefreshSourceIndexTest {
+
+	private static final String[] KEY_ATTRIBUTES = { "uid" };
+
+	@Test
+	public void testKeysDifferingByCaseAreDistinct() {
+		CacheRefreshSourceIndex sourceIndex = createSourceIndex(createInumMaps("inum-1", "John"));
+		sourceIndex.addSourcePersons(Arrays.asList(createPerson("cn=1,o=source", "John"),
+				createPerson("cn=2,o=source", "john")), 0);
+		sourceIndex.removeDuplicateKeys();
+
+		assertEquals(sourceIndex.getCountUniqueEntries(), 2);
+		assertEquals(sourceIndex.getSourcePersons().get(new CacheCompoundKey(new String[] { "John" }, null, null))
+				.getDn(), "cn=1,o=source");
+		assertEquals(sourceIndex.getSourcePersons().get(new CacheCompoundKey(new String[] { "john" }, null, null))
+				.getDn(), "cn=2,o=source");
+	}
+
+	@Test
+	public void testDuplicateKeysAreSkipped() {
+		CacheRefreshSourceIndex sourceIndex = createSourceIndex(new HashMap<CacheCompoundKey, GluuInumMap>());
+		sourceIndex.addSourcePersons(Arrays.asList(createPerson("cn=1,o=source", "john"),
+				createPerson("cn=2,o=source", "john"), createPerson("cn=3,o=source", "mary")), 0);
+		sourceIndex.removeDuplicateKeys();
+
+		assertEquals(sourceIndex.getCountUniqueEntries(), 1);
+		assertTrue(sourceIndex.getSourcePersons().containsKey(new CacheCompoundKey(new String[] { "mary" }, null, null)));
+	}
+
+	@Test
+	public void testSameDnIsAddedOnce() {
+		CacheRefreshSourceIndex sourceIndex = createSourceIndex(new HashMap<CacheCompoundKey, GluuInumMap>());
+		sourceIndex.addSourcePersons(Arrays.asList(createPerson("cn=1,o=source", "john")), 0);
+		sourceIndex.addSourcePersons(Arrays.asList(createPerson("CN=1,o=source", "mary")), 0);
+		sourceIndex.removeDuplicateKeys();
+
+		assertEquals(sourceIndex.getCountUniqueEntries(), 1);
+		assertTrue(sourceIndex.getSourcePersons().containsKey(new CacheCompoundKey(new String[] { "john" }, null, null)));
+	}
+
+	@Test
+	public void testSameDnFromEarlierSourceWins() {
+		for (boolean earlierSourceFirst : new boolean[] { true, false }) {
+			CacheRefreshSourceIndex sourceIndex = createSourceIndex(new HashMap<CacheCompoundKey, GluuInumMap>());
+			if (earlierSourceFirst) {
+				sourceIndex.addSourcePersons(Arrays.asList(createPerson("cn=1,o=source", "john")), 0);
+				sourceIndex.addSourcePersons(Arrays.asList(createPerson("CN=1,o=source", "mary"),
+						createPerson("cn=2,o=source", "john")), 1);
+			} else {
+				sourceIndex.addSourcePersons(Arrays.asList(createPerson("CN=1,o=source", "mary"),
+						createPerson("cn=2,o=source", "john")), 1);
+				sourceIndex.addSourcePersons(Arrays.asList(createPerson("cn=1,o=source", "john")), 0);
+			}
+			sourceIndex.removeDuplicateKeys();
+
+			// Second source entry 'cn=1,o=source' is ignored. Key 'mary' isn't loaded, key 'john' is duplicated
+			assertEquals(sourceIndex.getCountUniqueEntries(), 0, "Earlier source first: " + earlierSourceFirst);
+			assertTrue(sourceIndex.getSourcePersons().isEmpty());
+		}
+	}
+
+	@Test
+	public void testReplacedEntryIsNotKept() {
+		for (boolean earlierSourceFirst : new boolean[] { true, false }) {
+			CacheRefreshSourceIndex sourceIndex = createSourceIndex(new HashMap<CacheCompoundKey, GluuInumMap>());
+			if (earlierSourceFirst) {
+				sourceIndex.addSourcePersons(Arrays.asList(createPerson("cn=1,o=source", "john")), 0);
+				sourceIndex.addSourcePersons(Arrays.asList(createPerson("cn=1,o=source", "mary")), 1);
+			} else {
+				sourceIndex.addSourcePersons(Arrays.asList(createPerson("cn=1,o=source", "mary")), 1);
+				sourceIndex.addSourcePersons(Arrays.asList(createPerson("cn=1,o=source", "john")), 0);
+			}
+			sourceIndex.removeDuplicateKeys();
+
+			assertEquals(sourceIndex.getCountUniqueEntries(), 1);
+			assertEquals(sourceIndex.getSourcePersons().keySet(),
+					Collections.singleton(new CacheCompoundKey(new String[] { "john" }, null, null)));
+		}
+	}
+
+	private CacheRefreshSourceIndex createSourceIndex(Map<CacheCompoundKey, GluuInumMap> inumMaps) {
+		return new CacheRefreshSourceIndex(KEY_ATTRIBUTES, new Fnv64Fingerprint(new String[] { "uid" }), inumMaps,
+				null, null, true, null);
+	}
+
+	private Map<CacheCompoundKey, GluuInumMap> createInumMaps(String inum, String uid) {
+		GluuInumMap inumMap = new GluuInumMap();
+		inumMap.setInum(inum);
+		inumMap.setPrimaryKeyAttrName("uid");
+		inumMap.setPrimaryKeyValues(new String[] { uid });
+
+		Map<CacheCompoundKey, GluuInumMap> result = new HashMap<CacheCompoundKey, GluuInumMap>();
+		result.put(new CacheCompoundKey(inumMap.getPrimaryKeyValues(), null, null), inumMap);
+
+		return result;
+	}
+
+	private GluuSimplePerson createPerson(String dn, String uid) {
+		GluuSimplePerson person = new GluuSimplePerson();
+		person.setDn(dn);
+		person.getCustomAttributes().add(new GluuCustomAttribute("uid", uid));
+
+		return person;
+	}
+
+}
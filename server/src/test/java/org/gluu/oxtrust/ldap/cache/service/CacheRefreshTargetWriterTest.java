@@ -0,0 +1,153 @@
+/*
+ * oxTrust is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2014, Gluu
+ */
+
+package org.gluu.oxtrust.ldap.cache.service;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.gluu.oxtrust.ldap.cache.conf.CacheRefreshTuningConfiguration;
+import org.slf4j.LoggerFactory;
+import org.testng.annotations.Test;
+
+/**
+ * Test class for CacheRefreshTargetWriter
+ */
+public class CacheRefreshTargetWriterTest {
+
+	private static final int RETRIES = 2;
+
+	@Test
+	public void testExceptionIsRetried() throws Exception {
+		for (int threadsCount : new int[] { 1, 4 }) {
+			AtomicInteger calls = new AtomicInteger();
+			Map<String, String> writeErrors = new ConcurrentHashMap<String, String>();
+
+			List<String> written = createWriter(threadsCount)
+					.writeEntries(Collections.singletonMap("inum-1", failingWriter(calls, RETRIES)), writeErrors);
+
+			assertEquals(written, Collections.singletonList("inum-1"));
+			assertEquals(calls.get(), RETRIES + 1);
+			assertTrue(writeErrors.isEmpty());
+		}
+	}
+
+	@Test
+	public void testFalseResultIsNotRetried() throws Exception {
+		for (int threadsCount : new int[] { 1, 4 }) {
+			AtomicInteger calls = new AtomicInteger();
+			Map<String, String> writeErrors = new ConcurrentHashMap<String, String>();
+
+			List<String> written = createWriter(threadsCount)
+					.writeEntries(Collections.singletonMap("inum-1", resultWriter(calls, false)), writeErrors);
+
+			assertTrue(written.isEmpty());
+			assertEquals(calls.get(), 1);
+			assertEquals(writeErrors.get("inum-1"), CacheRefreshRetryQueue.ERROR_NOT_WRITTEN);
+		}
+	}
+
+	@Test
+	public void testRetriesAreLimited() throws Exception {
+		for (int threadsCount : new int[] { 1, 4 }) {
+			AtomicInteger calls = new AtomicInteger();
+			Map<String, String> writeErrors = new ConcurrentHashMap<String, String>();
+
+			List<String> written = createWriter(threadsCount).writeEntries(
+					Collections.singletonMap("inum-1", failingWriter(calls, Integer.MAX_VALUE)), writeErrors);
+
+			assertTrue(written.isEmpty());
+			assertEquals(calls.get(), RETRIES + 1);
+			assertEquals(writeErrors.get("inum-1"), IllegalStateException.class.getName());
+		}
+	}
+
+	@Test
+	public void testWrittenEntriesKeepOrder() throws Exception {
+		AtomicInteger calls = new AtomicInteger();
+		Map<String, Callable<Boolean>> entryWriters = new LinkedHashMap<String, Callable<Boolean>>();
+		List<String> expected = new ArrayList<String>();
+		for (int i = 0; i < 20; i++) {
+			entryWriters.put("inum-" + i, resultWriter(calls, i % 3 != 0));
+			if (i % 3 != 0) {
+				expected.add("inum-" + i);
+			}
+		}
+
+		Map<String, String> writeErrors = new ConcurrentHashMap<String, String>();
+		List<String> written = createWriter(4).writeEntries(entryWriters, writeErrors);
+
+		assertEquals(written, expected);
+		assertEquals(calls.get(), entryWriters.size());
+		assertEquals(writeErrors.size(), entryWriters.size() - expected.size());
+	}
+
+	private Callable<Boolean> failingWriter(final AtomicInteger calls, final int failures) {
+		return new Callable<Boolean>() {
+			@Override
+			public Boolean call() {
+				if (calls.incrementAndGet() <= failures) {
+					throw new IllegalStateException("Target server is not available");
+				}
+
+				return true;
+			}
+		};
+	}
+
+	private Callable<Boolean> resultWriter(final AtomicInteger calls, final boolean result) {
+		return new Callable<Boolean>() {
+			@Override
+			public Boolean call() {
+				calls.incrementAndGet();
+
+				return result;
+			}
+		};
+	}
+
+	private CacheRefreshTargetWriter createWriter(final int threadsCount) throws Exception {
+		CacheRefreshTuningConfiguration cacheRefreshTuningConfiguration = new CacheRefreshTuningConfiguration() {
+			@Override
+			public int getTargetWriteThreads() {
+				return threadsCount;
+			}
+
+			@Override
+			public int getTargetWriteRetries() {
+				return RETRIES;
+			}
+
+			@Override
+			public long getTargetWriteRetryDelayMillis() {
+				return 1;
+			}
+		};
+
+		CacheRefreshTargetWriter cacheRefreshTargetWriter = new CacheRefreshTargetWriter();
+		setField(cacheRefreshTargetWriter, "log", LoggerFactory.getLogger(CacheRefreshTargetWriter.class));
+		setField(cacheRefreshTargetWriter, "cacheRefreshTuningConfiguration", cacheRefreshTuningConfiguration);
+
+		return cacheRefreshTargetWriter;
+	}
+
+	private void setField(Object object, String name, Object value) throws Exception {
+		Field field = object.getClass().getDeclaredField(name);
+		field.setAccessible(true);
+		field.set(object, value);
+	}
+
+}
@@ -0,0 +1,114 @@
+/*
+ * oxTrust is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2014, Gluu
+ */
+
+package org.gluu.oxtrust.ldap.cache.service;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotEquals;
+
+import java.util.Locale;
+
+import org.gluu.oxtrust.ldap.cache.model.GluuSimplePerson;
+import org.gluu.oxtrust.model.GluuCustomAttribute;
+import org.testng.annotations.Test;
+
+/**
+ * Test class for Fnv64Fingerprint
+ */
+public class Fnv64FingerprintTest {
+
+	@Test
+	public void testAttributesOrderAndCase() {
+		Fnv64Fingerprint fingerprint1 = new Fnv64Fingerprint(new String[] { "uid", "mail" });
+		Fnv64Fingerprint fingerprint2 = new Fnv64Fingerprint(new String[] { "MAIL", "uid", "Uid" });
+
+		GluuSimplePerson person1 = createPerson("uid", new String[] { "user" }, "mail", new String[] { "user@example.com" });
+		GluuSimplePerson person2 = createPerson("Mail", new String[] { "user@example.com" }, "UID", new String[] { "user" });
+
+		assertEquals(fingerprint1.calculate(person1), fingerprint2.calculate(person2));
+	}
+
+	@Test
+	public void testMultiValuedOrder() {
+		Fnv64Fingerprint fingerprint = new Fnv64Fingerprint(new String[] { "memberOf" });
+
+		GluuSimplePerson person1 = createPerson("memberOf", new String[] { "a", "b" });
+		GluuSimplePerson person2 = createPerson("memberOf", new String[] { "b", "a" });
+
+		assertEquals(fingerprint.calculate(person1), fingerprint.calculate(person2));
+
+		// Values of person aren't reordered
+		assertEquals(person2.getCustomAttributes().get(0).getValues()[0], "b");
+	}
+
+	@Test
+	public void testNotMappedAttributesIgnored() {
+		Fnv64Fingerprint fingerprint = new Fnv64Fingerprint(new String[] { "uid" });
+
+		GluuSimplePerson person1 = createPerson("uid", new String[] { "user" });
+		GluuSimplePerson person2 = createPerson("uid", new String[] { "user" }, "cn", new String[] { "User" });
+
+		assertEquals(fingerprint.calculate(person1), fingerprint.calculate(person2));
+	}
+
+	@Test
+	public void testValuesChange() {
+		Fnv64Fingerprint fingerprint = new Fnv64Fingerprint(new String[] { "uid", "cn" });
+
+		long hash = fingerprint.calculate(createPerson("uid", new String[] { "ab" }, "cn", new String[] { "c" }));
+
+		assertNotEquals(fingerprint.calculate(createPerson("uid", new String[] { "ab" }, "cn", new String[] { "d" })), hash);
+		assertNotEquals(fingerprint.calculate(createPerson("uid", new String[] { "a" }, "cn", new String[] { "bc" })), hash);
+		assertNotEquals(fingerprint.calculate(createPerson("uid", new String[] { "ab" })), hash);
+		assertNotEquals(fingerprint.calculate(createPerson("uid", new String[] { "ab", "c" })), hash);
+	}
+
+	@Test
+	public void testDnAndSourceServerChange() {
+		Fnv64Fingerprint fingerprint = new Fnv64Fingerprint(new String[] { "uid" });
+
+		GluuSimplePerson person = createPerson("uid", new String[] { "user" });
+		person.setDn("uid=user,ou=people,o=source");
+		person.setSourceServerName("source1");
+		long hash = fingerprint.calculate(person);
+
+		// DN is case insensitive
+		person.setDn("UID=user,OU=people,O=source");
+		assertEquals(fingerprint.calculate(person), hash);
+
+		person.setDn("uid=user,ou=staff,o=source");
+		assertNotEquals(fingerprint.calculate(person), hash);
+
+		person.setDn("uid=user,ou=people,o=source");
+		person.setSourceServerName("source2");
+		assertNotEquals(fingerprint.calculate(person), hash);
+	}
+
+	@Test
+	public void testDefaultLocaleIndependent() {
+		GluuSimplePerson person = createPerson("uid", new String[] { "user" }, "mail", new String[] { "user@example.com" });
+		long hash = new Fnv64Fingerprint(new String[] { "UID", "MAIL" }).calculate(person);
+
+		Locale defaultLocale = Locale.getDefault();
+		try {
+			// Dotted and dotless i are different in Turkish lower case
+			Locale.setDefault(new Locale("tr", "TR"));
+			assertEquals(new Fnv64Fingerprint(new String[] { "UID", "MAIL" }).calculate(person), hash);
+		} finally {
+			Locale.setDefault(defaultLocale);
+		}
+	}
+
+	private GluuSimplePerson createPerson(Object... nameValues) {
+		GluuSimplePerson person = new GluuSimplePerson();
+		for (int i = 0; i < nameValues.length; i += 2) {
+			person.getCustomAttributes().add(new GluuCustomAttribute((String) nameValues[i], (String[]) nameValues[i + 1]));
+		}
+
+		return person;
+	}
+
+}
@@ -0,0 +1,124 @@
+/*
+ * oxTrust is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2014, Gluu
+ */
+
+package org.gluu.oxtrust.ldap.cache.service;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.nio.charset.Charset;
+
+import org.testng.annotations.Test;
+
+/**
+ * Test class for InumHashCodeMap
+ */
+public class InumHashCodeMapTest {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	@Test
+	public void testPutAndGet() {
+		InumHashCodeMap map = new InumHashCodeMap();
+		map.put("inum-1", 1L);
+		map.put("inum-2", -2L);
+
+		assertEquals(map.size(), 2);
+		assertTrue(map.containsKey("inum-1"));
+		assertFalse(map.containsKey("inum-3"));
+		assertFalse(map.containsKey(null));
+		assertEquals(map.get("inum-1", 0L), 1L);
+		assertEquals(map.get("inum-2", 0L), -2L);
+		assertEquals(map.get("inum-3", 7L), 7L);
+	}
+
+	@Test
+	public void testOverwrite() {
+		InumHashCodeMap map = new InumHashCodeMap();
+		map.put("inum", 1L);
+		map.put("inum", 2L);
+
+		assertEquals(map.size(), 1);
+		assertEquals(map.get("inum", 0L), 2L);
+		assertEquals(map.getSortedSlots().length, 1);
+	}
+
+	@Test
+	public void testResize() {
+		InumHashCodeMap map = new InumHashCodeMap(1);
+		for (int i = 0; i < 10000; i++) {
+			map.put("inum-" + i, i);
+		}
+
+		assertEquals(map.size(), 10000);
+		for (int i = 0; i < 10000; i++) {
+			assertEquals(map.get("inum-" + i, -1L), (long) i);
+		}
+		assertFalse(map.containsKey("inum-10000"));
+	}
+
+	@Test
+	public void testNonAsciiKeys() {
+		InumHashCodeMap map = new InumHashCodeMap(1);
+		map.put("\u00e9", 1L);
+		map.put("e", 2L);
+		map.put("\u4e2d\u6587", 3L);
+		map.put("\ud83d\ude00", 4L);
+
+		assertEquals(map.size(), 4);
+		assertEquals(map.get("\u00e9", 0L), 1L);
+		assertEquals(map.get("e", 0L), 2L);
+		assertEquals(map.get("\u4e2d\u6587", 0L), 3L);
+		assertEquals(map.get("\ud83d\ude00", 0L), 4L);
+		assertFalse(map.containsKey("\u4e2d"));
+	}
+
+	@Test
+	public void testPutAll() {
+		InumHashCodeMap map1 = new InumHashCodeMap(1);
+		map1.put("a", 1L);
+		map1.put("b", 2L);
+
+		InumHashCodeMap map2 = new InumHashCodeMap(1);
+		for (int i = 0; i < 100; i++) {
+			map2.put("c" + i, i);
+		}
+		map2.put("b", 20L);
+		map2.put("\u00e9", 30L);
+
+		map1.putAll(map2);
+
+		assertEquals(map1.size(), 103);
+		assertEquals(map1.get("a", 0L), 1L);
+		assertEquals(map1.get("b", 0L), 20L);
+		assertEquals(map1.get("c99", 0L), 99L);
+		assertEquals(map1.get("\u00e9", 0L), 30L);
+
+		// Source map isn't changed
+		assertEquals(map2.size(), 102);
+		assertFalse(map2.containsKey("a"));
+	}
+
+	@Test
+	public void testSortedSlots() {
+		InumHashCodeMap map = new InumHashCodeMap(1);
+		String[] inums = { "b", "\u00e9", "a", "ab", "z", "aa" };
+		for (int i = 0; i < inums.length; i++) {
+			map.put(inums[i], i);
+		}
+
+		int[] slots = map.getSortedSlots();
+		assertEquals(slots.length, inums.length);
+
+		String[] expected = { "a", "aa", "ab", "b", "z", "\u00e9" };
+		for (int i = 0; i < slots.length; i++) {
+			String inum = new String(map.getKeyPool(), map.getKeyOffset(slots[i]), map.getKeyLength(slots[i]), UTF8);
+			assertEquals(inum, expected[i]);
+		}
+	}
+
+}
@@ -0,0 +1,174 @@
+/*
+ * oxTrust is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2014, Gluu
+ */
+
+package org.gluu.oxtrust.model;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.testng.annotations.Test;
+
+/**
+ * Test class for GluuCustomPerson custom attributes lookup
+ */
+public class GluuCustomPersonTest {
+
+	@Test
+	public void testLookupIgnoresCase() {
+		GluuCustomPerson person = createPerson("uid", "mail");
+
+		assertEquals(person.getAttribute("UID"), "uid-value");
+		assertEquals(person.getAttributeIndex("Mail"), 1);
+		assertNull(person.getAttribute("cn"));
+		assertEquals(person.getAttributeIndex("cn"), 2);
+	}
+
+	@Test
+	public void testFirstAttributeWithDuplicateName() {
+		GluuCustomPerson person = createPerson("uid", "mail", "UID");
+
+		assertEquals(person.getAttributeIndex("uid"), 0);
+	}
+
+	@Test
+	public void testSetAttributeInList() {
+		GluuCustomPerson person = createPerson("uid", "mail");
+		assertNull(person.getAttribute("cn"));
+
+		person.getCustomAttributes().set(1, new GluuCustomAttribute("cn", "cn-value"));
+
+		assertEquals(person.getAttribute("cn"), "cn-value");
+		assertNull(person.getAttribute("mail"));
+	}
+
+	@Test
+	public void testRemoveAndAddAttributeInList() {
+		GluuCustomPerson person = createPerson("uid", "mail");
+		assertNull(person.getAttribute("cn"));
+
+		person.getCustomAttributes().remove(0);
+		person.getCustomAttributes().add(new GluuCustomAttribute("cn", "cn-value"));
+
+		assertEquals(person.getAttribute("cn"), "cn-value");
+		assertEquals(person.getAttributeIndex("cn"), 1);
+		assertEquals(person.getAttributeIndex("mail"), 0);
+		assertNull(person.getAttribute("uid"));
+	}
+
+	@Test
+	public void testRenameAttribute() {
+		GluuCustomPerson person = createPerson("uid", "mail");
+		assertEquals(person.getAttribute("mail"), "mail-value");
+
+		person.getCustomAttributes().get(1).setName("cn");
+
+		assertNull(person.getAttribute("mail"));
+		assertEquals(person.getAttribute("cn"), "mail-value");
+	}
+
+	@Test
+	public void testLookupNewNameAfterRename() {
+		GluuCustomPerson person = createPerson("uid", "mail");
+		assertEquals(person.getAttribute("uid"), "uid-value");
+
+		person.getCustomAttributes().get(1).setName("cn");
+
+		assertEquals(person.getAttribute("cn"), "mail-value");
+		assertEquals(person.getAttributeIndex("cn"), 1);
+	}
+
+	@Test
+	public void testLookupAfterChangeViaSharedList() {
+		GluuCustomPerson person = new GluuCustomPerson();
+
+		List<GluuCustomAttribute> customAttributes = new ArrayList<GluuCustomAttribute>();
+		customAttributes.add(new GluuCustomAttribute("uid", "uid-value"));
+		person.setCustomAttributes(customAttributes);
+		assertEquals(person.getAttribute("uid"), "uid-value");
+
+		customAttributes.add(new GluuCustomAttribute("cn", "cn-value"));
+		assertEquals(person.getAttribute("cn"), "cn-value");
+
+		customAttributes.add(0, new GluuCustomAttribute("mail", "mail-value"));
+		assertEquals(person.getAttributeIndex("cn"), 2);
+
+		customAttributes.clear();
+		assertNull(person.getAttribute("uid"));
+		assertNull(person.getAttribute("cn"));
+	}
+
+	@Test
+	public void testModifyListViaIteratorAndSubList() {
+		GluuCustomPerson person = createPerson("uid", "mail", "cn");
+		assertEquals(person.getAttributeIndex("cn"), 2);
+
+		Iterator<GluuCustomAttribute> it = person.getCustomAttributes().iterator();
+		it.next();
+		it.remove();
+		assertEquals(person.getAttributeIndex("cn"), 1);
+		assertNull(person.getAttribute("uid"));
+
+		person.getCustomAttributes().subList(0, 1).clear();
+		assertEquals(person.getAttributeIndex("cn"), 0);
+		assertNull(person.getAttribute("mail"));
+
+		person.getCustomAttributes().add(0, new GluuCustomAttribute("sn", "sn-value"));
+		assertEquals(person.getAttributeIndex("cn"), 1);
+		assertEquals(person.getAttribute("sn"), "sn-value");
+	}
+
+	@Test
+	public void testSetListIsNotCopied() {
+		GluuCustomPerson person = new GluuCustomPerson();
+
+		List<GluuCustomAttribute> customAttributes = new ArrayList<GluuCustomAttribute>();
+		person.setCustomAttributes(customAttributes);
+		person.getCustomAttributes().add(new GluuCustomAttribute("cn", "cn-value"));
+
+		assertEquals(customAttributes.size(), 1);
+		assertEquals(person.getAttribute("cn"), "cn-value");
+	}
+
+	@Test
+	public void testReplaceList() {
+		GluuCustomPerson person = createPerson("uid", "mail");
+		assertEquals(person.getAttribute("mail"), "mail-value");
+
+		List<GluuCustomAttribute> customAttributes = new ArrayList<GluuCustomAttribute>();
+		customAttributes.add(new GluuCustomAttribute("cn", "cn-value"));
+		customAttributes.add(new GluuCustomAttribute("mail", "new-value"));
+		person.setCustomAttributes(customAttributes);
+
+		assertEquals(person.getAttribute("mail"), "new-value");
+		assertEquals(person.getAttribute("cn"), "cn-value");
+	}
+
+	@Test
+	public void testSetAndRemoveAttribute() {
+		GluuCustomPerson person = createPerson("uid", "mail");
+
+		person.setAttribute("MAIL", "new-value");
+		assertEquals(person.getAttribute("mail"), "new-value");
+
+		person.removeAttribute("uid");
+		assertNull(person.getAttribute("uid"));
+		assertEquals(person.getAttribute("mail"), "new-value");
+	}
+
+	private GluuCustomPerson createPerson(String... attributeNames) {
+		GluuCustomPerson person = new GluuCustomPerson();
+		for (String attributeName : attributeNames) {
+			person.getCustomAttributes().add(new GluuCustomAttribute(attributeName, attributeName + "-value"));
+		}
+
+		return person;
+	}
+
+}
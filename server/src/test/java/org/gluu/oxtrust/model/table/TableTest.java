@@ -0,0 +1,130 @@
+/*
+ * oxTrust is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2014, Gluu
+ */
+
+package org.gluu.oxtrust.model.table;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+
+import java.lang.reflect.Field;
+
+import org.testng.annotations.Test;
+
+/**
+ * Test class for Table
+ */
+public class TableTest {
+
+	@Test
+	public void testEmptyTable() {
+		Table table = new Table();
+
+		assertEquals(table.getCountCols(), -1);
+		assertEquals(table.getCountRows(), -1);
+		assertEquals(table.getCellValue(0, 0), "");
+
+		table.trimToSize();
+		assertEquals(table.getCellValue(0, 0), "");
+	}
+
+	@Test
+	public void testCountsAreMaxIndexes() {
+		Table table = new Table();
+		table.setCellValue(2, 0, "a");
+		table.addCell(new Cell(0, 5, "b"));
+
+		assertEquals(table.getCountCols(), 2);
+		assertEquals(table.getCountRows(), 5);
+		assertEquals(table.getCellValue(2, 0), "a");
+		assertEquals(table.getCellValue(0, 5), "b");
+	}
+
+	@Test
+	public void testMissingCells() {
+		Table table = new Table();
+		table.setCellValue(0, 0, "a");
+		table.setCellValue(2, 3, "b");
+		table.setCellValue(0, 1, null);
+
+		// Cell of column without values
+		assertEquals(table.getCellValue(1, 0), "");
+		// Cell which wasn't set or was set to null
+		assertEquals(table.getCellValue(2, 0), "");
+		assertEquals(table.getCellValue(0, 1), "");
+		// Cells out of table
+		assertEquals(table.getCellValue(0, 100), "");
+		assertEquals(table.getCellValue(100, 0), "");
+		assertEquals(table.getCellValue(-1, 0), "");
+		assertEquals(table.getCellValue(0, -1), "");
+	}
+
+	@Test
+	public void testRowsGrowth() {
+		Table table = new Table();
+		for (int row = 0; row < 1000; row++) {
+			table.setCellValue(0, row, "r" + row);
+		}
+		table.setCellValue(1, 20, "x");
+
+		assertEquals(table.getCountRows(), 999);
+		for (int row = 0; row < 1000; row++) {
+			assertEquals(table.getCellValue(0, row), "r" + row);
+		}
+		assertEquals(table.getCellValue(1, 20), "x");
+		assertEquals(table.getCellValue(1, 19), "");
+	}
+
+	@Test
+	public void testColumnsGrowth() {
+		Table table = new Table();
+		for (int col = 0; col < 100; col++) {
+			table.setCellValue(col, col % 3, "c" + col);
+		}
+
+		assertEquals(table.getCountCols(), 99);
+		assertEquals(table.getCountRows(), 2);
+		for (int col = 0; col < 100; col++) {
+			assertEquals(table.getCellValue(col, col % 3), "c" + col);
+		}
+	}
+
+	@Test
+	public void testTrimToSize() throws Exception {
+		Table table = new Table();
+		table.setCellValue(0, 0, "a");
+		table.setCellValue(0, 2, "b");
+		table.setCellValue(4, 1, "c");
+
+		table.trimToSize();
+
+		String[][] columns = getColumns(table);
+		assertEquals(columns.length, 5);
+		assertEquals(columns[0].length, 3);
+		assertNull(columns[1]);
+		assertEquals(columns[4].length, 3);
+
+		assertEquals(table.getCellValue(0, 0), "a");
+		assertEquals(table.getCellValue(0, 2), "b");
+		assertEquals(table.getCellValue(4, 1), "c");
+		assertEquals(table.getCellValue(4, 2), "");
+
+		// Table can grow after trim
+		table.setCellValue(5, 20, "d");
+		table.setCellValue(0, 3, "e");
+		assertEquals(table.getCellValue(5, 20), "d");
+		assertEquals(table.getCellValue(0, 3), "e");
+		assertEquals(table.getCountCols(), 5);
+		assertEquals(table.getCountRows(), 20);
+	}
+
+	private String[][] getColumns(Table table) throws Exception {
+		Field field = Table.class.getDeclaredField("columns");
+		field.setAccessible(true);
+
+		return (String[][]) field.get(table);
+	}
+
+}
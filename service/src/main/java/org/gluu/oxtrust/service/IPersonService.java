@@ -13,6 +13,9 @@ import org.gluu.oxtrust.model.GluuCustomPerson;
 import org.gluu.oxtrust.model.User;
 import org.gluu.persist.exception.operation.DuplicateEntryException;
 import org.gluu.persist.model.AttributeData;
+import org.gluu.persist.model.BatchOperation;
+import org.gluu.persist.model.PagedResult;
+import org.gluu.persist.model.SortOrder;
 
 public interface IPersonService {
 
@@ -66,6 +69,43 @@ public interface IPersonService {
 	 */
 	public abstract List<GluuCustomPerson> searchPersons(String pattern);
 
+	/**
+	 * Search persons by pattern using server side paging and sorting
+	 * 
+	 * @param pattern
+	 *            Pattern. All persons are returned if it's empty
+	 * @param returnAttributes
+	 *            Attributes to load. All attributes are loaded if it's null
+	 * @param sortBy
+	 *            Sort attribute
+	 * @param sortOrder
+	 *            Sort order
+	 * @param start
+	 *            Index of first person in page
+	 * @param count
+	 *            Maximum count of persons in page
+	 * @return Page of persons with total count of found persons
+	 */
+	public abstract PagedResult<GluuCustomPerson> searchPersons(String pattern, String[] returnAttributes,
+			String sortBy, SortOrder sortOrder, int start, int count);
+
+	/**
+	 * Search persons by pattern with single search. Found persons are passed to
+	 * batch operation by chunks
+	 * 
+	 * @param pattern
+	 *            Pattern. All persons are found if it's empty
+	 * @param returnAttributes
+	 *            Attributes to load. All attributes are loaded if it's null
+	 * @param batchOperation
+	 *            Operation which processes each chunk of persons
+	 * @param chunkSize
+	 *            Count of persons in chunk
+	 * @return List of persons which batch operation collects
+	 */
+	public abstract List<GluuCustomPerson> searchPersons(String pattern, String[] returnAttributes,
+			BatchOperation<GluuCustomPerson> batchOperation, int chunkSize);
+
 	/**
 	 * Search persons by sample object
 	 * 
@@ -26,7 +26,10 @@ import org.gluu.oxtrust.util.OxTrustConstants;
 import org.gluu.persist.PersistenceEntryManager;
 import org.gluu.persist.exception.operation.DuplicateEntryException;
 import org.gluu.persist.model.AttributeData;
+import org.gluu.persist.model.BatchOperation;
+import org.gluu.persist.model.PagedResult;
 import org.gluu.persist.model.SearchScope;
+import org.gluu.persist.model.SortOrder;
 import org.gluu.persist.model.base.SimpleBranch;
 import org.gluu.persist.model.base.SimpleUser;
 import org.gluu.search.filter.Filter;
@@ -182,6 +185,37 @@ public class PersonService implements Serializable, IPersonService {
 		return persistenceEntryManager.findEntries(getDnForPerson(null), GluuCustomPerson.class, searchFilter);
 	}
 
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * org.gluu.oxtrust.ldap.service.IPersonService#searchPersons(java.lang.String,
+	 * java.lang.String[], java.lang.String, org.gluu.persist.model.SortOrder, int,
+	 * int)
+	 */
+	@Override
+	public PagedResult<GluuCustomPerson> searchPersons(String pattern, String[] returnAttributes, String sortBy,
+			SortOrder sortOrder, int start, int count) {
+		Filter searchFilter = StringHelper.isEmpty(pattern) ? null : buildFilter(pattern);
+		return persistenceEntryManager.findPagedEntries(getDnForPerson(null), GluuCustomPerson.class, searchFilter,
+				returnAttributes, sortBy, sortOrder, start, count, count);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * org.gluu.oxtrust.ldap.service.IPersonService#searchPersons(java.lang.String,
+	 * java.lang.String[], org.gluu.persist.model.BatchOperation, int)
+	 */
+	@Override
+	public List<GluuCustomPerson> searchPersons(String pattern, String[] returnAttributes,
+			BatchOperation<GluuCustomPerson> batchOperation, int chunkSize) {
+		Filter searchFilter = StringHelper.isEmpty(pattern) ? null : buildFilter(pattern);
+		return persistenceEntryManager.findEntries(getDnForPerson(null), GluuCustomPerson.class, searchFilter,
+				SearchScope.SUB, returnAttributes, batchOperation, 0, 0, chunkSize);
+	}
+
 	private Filter buildFilter(String pattern) {
 		String[] targetArray = new String[] { pattern };
 		Filter uidFilter = Filter.createSubstringFilter(OxConstants.UID, null, targetArray, null);